@@ -0,0 +1,24 @@
+package com.common.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口
+ * <p>
+ * 在JMH命令行参数的基础上固定开启GC分析, 每个基准同时输出吞吐量、平均耗时和分配速率(gc.alloc.rate.norm)。<br/>
+ * 例: java -jar target/benchmarks.jar SerializeBenchmark -rf json -rff serialize.json
+ *
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws Exception
+    {
+        Options options = new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,234 @@
+package com.common.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.common.tools.EmbeddedRedisServer;
+import com.common.tools.EmbeddedSentinel;
+import com.common.tools.PipelineExecute;
+import com.common.tools.RedisScript;
+import com.common.tools.RedisUtil;
+
+import redis.clients.jedis.BuilderFactory;
+
+/**
+ * RedisUtil 常用操作基准
+ * <p>
+ * 连接本机的 sentinel/master, 地址通过系统属性指定:<br/>
+ * -Dbenchmark.redis.sentinels=127.0.0.1:26379 -Dbenchmark.redis.master=master<br/>
+ * 未指定 sentinels 时启动进程内的 {@link EmbeddedRedisServer} 和 {@link EmbeddedSentinel}, 不依赖外部服务即可运行。<br/>
+ * 测得的是客户端开销加一次本机往返, 用于比较版本间的差异而不是评估服务端性能。
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(
+{
+        Mode.Throughput, Mode.AverageTime
+})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RedisUtilBenchmark
+{
+    private static final String KEY = "benchmark:string";
+
+    private static final String HASH_KEY = "benchmark:hash";
+
+    /**
+     * 值等于 ARGV[1] 时改为 ARGV[2]
+     */
+    private static final RedisScript<Long> COMPARE_AND_SET = RedisScript.of(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('SET', KEYS[1], ARGV[2]) return 1 end return 0",
+            BuilderFactory.LONG);
+
+    /**
+     * 值的字节数
+     */
+    @Param(
+    {
+            "16", "1024"
+    })
+    public int valueSize;
+
+    private RedisUtil redisUtil;
+
+    private EmbeddedRedisServer embeddedServer;
+
+    private EmbeddedSentinel embeddedSentinel;
+
+    private String value;
+
+    private String[] keys;
+
+    private List<String> objectKeys;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        String sentinels = System.getProperty("benchmark.redis.sentinels");
+        String masterName = System.getProperty("benchmark.redis.master", "master");
+        if (null == sentinels)
+        {
+            embeddedServer = new EmbeddedRedisServer(0);
+            embeddedServer.start();
+            embeddedServer.emulateScript(COMPARE_AND_SET.getSource(), (keys, args, redis) -> {
+                if (!args.get(0).equals(redis.apply(Arrays.asList("GET", keys.get(0)))))
+                {
+                    return 0L;
+                }
+                redis.apply(Arrays.asList("SET", keys.get(0), args.get(1)));
+                return 1L;
+            });
+            embeddedSentinel = new EmbeddedSentinel(masterName, embeddedServer.getHostAndPort(), 0);
+            embeddedSentinel.start();
+            sentinels = embeddedSentinel.getHostAndPort().toString();
+        }
+        redisUtil = new RedisUtil();
+        redisUtil.setSentinels(new HashSet<String>(Arrays.asList(sentinels.split(","))));
+        redisUtil.setMasterName(masterName);
+        redisUtil.setScripts(Arrays.<RedisScript<?>> asList(COMPARE_AND_SET));
+        redisUtil.init();
+
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'v');
+        value = new String(chars);
+        keys = new String[10];
+        for (int i = 0; i < keys.length; i++)
+        {
+            keys[i] = KEY + ":" + i;
+            redisUtil.set(keys[i], value);
+        }
+        objectKeys = new ArrayList<String>(keys.length);
+        for (int i = 0; i < keys.length; i++)
+        {
+            objectKeys.add(KEY + ":object:" + i);
+            redisUtil.setObject(objectKeys.get(i), value);
+        }
+        redisUtil.set(KEY, value);
+        redisUtil.hset(HASH_KEY, "field", value);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        redisUtil.destroy();
+        if (null != embeddedSentinel)
+        {
+            embeddedSentinel.stop();
+            embeddedServer.stop();
+        }
+    }
+
+    @Benchmark
+    public String get()
+    {
+        return redisUtil.get(KEY);
+    }
+
+    @Benchmark
+    public String set()
+    {
+        return redisUtil.set(KEY, value);
+    }
+
+    @Benchmark
+    public String hget()
+    {
+        return redisUtil.hget(HASH_KEY, "field");
+    }
+
+    @Benchmark
+    public List<String> mget()
+    {
+        return redisUtil.mget(keys);
+    }
+
+    @Benchmark
+    public List<Object> pipelineExecute()
+    {
+        return redisUtil.pipelineExecute(new PipelineExecute()
+        {
+            @Override
+            public void execute() throws Exception
+            {
+                for (String key : keys)
+                {
+                    get(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * 与 {@link #pipelineExecute()} 对照: 同样的读取逐个发送
+     */
+    @Benchmark
+    public List<String> sequentialGets()
+    {
+        List<String> values = new ArrayList<String>(keys.length);
+        for (String key : keys)
+        {
+            values.add(redisUtil.get(key));
+        }
+        return values;
+    }
+
+    @Benchmark
+    public Map<String, Object> mGetObject()
+    {
+        return redisUtil.mGetObject(objectKeys);
+    }
+
+    /**
+     * 与 {@link #mGetObject()} 对照: 逐个 getObject
+     */
+    @Benchmark
+    public List<Object> sequentialGetObjects()
+    {
+        List<Object> values = new ArrayList<Object>(objectKeys.size());
+        for (String key : objectKeys)
+        {
+            values.add(redisUtil.getObject(key));
+        }
+        return values;
+    }
+
+    @Benchmark
+    public Long evalCompareAndSet()
+    {
+        return redisUtil.eval(COMPARE_AND_SET, Arrays.asList(KEY), Arrays.asList(value, value));
+    }
+
+    /**
+     * 与 {@link #evalCompareAndSet()} 对照: 先读后写两次往返(且不是原子的)
+     */
+    @Benchmark
+    public Long getThenSet()
+    {
+        if (!value.equals(redisUtil.get(KEY)))
+        {
+            return 0L;
+        }
+        redisUtil.set(KEY, value);
+        return 1L;
+    }
+}
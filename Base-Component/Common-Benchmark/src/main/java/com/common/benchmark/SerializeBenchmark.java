@@ -0,0 +1,203 @@
+package com.common.benchmark;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.common.tools.BinaryCodec;
+import com.common.tools.ByteArrayOutput;
+import com.common.tools.PojoCodec;
+import com.common.tools.SerializeUtil;
+import com.common.tools.Tag;
+
+/**
+ * SerializeUtil 序列化/反序列化基准, 按对象大小分档; 对比 Java 序列化、{@link BinaryCodec} 与 {@link PojoCodec}
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(
+{
+        Mode.Throughput, Mode.AverageTime
+})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark
+{
+    /**
+     * 对象中集合的元素个数
+     */
+    @Param(
+    {
+            "1", "32", "1024"
+    })
+    public int size;
+
+    private Payload payload;
+
+    private byte[] bytes;
+
+    private byte[] binaryBytes;
+
+    private byte[] pojoBytes;
+
+    private final BinaryCodec binaryCodec = new BinaryCodec();
+
+    private final PojoCodec<Payload> pojoCodec = PojoCodec.of(Payload.class);
+
+    /**
+     * 调用方复用的缓冲区
+     */
+    private final ByteArrayOutput buffer = new ByteArrayOutput();
+
+    @Setup
+    public void setup()
+    {
+        payload = Payload.create(size);
+        bytes = SerializeUtil.serialize(payload);
+        binaryBytes = SerializeUtil.encode(payload, binaryCodec);
+        pojoBytes = SerializeUtil.encode(payload, pojoCodec);
+    }
+
+    /**
+     * 同时以辅助计数器输出三种编码结果的字节数
+     *
+     * @param sizes
+     * @return
+     */
+    @Benchmark
+    public byte[] serialize(EncodedSizes sizes)
+    {
+        return SerializeUtil.serialize(payload);
+    }
+
+    @Benchmark
+    public Object unserialize()
+    {
+        return SerializeUtil.unserialize(bytes);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode()
+    {
+        return SerializeUtil.encode(payload, binaryCodec);
+    }
+
+    @Benchmark
+    public int serializeIntoBuffer()
+    {
+        buffer.reset();
+        return SerializeUtil.serialize(payload, buffer);
+    }
+
+    @Benchmark
+    public int binaryEncodeIntoBuffer()
+    {
+        buffer.reset();
+        return SerializeUtil.encode(payload, binaryCodec, null, buffer);
+    }
+
+    @Benchmark
+    public Object binaryDecode()
+    {
+        return SerializeUtil.decode(binaryBytes);
+    }
+
+    @Benchmark
+    public int pojoEncodeIntoBuffer()
+    {
+        buffer.reset();
+        return SerializeUtil.encode(payload, pojoCodec, null, buffer);
+    }
+
+    @Benchmark
+    public Payload pojoDecode()
+    {
+        return SerializeUtil.decode(pojoBytes, pojoCodec, null);
+    }
+
+    /**
+     * 编码结果的字节数, 作为 serialize 的辅助结果(serialize:javaBytes 等)与耗时一起输出
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSizes
+    {
+        public long javaBytes;
+
+        public long binaryBytes;
+
+        public long pojoBytes;
+
+        /**
+         * JMH 在迭代开始时清零辅助计数器, 迭代结束后读取, 因此在 TearDown 中赋值
+         *
+         * @param benchmark
+         */
+        @TearDown(Level.Iteration)
+        public void record(SerializeBenchmark benchmark)
+        {
+            javaBytes = benchmark.bytes.length;
+            binaryBytes = benchmark.binaryBytes.length;
+            pojoBytes = benchmark.pojoBytes.length;
+        }
+    }
+
+    /**
+     * 模拟常见的缓存对象: 基本字段 + 字符串列表 + Map
+     */
+    public static class Payload implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Tag(1)
+        private long id;
+
+        @Tag(2)
+        private String name;
+
+        @Tag(3)
+        private int status;
+
+        @Tag(4)
+        private List<String> tags;
+
+        @Tag(5)
+        private Map<String, Long> counters;
+
+        public static Payload create(int size)
+        {
+            Payload p = new Payload();
+            p.id = 10001;
+            p.name = "benchmark-payload";
+            p.status = 1;
+            p.tags = new ArrayList<String>(size);
+            p.counters = new HashMap<String, Long>(size * 2);
+            for (int i = 0; i < size; i++)
+            {
+                p.tags.add("tag-" + i);
+                p.counters.put("counter-" + i, (long) i);
+            }
+            return p;
+        }
+    }
+}
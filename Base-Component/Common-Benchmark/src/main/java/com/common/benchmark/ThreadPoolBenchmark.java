@@ -0,0 +1,85 @@
+package com.common.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.common.tools.ThreadPoolUtils;
+
+/**
+ * ThreadPoolUtils 任务分发基准: 单个任务提交到完成的往返耗时, 以及一批任务的扇出/汇合
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(
+{
+        Mode.Throughput, Mode.AverageTime
+})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadPoolBenchmark
+{
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        new ThreadPoolUtils().afterPropertiesSet();
+        executor = ThreadPoolUtils.getExecutorService();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public Object submitAndGet() throws Exception
+    {
+        return executor.submit(() -> Blackhole.consumeCPU(10)).get();
+    }
+
+    @Benchmark
+    public void fanOut(Batch batch) throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(batch.size);
+        for (int i = 0; i < batch.size; i++)
+        {
+            executor.execute(() -> {
+                Blackhole.consumeCPU(10);
+                latch.countDown();
+            });
+        }
+        latch.await();
+    }
+
+    /**
+     * 扇出的任务数, 单独的 State 只用于 fanOut, submitAndGet 不按它重复运行
+     */
+    @State(Scope.Benchmark)
+    public static class Batch
+    {
+        @Param(
+        {
+                "16", "256"
+        })
+        public int size;
+    }
+}
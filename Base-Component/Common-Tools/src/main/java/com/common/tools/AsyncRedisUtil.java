@@ -0,0 +1,1003 @@
+package com.common.tools;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import redis.clients.jedis.BinaryClient.LIST_POSITION;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.SortingParams;
+import redis.clients.jedis.Tuple;
+
+/**
+ * Redis 异步客户端工具类
+ * <p>
+ * 与 {@link RedisUtil} 提供相同的操作, 返回 {@link CompletableFuture}, 在独立的有界I/O线程池中执行。<br/>
+ * 一个请求内多个互不依赖的Redis读取可以并行发出, 不必串行等待。<br/>
+ * 线程池和队列都满时, 返回的 future 以 {@link RejectedExecutionException} 异常结束。
+ *
+ */
+public class AsyncRedisUtil implements InitializingBean, DisposableBean
+{
+    private RedisUtil redisUtil;
+
+    // I/O线程数
+    private int ioThreads = 32;
+
+    // 等待队列容量
+    private int queueCapacity = 2000;
+
+    private ExecutorService executor;
+
+    public AsyncRedisUtil()
+    {
+
+    }
+
+    public AsyncRedisUtil(RedisUtil redisUtil)
+    {
+        this.redisUtil = redisUtil;
+    }
+
+    public void afterPropertiesSet() throws Exception
+    {
+        init();
+    }
+
+    /**
+     * 初始化I/O线程池
+     */
+    public void init()
+    {
+        if (null == redisUtil)
+        {
+            throw new NullPointerException("AsyncRedisUtil requires a RedisUtil");
+        }
+        final AtomicInteger seq = new AtomicInteger();
+        executor = new ThreadPoolExecutor(ioThreads, ioThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity), new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "redis-async-io-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    public void destroy() throws Exception
+    {
+        if (null != executor)
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 在I/O线程池中执行任意 RedisUtil 操作组合
+     * 
+     * @param action
+     * @return
+     */
+    public <T> CompletableFuture<T> submit(Function<RedisUtil, T> action)
+    {
+        return supply(() -> action.apply(redisUtil));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#flushAll()}
+     */
+    public CompletableFuture<String> flushAll()
+    {
+        return supply(() -> redisUtil.flushAll());
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#rename(String, String)}
+     */
+    public CompletableFuture<String> rename(String oldkey, String newkey)
+    {
+        return supply(() -> redisUtil.rename(oldkey, newkey));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#renamenx(String, String)}
+     */
+    public CompletableFuture<Long> renamenx(String oldkey, String newkey)
+    {
+        return supply(() -> redisUtil.renamenx(oldkey, newkey));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#rename(byte[], byte[])}
+     */
+    public CompletableFuture<String> rename(byte[] oldkey, byte[] newkey)
+    {
+        return supply(() -> redisUtil.rename(oldkey, newkey));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#expired(String, int)}
+     */
+    public CompletableFuture<Long> expired(String key, int seconds)
+    {
+        return supply(() -> redisUtil.expired(key, seconds));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#expireAt(String, long)}
+     */
+    public CompletableFuture<Long> expireAt(String key, long timestamp)
+    {
+        return supply(() -> redisUtil.expireAt(key, timestamp));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#ttl(String)}
+     */
+    public CompletableFuture<Long> ttl(String key)
+    {
+        return supply(() -> redisUtil.ttl(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#persist(String)}
+     */
+    public CompletableFuture<Long> persist(String key)
+    {
+        return supply(() -> redisUtil.persist(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#del(String...)}
+     */
+    public CompletableFuture<Long> del(String... keys)
+    {
+        return supply(() -> redisUtil.del(keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#del(byte[]...)}
+     */
+    public CompletableFuture<Long> del(byte[]... keys)
+    {
+        return supply(() -> redisUtil.del(keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#exists(String)}
+     */
+    public CompletableFuture<Boolean> exists(String key)
+    {
+        return supply(() -> redisUtil.exists(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sort(String)}
+     */
+    public CompletableFuture<List<String>> sort(String key)
+    {
+        return supply(() -> redisUtil.sort(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sort(String, SortingParams)}
+     */
+    public CompletableFuture<List<String>> sort(String key, SortingParams parame)
+    {
+        return supply(() -> redisUtil.sort(key, parame));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#type(String)}
+     */
+    public CompletableFuture<String> type(String key)
+    {
+        return supply(() -> redisUtil.type(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#keys(String)}
+     */
+    public CompletableFuture<Set<String>> keys(String pattern)
+    {
+        return supply(() -> redisUtil.keys(pattern));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#scan(String, ScanParams)}
+     */
+    public CompletableFuture<ScanResult<String>> scan(String cursor, ScanParams params)
+    {
+        return supply(() -> redisUtil.scan(cursor, params));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hdel(String, String)}
+     */
+    public CompletableFuture<Long> hdel(String key, String fieid)
+    {
+        return supply(() -> redisUtil.hdel(key, fieid));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hdel(String)}
+     */
+    public CompletableFuture<Long> hdel(String key)
+    {
+        return supply(() -> redisUtil.hdel(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hexists(String, String)}
+     */
+    public CompletableFuture<Boolean> hexists(String key, String fieid)
+    {
+        return supply(() -> redisUtil.hexists(key, fieid));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hget(String, String)}
+     */
+    public CompletableFuture<String> hget(String key, String field)
+    {
+        return supply(() -> redisUtil.hget(key, field));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hgetall(String)}
+     */
+    public CompletableFuture<Map<String, String>> hgetall(String key)
+    {
+        return supply(() -> redisUtil.hgetall(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hincrby(String, String, long)}
+     */
+    public CompletableFuture<Long> hincrby(String key, String fieid, long value)
+    {
+        return supply(() -> redisUtil.hincrby(key, fieid, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hkeys(String)}
+     */
+    public CompletableFuture<Set<String>> hkeys(String key)
+    {
+        return supply(() -> redisUtil.hkeys(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hlen(String)}
+     */
+    public CompletableFuture<Long> hlen(String key)
+    {
+        return supply(() -> redisUtil.hlen(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hmget(String, String...)}
+     */
+    public CompletableFuture<List<String>> hmget(String key, String... fieids)
+    {
+        return supply(() -> redisUtil.hmget(key, fieids));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hmset(String, Map)}
+     */
+    public CompletableFuture<String> hmset(String key, Map<String, String> map)
+    {
+        return supply(() -> redisUtil.hmset(key, map));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hset(String, String, String)}
+     */
+    public CompletableFuture<Long> hset(String key, String fieid, String value)
+    {
+        return supply(() -> redisUtil.hset(key, fieid, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hsetnx(String, String, String)}
+     */
+    public CompletableFuture<Long> hsetnx(String key, String fieid, String value)
+    {
+        return supply(() -> redisUtil.hsetnx(key, fieid, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hvals(String)}
+     */
+    public CompletableFuture<List<String>> hvals(String key)
+    {
+        return supply(() -> redisUtil.hvals(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#hscan(String, String, ScanParams)}
+     */
+    public CompletableFuture<ScanResult<Map.Entry<String, String>>> hscan(String key, String cursor, ScanParams params)
+    {
+        return supply(() -> redisUtil.hscan(key, cursor, params));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#llen(String)}
+     */
+    public CompletableFuture<Long> llen(String key)
+    {
+        return supply(() -> redisUtil.llen(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#llen(byte[])}
+     */
+    public CompletableFuture<Long> llen(byte[] key)
+    {
+        return supply(() -> redisUtil.llen(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lset(byte[], int, byte[])}
+     */
+    public CompletableFuture<String> lset(byte[] key, int index, byte[] value)
+    {
+        return supply(() -> redisUtil.lset(key, index, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lset(String, int, String)}
+     */
+    public CompletableFuture<String> lset(String key, int index, String value)
+    {
+        return supply(() -> redisUtil.lset(key, index, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#linsert(String, LIST_POSITION, String, String)}
+     */
+    public CompletableFuture<Long> linsert(String key, LIST_POSITION where, String pivot, String value)
+    {
+        return supply(() -> redisUtil.linsert(key, where, pivot, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#linsert(byte[], LIST_POSITION, byte[], byte[])}
+     */
+    public CompletableFuture<Long> linsert(byte[] key, LIST_POSITION where, byte[] pivot, byte[] value)
+    {
+        return supply(() -> redisUtil.linsert(key, where, pivot, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lindex(String, int)}
+     */
+    public CompletableFuture<String> lindex(String key, int index)
+    {
+        return supply(() -> redisUtil.lindex(key, index));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lindex(byte[], int)}
+     */
+    public CompletableFuture<byte[]> lindex(byte[] key, int index)
+    {
+        return supply(() -> redisUtil.lindex(key, index));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lpop(String)}
+     */
+    public CompletableFuture<String> lpop(String key)
+    {
+        return supply(() -> redisUtil.lpop(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lpop(byte[])}
+     */
+    public CompletableFuture<byte[]> lpop(byte[] key)
+    {
+        return supply(() -> redisUtil.lpop(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#rpop(String)}
+     */
+    public CompletableFuture<String> rpop(String key)
+    {
+        return supply(() -> redisUtil.rpop(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lpush(String, String)}
+     */
+    public CompletableFuture<Long> lpush(String key, String value)
+    {
+        return supply(() -> redisUtil.lpush(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lpush(String, String...)}
+     */
+    public CompletableFuture<Long> lpush(String key, String... value)
+    {
+        return supply(() -> redisUtil.lpush(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#rpush(String, String)}
+     */
+    public CompletableFuture<Long> rpush(String key, String value)
+    {
+        return supply(() -> redisUtil.rpush(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lpush(byte[], byte[]...)}
+     */
+    public CompletableFuture<Long> lpush(byte[] key, byte[]... value)
+    {
+        return supply(() -> redisUtil.lpush(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lrange(String, long, long)}
+     */
+    public CompletableFuture<List<String>> lrange(String key, long start, long end)
+    {
+        return supply(() -> redisUtil.lrange(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lrange(byte[], int, int)}
+     */
+    public CompletableFuture<List<byte[]>> lrange(byte[] key, int start, int end)
+    {
+        return supply(() -> redisUtil.lrange(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lrem(byte[], int, byte[])}
+     */
+    public CompletableFuture<Long> lrem(byte[] key, int c, byte[] value)
+    {
+        return supply(() -> redisUtil.lrem(key, c, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#lrem(String, int, String)}
+     */
+    public CompletableFuture<Long> lrem(String key, int c, String value)
+    {
+        return supply(() -> redisUtil.lrem(key, c, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#ltrim(byte[], int, int)}
+     */
+    public CompletableFuture<String> ltrim(byte[] key, int start, int end)
+    {
+        return supply(() -> redisUtil.ltrim(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#ltrim(String, int, int)}
+     */
+    public CompletableFuture<String> ltrim(String key, int start, int end)
+    {
+        return supply(() -> redisUtil.ltrim(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sadd(String, String)}
+     */
+    public CompletableFuture<Long> sadd(String key, String member)
+    {
+        return supply(() -> redisUtil.sadd(key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#scard(String)}
+     */
+    public CompletableFuture<Long> scard(String key)
+    {
+        return supply(() -> redisUtil.scard(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sdiff(String...)}
+     */
+    public CompletableFuture<Set<String>> sdiff(String... keys)
+    {
+        return supply(() -> redisUtil.sdiff(keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sdiffstore(String, String...)}
+     */
+    public CompletableFuture<Long> sdiffstore(String newkey, String... keys)
+    {
+        return supply(() -> redisUtil.sdiffstore(newkey, keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sinter(String...)}
+     */
+    public CompletableFuture<Set<String>> sinter(String... keys)
+    {
+        return supply(() -> redisUtil.sinter(keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sinterstore(String, String...)}
+     */
+    public CompletableFuture<Long> sinterstore(String newkey, String... keys)
+    {
+        return supply(() -> redisUtil.sinterstore(newkey, keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sismember(String, String)}
+     */
+    public CompletableFuture<Boolean> sismember(String key, String member)
+    {
+        return supply(() -> redisUtil.sismember(key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#smembers(String)}
+     */
+    public CompletableFuture<Set<String>> smembers(String key)
+    {
+        return supply(() -> redisUtil.smembers(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sscan(String, String, ScanParams)}
+     */
+    public CompletableFuture<ScanResult<String>> sscan(String key, String cursor, ScanParams params)
+    {
+        return supply(() -> redisUtil.sscan(key, cursor, params));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#smove(String, String, String)}
+     */
+    public CompletableFuture<Long> smove(String srckey, String dstkey, String member)
+    {
+        return supply(() -> redisUtil.smove(srckey, dstkey, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#spop(String)}
+     */
+    public CompletableFuture<String> spop(String key)
+    {
+        return supply(() -> redisUtil.spop(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#srem(String, String)}
+     */
+    public CompletableFuture<Long> srem(String key, String member)
+    {
+        return supply(() -> redisUtil.srem(key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sunion(String...)}
+     */
+    public CompletableFuture<Set<String>> sunion(String... keys)
+    {
+        return supply(() -> redisUtil.sunion(keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#sunionstore(String, String...)}
+     */
+    public CompletableFuture<Long> sunionstore(String newkey, String... keys)
+    {
+        return supply(() -> redisUtil.sunionstore(newkey, keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zadd(String, double, String)}
+     */
+    public CompletableFuture<Long> zadd(String key, double score, String member)
+    {
+        return supply(() -> redisUtil.zadd(key, score, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zcard(String)}
+     */
+    public CompletableFuture<Long> zcard(String key)
+    {
+        return supply(() -> redisUtil.zcard(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zcount(String, double, double)}
+     */
+    public CompletableFuture<Long> zcount(String key, double min, double max)
+    {
+        return supply(() -> redisUtil.zcount(key, min, max));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zincrby(String, double, String)}
+     */
+    public CompletableFuture<Double> zincrby(String key, double score, String member)
+    {
+        return supply(() -> redisUtil.zincrby(key, score, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zrange(String, int, int)}
+     */
+    public CompletableFuture<Set<String>> zrange(String key, int start, int end)
+    {
+        return supply(() -> redisUtil.zrange(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zscan(String, String, ScanParams)}
+     */
+    public CompletableFuture<ScanResult<Tuple>> zscan(String key, String cursor, ScanParams params)
+    {
+        return supply(() -> redisUtil.zscan(key, cursor, params));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zrangeByScore(String, double, double)}
+     */
+    public CompletableFuture<Set<String>> zrangeByScore(String key, double min, double max)
+    {
+        return supply(() -> redisUtil.zrangeByScore(key, min, max));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zrank(String, String)}
+     */
+    public CompletableFuture<Long> zrank(String key, String member)
+    {
+        return supply(() -> redisUtil.zrank(key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zrevrank(String, String)}
+     */
+    public CompletableFuture<Long> zrevrank(String key, String member)
+    {
+        return supply(() -> redisUtil.zrevrank(key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zrem(String, String)}
+     */
+    public CompletableFuture<Long> zrem(String key, String member)
+    {
+        return supply(() -> redisUtil.zrem(key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zrem(String)}
+     */
+    public CompletableFuture<Long> zrem(String key)
+    {
+        return supply(() -> redisUtil.zrem(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zremrangeByRank(String, int, int)}
+     */
+    public CompletableFuture<Long> zremrangeByRank(String key, int start, int end)
+    {
+        return supply(() -> redisUtil.zremrangeByRank(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zremrangeByScore(String, double, double)}
+     */
+    public CompletableFuture<Long> zremrangeByScore(String key, double min, double max)
+    {
+        return supply(() -> redisUtil.zremrangeByScore(key, min, max));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zrevrange(String, int, int)}
+     */
+    public CompletableFuture<Set<String>> zrevrange(String key, int start, int end)
+    {
+        return supply(() -> redisUtil.zrevrange(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zscore(String, String)}
+     */
+    public CompletableFuture<Double> zscore(String key, String memebr)
+    {
+        return supply(() -> redisUtil.zscore(key, memebr));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#get(String)}
+     */
+    public CompletableFuture<String> get(String key)
+    {
+        return supply(() -> redisUtil.get(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#get(byte[])}
+     */
+    public CompletableFuture<byte[]> get(byte[] key)
+    {
+        return supply(() -> redisUtil.get(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#setEx(String, int, String)}
+     */
+    public CompletableFuture<String> setEx(String key, int seconds, String value)
+    {
+        return supply(() -> redisUtil.setEx(key, seconds, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#setEx(byte[], int, byte[])}
+     */
+    public CompletableFuture<String> setEx(byte[] key, int seconds, byte[] value)
+    {
+        return supply(() -> redisUtil.setEx(key, seconds, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#setnx(String, String)}
+     */
+    public CompletableFuture<Long> setnx(String key, String value)
+    {
+        return supply(() -> redisUtil.setnx(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#set(String, String)}
+     */
+    public CompletableFuture<String> set(String key, String value)
+    {
+        return supply(() -> redisUtil.set(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#set(byte[], byte[])}
+     */
+    public CompletableFuture<String> set(byte[] key, byte[] value)
+    {
+        return supply(() -> redisUtil.set(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#setObject(String, Object)}
+     */
+    public CompletableFuture<String> setObject(String keyStr, Object obj)
+    {
+        return supply(() -> redisUtil.setObject(keyStr, obj));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#setObject(String, int, Object)}
+     */
+    public CompletableFuture<String> setObject(String keyStr, int expire, Object obj)
+    {
+        return supply(() -> redisUtil.setObject(keyStr, expire, obj));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#getObject(String)}
+     */
+    public CompletableFuture<Object> getObject(String keyStr)
+    {
+        return supply(() -> redisUtil.getObject(keyStr));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#setRange(String, long, String)}
+     */
+    public CompletableFuture<Long> setRange(String key, long offset, String value)
+    {
+        return supply(() -> redisUtil.setRange(key, offset, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#append(String, String)}
+     */
+    public CompletableFuture<Long> append(String key, String value)
+    {
+        return supply(() -> redisUtil.append(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#decrBy(String, long)}
+     */
+    public CompletableFuture<Long> decrBy(String key, long number)
+    {
+        return supply(() -> redisUtil.decrBy(key, number));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#incrBy(String, long)}
+     */
+    public CompletableFuture<Long> incrBy(String key, long number)
+    {
+        return supply(() -> redisUtil.incrBy(key, number));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#getrange(String, long, long)}
+     */
+    public CompletableFuture<String> getrange(String key, long startOffset, long endOffset)
+    {
+        return supply(() -> redisUtil.getrange(key, startOffset, endOffset));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#getSet(String, String)}
+     */
+    public CompletableFuture<String> getSet(String key, String value)
+    {
+        return supply(() -> redisUtil.getSet(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#mget(String...)}
+     */
+    public CompletableFuture<List<String>> mget(String... keys)
+    {
+        return supply(() -> redisUtil.mget(keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#mset(String...)}
+     */
+    public CompletableFuture<String> mset(String... keysvalues)
+    {
+        return supply(() -> redisUtil.mset(keysvalues));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#strlen(String)}
+     */
+    public CompletableFuture<Long> strlen(String key)
+    {
+        return supply(() -> redisUtil.strlen(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#pipelineExecute(PipelineExecute)}
+     */
+    public CompletableFuture<List<Object>> pipelineExecute(PipelineExecute pipelineExecute)
+    {
+        return supply(() -> redisUtil.pipelineExecute(pipelineExecute));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#pipelineExecute(String, PipelineExecute)}
+     */
+    public CompletableFuture<List<Object>> pipelineExecute(String routingKey, PipelineExecute pipelineExecute)
+    {
+        return supply(() -> redisUtil.pipelineExecute(routingKey, pipelineExecute));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#pipelineExecute(Collection, KeyedPipelineExecute)}
+     */
+    public CompletableFuture<List<Object>> pipelineExecute(Collection<String> keys,
+            KeyedPipelineExecute keyedPipelineExecute)
+    {
+        return supply(() -> redisUtil.pipelineExecute(keys, keyedPipelineExecute));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#execute(RedisTransactionExecute)}
+     */
+    public CompletableFuture<List<Object>> execute(RedisTransactionExecute redisExecute)
+    {
+        return supply(() -> redisUtil.execute(redisExecute));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#execute(String, RedisTransactionExecute)}
+     */
+    public CompletableFuture<List<Object>> execute(String routingKey, RedisTransactionExecute redisExecute)
+    {
+        return supply(() -> redisUtil.execute(routingKey, redisExecute));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#watchExecute(RedisTransactionExecute, byte[]...)}
+     */
+    public CompletableFuture<List<Object>> watchExecute(RedisTransactionExecute redisExecute, byte[]... keys)
+    {
+        return supply(() -> redisUtil.watchExecute(redisExecute, keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#watchExecute(RedisTransactionExecute, String...)}
+     */
+    public CompletableFuture<List<Object>> watchExecute(RedisTransactionExecute redisExecute, String... keys)
+    {
+        return supply(() -> redisUtil.watchExecute(redisExecute, keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisUtil#zrevrangeByScore(String, Double, Double)}
+     */
+    public CompletableFuture<Set<String>> zrevrangeByScore(String key, Double max, Double min)
+    {
+        return supply(() -> redisUtil.zrevrangeByScore(key, max, min));
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> task)
+    {
+        try
+        {
+            return CompletableFuture.supplyAsync(task, executor);
+        }
+        catch (RejectedExecutionException e)
+        {
+            CompletableFuture<T> future = new CompletableFuture<T>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    public RedisUtil getRedisUtil()
+    {
+        return redisUtil;
+    }
+
+    public void setRedisUtil(RedisUtil redisUtil)
+    {
+        this.redisUtil = redisUtil;
+    }
+
+    public int getIoThreads()
+    {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads)
+    {
+        this.ioThreads = ioThreads;
+    }
+
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity)
+    {
+        this.queueCapacity = queueCapacity;
+    }
+}
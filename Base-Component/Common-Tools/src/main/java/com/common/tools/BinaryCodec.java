@@ -0,0 +1,1406 @@
+package com.common.tools;
+
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码器(默认)
+ * <p>
+ * 每个值以一个类型标记开头: 整数使用 zigzag 变长编码, 字符串按字符变长编码, 常用集合(ArrayList、HashMap 等)直接写元素;
+ * 普通对象按字段写出, 类名和字段名在一次编码中只写一次, 之后用序号引用。同一对象多次出现时写引用, 支持循环引用。<br/>
+ * 与 Java 序列化一样, 对象必须实现 Serializable, 不写 static/transient 字段。
+ * 解码时调用类自身的无参构造器(可以是私有的)创建对象, 再按字段名赋值, 新增或删除字段不影响读取旧数据。<br/>
+ * 没有无参构造器、自定义了 writeObject/readObject/writeReplace/readResolve、实现了 Externalizable,
+ * 或者继承了 JDK 类(未内置支持的集合、Record 等)的对象, 在数据中嵌入一段 Java 序列化结果。<br/>
+ * 解码时数据中的类名(含嵌入的 Java 序列化数据)按传入的 {@link ClassAllowList} 检查。
+ *
+ */
+public class BinaryCodec implements Codec<Object>
+{
+    public static final int ID = 2;
+
+    private static final int NULL = 0;
+
+    private static final int TRUE = 1;
+
+    private static final int FALSE = 2;
+
+    private static final int BYTE = 3;
+
+    private static final int SHORT = 4;
+
+    private static final int INT = 5;
+
+    private static final int LONG = 6;
+
+    private static final int FLOAT = 7;
+
+    private static final int DOUBLE = 8;
+
+    private static final int CHAR = 9;
+
+    private static final int STRING = 10;
+
+    private static final int BYTES = 11;
+
+    private static final int BIG_DECIMAL = 12;
+
+    private static final int BIG_INTEGER = 13;
+
+    private static final int DATE = 14;
+
+    private static final int ENUM = 15;
+
+    private static final int LIST = 16;
+
+    private static final int SET = 17;
+
+    private static final int MAP = 18;
+
+    private static final int ARRAY = 19;
+
+    private static final int PRIMITIVE_ARRAY = 20;
+
+    private static final int OBJECT = 21;
+
+    private static final int REF = 22;
+
+    private static final int JAVA = 23;
+
+    /**
+     * 集合的具体类型, 写在 LIST/SET/MAP 标记之后
+     */
+    private static final Class<?>[] LIST_TYPES =
+    {
+            ArrayList.class, LinkedList.class
+    };
+
+    private static final Class<?>[] SET_TYPES =
+    {
+            HashSet.class, LinkedHashSet.class, TreeSet.class
+    };
+
+    private static final Class<?>[] MAP_TYPES =
+    {
+            HashMap.class, LinkedHashMap.class, TreeMap.class, ConcurrentHashMap.class
+    };
+
+    /**
+     * 基本类型数组的元素类型, 写在 PRIMITIVE_ARRAY 标记之后; byte[] 单独使用 BYTES 标记
+     */
+    private static final Class<?>[] PRIMITIVE_COMPONENTS =
+    {
+            boolean.class, short.class, char.class, int.class, long.class, float.class, double.class
+    };
+
+    private static final JavaSerializationCodec JAVA_CODEC = new JavaSerializationCodec();
+
+    private static final ClassValue<ClassLayout> LAYOUTS = new ClassValue<ClassLayout>()
+    {
+        @Override
+        protected ClassLayout computeValue(Class<?> type)
+        {
+            return new ClassLayout(type);
+        }
+    };
+
+    @Override
+    public int getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public void encode(Object obj, ByteArrayOutput out) throws IOException
+    {
+        new Writer(out).writeValue(obj);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int offset, int length) throws IOException
+    {
+        return decode(bytes, offset, length, null);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int offset, int length, ClassAllowList allowList) throws IOException
+    {
+        try
+        {
+            return new Reader(bytes, offset, offset + length, allowList).readValue();
+        }
+        catch (ArrayIndexOutOfBoundsException e)
+        {
+            throw new EOFException("Unexpected end of data");
+        }
+    }
+
+    private static int indexOf(Class<?>[] types, Class<?> type)
+    {
+        for (int i = 0; i < types.length; i++)
+        {
+            if (types[i] == type)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 一次编码的状态
+     */
+    private static final class Writer
+    {
+        private final ByteArrayOutput out;
+
+        private IdentityHashMap<Object, Integer> refs;
+
+        private Map<Class<?>, Integer> classNames;
+
+        private Map<Class<?>, Integer> layouts;
+
+        private Writer(ByteArrayOutput out)
+        {
+            this.out = out;
+        }
+
+        private void writeValue(Object v) throws IOException
+        {
+            if (null == v)
+            {
+                out.write(NULL);
+                return;
+            }
+            Class<?> type = v.getClass();
+            if (type == String.class)
+            {
+                out.write(STRING);
+                writeString((String) v);
+            }
+            else if (type == Integer.class)
+            {
+                out.write(INT);
+                writeVarLong(zigzag((Integer) v));
+            }
+            else if (type == Long.class)
+            {
+                out.write(LONG);
+                writeVarLong(zigzag((Long) v));
+            }
+            else if (type == Boolean.class)
+            {
+                out.write((Boolean) v ? TRUE : FALSE);
+            }
+            else if (type == Double.class)
+            {
+                out.write(DOUBLE);
+                writeFixedLong(Double.doubleToRawLongBits((Double) v));
+            }
+            else if (type == Float.class)
+            {
+                out.write(FLOAT);
+                writeFixedInt(Float.floatToRawIntBits((Float) v));
+            }
+            else if (type == Short.class)
+            {
+                out.write(SHORT);
+                writeVarLong(zigzag((Short) v));
+            }
+            else if (type == Byte.class)
+            {
+                out.write(BYTE);
+                out.write((Byte) v);
+            }
+            else if (type == Character.class)
+            {
+                out.write(CHAR);
+                writeVarLong((Character) v);
+            }
+            else if (type == byte[].class)
+            {
+                byte[] bytes = (byte[]) v;
+                out.write(BYTES);
+                writeVarLong(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+            else if (type == BigDecimal.class)
+            {
+                BigDecimal decimal = (BigDecimal) v;
+                out.write(BIG_DECIMAL);
+                writeVarLong(zigzag(decimal.scale()));
+                writeBytes(decimal.unscaledValue().toByteArray());
+            }
+            else if (type == BigInteger.class)
+            {
+                out.write(BIG_INTEGER);
+                writeBytes(((BigInteger) v).toByteArray());
+            }
+            else if (type == Date.class)
+            {
+                out.write(DATE);
+                writeVarLong(zigzag(((Date) v).getTime()));
+            }
+            else if (v instanceof Enum)
+            {
+                out.write(ENUM);
+                writeClassName(((Enum<?>) v).getDeclaringClass());
+                writeString(((Enum<?>) v).name());
+            }
+            else
+            {
+                writeReference(v, type);
+            }
+        }
+
+        /**
+         * 可能被多处引用的值: 集合、数组、普通对象
+         */
+        private void writeReference(Object v, Class<?> type) throws IOException
+        {
+            if (null == refs)
+            {
+                refs = new IdentityHashMap<Object, Integer>();
+            }
+            Integer ref = refs.get(v);
+            if (null != ref)
+            {
+                out.write(REF);
+                writeVarLong(ref);
+                return;
+            }
+            int kind;
+            if ((kind = indexOf(LIST_TYPES, type)) != -1)
+            {
+                refs.put(v, refs.size());
+                out.write(LIST);
+                out.write(kind);
+                writeElements((Collection<?>) v);
+            }
+            else if ((kind = indexOf(SET_TYPES, type)) != -1 && (type != TreeSet.class || null == ((TreeSet<?>) v)
+                    .comparator()))
+            {
+                refs.put(v, refs.size());
+                out.write(SET);
+                out.write(kind);
+                writeElements((Collection<?>) v);
+            }
+            else if ((kind = indexOf(MAP_TYPES, type)) != -1 && (type != TreeMap.class || null == ((TreeMap<?, ?>) v)
+                    .comparator()))
+            {
+                refs.put(v, refs.size());
+                Map<?, ?> map = (Map<?, ?>) v;
+                out.write(MAP);
+                out.write(kind);
+                writeVarLong(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet())
+                {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            }
+            else if (type.isArray())
+            {
+                refs.put(v, refs.size());
+                writeArray(v, type.getComponentType());
+            }
+            else
+            {
+                ClassLayout layout = LAYOUTS.get(type);
+                if (!layout.serializable)
+                {
+                    throw new NotSerializableException(type.getName());
+                }
+                if (layout.javaSerialized)
+                {
+                    // 嵌入的 Java 序列化数据自行处理其内部的引用
+                    ByteArrayOutput nested = SerializeUtil.acquireBuffer();
+                    try
+                    {
+                        JAVA_CODEC.encode(v, nested);
+                        out.write(JAVA);
+                        writeVarLong(nested.size());
+                        out.write(nested.getBuffer(), 0, nested.size());
+                    }
+                    finally
+                    {
+                        SerializeUtil.releaseBuffer(nested);
+                    }
+                    return;
+                }
+                refs.put(v, refs.size());
+                out.write(OBJECT);
+                writeLayout(layout);
+                for (FieldSlot slot : layout.fields)
+                {
+                    writeField(v, slot);
+                }
+            }
+        }
+
+        private void writeElements(Collection<?> items) throws IOException
+        {
+            writeVarLong(items.size());
+            for (Object item : items)
+            {
+                writeValue(item);
+            }
+        }
+
+        private void writeArray(Object array, Class<?> component) throws IOException
+        {
+            if (!component.isPrimitive())
+            {
+                Object[] items = (Object[]) array;
+                out.write(ARRAY);
+                writeClassName(component);
+                writeVarLong(items.length);
+                for (Object item : items)
+                {
+                    writeValue(item);
+                }
+                return;
+            }
+            out.write(PRIMITIVE_ARRAY);
+            out.write(indexOf(PRIMITIVE_COMPONENTS, component));
+            if (component == int.class)
+            {
+                int[] a = (int[]) array;
+                writeVarLong(a.length);
+                for (int x : a)
+                {
+                    writeVarLong(zigzag(x));
+                }
+            }
+            else if (component == long.class)
+            {
+                long[] a = (long[]) array;
+                writeVarLong(a.length);
+                for (long x : a)
+                {
+                    writeVarLong(zigzag(x));
+                }
+            }
+            else if (component == double.class)
+            {
+                double[] a = (double[]) array;
+                writeVarLong(a.length);
+                for (double x : a)
+                {
+                    writeFixedLong(Double.doubleToRawLongBits(x));
+                }
+            }
+            else if (component == float.class)
+            {
+                float[] a = (float[]) array;
+                writeVarLong(a.length);
+                for (float x : a)
+                {
+                    writeFixedInt(Float.floatToRawIntBits(x));
+                }
+            }
+            else if (component == boolean.class)
+            {
+                boolean[] a = (boolean[]) array;
+                writeVarLong(a.length);
+                for (boolean x : a)
+                {
+                    out.write(x ? 1 : 0);
+                }
+            }
+            else if (component == short.class)
+            {
+                short[] a = (short[]) array;
+                writeVarLong(a.length);
+                for (short x : a)
+                {
+                    writeVarLong(zigzag(x));
+                }
+            }
+            else
+            {
+                char[] a = (char[]) array;
+                writeVarLong(a.length);
+                for (char x : a)
+                {
+                    writeVarLong(x);
+                }
+            }
+        }
+
+        /**
+         * 写字段值, 基本类型字段不装箱
+         */
+        private void writeField(Object obj, FieldSlot slot) throws IOException
+        {
+            Field f = slot.field;
+            try
+            {
+                switch (slot.kind)
+                {
+                case INT:
+                    out.write(INT);
+                    writeVarLong(zigzag(f.getInt(obj)));
+                    break;
+                case LONG:
+                    out.write(LONG);
+                    writeVarLong(zigzag(f.getLong(obj)));
+                    break;
+                case TRUE:
+                    out.write(f.getBoolean(obj) ? TRUE : FALSE);
+                    break;
+                case DOUBLE:
+                    out.write(DOUBLE);
+                    writeFixedLong(Double.doubleToRawLongBits(f.getDouble(obj)));
+                    break;
+                case FLOAT:
+                    out.write(FLOAT);
+                    writeFixedInt(Float.floatToRawIntBits(f.getFloat(obj)));
+                    break;
+                case SHORT:
+                    out.write(SHORT);
+                    writeVarLong(zigzag(f.getShort(obj)));
+                    break;
+                case BYTE:
+                    out.write(BYTE);
+                    out.write(f.getByte(obj));
+                    break;
+                case CHAR:
+                    out.write(CHAR);
+                    writeVarLong(f.getChar(obj));
+                    break;
+                default:
+                    writeValue(f.get(obj));
+                }
+            }
+            catch (IllegalAccessException e)
+            {
+                throw new InvalidClassException(obj.getClass().getName(), e.getMessage());
+            }
+        }
+
+        /**
+         * 类名: 第一次出现时写0和类名, 之后写序号+1
+         */
+        private void writeClassName(Class<?> type) throws IOException
+        {
+            if (null == classNames)
+            {
+                classNames = new HashMap<Class<?>, Integer>();
+            }
+            Integer index = classNames.get(type);
+            if (null != index)
+            {
+                writeVarLong(index + 1);
+                return;
+            }
+            classNames.put(type, classNames.size());
+            writeVarLong(0);
+            writeString(type.getName());
+        }
+
+        /**
+         * 对象的类描述: 第一次出现时写0、类名和字段名, 之后写序号+1
+         */
+        private void writeLayout(ClassLayout layout) throws IOException
+        {
+            if (null == layouts)
+            {
+                layouts = new HashMap<Class<?>, Integer>();
+            }
+            Integer index = layouts.get(layout.type);
+            if (null != index)
+            {
+                writeVarLong(index + 1);
+                return;
+            }
+            layouts.put(layout.type, layouts.size());
+            writeVarLong(0);
+            writeString(layout.type.getName());
+            writeVarLong(layout.fields.length);
+            for (FieldSlot slot : layout.fields)
+            {
+                writeString(slot.name);
+            }
+        }
+
+        /**
+         * 字符数 + 每个字符1~3个字节(与 DataOutput.writeUTF 的字符编码相同, 无需预先计算字节数)
+         */
+        private void writeString(String s)
+        {
+            int len = s.length();
+            writeVarLong(len);
+            out.ensureCapacity(len);
+            for (int i = 0; i < len; i++)
+            {
+                char c = s.charAt(i);
+                if (c < 0x80)
+                {
+                    out.write(c);
+                }
+                else if (c < 0x800)
+                {
+                    out.write(0xC0 | (c >> 6));
+                    out.write(0x80 | (c & 0x3F));
+                }
+                else
+                {
+                    out.write(0xE0 | (c >> 12));
+                    out.write(0x80 | ((c >> 6) & 0x3F));
+                    out.write(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void writeBytes(byte[] bytes)
+        {
+            writeVarLong(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        private void writeVarLong(long v)
+        {
+            while ((v & ~0x7FL) != 0)
+            {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        private void writeFixedInt(int v)
+        {
+            out.write(v >>> 24);
+            out.write(v >>> 16);
+            out.write(v >>> 8);
+            out.write(v);
+        }
+
+        private void writeFixedLong(long v)
+        {
+            writeFixedInt((int) (v >>> 32));
+            writeFixedInt((int) v);
+        }
+
+        private static long zigzag(long v)
+        {
+            return (v << 1) ^ (v >> 63);
+        }
+    }
+
+    /**
+     * 一次解码的状态
+     */
+    private static final class Reader
+    {
+        private final byte[] buf;
+
+        private int pos;
+
+        private final int limit;
+
+        private final ClassAllowList allowList;
+
+        private final List<Object> refs = new ArrayList<Object>();
+
+        private List<Class<?>> classNames;
+
+        private List<ReadLayout> layouts;
+
+        private Reader(byte[] buf, int offset, int limit, ClassAllowList allowList)
+        {
+            this.buf = buf;
+            this.pos = offset;
+            this.limit = limit;
+            this.allowList = allowList;
+        }
+
+        private Object readValue() throws IOException
+        {
+            int tag = readByte();
+            switch (tag)
+            {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return (byte) readByte();
+            case SHORT:
+                return (short) unzigzag(readVarLong());
+            case INT:
+                return (int) unzigzag(readVarLong());
+            case LONG:
+                return unzigzag(readVarLong());
+            case FLOAT:
+                return Float.intBitsToFloat(readFixedInt());
+            case DOUBLE:
+                return Double.longBitsToDouble(readFixedLong());
+            case CHAR:
+                return (char) readVarLong();
+            case STRING:
+                return readString();
+            case BYTES:
+                return readBytes();
+            case BIG_DECIMAL:
+                int scale = (int) unzigzag(readVarLong());
+                return new BigDecimal(new BigInteger(readBytes()), scale);
+            case BIG_INTEGER:
+                return new BigInteger(readBytes());
+            case DATE:
+                return new Date(unzigzag(readVarLong()));
+            case ENUM:
+                return readEnum();
+            case LIST:
+                return readList();
+            case SET:
+                return readSet();
+            case MAP:
+                return readMap();
+            case ARRAY:
+                return readArray();
+            case PRIMITIVE_ARRAY:
+                return readPrimitiveArray();
+            case OBJECT:
+                return readObject();
+            case REF:
+                int ref = readLength();
+                if (ref >= refs.size())
+                {
+                    throw new StreamCorruptedException("Invalid reference " + ref);
+                }
+                return refs.get(ref);
+            case JAVA:
+                int len = readLength();
+                require(len);
+                Object obj = JAVA_CODEC.decode(buf, pos, len, allowList);
+                pos += len;
+                return obj;
+            default:
+                throw new StreamCorruptedException("Unknown tag " + tag);
+            }
+        }
+
+        @SuppressWarnings(
+        {
+                "unchecked", "rawtypes"
+        })
+        private Object readEnum() throws IOException
+        {
+            Class type = readClassName();
+            String name = readString();
+            if (!type.isEnum())
+            {
+                throw new InvalidClassException(type.getName(), "not an enum");
+            }
+            try
+            {
+                return Enum.valueOf(type, name);
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new InvalidClassException(type.getName(), "no enum constant " + name);
+            }
+        }
+
+        private Object readList() throws IOException
+        {
+            int kind = readByte();
+            int size = readLength();
+            List<Object> list;
+            if (kind == 0)
+            {
+                list = new ArrayList<Object>(Math.min(size, limit - pos));
+            }
+            else if (kind == 1)
+            {
+                list = new LinkedList<Object>();
+            }
+            else
+            {
+                throw new StreamCorruptedException("Unknown list type " + kind);
+            }
+            refs.add(list);
+            for (int i = 0; i < size; i++)
+            {
+                list.add(readValue());
+            }
+            return list;
+        }
+
+        private Object readSet() throws IOException
+        {
+            int kind = readByte();
+            int size = readLength();
+            Collection<Object> set;
+            int capacity = Math.min(size, limit - pos) * 4 / 3 + 1;
+            if (kind == 0)
+            {
+                set = new HashSet<Object>(capacity);
+            }
+            else if (kind == 1)
+            {
+                set = new LinkedHashSet<Object>(capacity);
+            }
+            else if (kind == 2)
+            {
+                set = new TreeSet<Object>();
+            }
+            else
+            {
+                throw new StreamCorruptedException("Unknown set type " + kind);
+            }
+            refs.add(set);
+            for (int i = 0; i < size; i++)
+            {
+                set.add(readValue());
+            }
+            return set;
+        }
+
+        private Object readMap() throws IOException
+        {
+            int kind = readByte();
+            int size = readLength();
+            Map<Object, Object> map;
+            int capacity = Math.min(size, limit - pos) * 4 / 3 + 1;
+            if (kind == 0)
+            {
+                map = new HashMap<Object, Object>(capacity);
+            }
+            else if (kind == 1)
+            {
+                map = new LinkedHashMap<Object, Object>(capacity);
+            }
+            else if (kind == 2)
+            {
+                map = new TreeMap<Object, Object>();
+            }
+            else if (kind == 3)
+            {
+                map = new ConcurrentHashMap<Object, Object>(capacity);
+            }
+            else
+            {
+                throw new StreamCorruptedException("Unknown map type " + kind);
+            }
+            refs.add(map);
+            for (int i = 0; i < size; i++)
+            {
+                Object key = readValue();
+                map.put(key, readValue());
+            }
+            return map;
+        }
+
+        private Object readArray() throws IOException
+        {
+            Class<?> component = readClassName();
+            int length = readLength();
+            // 每个元素至少一个字节, 先校验长度再分配
+            require(length);
+            Object[] array = (Object[]) Array.newInstance(component, length);
+            refs.add(array);
+            for (int i = 0; i < length; i++)
+            {
+                Object item = readValue();
+                try
+                {
+                    array[i] = item;
+                }
+                catch (ArrayStoreException e)
+                {
+                    throw new InvalidClassException(component.getName(), "incompatible array element");
+                }
+            }
+            return array;
+        }
+
+        private Object readPrimitiveArray() throws IOException
+        {
+            int kind = readByte();
+            int length = readLength();
+            require(length);
+            Object array;
+            switch (kind)
+            {
+            case 0:
+                boolean[] booleans = new boolean[length];
+                for (int i = 0; i < length; i++)
+                {
+                    booleans[i] = readByte() != 0;
+                }
+                array = booleans;
+                break;
+            case 1:
+                short[] shorts = new short[length];
+                for (int i = 0; i < length; i++)
+                {
+                    shorts[i] = (short) unzigzag(readVarLong());
+                }
+                array = shorts;
+                break;
+            case 2:
+                char[] chars = new char[length];
+                for (int i = 0; i < length; i++)
+                {
+                    chars[i] = (char) readVarLong();
+                }
+                array = chars;
+                break;
+            case 3:
+                int[] ints = new int[length];
+                for (int i = 0; i < length; i++)
+                {
+                    ints[i] = (int) unzigzag(readVarLong());
+                }
+                array = ints;
+                break;
+            case 4:
+                long[] longs = new long[length];
+                for (int i = 0; i < length; i++)
+                {
+                    longs[i] = unzigzag(readVarLong());
+                }
+                array = longs;
+                break;
+            case 5:
+                float[] floats = new float[length];
+                for (int i = 0; i < length; i++)
+                {
+                    floats[i] = Float.intBitsToFloat(readFixedInt());
+                }
+                array = floats;
+                break;
+            case 6:
+                double[] doubles = new double[length];
+                for (int i = 0; i < length; i++)
+                {
+                    doubles[i] = Double.longBitsToDouble(readFixedLong());
+                }
+                array = doubles;
+                break;
+            default:
+                throw new StreamCorruptedException("Unknown array type " + kind);
+            }
+            refs.add(array);
+            return array;
+        }
+
+        private Object readObject() throws IOException
+        {
+            ReadLayout layout = readLayout();
+            Object obj = layout.layout.newInstance();
+            refs.add(obj);
+            for (FieldSlot slot : layout.slots)
+            {
+                if (null == slot)
+                {
+                    // 当前版本的类中已没有该字段
+                    readValue();
+                }
+                else
+                {
+                    readField(obj, slot);
+                }
+            }
+            return obj;
+        }
+
+        /**
+         * 读字段值, 类型与字段一致的基本类型不装箱
+         */
+        private void readField(Object obj, FieldSlot slot) throws IOException
+        {
+            Field f = slot.field;
+            try
+            {
+                int tag = pos < limit ? buf[pos] : -1;
+                if (tag == slot.kind || (slot.kind == TRUE && tag == FALSE))
+                {
+                    switch (slot.kind)
+                    {
+                    case INT:
+                        pos++;
+                        f.setInt(obj, (int) unzigzag(readVarLong()));
+                        return;
+                    case LONG:
+                        pos++;
+                        f.setLong(obj, unzigzag(readVarLong()));
+                        return;
+                    case TRUE:
+                        pos++;
+                        f.setBoolean(obj, tag == TRUE);
+                        return;
+                    case DOUBLE:
+                        pos++;
+                        f.setDouble(obj, Double.longBitsToDouble(readFixedLong()));
+                        return;
+                    default:
+                        break;
+                    }
+                }
+                Object value = readValue();
+                if (null == value && slot.field.getType().isPrimitive())
+                {
+                    return;
+                }
+                f.set(obj, value);
+            }
+            catch (IllegalAccessException e)
+            {
+                throw new InvalidClassException(obj.getClass().getName(), e.getMessage());
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new InvalidClassException(obj.getClass().getName(), "incompatible type for field "
+                        + slot.name);
+            }
+        }
+
+        private Class<?> readClassName() throws IOException
+        {
+            if (null == classNames)
+            {
+                classNames = new ArrayList<Class<?>>();
+            }
+            int index = readLength();
+            if (index > 0)
+            {
+                if (index > classNames.size())
+                {
+                    throw new StreamCorruptedException("Invalid class reference " + index);
+                }
+                return classNames.get(index - 1);
+            }
+            Class<?> type = loadClass(readString());
+            classNames.add(type);
+            return type;
+        }
+
+        private ReadLayout readLayout() throws IOException
+        {
+            if (null == layouts)
+            {
+                layouts = new ArrayList<ReadLayout>();
+            }
+            int index = readLength();
+            if (index > 0)
+            {
+                if (index > layouts.size())
+                {
+                    throw new StreamCorruptedException("Invalid class reference " + index);
+                }
+                return layouts.get(index - 1);
+            }
+            Class<?> type = loadClass(readString());
+            ClassLayout layout = LAYOUTS.get(type);
+            if (!layout.serializable || layout.javaSerialized)
+            {
+                throw new InvalidClassException(type.getName(), "not serializable by BinaryCodec");
+            }
+            int count = readLength();
+            FieldSlot[] slots = new FieldSlot[count];
+            for (int i = 0; i < count; i++)
+            {
+                slots[i] = layout.byName.get(readString());
+            }
+            ReadLayout read = new ReadLayout(layout, slots);
+            layouts.add(read);
+            return read;
+        }
+
+        private String readString() throws IOException
+        {
+            int len = readLength();
+            require(len);
+            char[] chars = new char[len];
+            byte[] b = buf;
+            int p = pos;
+            for (int i = 0; i < len; i++)
+            {
+                int c = b[p++] & 0xFF;
+                if (c < 0x80)
+                {
+                    chars[i] = (char) c;
+                }
+                else if (c < 0xE0)
+                {
+                    chars[i] = (char) (((c & 0x1F) << 6) | (b[p++] & 0x3F));
+                }
+                else
+                {
+                    chars[i] = (char) (((c & 0x0F) << 12) | ((b[p++] & 0x3F) << 6) | (b[p++] & 0x3F));
+                }
+            }
+            if (p > limit)
+            {
+                throw new EOFException("Unexpected end of data");
+            }
+            pos = p;
+            return new String(chars);
+        }
+
+        private byte[] readBytes() throws IOException
+        {
+            int len = readLength();
+            require(len);
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + len);
+            pos += len;
+            return bytes;
+        }
+
+        private int readByte() throws IOException
+        {
+            if (pos >= limit)
+            {
+                throw new EOFException("Unexpected end of data");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        /**
+         * 长度、数量、序号, 必须是非负的 int
+         */
+        private int readLength() throws IOException
+        {
+            long v = readVarLong();
+            if (v < 0 || v > Integer.MAX_VALUE)
+            {
+                throw new StreamCorruptedException("Invalid length " + v);
+            }
+            return (int) v;
+        }
+
+        private long readVarLong() throws IOException
+        {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                {
+                    return v;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        private int readFixedInt() throws IOException
+        {
+            require(4);
+            int v = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8)
+                    | (buf[pos + 3] & 0xFF);
+            pos += 4;
+            return v;
+        }
+
+        private long readFixedLong() throws IOException
+        {
+            return ((long) readFixedInt() << 32) | (readFixedInt() & 0xFFFFFFFFL);
+        }
+
+        private void require(int n) throws IOException
+        {
+            if (n > limit - pos)
+            {
+                throw new EOFException("Unexpected end of data");
+            }
+        }
+
+        private static long unzigzag(long v)
+        {
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private Class<?> loadClass(String name) throws IOException
+        {
+            if (!ClassAllowList.isAllowed(allowList, name))
+            {
+                throw new InvalidClassException(name, "class is not allowed to be deserialized");
+            }
+            try
+            {
+                ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                if (null != loader)
+                {
+                    try
+                    {
+                        return Class.forName(name, false, loader);
+                    }
+                    catch (ClassNotFoundException e)
+                    {
+                        // 继续使用本类的类加载器
+                    }
+                }
+                return Class.forName(name, false, BinaryCodec.class.getClassLoader());
+            }
+            catch (ClassNotFoundException e)
+            {
+                throw new InvalidClassException(name, "class not found");
+            }
+        }
+    }
+
+    /**
+     * 解码时的类描述: 数据中的字段顺序对应到当前类的字段, 已删除的字段为null
+     */
+    private static final class ReadLayout
+    {
+        private final ClassLayout layout;
+
+        private final FieldSlot[] slots;
+
+        private ReadLayout(ClassLayout layout, FieldSlot[] slots)
+        {
+            this.layout = layout;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * 类的序列化信息, 每个类只计算一次
+     */
+    private static final class ClassLayout
+    {
+        private final Class<?> type;
+
+        private final boolean serializable;
+
+        /**
+         * 是否需要嵌入 Java 序列化
+         */
+        private final boolean javaSerialized;
+
+        private final FieldSlot[] fields;
+
+        private final Map<String, FieldSlot> byName = new HashMap<String, FieldSlot>();
+
+        private final Constructor<?> constructor;
+
+        private ClassLayout(Class<?> type)
+        {
+            this.type = type;
+            this.serializable = Serializable.class.isAssignableFrom(type);
+            this.constructor = serializable ? noArgConstructor(type) : null;
+            this.javaSerialized = serializable && (null == constructor || needsJavaSerialization(type));
+            if (!serializable || javaSerialized)
+            {
+                this.fields = new FieldSlot[0];
+                return;
+            }
+            List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            for (Class<?> c = type; null != c && Serializable.class.isAssignableFrom(c); c = c.getSuperclass())
+            {
+                hierarchy.add(0, c);
+            }
+            List<FieldSlot> slots = new ArrayList<FieldSlot>();
+            for (Class<?> c : hierarchy)
+            {
+                Field[] declared = c.getDeclaredFields();
+                Arrays.sort(declared, new Comparator<Field>()
+                {
+                    public int compare(Field x, Field y)
+                    {
+                        return x.getName().compareTo(y.getName());
+                    }
+                });
+                for (Field f : declared)
+                {
+                    int modifiers = f.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers))
+                    {
+                        continue;
+                    }
+                    f.setAccessible(true);
+                    // 父类与子类有同名字段时, 父类的字段名加上类名
+                    String name = byName.containsKey(f.getName()) || c != type && declaredIn(type, c, f.getName())
+                            ? c.getName() + "." + f.getName() : f.getName();
+                    FieldSlot slot = new FieldSlot(name, f);
+                    slots.add(slot);
+                    byName.put(name, slot);
+                }
+            }
+            this.fields = slots.toArray(new FieldSlot[slots.size()]);
+        }
+
+        /**
+         * 在 type 到 declaringClass(不含)之间的子类中是否声明了同名字段
+         */
+        private static boolean declaredIn(Class<?> type, Class<?> declaringClass, String name)
+        {
+            for (Class<?> c = type; c != declaringClass; c = c.getSuperclass())
+            {
+                for (Field f : c.getDeclaredFields())
+                {
+                    if (f.getName().equals(name) && !Modifier.isStatic(f.getModifiers()))
+                    {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean needsJavaSerialization(Class<?> type)
+        {
+            if (Externalizable.class.isAssignableFrom(type) || Proxy.isProxyClass(type) || type.isSynthetic())
+            {
+                return true;
+            }
+            for (Class<?> c = type; null != c && c != Object.class; c = c.getSuperclass())
+            {
+                String name = c.getName();
+                if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+                        || name.startsWith("jdk."))
+                {
+                    return true;
+                }
+                for (Method m : c.getDeclaredMethods())
+                {
+                    String method = m.getName();
+                    if ("writeObject".equals(method) || "readObject".equals(method)
+                            || "readObjectNoData".equals(method) || "writeReplace".equals(method)
+                            || "readResolve".equals(method))
+                    {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 类自身声明的无参构造器, 没有或无法访问时返回null
+         */
+        private static Constructor<?> noArgConstructor(Class<?> type)
+        {
+            if (Modifier.isAbstract(type.getModifiers()) || type.isInterface())
+            {
+                return null;
+            }
+            try
+            {
+                Constructor<?> c = type.getDeclaredConstructor();
+                c.setAccessible(true);
+                return c;
+            }
+            catch (NoSuchMethodException e)
+            {
+                return null;
+            }
+            catch (RuntimeException e)
+            {
+                // 模块不开放等情况, 无法访问
+                return null;
+            }
+        }
+
+        private Object newInstance() throws IOException
+        {
+            if (null == constructor)
+            {
+                throw new InvalidClassException(type.getName(), "no valid constructor");
+            }
+            try
+            {
+                return constructor.newInstance();
+            }
+            catch (Exception e)
+            {
+                throw new InvalidClassException(type.getName(), "instantiation failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * 一个可序列化字段
+     */
+    private static final class FieldSlot
+    {
+        private final String name;
+
+        private final Field field;
+
+        /**
+         * 基本类型字段对应的标记(boolean 为 TRUE), 引用类型为 -1
+         */
+        private final int kind;
+
+        private FieldSlot(String name, Field field)
+        {
+            this.name = name;
+            this.field = field;
+            Class<?> t = field.getType();
+            if (t == int.class)
+            {
+                kind = INT;
+            }
+            else if (t == long.class)
+            {
+                kind = LONG;
+            }
+            else if (t == boolean.class)
+            {
+                kind = TRUE;
+            }
+            else if (t == double.class)
+            {
+                kind = DOUBLE;
+            }
+            else if (t == float.class)
+            {
+                kind = FLOAT;
+            }
+            else if (t == short.class)
+            {
+                kind = SHORT;
+            }
+            else if (t == byte.class)
+            {
+                kind = BYTE;
+            }
+            else if (t == char.class)
+            {
+                kind = CHAR;
+            }
+            else
+            {
+                kind = -1;
+            }
+        }
+    }
+}
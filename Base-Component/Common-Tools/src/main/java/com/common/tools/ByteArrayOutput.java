@@ -0,0 +1,140 @@
+package com.common.tools;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 可增长的字节缓冲区
+ * <p>
+ * 与 ByteArrayOutputStream 相比不加锁, 并且可以直接访问内部数组({@link #getBuffer()}), 省去 toByteArray 的复制。
+ * 非线程安全。
+ *
+ */
+public class ByteArrayOutput extends OutputStream
+{
+    private byte[] buf;
+
+    private int count;
+
+    public ByteArrayOutput()
+    {
+        this(256);
+    }
+
+    public ByteArrayOutput(int initialCapacity)
+    {
+        buf = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    @Override
+    public void write(int b)
+    {
+        if (count == buf.length)
+        {
+            grow(1);
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+        ensureCapacity(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * 保证还能写入additional个字节
+     *
+     * @param additional
+     */
+    public void ensureCapacity(int additional)
+    {
+        if (buf.length - count < additional)
+        {
+            grow(additional);
+        }
+    }
+
+    private void grow(int additional)
+    {
+        int required = count + additional;
+        if (required < 0)
+        {
+            throw new OutOfMemoryError("ByteArrayOutput too large");
+        }
+        int capacity = buf.length << 1;
+        if (capacity < required || capacity < 0)
+        {
+            capacity = required;
+        }
+        buf = Arrays.copyOf(buf, capacity);
+    }
+
+    /**
+     * 内部数组, 有效数据为 [0, size())
+     *
+     * @return
+     */
+    public byte[] getBuffer()
+    {
+        return buf;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * 内部数组的长度
+     *
+     * @return
+     */
+    public int capacity()
+    {
+        return buf.length;
+    }
+
+    /**
+     * 调用方直接写入 {@link #getBuffer()} 后前移写位置
+     *
+     * @param n
+     */
+    public void skip(int n)
+    {
+        if (n < 0 || count + n > buf.length)
+        {
+            throw new IndexOutOfBoundsException("skip " + n + ", size " + count + ", capacity " + buf.length);
+        }
+        count += n;
+    }
+
+    /**
+     * 回退到指定长度
+     *
+     * @param size
+     */
+    public void truncate(int size)
+    {
+        if (size < 0 || size > count)
+        {
+            throw new IndexOutOfBoundsException("truncate to " + size + ", size " + count);
+        }
+        count = size;
+    }
+
+    /**
+     * 清空内容, 保留已分配的数组
+     */
+    public void reset()
+    {
+        count = 0;
+    }
+
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(buf, count);
+    }
+}
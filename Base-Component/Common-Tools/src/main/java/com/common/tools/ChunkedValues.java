@@ -0,0 +1,650 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 大对象分块存储
+ * <p>
+ * 编码结果不小于阈值时拆成多个分块key, 原key中只保存清单: 数据头 [{@link SerializeUtil#HEADER_MAGIC},
+ * {@link SerializeUtil#FLAG_CHUNKED}] + 版本号(8字节) + 分块数 + 总长度(变长编码) + CRC32(4字节)。
+ * 单个命令的请求和响应都不超过分块大小, 避免一次传输几MB的值阻塞 Redis 和同一连接上的其他请求。
+ * <p>
+ * 写入时先用管道写入本版本的分块(带临时过期时间), 再用一个事务读出旧清单、写入新清单并设置分块的过期时间,
+ * 清单切换是原子的; 旧版本的分块在宽限期后过期, 切换前开始读取的请求仍能读完旧版本。
+ * 读取时用管道一次取回全部分块, 校验总长度和 CRC32。<br/>
+ * 分块key为 {key}:chunk:版本号:序号(key中已有{}时为 key:chunk:版本号:序号), 与原key在同一个槽位,
+ * 集群和分片模式下所有操作都在同一个节点上。
+ * <p>
+ * 不过期的值的分块也不过期, 分块只能随清单一起处理: RedisUtil 在开启分块存储时, del、expired/expireAt/persist、
+ * rename/renamenx 和 setObject 覆盖写都会同时处理分块; 其他命令(set 等)覆盖清单、直接对清单key执行的命令
+ * (管道、事务、脚本)以及内存淘汰删除清单时分块会残留, 分块存储的值应只通过 setObject/delObject 和上述方法修改。
+ *
+ */
+final class ChunkedValues
+{
+    // 读取旧清单时 GETRANGE 的长度, 清单最长 2 + 8 + 5 + 5 + 4 字节
+    private static final int MANIFEST_PROBE = 32;
+
+    private final int threshold;
+
+    private final int chunkSize;
+
+    private final int graceSeconds;
+
+    /**
+     * @param threshold
+     *            编码结果达到该字节数时分块存储
+     * @param chunkSize
+     *            分块大小(字节)
+     * @param graceSeconds
+     *            旧版本分块在清单切换后保留的秒数, 也是写入过程中分块的临时过期时间
+     */
+    ChunkedValues(int threshold, int chunkSize, int graceSeconds)
+    {
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+        if (graceSeconds <= 0)
+        {
+            throw new IllegalArgumentException("chunk grace seconds must be positive: " + graceSeconds);
+        }
+        this.threshold = Math.max(threshold, 0);
+        this.chunkSize = chunkSize;
+        this.graceSeconds = graceSeconds;
+    }
+
+    boolean shouldChunk(int length)
+    {
+        return length >= threshold;
+    }
+
+    /**
+     * 写入 data[0, length), 达到阈值时分块存储, 否则直接写入; 原来是分块存储的值时旧分块在宽限期后过期
+     *
+     * @param jedis
+     * @param key
+     * @param data
+     * @param length
+     * @param expire
+     *            过期时间(秒), 不大于0时不过期
+     * @return 状态码
+     */
+    String write(Jedis jedis, byte[] key, byte[] data, int length, int expire)
+    {
+        if (!shouldChunk(length))
+        {
+            ManifestTransaction t = ManifestTransaction.begin(jedis);
+            Response<byte[]> old = t.getrangeBytes(key, 0, MANIFEST_PROBE - 1);
+            Response<String> status = expire > 0 ? t.setex(key, expire, Arrays.copyOf(data, length))
+                    : t.set(key, Arrays.copyOf(data, length));
+            t.exec();
+            expireChunks(jedis, key, Manifest.parse(probe(old)), 0);
+            return status.get();
+        }
+
+        Manifest manifest = new Manifest(newVersion(), (length + chunkSize - 1) / chunkSize, length, crc(data, length));
+        byte[][] chunkKeys = manifest.chunkKeys(key);
+        Pipeline pipeline = jedis.pipelined();
+        long pendingMillis = graceSeconds * 1000L;
+        for (int i = 0; i < chunkKeys.length; i++)
+        {
+            int from = i * chunkSize;
+            pipeline.psetex(chunkKeys[i], pendingMillis, Arrays.copyOfRange(data, from, Math.min(from + chunkSize, length)));
+        }
+        pipeline.sync();
+
+        // 分块全部写入后再切换清单, 失败时本版本的分块按临时过期时间自动删除
+        ManifestTransaction t = ManifestTransaction.begin(jedis);
+        Response<byte[]> old = t.getrangeBytes(key, 0, MANIFEST_PROBE - 1);
+        Response<String> status;
+        if (expire > 0)
+        {
+            status = t.setex(key, expire, manifest.encode());
+            for (byte[] chunkKey : chunkKeys)
+            {
+                // 分块比清单晚过期, 清单过期前读到的分块总是完整的
+                t.expire(chunkKey, expire + graceSeconds);
+            }
+        }
+        else
+        {
+            status = t.set(key, manifest.encode());
+            for (byte[] chunkKey : chunkKeys)
+            {
+                t.persist(chunkKey);
+            }
+        }
+        t.exec();
+        expireChunks(jedis, key, Manifest.parse(probe(old)), manifest.version);
+        return status.get();
+    }
+
+    /**
+     * 批量写入: 未达到阈值的值在一个管道中各自用事务写入(同时读出旧清单), 达到阈值的值逐个分块写入
+     *
+     * @param jedis
+     * @param keys
+     * @param values
+     * @param expire
+     *            过期时间(秒), 不大于0时不过期
+     * @return 与keys顺序一致的状态码, 单个命令的错误以 JedisDataException 放入结果
+     */
+    List<Object> writeAll(Jedis jedis, byte[][] keys, byte[][] values, int expire)
+    {
+        ManifestPipeline pipeline = new ManifestPipeline(jedis.getClient());
+        List<Response<byte[]>> olds = new ArrayList<Response<byte[]>>(keys.length);
+        List<Response<String>> statuses = new ArrayList<Response<String>>(keys.length);
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (shouldChunk(values[i].length))
+            {
+                olds.add(null);
+                statuses.add(null);
+                continue;
+            }
+            pipeline.multi();
+            olds.add(pipeline.getrangeBytes(keys[i], 0, MANIFEST_PROBE - 1));
+            statuses.add(expire > 0 ? pipeline.setex(keys[i], expire, values[i]) : pipeline.set(keys[i], values[i]));
+            pipeline.exec();
+        }
+        pipeline.sync();
+        List<Object> results = new ArrayList<Object>(keys.length);
+        List<Manifest> replaced = new ArrayList<Manifest>();
+        List<byte[]> replacedKeys = new ArrayList<byte[]>();
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (null == statuses.get(i))
+            {
+                results.add(null);
+                continue;
+            }
+            try
+            {
+                results.add(statuses.get(i).get());
+            }
+            catch (JedisDataException e)
+            {
+                results.add(e);
+            }
+            Manifest old = Manifest.parse(probe(olds.get(i)));
+            if (null != old)
+            {
+                replaced.add(old);
+                replacedKeys.add(keys[i]);
+            }
+        }
+        expireChunks(jedis, replacedKeys, replaced);
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (null == statuses.get(i))
+            {
+                results.set(i, write(jedis, keys[i], values[i], values[i].length, expire));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 按清单读取并拼接分块, 分块缺失或校验失败时返回null(清单已被切换, 调用方重新读取清单)
+     *
+     * @param jedis
+     * @param key
+     * @param manifest
+     * @return 分块拼接后的编码数据
+     */
+    static byte[] read(Jedis jedis, byte[] key, Manifest manifest)
+    {
+        byte[][] chunkKeys = manifest.chunkKeys(key);
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<byte[]>> chunks = new ArrayList<Response<byte[]>>(chunkKeys.length);
+        for (byte[] chunkKey : chunkKeys)
+        {
+            chunks.add(pipeline.get(chunkKey));
+        }
+        pipeline.sync();
+        byte[] data = new byte[manifest.length];
+        int offset = 0;
+        for (Response<byte[]> response : chunks)
+        {
+            byte[] chunk = response.get();
+            if (null == chunk || chunk.length > data.length - offset)
+            {
+                return null;
+            }
+            System.arraycopy(chunk, 0, data, offset, chunk.length);
+            offset += chunk.length;
+        }
+        if (offset != data.length || crc(data, data.length) != manifest.crc)
+        {
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * 删除key, 是分块存储的值时同时删除全部分块
+     *
+     * @param jedis
+     * @param key
+     * @return 删除的key数
+     */
+    long delete(Jedis jedis, byte[] key)
+    {
+        return deleteAll(jedis, new byte[][] { key });
+    }
+
+    /**
+     * 批量删除: 一个管道中逐个用事务读出清单并删除key, 再删除分块
+     *
+     * @param jedis
+     * @param keys
+     * @return 删除的key数
+     */
+    long deleteAll(Jedis jedis, byte[][] keys)
+    {
+        ManifestPipeline pipeline = new ManifestPipeline(jedis.getClient());
+        List<Response<byte[]>> olds = new ArrayList<Response<byte[]>>(keys.length);
+        List<Response<Long>> deleted = new ArrayList<Response<Long>>(keys.length);
+        for (byte[] key : keys)
+        {
+            pipeline.multi();
+            olds.add(pipeline.getrangeBytes(key, 0, MANIFEST_PROBE - 1));
+            deleted.add(pipeline.del(key));
+            pipeline.exec();
+        }
+        pipeline.sync();
+        long count = 0;
+        Pipeline chunks = null;
+        for (int i = 0; i < keys.length; i++)
+        {
+            count += deleted.get(i).get();
+            Manifest manifest = Manifest.parse(probe(olds.get(i)));
+            if (null != manifest)
+            {
+                if (null == chunks)
+                {
+                    chunks = jedis.pipelined();
+                }
+                chunks.del(manifest.chunkKeys(keys[i]));
+            }
+        }
+        if (null != chunks)
+        {
+            chunks.sync();
+        }
+        return count;
+    }
+
+    /**
+     * 设置过期时间, 分块比清单晚宽限期过期
+     *
+     * @param jedis
+     * @param key
+     * @param seconds
+     * @return 影响的记录数
+     */
+    long expire(Jedis jedis, byte[] key, final int seconds)
+    {
+        return updateTtl(jedis, key, t -> t.expire(key, seconds),
+                (pipeline, chunkKey) -> pipeline.expire(chunkKey, seconds + graceSeconds));
+    }
+
+    /**
+     * 设置过期时间点(秒), 分块比清单晚宽限期过期
+     *
+     * @param jedis
+     * @param key
+     * @param unixTime
+     * @return 影响的记录数
+     */
+    long expireAt(Jedis jedis, byte[] key, final long unixTime)
+    {
+        return updateTtl(jedis, key, t -> t.expireAt(key, unixTime),
+                (pipeline, chunkKey) -> pipeline.expireAt(chunkKey, unixTime + graceSeconds));
+    }
+
+    /**
+     * 取消过期时间, 分块同时取消
+     *
+     * @param jedis
+     * @param key
+     * @return 影响的记录数
+     */
+    long persist(Jedis jedis, byte[] key)
+    {
+        return updateTtl(jedis, key, t -> t.persist(key), (pipeline, chunkKey) -> pipeline.persist(chunkKey));
+    }
+
+    /**
+     * 在读出清单的同一个事务中修改key的过期时间, 修改成功且是分块存储的值时对每个分块执行chunkCommand
+     */
+    private long updateTtl(Jedis jedis, byte[] key, Function<ManifestTransaction, Response<Long>> command,
+            BiConsumer<Pipeline, byte[]> chunkCommand)
+    {
+        ManifestTransaction t = ManifestTransaction.begin(jedis);
+        Response<byte[]> old = t.getrangeBytes(key, 0, MANIFEST_PROBE - 1);
+        Response<Long> updated = command.apply(t);
+        t.exec();
+        Manifest manifest = Manifest.parse(probe(old));
+        if (null != manifest && updated.get() > 0)
+        {
+            Pipeline pipeline = jedis.pipelined();
+            for (byte[] chunkKey : manifest.chunkKeys(key))
+            {
+                chunkCommand.accept(pipeline, chunkKey);
+            }
+            pipeline.sync();
+        }
+        return updated.get();
+    }
+
+    /**
+     * 更改key名, 分块按新key名改名, 与清单在同一个事务中; 被覆盖的新key原来是分块存储的值时旧分块在宽限期后过期
+     *
+     * @param jedis
+     * @param oldkey
+     * @param newkey
+     * @param nx
+     *            为true时仅当新key不存在时才执行
+     * @return 状态码, nx为true且新key已存在时返回null
+     */
+    String rename(Jedis jedis, byte[] oldkey, byte[] newkey, boolean nx)
+    {
+        while (true)
+        {
+            // 读出清单后新旧key被修改时事务不执行, 重新读取
+            jedis.watch(oldkey, newkey);
+            if (nx && jedis.exists(newkey))
+            {
+                jedis.unwatch();
+                return null;
+            }
+            Manifest source = Manifest.parse(getrange(jedis, oldkey));
+            Manifest target = Manifest.parse(getrange(jedis, newkey));
+            Transaction t = jedis.multi();
+            Response<String> status = t.rename(oldkey, newkey);
+            if (null != source)
+            {
+                byte[][] from = source.chunkKeys(oldkey);
+                byte[][] to = source.chunkKeys(newkey);
+                for (int i = 0; i < from.length; i++)
+                {
+                    t.rename(from[i], to[i]);
+                }
+            }
+            if (null == t.exec())
+            {
+                continue;
+            }
+            if (!Arrays.equals(oldkey, newkey))
+            {
+                expireChunks(jedis, newkey, target, null == source ? 0 : source.version);
+            }
+            return status.get();
+        }
+    }
+
+    /**
+     * 原值不是字符串时按不是清单处理
+     */
+    private static byte[] getrange(Jedis jedis, byte[] key)
+    {
+        try
+        {
+            return jedis.getrange(key, 0, MANIFEST_PROBE - 1);
+        }
+        catch (JedisDataException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * 旧版本的分块在宽限期后过期
+     */
+    private void expireChunks(Jedis jedis, byte[] key, Manifest old, long currentVersion)
+    {
+        if (null == old || old.version == currentVersion)
+        {
+            return;
+        }
+        expireChunks(jedis, Collections.singletonList(key), Collections.singletonList(old));
+    }
+
+    private void expireChunks(Jedis jedis, List<byte[]> keys, List<Manifest> olds)
+    {
+        if (olds.isEmpty())
+        {
+            return;
+        }
+        Pipeline pipeline = jedis.pipelined();
+        for (int i = 0; i < olds.size(); i++)
+        {
+            for (byte[] chunkKey : olds.get(i).chunkKeys(keys.get(i)))
+            {
+                pipeline.expire(chunkKey, graceSeconds);
+            }
+        }
+        pipeline.sync();
+    }
+
+    /**
+     * 原值不是字符串时 GETRANGE 报错, 按不是清单处理
+     */
+    private static byte[] probe(Response<byte[]> response)
+    {
+        try
+        {
+            return response.get();
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    private static long newVersion()
+    {
+        long version;
+        do
+        {
+            version = ThreadLocalRandom.current().nextLong();
+        }
+        while (version == 0);
+        return version;
+    }
+
+    private static int crc(byte[] data, int length)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 分块清单
+     */
+    static final class Manifest
+    {
+        private final long version;
+
+        private final int count;
+
+        private final int length;
+
+        private final int crc;
+
+        Manifest(long version, int count, int length, int crc)
+        {
+            this.version = version;
+            this.count = count;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        /**
+         * 解析清单, 不是清单时返回null
+         *
+         * @param bytes
+         *            值本身, 或值的开头部分
+         * @return
+         */
+        static Manifest parse(byte[] bytes)
+        {
+            if (!SerializeUtil.hasHeader(bytes) || (bytes[1] & 0xFF) != SerializeUtil.FLAG_CHUNKED)
+            {
+                return null;
+            }
+            int[] pos = { SerializeUtil.HEADER_LENGTH };
+            long version = 0;
+            for (int i = 0; i < 8; i++)
+            {
+                version = version << 8 | read(bytes, pos);
+            }
+            int count = readVarInt(bytes, pos);
+            int length = readVarInt(bytes, pos);
+            int crc = 0;
+            for (int i = 0; i < 4; i++)
+            {
+                crc = crc << 8 | read(bytes, pos);
+            }
+            if (count <= 0 || length < count)
+            {
+                throw new IllegalArgumentException("corrupted chunk manifest");
+            }
+            return new Manifest(version, count, length, crc);
+        }
+
+        byte[] encode()
+        {
+            ByteArrayOutput out = new ByteArrayOutput(MANIFEST_PROBE);
+            out.write(SerializeUtil.HEADER_MAGIC);
+            out.write(SerializeUtil.FLAG_CHUNKED);
+            for (int shift = 56; shift >= 0; shift -= 8)
+            {
+                out.write((int) (version >>> shift));
+            }
+            writeVarInt(out, count);
+            writeVarInt(out, length);
+            for (int shift = 24; shift >= 0; shift -= 8)
+            {
+                out.write(crc >>> shift);
+            }
+            return out.toByteArray();
+        }
+
+        byte[][] chunkKeys(byte[] key)
+        {
+            String name = SafeEncoder.encode(key);
+            int open = name.indexOf('{');
+            boolean tagged = open >= 0 && name.indexOf('}', open + 1) > open + 1;
+            String prefix = (tagged ? name : "{" + name + "}") + ":chunk:" + Long.toHexString(version) + ":";
+            byte[][] keys = new byte[count][];
+            for (int i = 0; i < count; i++)
+            {
+                keys[i] = SafeEncoder.encode(prefix + i);
+            }
+            return keys;
+        }
+
+        int getCount()
+        {
+            return count;
+        }
+
+        int getLength()
+        {
+            return length;
+        }
+
+        private static int read(byte[] bytes, int[] pos)
+        {
+            if (pos[0] >= bytes.length)
+            {
+                throw new IllegalArgumentException("corrupted chunk manifest");
+            }
+            return bytes[pos[0]++] & 0xFF;
+        }
+
+        private static int readVarInt(byte[] bytes, int[] pos)
+        {
+            int v = 0;
+            for (int shift = 0; shift <= 28; shift += 7)
+            {
+                int b = read(bytes, pos);
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                {
+                    return v;
+                }
+            }
+            throw new IllegalArgumentException("corrupted chunk manifest");
+        }
+
+        private static void writeVarInt(ByteArrayOutput out, int v)
+        {
+            while ((v & ~0x7F) != 0)
+            {
+                out.write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        }
+    }
+
+    /**
+     * 见 {@link ManifestTransaction}, 管道中用 MULTI/EXEC 包住 GETRANGE 和写入
+     */
+    private static final class ManifestPipeline extends Pipeline
+    {
+        private ManifestPipeline(Client client)
+        {
+            setClient(client);
+        }
+
+        Response<byte[]> getrangeBytes(byte[] key, long start, long end)
+        {
+            getClient(key).getrange(key, start, end);
+            return getResponse(BuilderFactory.BYTE_ARRAY);
+        }
+    }
+
+    /**
+     * Jedis 2.8.1 的 PipelineBase.getrange(byte[], long, long) 按 Long 解析响应, 这里补上返回字节的版本
+     */
+    private static final class ManifestTransaction extends Transaction
+    {
+        private ManifestTransaction(Client client)
+        {
+            super(client);
+        }
+
+        static ManifestTransaction begin(Jedis jedis)
+        {
+            jedis.getClient().multi();
+            return new ManifestTransaction(jedis.getClient());
+        }
+
+        Response<byte[]> getrangeBytes(byte[] key, long start, long end)
+        {
+            getClient(key).getrange(key, start, end);
+            return getResponse(BuilderFactory.BYTE_ARRAY);
+        }
+    }
+}
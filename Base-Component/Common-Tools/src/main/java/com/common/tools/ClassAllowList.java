@@ -0,0 +1,132 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 反序列化类白名单: 完整类名 + 以 .* 结尾的包名(含子包)
+ * <p>
+ * 解码时作为参数传给编解码器({@link Codec#decode(byte[], int, int, ClassAllowList)}),
+ * 不同的 RedisUtil 可以使用不同的白名单; 为null时不限制。
+ *
+ */
+public final class ClassAllowList
+{
+    /**
+     * 始终允许的 JDK 值类型: 基本类型的包装类、字符串、常用集合及其包装类、日期和数值类型;
+     * 只列出具体的类, 不按包放行
+     */
+    public static final List<String> DEFAULT_ALLOWED = Collections.unmodifiableList(Arrays.asList(
+            "java.lang.Object", "java.lang.String", "java.lang.Boolean", "java.lang.Byte", "java.lang.Character",
+            "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+            "java.lang.Number", "java.lang.Enum", "java.math.BigDecimal", "java.math.BigInteger",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.ArrayDeque", "java.util.Vector",
+            "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap", "java.util.Hashtable",
+            "java.util.IdentityHashMap", "java.util.EnumMap", "java.util.HashSet", "java.util.LinkedHashSet",
+            "java.util.TreeSet", "java.util.EnumSet$SerializationProxy", "java.util.BitSet", "java.util.Date",
+            "java.util.UUID", "java.util.Locale", "java.util.Currency", "java.util.Arrays$ArrayList",
+            "java.util.CollSer", "java.util.Collections$EmptyList", "java.util.Collections$EmptySet",
+            "java.util.Collections$EmptyMap", "java.util.Collections$SingletonList",
+            "java.util.Collections$SingletonSet", "java.util.Collections$SingletonMap",
+            "java.util.Collections$UnmodifiableCollection", "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableSet",
+            "java.util.Collections$UnmodifiableSortedSet", "java.util.Collections$UnmodifiableMap",
+            "java.util.Collections$UnmodifiableSortedMap", "java.util.Collections$SynchronizedCollection",
+            "java.util.Collections$SynchronizedList", "java.util.Collections$SynchronizedRandomAccessList",
+            "java.util.Collections$SynchronizedSet", "java.util.Collections$SynchronizedMap",
+            "java.util.Collections$ReverseComparator", "java.util.concurrent.ConcurrentHashMap",
+            "java.util.concurrent.ConcurrentHashMap$Segment", "java.util.concurrent.CopyOnWriteArrayList",
+            "java.util.concurrent.atomic.AtomicInteger", "java.util.concurrent.atomic.AtomicLong",
+            "java.util.concurrent.atomic.AtomicBoolean", "java.time.Ser", "java.sql.Date", "java.sql.Time",
+            "java.sql.Timestamp"));
+
+    private final Set<String> names = new HashSet<String>();
+
+    private final String[] prefixes;
+
+    private ClassAllowList(Collection<String> patterns)
+    {
+        List<String> prefixList = new ArrayList<String>();
+        for (String pattern : patterns)
+        {
+            String p = pattern.trim();
+            if (p.endsWith(".*"))
+            {
+                prefixList.add(p.substring(0, p.length() - 1));
+            }
+            else if (!p.isEmpty())
+            {
+                names.add(p);
+            }
+        }
+        prefixes = prefixList.toArray(new String[prefixList.size()]);
+    }
+
+    /**
+     * 白名单为 {@link #DEFAULT_ALLOWED} 加上patterns
+     *
+     * @param patterns
+     *            完整类名, 或以 .* 结尾的包名(含子包)
+     * @return
+     */
+    public static ClassAllowList of(Collection<String> patterns)
+    {
+        List<String> all = new ArrayList<String>(DEFAULT_ALLOWED);
+        all.addAll(patterns);
+        return new ClassAllowList(all);
+    }
+
+    /**
+     * 类名是否允许反序列化, 数组按元素类型判断
+     *
+     * @param className
+     * @return
+     */
+    public boolean allows(String className)
+    {
+        String name = className;
+        if (name.startsWith("["))
+        {
+            int dims = 0;
+            while (dims < name.length() && name.charAt(dims) == '[')
+            {
+                dims++;
+            }
+            if (name.charAt(dims) != 'L')
+            {
+                // 基本类型数组
+                return true;
+            }
+            name = name.substring(dims + 1, name.length() - 1);
+        }
+        if (names.contains(name))
+        {
+            return true;
+        }
+        for (String prefix : prefixes)
+        {
+            if (name.startsWith(prefix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * allowList为null时不限制
+     *
+     * @param allowList
+     * @param className
+     * @return
+     */
+    static boolean isAllowed(ClassAllowList allowList, String className)
+    {
+        return null == allowList || allowList.allows(className);
+    }
+}
@@ -0,0 +1,64 @@
+package com.common.tools;
+
+import java.io.IOException;
+
+/**
+ * 对象编解码器
+ * <p>
+ * {@link SerializeUtil#encode(Object, Codec)} 在编码结果前写入数据头(魔数 + 编码标识),
+ * {@link SerializeUtil#decode(byte[])} 按数据头选择编解码器, 因此不同编码写入的值可以共存, 便于迁移。<br/>
+ * 内置 {@link JavaSerializationCodec}(标识1) 和 {@link BinaryCodec}(标识2);
+ * 自定义实现可以调用 {@link SerializeUtil#registerCodec(Codec)} 注册, 或在
+ * META-INF/services/com.common.tools.Codec 中声明后由 ServiceLoader 自动加载。<br/>
+ * 只能解码特定类型的编解码器(例如 {@link PojoCodec})不需要注册, 读取时由调用方指定, 见
+ * {@link SerializeUtil#decode(byte[], Codec, ValueCompressor)}。<br/>
+ * 实现必须是线程安全的。
+ *
+ * @param <T>
+ *            可编码的类型, 通用的编解码器为 Object
+ */
+public interface Codec<T>
+{
+    /**
+     * 编码标识, 写入数据头, 取值 1~15
+     *
+     * @return
+     */
+    int getId();
+
+    /**
+     * 将对象编码后写入out
+     *
+     * @param obj
+     * @param out
+     * @throws IOException
+     */
+    void encode(T obj, ByteArrayOutput out) throws IOException;
+
+    /**
+     * 从 bytes[offset, offset + length) 解码对象
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    T decode(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * 解码时按白名单检查数据中的类名; 数据中不含类名的实现不需要覆盖
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @param allowList
+     *            为null时不限制
+     * @return
+     * @throws IOException
+     */
+    default T decode(byte[] bytes, int offset, int length, ClassAllowList allowList) throws IOException
+    {
+        return decode(bytes, offset, length);
+    }
+}
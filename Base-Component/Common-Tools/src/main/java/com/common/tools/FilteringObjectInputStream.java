@@ -0,0 +1,111 @@
+package com.common.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带类白名单和类解析缓存的 ObjectInputStream
+ * <p>
+ * 默认的 resolveClass 每次都要遍历调用栈查找类加载器再调用 Class.forName, 这里把解析结果按类名缓存(只缓存
+ * SerializeUtil 所在的类加载器能加载的类; 加载不到的类名也记录下来, 之后直接按默认方式解析, 不再重复抛出
+ * ClassNotFoundException); 类描述符本身由 JDK 按类缓存
+ * (ObjectStreamClass.lookup), 不需要另外处理。<br/>
+ * 指定白名单({@link ClassAllowList})后, 不在白名单中的类在加载之前就被拒绝(抛出 InvalidClassException),
+ * 避免反序列化不可信数据时加载任意类; 白名单属于这个流, 不影响其他流。未指定白名单时不限制, 与旧版本行为相同。
+ *
+ */
+public class FilteringObjectInputStream extends ObjectInputStream
+{
+    private static final ClassLoader LOADER = FilteringObjectInputStream.class.getClassLoader();
+
+    private static final ConcurrentHashMap<String, Class<?>> RESOLVED = new ConcurrentHashMap<String, Class<?>>();
+
+    /**
+     * RESOLVED 中表示 LOADER 加载不到该类的标记
+     */
+    private static final Class<?> NOT_FOUND = NotFound.class;
+
+    /**
+     * 加载不到的类名来自数据, 最多记录这么多个, 避免不可信数据撑大缓存
+     */
+    private static final int MAX_NOT_FOUND = 1024;
+
+    private static final AtomicInteger notFoundCount = new AtomicInteger();
+
+    // null 表示不限制
+    private final ClassAllowList allowList;
+
+    public FilteringObjectInputStream(InputStream in) throws IOException
+    {
+        this(in, null);
+    }
+
+    /**
+     * @param in
+     * @param allowList
+     *            为null时不限制
+     * @throws IOException
+     */
+    public FilteringObjectInputStream(InputStream in, ClassAllowList allowList) throws IOException
+    {
+        super(in);
+        this.allowList = allowList;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+    {
+        String name = desc.getName();
+        // 缓存由所有流共用, 先按本流的白名单检查
+        if (!ClassAllowList.isAllowed(allowList, name))
+        {
+            throw new InvalidClassException(name, "class is not allowed to be deserialized");
+        }
+        Class<?> type = RESOLVED.get(name);
+        if (NOT_FOUND == type)
+        {
+            return super.resolveClass(desc);
+        }
+        if (null != type)
+        {
+            return type;
+        }
+        try
+        {
+            type = Class.forName(name, false, LOADER);
+        }
+        catch (ClassNotFoundException e)
+        {
+            // 由其他类加载器加载的类, 按默认方式解析, 解析结果不缓存
+            if (notFoundCount.get() < MAX_NOT_FOUND && null == RESOLVED.putIfAbsent(name, NOT_FOUND))
+            {
+                notFoundCount.incrementAndGet();
+            }
+            return super.resolveClass(desc);
+        }
+        RESOLVED.putIfAbsent(name, type);
+        return type;
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException
+    {
+        for (String name : interfaces)
+        {
+            if (!ClassAllowList.isAllowed(allowList, name))
+            {
+                throw new InvalidClassException(name, "proxy interface is not allowed to be deserialized");
+            }
+        }
+        return super.resolveProxyClass(interfaces);
+    }
+
+    private static final class NotFound
+    {
+    }
+}
@@ -0,0 +1,156 @@
+package com.common.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+
+/**
+ * JDK 序列化编解码器
+ * <p>
+ * 与 {@link SerializeUtil#serialize(Object)} 的格式相同。Java 序列化数据以魔数 0xACED 开头, 可以自我识别,
+ * 因此 {@link SerializeUtil#encode(Object, Codec)} 对它不另加数据头, 写入的值与旧版本完全兼容。<br/>
+ * 编码时每个线程复用一个 ObjectOutputStream(每次写完 reset 清空引用表, 流头直接写入),
+ * 省去每次新建流及其内部缓冲区的开销, 输出与新建的流逐字节相同。解码使用 {@link FilteringObjectInputStream}。
+ *
+ */
+public class JavaSerializationCodec implements Codec<Object>
+{
+    public static final int ID = 1;
+
+    private static final ThreadLocal<ReusableStream> streams = new ThreadLocal<ReusableStream>();
+
+    @Override
+    public int getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public void encode(Object obj, ByteArrayOutput out) throws IOException
+    {
+        ReusableStream stream = streams.get();
+        if (null == stream)
+        {
+            stream = new ReusableStream();
+            streams.set(stream);
+        }
+        else if (stream.inUse)
+        {
+            // 在 writeObject 中嵌套编码, 使用新的流
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(obj);
+            oos.flush();
+            return;
+        }
+        boolean completed = false;
+        stream.inUse = true;
+        try
+        {
+            stream.write(obj, out);
+            completed = true;
+        }
+        finally
+        {
+            stream.inUse = false;
+            if (!completed)
+            {
+                // 写入中途失败时流的状态不确定, 丢弃
+                streams.remove();
+            }
+        }
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int offset, int length) throws IOException
+    {
+        return decode(bytes, offset, length, null);
+    }
+
+    @Override
+    public Object decode(byte[] bytes, int offset, int length, ClassAllowList allowList) throws IOException
+    {
+        ObjectInputStream ois = new FilteringObjectInputStream(new ByteArrayInputStream(bytes, offset, length),
+                allowList);
+        try
+        {
+            return ois.readObject();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException(e);
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
+    /**
+     * 可复用的 ObjectOutputStream, 底层输出可以切换
+     */
+    private static final class ReusableStream
+    {
+        private final Sink sink = new Sink();
+
+        private final ObjectOutputStream oos;
+
+        private boolean inUse;
+
+        private ReusableStream() throws IOException
+        {
+            // 构造时写出的流头被丢弃, 每次写入时单独写流头
+            oos = new ObjectOutputStream(sink);
+            oos.flush();
+        }
+
+        private void write(Object obj, ByteArrayOutput out) throws IOException
+        {
+            out.write(ObjectStreamConstants.STREAM_MAGIC >>> 8);
+            out.write(ObjectStreamConstants.STREAM_MAGIC);
+            out.write(ObjectStreamConstants.STREAM_VERSION >>> 8);
+            out.write(ObjectStreamConstants.STREAM_VERSION);
+            sink.target = out;
+            try
+            {
+                oos.writeObject(obj);
+                oos.flush();
+            }
+            finally
+            {
+                sink.target = null;
+            }
+            // reset 写出的 TC_RESET 被丢弃, 只用于清空引用表
+            oos.reset();
+            oos.flush();
+        }
+    }
+
+    /**
+     * target 为null时丢弃写入的数据
+     */
+    private static final class Sink extends OutputStream
+    {
+        private ByteArrayOutput target;
+
+        @Override
+        public void write(int b)
+        {
+            if (null != target)
+            {
+                target.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            if (null != target)
+            {
+                target.write(b, off, len);
+            }
+        }
+    }
+}
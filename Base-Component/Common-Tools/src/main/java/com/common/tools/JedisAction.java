@@ -0,0 +1,12 @@
+package com.common.tools;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * 在一个已借出的 Jedis 连接上执行的操作, 连接的获取、重定向和归还由调用方负责
+ *
+ */
+public interface JedisAction<T>
+{
+    T doInJedis(Jedis jedis);
+}
@@ -0,0 +1,744 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.Pool;
+
+/**
+ * 按key把请求路由到不同分区(集群槽位或分片)的路由器基类
+ * <p>
+ * 子类决定key属于哪个分区、分区在哪个节点上以及如何在分区上执行操作; 本类负责把多key操作按节点拆分,
+ * 每个节点一个管道(需要同一分区的命令如 MGET 在管道内按分区拆分), 在有界线程池中并行执行, 再按调用方的key顺序合并结果。
+ * 管道结果中的 MOVED/ASK 重定向交给 {@link #redirect(JedisRedirectionException)} 处理后重发到新的节点。
+ *
+ * @param <P>
+ *            分区标识
+ */
+public abstract class KeyRouter<P>
+{
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param name
+     *            线程名前缀
+     * @param threads
+     *            多key操作并行执行的线程数
+     */
+    protected KeyRouter(final String name, int threads)
+    {
+        final AtomicInteger seq = new AtomicInteger();
+        // 线程全忙时由调用线程自己执行, 天然限流
+        this.executor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, name + "-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * key所属的分区
+     *
+     * @param key
+     * @return
+     */
+    public abstract P partitionOf(String key);
+
+    public abstract P partitionOf(byte[] key);
+
+    /**
+     * 在分区上执行操作, 连接的借用与归还由实现负责
+     *
+     * @param partition
+     * @param action
+     * @return
+     */
+    public abstract <T> T execute(P partition, JedisAction<T> action);
+
+    /**
+     * 借用key所在分区的连接, 调用方负责归还
+     *
+     * @param key
+     * @return
+     */
+    public abstract Jedis getResource(String key);
+
+    public abstract Jedis getResource(byte[] key);
+
+    /**
+     * 分区所在节点(主节点)的连接池; 集群中多个槽位属于同一个节点
+     *
+     * @param partition
+     * @return
+     */
+    protected abstract Pool<Jedis> poolOf(P partition);
+
+    /**
+     * 处理管道结果中的重定向: MOVED 时更新映射后返回null, 按新的映射重发; ASK 时返回目标节点的连接池,
+     * 发送 ASKING 后重发。只有集群会收到重定向
+     *
+     * @param e
+     * @return
+     */
+    protected Pool<Jedis> redirect(JedisRedirectionException e)
+    {
+        throw e;
+    }
+
+    /**
+     * 管道结果中的重定向最多跟随的次数
+     *
+     * @return
+     */
+    protected int getMaxRedirections()
+    {
+        return 0;
+    }
+
+    /**
+     * 节点连接失败时调用, 集群在此刷新槽位映射以便找到故障转移后的主节点
+     */
+    protected void onConnectionFailure()
+    {
+    }
+
+    /**
+     * 所有主节点的连接池
+     *
+     * @return
+     */
+    public abstract List<? extends Pool<Jedis>> getMasterPools();
+
+    /**
+     * 关闭路由器持有的连接池
+     */
+    protected abstract void closePools();
+
+    /**
+     * 在key所在的分区上执行操作
+     *
+     * @param key
+     * @param action
+     * @return
+     */
+    public <T> T executeByKey(String key, JedisAction<T> action)
+    {
+        return execute(partitionOf(key), action);
+    }
+
+    /**
+     * 按分区对key分组, 返回 分区 -> key在原数组中的下标
+     *
+     * @param keys
+     * @return
+     */
+    public Map<P, List<Integer>> groupByPartition(String... keys)
+    {
+        Map<P, List<Integer>> groups = new LinkedHashMap<P, List<Integer>>();
+        for (int i = 0; i < keys.length; i++)
+        {
+            P partition = partitionOf(keys[i]);
+            List<Integer> indexes = groups.get(partition);
+            if (null == indexes)
+            {
+                indexes = new ArrayList<Integer>();
+                groups.put(partition, indexes);
+            }
+            indexes.add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * 并行执行各分区上的操作, 返回结果与参数的迭代顺序一致
+     *
+     * @param actions
+     *            分区 -> 操作
+     * @return
+     */
+    public <T> List<T> executeAll(Map<P, JedisAction<T>> actions)
+    {
+        List<T> results = new ArrayList<T>(actions.size());
+        if (actions.size() == 1)
+        {
+            Map.Entry<P, JedisAction<T>> only = actions.entrySet().iterator().next();
+            results.add(execute(only.getKey(), only.getValue()));
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<Future<T>>(actions.size());
+        for (final Map.Entry<P, JedisAction<T>> entry : actions.entrySet())
+        {
+            futures.add(executor.submit(() -> execute(entry.getKey(), entry.getValue())));
+        }
+        for (Future<T> future : futures)
+        {
+            results.add(getResult(future));
+        }
+        return results;
+    }
+
+    /**
+     * 在每个主节点上并行执行操作(用于 FLUSHALL/KEYS 等与key无关的命令)
+     *
+     * @param action
+     * @return 各主节点的结果
+     */
+    public <T> List<T> executeOnMasters(final JedisAction<T> action)
+    {
+        Map<Pool<Jedis>, JedisAction<T>> actions = new IdentityHashMap<Pool<Jedis>, JedisAction<T>>();
+        for (Pool<Jedis> pool : getMasterPools())
+        {
+            actions.put(pool, action);
+        }
+        return executeOnPools(actions, false);
+    }
+
+    /**
+     * 并行执行各节点上的操作, 返回结果与参数的迭代顺序一致
+     *
+     * @param actions
+     *            连接池 -> 操作
+     * @param connectionFailureAsNull
+     *            为true时节点连接失败的结果为null, 不抛出异常
+     * @return
+     */
+    private <T> List<T> executeOnPools(Map<Pool<Jedis>, JedisAction<T>> actions,
+            final boolean connectionFailureAsNull)
+    {
+        List<T> results = new ArrayList<T>(actions.size());
+        if (actions.size() == 1)
+        {
+            Map.Entry<Pool<Jedis>, JedisAction<T>> only = actions.entrySet().iterator().next();
+            results.add(execute(only.getKey(), only.getValue(), connectionFailureAsNull));
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<Future<T>>(actions.size());
+        for (final Map.Entry<Pool<Jedis>, JedisAction<T>> entry : actions.entrySet())
+        {
+            futures.add(executor.submit(() -> execute(entry.getKey(), entry.getValue(), connectionFailureAsNull)));
+        }
+        for (Future<T> future : futures)
+        {
+            results.add(getResult(future));
+        }
+        return results;
+    }
+
+    private static <T> T execute(Pool<Jedis> pool, JedisAction<T> action, boolean connectionFailureAsNull)
+    {
+        Jedis jedis = null;
+        try
+        {
+            jedis = pool.getResource();
+            return action.doInJedis(jedis);
+        }
+        catch (JedisConnectionException e)
+        {
+            if (connectionFailureAsNull)
+            {
+                return null;
+            }
+            throw e;
+        }
+        finally
+        {
+            if (null != jedis)
+            {
+                jedis.close();
+            }
+        }
+    }
+
+    /**
+     * 批量获取, 按节点分组并行执行, 每个节点一个管道, 管道内每个分区一次 MGET
+     *
+     * @param keys
+     * @return 与keys顺序一致的值
+     */
+    public List<String> mget(final String... keys)
+    {
+        List<Object> values = executeGrouped(keys,
+                (jedis, indexes) -> pipelinedByPartition(jedis, keys, indexes, (pipeline, sub) -> pipeline.mget(sub)));
+        List<String> result = new ArrayList<String>(values.size());
+        for (Object value : values)
+        {
+            result.add((String) check(value));
+        }
+        return result;
+    }
+
+    /**
+     * 按节点分组, 每个节点使用一个管道对其中的key执行命令, 各节点并行执行
+     *
+     * @param keys
+     * @param command
+     * @return 与keys顺序一致的结果, 单个命令的错误以 JedisDataException 放入结果
+     */
+    public List<Object> pipelined(final String[] keys, final KeyedPipelineExecute command)
+    {
+        return executeGrouped(keys, (jedis, indexes) -> command.execute(jedis, pick(keys, indexes)));
+    }
+
+    /**
+     * 按节点分组, 在每个节点上用组内key的下标执行操作, 各节点并行执行; 用于每个key对应的不只是key本身的批量操作。<br/>
+     * 结果中的 {@link JedisRedirectionException} 交给 {@link #redirect(JedisRedirectionException)} 处理后,
+     * 把这些key重发到新的节点, 最多 {@link #getMaxRedirections()} 次; 节点连接失败时调用
+     * {@link #onConnectionFailure()} 后重发该节点的key一次
+     *
+     * @param keys
+     *            路由key
+     * @param action
+     *            连接, 组内key在keys中的下标 -> 与下标顺序一致的结果, 单个key的错误以异常放入结果
+     * @return 与keys顺序一致的结果
+     */
+    public <T> List<T> executeGrouped(String[] keys, final BiFunction<Jedis, List<Integer>, List<T>> action)
+    {
+        List<T> results = new ArrayList<T>(keys.length);
+        List<Integer> pending = new ArrayList<Integer>(keys.length);
+        for (int i = 0; i < keys.length; i++)
+        {
+            results.add(null);
+            pending.add(i);
+        }
+        // 收到 ASK 的key: 下标 -> 目标节点
+        Map<Integer, Pool<Jedis>> asking = new HashMap<Integer, Pool<Jedis>>();
+        boolean connectionRetried = false;
+        for (int redirections = 0; !pending.isEmpty();)
+        {
+            Map<Pool<Jedis>, NodeBatch> batches = new IdentityHashMap<Pool<Jedis>, NodeBatch>();
+            for (Integer i : pending)
+            {
+                Pool<Jedis> target = asking.get(i);
+                Pool<Jedis> pool = null != target ? target : poolOf(partitionOf(keys[i]));
+                NodeBatch batch = batches.get(pool);
+                if (null == batch)
+                {
+                    batch = new NodeBatch();
+                    batches.put(pool, batch);
+                }
+                (null != target ? batch.asking : batch.indexes).add(i);
+            }
+            Map<Pool<Jedis>, JedisAction<List<T>>> actions = new IdentityHashMap<Pool<Jedis>, JedisAction<List<T>>>();
+            for (Map.Entry<Pool<Jedis>, NodeBatch> entry : batches.entrySet())
+            {
+                final NodeBatch batch = entry.getValue();
+                actions.put(entry.getKey(), jedis -> batch.execute(jedis, action));
+            }
+            List<List<T>> parts = executeOnPools(actions, true);
+            List<Integer> failed = new ArrayList<Integer>();
+            List<Integer> redirected = new ArrayList<Integer>();
+            int g = 0;
+            for (NodeBatch batch : batches.values())
+            {
+                List<T> part = parts.get(g++);
+                List<Integer> indexes = batch.all();
+                if (null == part)
+                {
+                    failed.addAll(indexes);
+                    continue;
+                }
+                for (int j = 0; j < indexes.size(); j++)
+                {
+                    results.set(indexes.get(j), part.get(j));
+                    if (part.get(j) instanceof JedisRedirectionException)
+                    {
+                        redirected.add(indexes.get(j));
+                    }
+                }
+            }
+            if (!failed.isEmpty())
+            {
+                if (connectionRetried)
+                {
+                    throw new JedisConnectionException("Could not reach the node for " + failed.size() + " keys");
+                }
+                connectionRetried = true;
+                onConnectionFailure();
+            }
+            if (!redirected.isEmpty() && redirections++ < getMaxRedirections())
+            {
+                Set<Integer> movedSlots = new HashSet<Integer>();
+                for (Integer i : redirected)
+                {
+                    JedisRedirectionException e = (JedisRedirectionException) results.get(i);
+                    // 同一槽位的 MOVED 只更新一次映射
+                    boolean moved = e instanceof JedisMovedDataException;
+                    Pool<Jedis> target = moved && !movedSlots.add(e.getSlot()) ? null : redirect(e);
+                    if (null == target)
+                    {
+                        asking.remove(i);
+                    }
+                    else
+                    {
+                        asking.put(i, target);
+                    }
+                }
+                failed.addAll(redirected);
+            }
+            pending = failed;
+        }
+        return results;
+    }
+
+    /**
+     * 在连接上用管道对组内的key按分区执行多key命令(例如 MGET), 每个分区一条命令; 命令的错误放入该分区每个key的结果
+     *
+     * @param jedis
+     * @param keys
+     * @param indexes
+     * @param command
+     *            管道, 同一分区的key -> 命令的响应
+     * @return 与indexes顺序一致的结果
+     */
+    private List<Object> pipelinedByPartition(Jedis jedis, String[] keys, List<Integer> indexes,
+            BiFunction<Pipeline, String[], Response<?>> command)
+    {
+        Map<P, List<Integer>> groups = new LinkedHashMap<P, List<Integer>>();
+        for (int j = 0; j < indexes.size(); j++)
+        {
+            P partition = partitionOf(keys[indexes.get(j)]);
+            List<Integer> positions = groups.get(partition);
+            if (null == positions)
+            {
+                positions = new ArrayList<Integer>();
+                groups.put(partition, positions);
+            }
+            positions.add(j);
+        }
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<?>> responses = new ArrayList<Response<?>>(groups.size());
+        for (List<Integer> positions : groups.values())
+        {
+            String[] sub = new String[positions.size()];
+            for (int j = 0; j < sub.length; j++)
+            {
+                sub[j] = keys[indexes.get(positions.get(j))];
+            }
+            responses.add(command.apply(pipeline, sub));
+        }
+        pipeline.sync();
+        List<Object> results = new ArrayList<Object>(Collections.nCopies(indexes.size(), null));
+        int r = 0;
+        for (List<Integer> positions : groups.values())
+        {
+            Object reply;
+            try
+            {
+                reply = responses.get(r++).get();
+            }
+            catch (JedisDataException e)
+            {
+                reply = e;
+            }
+            for (int j = 0; j < positions.size(); j++)
+            {
+                // MGET 返回列表, 按位置拆开; 其他命令的结果对该分区的每个key相同
+                results.set(positions.get(j), reply instanceof List ? ((List<?>) reply).get(j) : reply);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 批量存储, 按节点分组并行执行, 管道内每个分区一次 MSET; 跨分区时整体不是原子的
+     *
+     * @param keysvalues
+     * @return
+     */
+    public String mset(final String... keysvalues)
+    {
+        String[] keys = new String[keysvalues.length / 2];
+        final Map<String, String> values = new HashMap<String, String>(keys.length * 4 / 3 + 1);
+        for (int i = 0; i < keys.length; i++)
+        {
+            keys[i] = keysvalues[i * 2];
+            values.put(keys[i], keysvalues[i * 2 + 1]);
+        }
+        List<Object> statuses = executeGrouped(keys, (jedis, indexes) -> pipelinedByPartition(jedis, keys, indexes,
+                (pipeline, sub) -> {
+                    String[] pairs = new String[sub.length * 2];
+                    for (int j = 0; j < sub.length; j++)
+                    {
+                        pairs[j * 2] = sub[j];
+                        pairs[j * 2 + 1] = values.get(sub[j]);
+                    }
+                    return pipeline.mset(pairs);
+                }));
+        String status = null;
+        for (Object part : statuses)
+        {
+            status = (String) check(part);
+        }
+        return status;
+    }
+
+    /**
+     * 按节点分组删除, 管道内每个分区一次 DEL
+     *
+     * @param keys
+     * @return 删除的记录数
+     */
+    public long del(final String... keys)
+    {
+        List<Object> counts = executeGrouped(keys,
+                (jedis, indexes) -> pipelinedByPartition(jedis, keys, indexes, (pipeline, sub) -> pipeline.del(sub)));
+        // 同一分区的每个key得到该分区 DEL 的结果, 每个分区只计一次
+        long count = 0;
+        Set<P> counted = new HashSet<P>();
+        for (int i = 0; i < keys.length; i++)
+        {
+            Object part = check(counts.get(i));
+            if (counted.add(partitionOf(keys[i])))
+            {
+                count += (Long) part;
+            }
+        }
+        return count;
+    }
+
+    public long del(byte[]... keys)
+    {
+        return del(keys, (jedis, sub) -> jedis.del(sub));
+    }
+
+    /**
+     * 按分区拆分, 每个分区的key交给delete删除
+     *
+     * @param keys
+     * @param delete
+     *            连接, 同一分区的key -> 删除的记录数
+     * @return 删除的记录数
+     */
+    public long del(byte[][] keys, final BiFunction<Jedis, byte[][], Long> delete)
+    {
+        Map<P, List<byte[]>> groups = new LinkedHashMap<P, List<byte[]>>();
+        for (byte[] key : keys)
+        {
+            P partition = partitionOf(key);
+            List<byte[]> group = groups.get(partition);
+            if (null == group)
+            {
+                group = new ArrayList<byte[]>();
+                groups.put(partition, group);
+            }
+            group.add(key);
+        }
+        Map<P, JedisAction<Long>> actions = new LinkedHashMap<P, JedisAction<Long>>();
+        for (Map.Entry<P, List<byte[]>> group : groups.entrySet())
+        {
+            final byte[][] sub = group.getValue().toArray(new byte[group.getValue().size()][]);
+            actions.put(group.getKey(), jedis -> delete.apply(jedis, sub));
+        }
+        long count = 0;
+        for (Long part : executeAll(actions))
+        {
+            count += part;
+        }
+        return count;
+    }
+
+    /**
+     * 交集: 同分区的key在服务端求交集, 各分区的结果再在本地求交集
+     *
+     * @param keys
+     * @return
+     */
+    public Set<String> sinter(String... keys)
+    {
+        Set<String> result = null;
+        for (Set<String> part : executeSetOp(keys, true))
+        {
+            if (null == result)
+            {
+                result = new HashSet<String>(part);
+            }
+            else
+            {
+                result.retainAll(part);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 并集: 同分区的key在服务端求并集, 各分区的结果再在本地合并
+     *
+     * @param keys
+     * @return
+     */
+    public Set<String> sunion(String... keys)
+    {
+        Set<String> result = new HashSet<String>();
+        for (Set<String> part : executeSetOp(keys, false))
+        {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    /**
+     * 差集: 第一个key所在分区先在服务端求差集, 再减去其他分区的并集
+     *
+     * @param keys
+     * @return
+     */
+    public Set<String> sdiff(String... keys)
+    {
+        Map<P, List<Integer>> groups = groupByPartition(keys);
+        P first = partitionOf(keys[0]);
+        Map<P, JedisAction<Set<String>>> actions = new LinkedHashMap<P, JedisAction<Set<String>>>();
+        for (Map.Entry<P, List<Integer>> group : groups.entrySet())
+        {
+            final String[] sub = pick(keys, group.getValue());
+            if (group.getKey().equals(first))
+            {
+                actions.put(group.getKey(), jedis -> jedis.sdiff(sub));
+            }
+            else
+            {
+                actions.put(group.getKey(), jedis -> jedis.sunion(sub));
+            }
+        }
+        List<Set<String>> parts = executeAll(actions);
+        // 第一个key所在的分区必然是第一个分组
+        Set<String> result = new HashSet<String>(parts.get(0));
+        for (int i = 1; i < parts.size(); i++)
+        {
+            result.removeAll(parts.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * 关闭并行线程池和连接池
+     */
+    public void close()
+    {
+        executor.shutdown();
+        closePools();
+    }
+
+    private List<Set<String>> executeSetOp(String[] keys, boolean inter)
+    {
+        Map<P, JedisAction<Set<String>>> actions = new LinkedHashMap<P, JedisAction<Set<String>>>();
+        for (Map.Entry<P, List<Integer>> group : groupByPartition(keys).entrySet())
+        {
+            final String[] sub = pick(keys, group.getValue());
+            actions.put(group.getKey(), inter ? jedis -> jedis.sinter(sub) : jedis -> jedis.sunion(sub));
+        }
+        return executeAll(actions);
+    }
+
+    /**
+     * 按下标取出子数组
+     *
+     * @param keys
+     * @param indexes
+     * @return
+     */
+    protected static String[] pick(String[] keys, List<Integer> indexes)
+    {
+        String[] sub = new String[indexes.size()];
+        for (int i = 0; i < sub.length; i++)
+        {
+            sub[i] = keys[indexes.get(i)];
+        }
+        return sub;
+    }
+
+    /**
+     * 结果是错误时抛出
+     */
+    private static Object check(Object result)
+    {
+        if (result instanceof RuntimeException)
+        {
+            throw (RuntimeException) result;
+        }
+        return result;
+    }
+
+    private static <T> T getResult(Future<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * 发往同一节点的key: 按映射路由的key用一个管道, 收到 ASK 的key逐个在 ASKING 之后发送
+     */
+    private static final class NodeBatch
+    {
+        private final List<Integer> indexes = new ArrayList<Integer>();
+
+        private final List<Integer> asking = new ArrayList<Integer>();
+
+        private List<Integer> all()
+        {
+            List<Integer> all = new ArrayList<Integer>(indexes);
+            all.addAll(asking);
+            return all;
+        }
+
+        /**
+         * @return 与 {@link #all()} 顺序一致的结果
+         */
+        private <T> List<T> execute(Jedis jedis, BiFunction<Jedis, List<Integer>, List<T>> action)
+        {
+            List<T> results = new ArrayList<T>();
+            if (!indexes.isEmpty())
+            {
+                results.addAll(action.apply(jedis, indexes));
+            }
+            for (Integer i : asking)
+            {
+                jedis.asking();
+                results.addAll(action.apply(jedis, Collections.singletonList(i)));
+            }
+            return results;
+        }
+    }
+}
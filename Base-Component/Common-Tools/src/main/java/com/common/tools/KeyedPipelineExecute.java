@@ -0,0 +1,59 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * 按key执行的管道操作
+ * <p>
+ * 每个key调用一次 {@link #execute(Pipeline, String)}, 由调用方按key所在的节点/分片分组,
+ * 每组使用一个管道发送, 结果按key的顺序返回。
+ *
+ */
+public abstract class KeyedPipelineExecute
+{
+    /**
+     * 向管道追加对key的命令
+     *
+     * @param pipeline
+     * @param key
+     * @return 命令的响应
+     */
+    public abstract Response<?> execute(Pipeline pipeline, String key);
+
+    /**
+     * 在一个连接上用管道对一组key执行命令, 单个命令的错误以 JedisDataException 放入结果
+     *
+     * @param jedis
+     * @param keys
+     * @return 与keys顺序一致的结果
+     */
+    public List<Object> execute(Jedis jedis, String... keys)
+    {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<?>> responses = new ArrayList<Response<?>>(keys.length);
+        for (String key : keys)
+        {
+            responses.add(execute(pipeline, key));
+        }
+        pipeline.sync();
+        List<Object> results = new ArrayList<Object>(keys.length);
+        for (Response<?> response : responses)
+        {
+            try
+            {
+                results.add(null == response ? null : response.get());
+            }
+            catch (JedisDataException e)
+            {
+                results.add(e);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,231 @@
+package com.common.tools;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁延迟直方图
+ * <p>
+ * 按对数分桶记录纳秒级耗时: 每个2的幂区间再等分为16个子桶, 分位数的相对误差不超过 1/16。<br/>
+ * 记录只做一次数组下标计算和原子自增, 不加锁、不分配对象; 读取分位数时复制一份桶计数再计算。
+ *
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 可区分的最大耗时为 2^40 纳秒(约18分钟), 更大的值计入最后一个桶
+     */
+    private static final int MAX_MAGNITUDE = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray((MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+        {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(indexOf(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * 记录一次失败的调用, 耗时仍计入直方图
+     *
+     * @param nanos
+     */
+    public void recordError(long nanos)
+    {
+        errors.increment();
+        record(nanos);
+    }
+
+    /**
+     * 计算当前的统计值
+     *
+     * @return
+     */
+    public Snapshot snapshot()
+    {
+        long[] copy = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < copy.length; i++)
+        {
+            copy[i] = buckets.get(i);
+            total += copy[i];
+        }
+        long max = maxNanos.get();
+        double mean = total == 0 ? 0 : (double) totalNanos.sum() / count.sum();
+        return new Snapshot(total, errors.sum(), toMicros(mean), toMicros(percentile(copy, total, 0.5, max)),
+                toMicros(percentile(copy, total, 0.99, max)), toMicros(percentile(copy, total, 0.999, max)),
+                toMicros(max));
+    }
+
+    /**
+     * 清零, 与并发的记录之间不保证原子性
+     */
+    public void reset()
+    {
+        for (int i = 0; i < buckets.length(); i++)
+        {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        errors.reset();
+        maxNanos.reset();
+    }
+
+    static int indexOf(long nanos)
+    {
+        if (nanos < SUB_BUCKETS)
+        {
+            return (int) nanos;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        if (magnitude >= MAX_MAGNITUDE)
+        {
+            magnitude = MAX_MAGNITUDE - 1;
+            nanos = (1L << MAX_MAGNITUDE) - 1;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * 桶内的最大值, 分位数取桶的上界, 结果偏保守
+     */
+    static long highestValueOf(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private static long percentile(long[] counts, long total, double quantile, long max)
+    {
+        if (total == 0)
+        {
+            return 0;
+        }
+        long target = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= target)
+            {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static double toMicros(double nanos)
+    {
+        return nanos / 1000.0;
+    }
+
+    /**
+     * 某一时刻的延迟统计, 时间单位为微秒
+     */
+    public static class Snapshot
+    {
+        private final long count;
+
+        private final long errors;
+
+        private final double meanMicros;
+
+        private final double p50Micros;
+
+        private final double p99Micros;
+
+        private final double p999Micros;
+
+        private final double maxMicros;
+
+        @ConstructorProperties(
+        {
+                "count", "errors", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"
+        })
+        public Snapshot(long count, long errors, double meanMicros, double p50Micros, double p99Micros,
+                double p999Micros, double maxMicros)
+        {
+            this.count = count;
+            this.errors = errors;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        public double getMeanMicros()
+        {
+            return meanMicros;
+        }
+
+        public double getP50Micros()
+        {
+            return p50Micros;
+        }
+
+        public double getP99Micros()
+        {
+            return p99Micros;
+        }
+
+        public double getP999Micros()
+        {
+            return p999Micros;
+        }
+
+        public double getMaxMicros()
+        {
+            return maxMicros;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("count=%d, errors=%d, mean=%.1fus, p50=%.1fus, p99=%.1fus, p999=%.1fus, max=%.1fus",
+                    count, errors, meanMicros, p50Micros, p99Micros, p999Micros, maxMicros);
+        }
+    }
+}
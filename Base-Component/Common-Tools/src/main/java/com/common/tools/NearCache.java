@@ -0,0 +1,321 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内近端缓存(Near Cache)
+ * <p>
+ * 放在 RedisUtil 的读路径前面, 热点key命中时无需借连接、无需网络往返。<br/>
+ * 容量有上限, 每条记录有存活时间(TTL), 超出容量时按 LRU 或近似 LFU 淘汰。<br/>
+ * 内部按key的hash分段加锁, 不同分段之间互不阻塞。
+ * <p>
+ * 只能感知本节点的写操作, 其他节点写入的数据最长在TTL时间后才可见。
+ *
+ */
+public class NearCache
+{
+    /**
+     * 淘汰策略
+     */
+    public enum EvictionPolicy
+    {
+        /** 最近最少使用 */
+        LRU,
+        /** 最不经常使用(在最早写入的若干条记录中取命中次数最少的) */
+        LFU
+    }
+
+    /**
+     * 分段数, 必须是2的幂
+     */
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * LFU 淘汰时的采样数
+     */
+    private static final int LFU_SAMPLE_SIZE = 8;
+
+    private final Segment[] segments;
+
+    private final long ttlNanos;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxSize
+     *            最大记录数
+     * @param ttlMillis
+     *            记录存活时间(毫秒)
+     * @param policy
+     *            淘汰策略
+     */
+    public NearCache(int maxSize, long ttlMillis, EvictionPolicy policy)
+    {
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException("NearCache maxSize must be positive: " + maxSize);
+        }
+        if (ttlMillis <= 0)
+        {
+            throw new IllegalArgumentException("NearCache ttlMillis must be positive: " + ttlMillis);
+        }
+        this.ttlNanos = ttlMillis * 1000000L;
+        int segmentSize = Math.max(1, (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        EvictionPolicy p = null == policy ? EvictionPolicy.LRU : policy;
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++)
+        {
+            segments[i] = new Segment(segmentSize, p);
+        }
+    }
+
+    /**
+     * 获取缓存值, 不存在或已过期返回null
+     *
+     * @param key
+     * @return
+     */
+    public Object get(String key)
+    {
+        Object value = segmentFor(key).get(key, System.nanoTime());
+        if (null == value)
+        {
+            missCount.incrementAndGet();
+        }
+        else
+        {
+            hitCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * key所在分段的失效版本号, 在读取Redis之前调用, 回填时作为 {@link #put(String, Object, long)} 的参数<br/>
+     * 版本号按分段计数, 只有同一分段的失效操作会使回填被放弃
+     *
+     * @param key
+     * @return
+     */
+    public long version(String key)
+    {
+        return segmentFor(key).version;
+    }
+
+    /**
+     * 回填缓存, 如果读取期间发生过失效操作则放弃回填
+     *
+     * @param key
+     * @param value
+     *            为null时不缓存
+     * @param readVersion
+     *            读取Redis前获得的版本号
+     */
+    public void put(String key, Object value, long readVersion)
+    {
+        if (null == key || null == value)
+        {
+            return;
+        }
+        Segment segment = segmentFor(key);
+        synchronized (segment)
+        {
+            // 在分段锁内比较版本号, invalidate 在同一把锁内递增版本并删除, 保证不会留下旧值
+            if (segment.version != readVersion)
+            {
+                return;
+            }
+            segment.put(key, value, System.nanoTime() + ttlNanos);
+        }
+    }
+
+    /**
+     * 使指定key失效
+     *
+     * @param key
+     */
+    public void invalidate(String key)
+    {
+        if (null == key)
+        {
+            return;
+        }
+        segmentFor(key).remove(key);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear()
+    {
+        for (Segment segment : segments)
+        {
+            segment.clear();
+        }
+    }
+
+    /**
+     * 当前记录数(包含尚未清理的过期记录)
+     *
+     * @return
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : segments)
+        {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    private Segment segmentFor(String key)
+    {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * 缓存记录
+     */
+    private static final class Entry
+    {
+        final Object value;
+
+        final long expireAt;
+
+        int hits;
+
+        Entry(Object value, long expireAt)
+        {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 缓存分段, LRU 使用访问顺序的 LinkedHashMap, LFU 使用插入顺序并在淘汰时采样
+     */
+    private final class Segment
+    {
+        private final int maxSize;
+
+        private final EvictionPolicy policy;
+
+        private final LinkedHashMap<String, Entry> map;
+
+        /**
+         * 失效版本号, 在分段锁内递增; 读Redis前记下, 回填时若已变化则放弃回填, 避免并发写入后回填旧值
+         */
+        private volatile long version;
+
+        Segment(int maxSize, EvictionPolicy policy)
+        {
+            this.maxSize = maxSize;
+            this.policy = policy;
+            this.map = new LinkedHashMap<String, Entry>(16, 0.75f, policy == EvictionPolicy.LRU);
+        }
+
+        synchronized Object get(String key, long now)
+        {
+            Entry entry = map.get(key);
+            if (null == entry)
+            {
+                return null;
+            }
+            if (entry.expireAt - now <= 0)
+            {
+                map.remove(key);
+                return null;
+            }
+            entry.hits++;
+            return entry.value;
+        }
+
+        synchronized void put(String key, Object value, long expireAt)
+        {
+            map.put(key, new Entry(value, expireAt));
+            while (map.size() > maxSize)
+            {
+                evictOne();
+            }
+        }
+
+        synchronized void remove(String key)
+        {
+            version++;
+            map.remove(key);
+        }
+
+        synchronized void clear()
+        {
+            version++;
+            map.clear();
+        }
+
+        synchronized int size()
+        {
+            return map.size();
+        }
+
+        private void evictOne()
+        {
+            Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+            if (policy == EvictionPolicy.LRU)
+            {
+                // 访问顺序的第一条即最近最少使用
+                it.next();
+                it.remove();
+                evictionCount.incrementAndGet();
+                return;
+            }
+            List<Map.Entry<String, Entry>> samples = new ArrayList<Map.Entry<String, Entry>>(LFU_SAMPLE_SIZE);
+            Map.Entry<String, Entry> victim = null;
+            for (int i = 0; i < LFU_SAMPLE_SIZE && it.hasNext(); i++)
+            {
+                Map.Entry<String, Entry> e = it.next();
+                samples.add(e);
+                if (null == victim || e.getValue().hits < victim.getValue().hits)
+                {
+                    victim = e;
+                }
+            }
+            map.remove(victim.getKey());
+            evictionCount.incrementAndGet();
+            // 未被淘汰的样本移到队尾并将命中次数减半, 避免早期的热点记录长期占据采样窗口
+            for (Map.Entry<String, Entry> e : samples)
+            {
+                if (e != victim)
+                {
+                    Entry entry = map.remove(e.getKey());
+                    entry.hits >>>= 1;
+                    map.put(e.getKey(), entry);
+                }
+            }
+        }
+    }
+}
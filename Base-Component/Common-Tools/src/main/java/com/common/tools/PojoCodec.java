@@ -0,0 +1,907 @@
+package com.common.tools;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * 按字段编号编码的 POJO 编解码器
+ * <p>
+ * 只编码标注了 {@link Tag} 的字段(含父类中的字段), 每个字段写为 编号+类型(变长编码) 和值:
+ * 整数类型(含包装类型、Date)用 zigzag 变长编码, float/double 定长, 字符串、byte[]、枚举名、嵌套对象带长度前缀,
+ * null 只写编号。读取时跳过不认识的编号, 新增、删除字段以及 int 与 long 之间的修改都兼容旧数据。<br/>
+ * 字段的读写器在第一次使用该类时用 MethodHandle 生成并缓存, 编解码时不经过反射;
+ * 基本类型字段按具体类型读写, 不装箱。嵌套对象的字段类型有 {@link Tag} 字段时递归使用本编码,
+ * 其他类型(集合等)嵌入 {@link BinaryCodec} 的编码结果。<br/>
+ * 编码结果不含类名, 不注册到 {@link SerializeUtil}, 读取时必须指定同一个类的编解码器,
+ * 见 {@link RedisUtil#getTyped(String, Codec)}。<br/>
+ * 读取时调用类的无参构造器(可以是私有的)创建对象, 没有无参构造器的类在生成编解码器时抛出 IllegalArgumentException。
+ *
+ * @param <T>
+ */
+public final class PojoCodec<T> implements Codec<T>
+{
+    public static final int ID = 3;
+
+    private static final int VARINT = 0;
+
+    private static final int FIXED64 = 1;
+
+    private static final int BYTES = 2;
+
+    private static final int NULL = 3;
+
+    private static final int FIXED32 = 5;
+
+    private static final int INT = 1;
+
+    private static final int LONG = 2;
+
+    private static final int SHORT = 3;
+
+    private static final int BYTE = 4;
+
+    private static final int CHAR = 5;
+
+    private static final int BOOLEAN = 6;
+
+    private static final int FLOAT = 7;
+
+    private static final int DOUBLE = 8;
+
+    private static final int STRING = 9;
+
+    private static final int BYTE_ARRAY = 10;
+
+    private static final int ENUM = 11;
+
+    private static final int DATE = 12;
+
+    private static final int POJO = 13;
+
+    private static final int OTHER = 14;
+
+    private static final MethodType GET_OBJECT = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodType SET_OBJECT = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final BinaryCodec BINARY_CODEC = new BinaryCodec();
+
+    private static final ClassValue<PojoCodec<?>> CODECS = new ClassValue<PojoCodec<?>>()
+    {
+        @Override
+        protected PojoCodec<?> computeValue(Class<?> type)
+        {
+            return new PojoCodec<Object>(type);
+        }
+    };
+
+    private final Class<?> type;
+
+    private final FieldCodec[] fields;
+
+    // 编号不大时按编号直接索引, 否则查表
+    private final FieldCodec[] byTag;
+
+    private final Map<Integer, FieldCodec> byTagMap;
+
+    private final MethodHandle constructor;
+
+    /**
+     * 获取类型对应的编解码器, 每个类型只生成一次
+     *
+     * @param type
+     * @return
+     * @throws IllegalArgumentException
+     *             类型没有标注 {@link Tag} 的字段、编号重复, 或没有可访问的无参构造器(可以是私有的)
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PojoCodec<T> of(Class<T> type)
+    {
+        return (PojoCodec<T>) CODECS.get(type);
+    }
+
+    /**
+     * 类型(含父类)中是否有标注 {@link Tag} 的字段
+     *
+     * @param type
+     * @return
+     */
+    public static boolean isTagged(Class<?> type)
+    {
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || type.isEnum())
+        {
+            return false;
+        }
+        for (Class<?> c = type; null != c && c != Object.class; c = c.getSuperclass())
+        {
+            for (Field f : c.getDeclaredFields())
+            {
+                if (f.isAnnotationPresent(Tag.class) && !Modifier.isStatic(f.getModifiers()))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private PojoCodec(Class<?> type)
+    {
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isArray() || type.isPrimitive())
+        {
+            throw new IllegalArgumentException("not a concrete class: " + type.getName());
+        }
+        this.type = type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<FieldCodec> list = new ArrayList<FieldCodec>();
+        Map<Integer, FieldCodec> tags = new HashMap<Integer, FieldCodec>();
+        for (Class<?> c = type; null != c && c != Object.class; c = c.getSuperclass())
+        {
+            for (Field f : c.getDeclaredFields())
+            {
+                Tag tag = f.getAnnotation(Tag.class);
+                if (null == tag || Modifier.isStatic(f.getModifiers()))
+                {
+                    continue;
+                }
+                if (tag.value() < 1 || tag.value() >= 1 << 28)
+                {
+                    throw new IllegalArgumentException("tag must be between 1 and 2^28-1: " + f);
+                }
+                FieldCodec field = new FieldCodec(tag.value(), f, lookup);
+                FieldCodec existing = tags.put(tag.value(), field);
+                if (null != existing)
+                {
+                    throw new IllegalArgumentException("duplicate tag " + tag.value() + ": " + existing.name + ", " + field.name);
+                }
+                list.add(field);
+            }
+        }
+        if (list.isEmpty())
+        {
+            throw new IllegalArgumentException("no @Tag fields: " + type.getName());
+        }
+        Collections.sort(list, new Comparator<FieldCodec>()
+        {
+            public int compare(FieldCodec x, FieldCodec y)
+            {
+                return x.tag < y.tag ? -1 : x.tag == y.tag ? 0 : 1;
+            }
+        });
+        this.fields = list.toArray(new FieldCodec[list.size()]);
+        int maxTag = fields[fields.length - 1].tag;
+        if (maxTag < 256)
+        {
+            byTag = new FieldCodec[maxTag + 1];
+            for (FieldCodec field : fields)
+            {
+                byTag[field.tag] = field;
+            }
+            byTagMap = null;
+        }
+        else
+        {
+            byTag = null;
+            byTagMap = tags;
+        }
+
+        try
+        {
+            Constructor<?> c = type.getDeclaredConstructor();
+            c.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalArgumentException("no-arg constructor required: " + type.getName(), e);
+        }
+        catch (IllegalAccessException | RuntimeException e)
+        {
+            throw new IllegalArgumentException("constructor not accessible: " + type.getName(), e);
+        }
+    }
+
+    @Override
+    public int getId()
+    {
+        return ID;
+    }
+
+    public Class<?> getType()
+    {
+        return type;
+    }
+
+    @Override
+    public void encode(T obj, ByteArrayOutput out) throws IOException
+    {
+        write(obj, out);
+    }
+
+    @Override
+    public T decode(byte[] bytes, int offset, int length) throws IOException
+    {
+        return decode(bytes, offset, length, null);
+    }
+
+    /**
+     * 白名单用于检查嵌入的 {@link BinaryCodec} 数据中的类名
+     */
+    @Override
+    public T decode(byte[] bytes, int offset, int length, ClassAllowList allowList) throws IOException
+    {
+        try
+        {
+            return read(new Input(bytes, offset, allowList), offset + length);
+        }
+        catch (ArrayIndexOutOfBoundsException e)
+        {
+            throw new EOFException("Unexpected end of data");
+        }
+    }
+
+    private void write(Object obj, ByteArrayOutput out) throws IOException
+    {
+        if (obj.getClass() != type)
+        {
+            throw new NotSerializableException(obj.getClass().getName() + " is not " + type.getName());
+        }
+        for (FieldCodec field : fields)
+        {
+            try
+            {
+                field.write(obj, out);
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+                throw e;
+            }
+            catch (Throwable e)
+            {
+                throw new IOException("encode field failed: " + field.name, e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T read(Input in, int limit) throws IOException
+    {
+        Object obj = newInstance();
+        while (in.pos < limit)
+        {
+            long key = in.readVarLong();
+            int wire = (int) key & 7;
+            long tag = key >>> 3;
+            FieldCodec field = tag >= Integer.MAX_VALUE ? null
+                    : null != byTag ? (tag < byTag.length ? byTag[(int) tag] : null) : byTagMap.get((int) tag);
+            if (null == field)
+            {
+                in.skip(wire);
+                continue;
+            }
+            try
+            {
+                field.read(obj, in, wire);
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+                throw e;
+            }
+            catch (Throwable e)
+            {
+                throw new IOException("decode field failed: " + field.name, e);
+            }
+        }
+        if (in.pos != limit)
+        {
+            throw new EOFException("Unexpected end of data");
+        }
+        return (T) obj;
+    }
+
+    private Object newInstance() throws IOException
+    {
+        try
+        {
+            return (Object) constructor.invokeExact();
+        }
+        catch (Throwable e)
+        {
+            throw new InvalidClassException(type.getName(), "instantiation failed: " + e);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PojoCodec[" + type.getName() + "]";
+    }
+
+    /**
+     * 一个字段的读写器, 读写基本类型时 MethodHandle 的类型与字段类型完全一致
+     */
+    private static final class FieldCodec
+    {
+        private final int tag;
+
+        private final String name;
+
+        private final int kind;
+
+        private final Class<?> fieldType;
+
+        private final MethodHandle getter;
+
+        private final MethodHandle setter;
+
+        private final long[] keys = new long[6];
+
+        private Map<String, Object> enumConstants;
+
+        private FieldCodec(int tag, Field field, MethodHandles.Lookup lookup)
+        {
+            this.tag = tag;
+            this.name = field.getDeclaringClass().getName() + "." + field.getName();
+            this.fieldType = field.getType();
+            this.kind = kindOf(fieldType);
+            try
+            {
+                field.setAccessible(true);
+                MethodHandle get = lookup.unreflectGetter(field);
+                MethodHandle set = lookup.unreflectSetter(field);
+                if (fieldType.isPrimitive())
+                {
+                    getter = get.asType(MethodType.methodType(fieldType, Object.class));
+                    setter = set.asType(MethodType.methodType(void.class, Object.class, fieldType));
+                }
+                else
+                {
+                    getter = get.asType(GET_OBJECT);
+                    setter = set.asType(SET_OBJECT);
+                }
+            }
+            catch (IllegalAccessException e)
+            {
+                throw new IllegalArgumentException("field not accessible: " + name, e);
+            }
+            for (int wire = 0; wire < keys.length; wire++)
+            {
+                keys[wire] = (long) tag << 3 | wire;
+            }
+            if (kind == ENUM)
+            {
+                enumConstants = new HashMap<String, Object>();
+                for (Object constant : fieldType.getEnumConstants())
+                {
+                    enumConstants.put(((Enum<?>) constant).name(), constant);
+                }
+            }
+        }
+
+        private static int kindOf(Class<?> t)
+        {
+            if (t == int.class || t == Integer.class)
+            {
+                return INT;
+            }
+            if (t == long.class || t == Long.class)
+            {
+                return LONG;
+            }
+            if (t == boolean.class || t == Boolean.class)
+            {
+                return BOOLEAN;
+            }
+            if (t == double.class || t == Double.class)
+            {
+                return DOUBLE;
+            }
+            if (t == float.class || t == Float.class)
+            {
+                return FLOAT;
+            }
+            if (t == short.class || t == Short.class)
+            {
+                return SHORT;
+            }
+            if (t == byte.class || t == Byte.class)
+            {
+                return BYTE;
+            }
+            if (t == char.class || t == Character.class)
+            {
+                return CHAR;
+            }
+            if (t == String.class)
+            {
+                return STRING;
+            }
+            if (t == byte[].class)
+            {
+                return BYTE_ARRAY;
+            }
+            if (t.isEnum())
+            {
+                return ENUM;
+            }
+            if (t == Date.class)
+            {
+                return DATE;
+            }
+            return isTagged(t) ? POJO : OTHER;
+        }
+
+        private void write(Object obj, ByteArrayOutput out) throws Throwable
+        {
+            if (fieldType.isPrimitive())
+            {
+                writePrimitive(obj, out);
+                return;
+            }
+            Object v = (Object) getter.invokeExact(obj);
+            if (null == v)
+            {
+                writeVarLong(out, keys[NULL]);
+                return;
+            }
+            switch (kind)
+            {
+            case INT:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, zigzag(((Integer) v).intValue()));
+                break;
+            case LONG:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, zigzag(((Long) v).longValue()));
+                break;
+            case SHORT:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, zigzag(((Short) v).shortValue()));
+                break;
+            case BYTE:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, zigzag(((Byte) v).byteValue()));
+                break;
+            case CHAR:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, ((Character) v).charValue());
+                break;
+            case BOOLEAN:
+                writeVarLong(out, keys[VARINT]);
+                out.write(((Boolean) v).booleanValue() ? 1 : 0);
+                break;
+            case FLOAT:
+                writeVarLong(out, keys[FIXED32]);
+                writeFixedInt(out, Float.floatToRawIntBits(((Float) v).floatValue()));
+                break;
+            case DOUBLE:
+                writeVarLong(out, keys[FIXED64]);
+                writeFixedLong(out, Double.doubleToRawLongBits(((Double) v).doubleValue()));
+                break;
+            case STRING:
+                writeVarLong(out, keys[BYTES]);
+                writeString(out, (String) v);
+                break;
+            case BYTE_ARRAY:
+                writeVarLong(out, keys[BYTES]);
+                byte[] bytes = (byte[]) v;
+                writeVarLong(out, bytes.length);
+                out.write(bytes, 0, bytes.length);
+                break;
+            case ENUM:
+                writeVarLong(out, keys[BYTES]);
+                writeString(out, ((Enum<?>) v).name());
+                break;
+            case DATE:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, zigzag(((Date) v).getTime()));
+                break;
+            default:
+                writeVarLong(out, keys[BYTES]);
+                writeNested(v, out);
+            }
+        }
+
+        private void writePrimitive(Object obj, ByteArrayOutput out) throws Throwable
+        {
+            switch (kind)
+            {
+            case INT:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, zigzag((int) getter.invokeExact(obj)));
+                break;
+            case LONG:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, zigzag((long) getter.invokeExact(obj)));
+                break;
+            case SHORT:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, zigzag((short) getter.invokeExact(obj)));
+                break;
+            case BYTE:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, zigzag((byte) getter.invokeExact(obj)));
+                break;
+            case CHAR:
+                writeVarLong(out, keys[VARINT]);
+                writeVarLong(out, (char) getter.invokeExact(obj));
+                break;
+            case BOOLEAN:
+                writeVarLong(out, keys[VARINT]);
+                out.write((boolean) getter.invokeExact(obj) ? 1 : 0);
+                break;
+            case FLOAT:
+                writeVarLong(out, keys[FIXED32]);
+                writeFixedInt(out, Float.floatToRawIntBits((float) getter.invokeExact(obj)));
+                break;
+            default:
+                writeVarLong(out, keys[FIXED64]);
+                writeFixedLong(out, Double.doubleToRawLongBits((double) getter.invokeExact(obj)));
+            }
+        }
+
+        /**
+         * 嵌套对象先编码到临时缓冲区, 再写长度和内容
+         */
+        private void writeNested(Object v, ByteArrayOutput out) throws IOException
+        {
+            ByteArrayOutput nested = SerializeUtil.acquireBuffer();
+            try
+            {
+                if (kind == POJO)
+                {
+                    CODECS.get(fieldType).write(v, nested);
+                }
+                else
+                {
+                    BINARY_CODEC.encode(v, nested);
+                }
+                writeVarLong(out, nested.size());
+                out.write(nested.getBuffer(), 0, nested.size());
+            }
+            finally
+            {
+                SerializeUtil.releaseBuffer(nested);
+            }
+        }
+
+        private void read(Object obj, Input in, int wire) throws Throwable
+        {
+            if (wire == NULL)
+            {
+                if (fieldType.isPrimitive())
+                {
+                    throw new StreamCorruptedException("null value for primitive field " + name);
+                }
+                setter.invokeExact(obj, (Object) null);
+                return;
+            }
+            int expected;
+            switch (kind)
+            {
+            case FLOAT:
+                expected = FIXED32;
+                break;
+            case DOUBLE:
+                expected = FIXED64;
+                break;
+            case STRING:
+            case BYTE_ARRAY:
+            case ENUM:
+            case POJO:
+            case OTHER:
+                expected = BYTES;
+                break;
+            default:
+                expected = VARINT;
+            }
+            if (wire != expected)
+            {
+                throw new StreamCorruptedException("unexpected wire type " + wire + " for field " + name);
+            }
+            if (fieldType.isPrimitive())
+            {
+                readPrimitive(obj, in);
+                return;
+            }
+            Object v;
+            switch (kind)
+            {
+            case INT:
+                v = Integer.valueOf((int) unzigzag(in.readVarLong()));
+                break;
+            case LONG:
+                v = Long.valueOf(unzigzag(in.readVarLong()));
+                break;
+            case SHORT:
+                v = Short.valueOf((short) unzigzag(in.readVarLong()));
+                break;
+            case BYTE:
+                v = Byte.valueOf((byte) unzigzag(in.readVarLong()));
+                break;
+            case CHAR:
+                v = Character.valueOf((char) in.readVarLong());
+                break;
+            case BOOLEAN:
+                v = Boolean.valueOf(in.readVarLong() != 0);
+                break;
+            case FLOAT:
+                v = Float.valueOf(Float.intBitsToFloat(in.readFixedInt()));
+                break;
+            case DOUBLE:
+                v = Double.valueOf(Double.longBitsToDouble(in.readFixedLong()));
+                break;
+            case STRING:
+                v = in.readString();
+                break;
+            case BYTE_ARRAY:
+                v = in.readBytes();
+                break;
+            case ENUM:
+                String constant = in.readString();
+                v = enumConstants.get(constant);
+                if (null == v)
+                {
+                    throw new InvalidClassException(fieldType.getName(), "no enum constant " + constant);
+                }
+                break;
+            case DATE:
+                v = new Date(unzigzag(in.readVarLong()));
+                break;
+            case POJO:
+                int end = in.readLength() + in.pos;
+                v = CODECS.get(fieldType).read(in, end);
+                break;
+            default:
+                int len = in.readLength();
+                v = BINARY_CODEC.decode(in.buf, in.pos, len, in.allowList);
+                in.pos += len;
+            }
+            setter.invokeExact(obj, v);
+        }
+
+        private void readPrimitive(Object obj, Input in) throws Throwable
+        {
+            switch (kind)
+            {
+            case INT:
+                setter.invokeExact(obj, (int) unzigzag(in.readVarLong()));
+                break;
+            case LONG:
+                setter.invokeExact(obj, unzigzag(in.readVarLong()));
+                break;
+            case SHORT:
+                setter.invokeExact(obj, (short) unzigzag(in.readVarLong()));
+                break;
+            case BYTE:
+                setter.invokeExact(obj, (byte) unzigzag(in.readVarLong()));
+                break;
+            case CHAR:
+                setter.invokeExact(obj, (char) in.readVarLong());
+                break;
+            case BOOLEAN:
+                setter.invokeExact(obj, in.readVarLong() != 0);
+                break;
+            case FLOAT:
+                setter.invokeExact(obj, Float.intBitsToFloat(in.readFixedInt()));
+                break;
+            default:
+                setter.invokeExact(obj, Double.longBitsToDouble(in.readFixedLong()));
+            }
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutput out, long v)
+    {
+        while ((v & ~0x7FL) != 0)
+        {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static void writeFixedInt(ByteArrayOutput out, int v)
+    {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void writeFixedLong(ByteArrayOutput out, long v)
+    {
+        writeFixedInt(out, (int) (v >>> 32));
+        writeFixedInt(out, (int) v);
+    }
+
+    /**
+     * 字节数 + 每个字符1~3个字节(与 DataOutput.writeUTF 的字符编码相同)
+     */
+    private static void writeString(ByteArrayOutput out, String s)
+    {
+        int len = s.length();
+        int bytes = len;
+        for (int i = 0; i < len; i++)
+        {
+            char c = s.charAt(i);
+            if (c >= 0x80)
+            {
+                bytes += c < 0x800 ? 1 : 2;
+            }
+        }
+        writeVarLong(out, bytes);
+        out.ensureCapacity(bytes);
+        for (int i = 0; i < len; i++)
+        {
+            char c = s.charAt(i);
+            if (c < 0x80)
+            {
+                out.write(c);
+            }
+            else if (c < 0x800)
+            {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            }
+            else
+            {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static long zigzag(long v)
+    {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v)
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * 读取位置
+     */
+    private static final class Input
+    {
+        private final byte[] buf;
+
+        private int pos;
+
+        private final ClassAllowList allowList;
+
+        private Input(byte[] buf, int pos, ClassAllowList allowList)
+        {
+            this.buf = buf;
+            this.pos = pos;
+            this.allowList = allowList;
+        }
+
+        private long readVarLong() throws IOException
+        {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7)
+            {
+                int b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                {
+                    return v;
+                }
+            }
+            throw new StreamCorruptedException("malformed varint");
+        }
+
+        private int readLength() throws IOException
+        {
+            long len = readVarLong();
+            if (len < 0 || len > buf.length - pos)
+            {
+                throw new EOFException("Unexpected end of data");
+            }
+            return (int) len;
+        }
+
+        private int readFixedInt()
+        {
+            byte[] b = buf;
+            int p = pos;
+            pos = p + 4;
+            return (b[p] & 0xFF) << 24 | (b[p + 1] & 0xFF) << 16 | (b[p + 2] & 0xFF) << 8 | (b[p + 3] & 0xFF);
+        }
+
+        private long readFixedLong()
+        {
+            return (long) readFixedInt() << 32 | (readFixedInt() & 0xFFFFFFFFL);
+        }
+
+        private String readString() throws IOException
+        {
+            int len = readLength();
+            int end = pos + len;
+            char[] chars = new char[len];
+            int n = 0;
+            byte[] b = buf;
+            int p = pos;
+            while (p < end)
+            {
+                int c = b[p++] & 0xFF;
+                if (c < 0x80)
+                {
+                    chars[n++] = (char) c;
+                }
+                else if (c < 0xE0)
+                {
+                    chars[n++] = (char) (((c & 0x1F) << 6) | (b[p++] & 0x3F));
+                }
+                else
+                {
+                    chars[n++] = (char) (((c & 0x0F) << 12) | ((b[p++] & 0x3F) << 6) | (b[p++] & 0x3F));
+                }
+            }
+            if (p != end)
+            {
+                throw new StreamCorruptedException("malformed string");
+            }
+            pos = end;
+            return new String(chars, 0, n);
+        }
+
+        private byte[] readBytes() throws IOException
+        {
+            int len = readLength();
+            byte[] bytes = new byte[len];
+            System.arraycopy(buf, pos, bytes, 0, len);
+            pos += len;
+            return bytes;
+        }
+
+        /**
+         * 跳过不认识的字段
+         */
+        private void skip(int wire) throws IOException
+        {
+            switch (wire)
+            {
+            case VARINT:
+                readVarLong();
+                break;
+            case FIXED64:
+                pos += 8;
+                break;
+            case BYTES:
+                int len = readLength();
+                pos += len;
+                break;
+            case NULL:
+                break;
+            case FIXED32:
+                pos += 4;
+                break;
+            default:
+                throw new StreamCorruptedException("unknown wire type " + wire);
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.common.tools.RedisUtil.ReadGroup;
+import com.common.tools.RedisUtil.ReadPreference;
+
+/**
+ * 单key读请求合并器
+ * <p>
+ * 并发调用 get/hget 的线程不再各自借用连接, 而是把请求放入队列, 由合并线程在一个很短的时间窗口内
+ * (或凑满一批后)把它们合并成一次管道调用: GET/HGET 依次写入同一个管道, 按读取偏好分组,
+ * 与单独调用一样经 {@link RedisUtil#readPipelineExecute(RedisUtil.ReadGroup, PipelineExecute)} 读取主节点或从节点。
+ * 结果按请求分发回各个调用线程, 同一批内重复的key只查询一次; 每个key单独发送 GET 而不是合并为 MGET,
+ * 因此key的类型不对时与单独调用一样得到 WRONGTYPE 错误。
+ * <p>
+ * 代价是每次读多出最多一个时间窗口的等待, 适合并发量大的热点接口。
+ *
+ */
+public class ReadCoalescer
+{
+    private static final Logger logger = LoggerFactory.getLogger(ReadCoalescer.class);
+
+    private final RedisUtil redisUtil;
+
+    private final long windowNanos;
+
+    private final int maxBatchSize;
+
+    /**
+     * 调用线程等待结果的最长时间(毫秒)
+     */
+    private final long waitTimeoutMillis;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+
+    private final Thread[] workers;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param redisUtil
+     * @param windowMicros
+     *            合并窗口(微秒), 第一个请求到达后最多再等待这么久
+     * @param maxBatchSize
+     *            每批最多合并的请求数
+     * @param threads
+     *            合并线程数
+     * @param waitTimeoutMillis
+     *            调用线程等待结果的最长时间(毫秒)
+     */
+    public ReadCoalescer(RedisUtil redisUtil, long windowMicros, int maxBatchSize, int threads, long waitTimeoutMillis)
+    {
+        if (maxBatchSize <= 0 || threads <= 0)
+        {
+            throw new IllegalArgumentException("ReadCoalescer maxBatchSize and threads must be positive");
+        }
+        this.redisUtil = redisUtil;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, windowMicros));
+        this.maxBatchSize = maxBatchSize;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    dispatchLoop();
+                }
+            }, "redis-read-coalescer-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 合并执行 GET, 读取主节点
+     *
+     * @param key
+     * @return
+     */
+    public String get(String key)
+    {
+        return get(key, ReadPreference.MASTER);
+    }
+
+    /**
+     * 合并执行 GET
+     *
+     * @param key
+     * @param preference
+     *            调用方的读取偏好, 只与相同偏好的请求合并
+     * @return
+     */
+    public String get(String key, ReadPreference preference)
+    {
+        return submit(new Request(key, null, preference));
+    }
+
+    /**
+     * 合并执行 HGET, 读取主节点
+     *
+     * @param key
+     * @param field
+     * @return
+     */
+    public String hget(String key, String field)
+    {
+        return hget(key, field, ReadPreference.MASTER);
+    }
+
+    /**
+     * 合并执行 HGET
+     *
+     * @param key
+     * @param field
+     * @param preference
+     *            调用方的读取偏好, 只与相同偏好的请求合并
+     * @return
+     */
+    public String hget(String key, String field, ReadPreference preference)
+    {
+        return submit(new Request(key, field, preference));
+    }
+
+    /**
+     * 停止合并线程, 队列中剩余的请求以异常结束
+     */
+    public void shutdown()
+    {
+        running = false;
+        for (Thread worker : workers)
+        {
+            worker.interrupt();
+        }
+        List<Request> rest = new ArrayList<Request>();
+        queue.drainTo(rest);
+        RuntimeException e = new IllegalStateException("ReadCoalescer is shut down");
+        for (Request request : rest)
+        {
+            request.fail(e);
+        }
+    }
+
+    private String submit(Request request)
+    {
+        if (!running)
+        {
+            throw new IllegalStateException("ReadCoalescer is shut down");
+        }
+        queue.add(request);
+        return request.await(waitTimeoutMillis);
+    }
+
+    private void dispatchLoop()
+    {
+        List<Request> batch = new ArrayList<Request>(maxBatchSize);
+        while (running)
+        {
+            try
+            {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize)
+                {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0)
+                    {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                    {
+                        break;
+                    }
+                    Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (null == next)
+                    {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                executeBatch(batch);
+            }
+            catch (InterruptedException e)
+            {
+                // shutdown 时正在凑批的请求已经离开队列, 在这里结束它们
+                RuntimeException shutdown = new IllegalStateException("ReadCoalescer is shut down");
+                for (Request request : batch)
+                {
+                    request.fail(shutdown);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (Exception e)
+            {
+                logger.error("redis读请求合并执行异常," + e.getMessage(), e);
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+    }
+
+    private void executeBatch(List<Request> batch)
+    {
+        // 读取偏好不同的请求使用不同的连接, 每种偏好一个管道
+        Map<ReadPreference, List<Request>> byPreference = new EnumMap<ReadPreference, List<Request>>(
+                ReadPreference.class);
+        for (Request request : batch)
+        {
+            List<Request> requests = byPreference.get(request.preference);
+            if (null == requests)
+            {
+                requests = new ArrayList<Request>();
+                byPreference.put(request.preference, requests);
+            }
+            requests.add(request);
+        }
+        for (Map.Entry<ReadPreference, List<Request>> entry : byPreference.entrySet())
+        {
+            executePipeline(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void executePipeline(ReadPreference preference, List<Request> requests)
+    {
+        // 去重: 同一个key(或key+field)只查询一次
+        final Map<String, List<Request>> unique = new LinkedHashMap<String, List<Request>>();
+        for (Request request : requests)
+        {
+            String id = null == request.field ? request.key : request.key + '\u0000' + request.field;
+            List<Request> same = unique.get(id);
+            if (null == same)
+            {
+                same = new ArrayList<Request>(1);
+                unique.put(id, same);
+            }
+            same.add(request);
+        }
+        try
+        {
+            List<Object> results = redisUtil.withReadPreference(preference,
+                    () -> redisUtil.readPipelineExecute(ReadGroup.STRING, new PipelineExecute()
+                    {
+                        @Override
+                        public void execute() throws Exception
+                        {
+                            for (List<Request> same : unique.values())
+                            {
+                                Request head = same.get(0);
+                                if (null == head.field)
+                                {
+                                    get(head.key);
+                                }
+                                else
+                                {
+                                    hget(head.key, head.field);
+                                }
+                            }
+                        }
+                    }));
+            int index = 0;
+            for (List<Request> same : unique.values())
+            {
+                Object reply = results.get(index++);
+                for (Request request : same)
+                {
+                    if (reply instanceof Exception)
+                    {
+                        request.fail(new RuntimeException((Exception) reply));
+                    }
+                    else
+                    {
+                        request.complete((String) reply);
+                    }
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            for (Request request : requests)
+            {
+                request.fail(e);
+            }
+        }
+    }
+
+    /**
+     * 一个等待合并执行的读请求, field 为null表示 GET
+     */
+    private static final class Request
+    {
+        final String key;
+
+        final String field;
+
+        final ReadPreference preference;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private String value;
+
+        private RuntimeException error;
+
+        Request(String key, String field, ReadPreference preference)
+        {
+            this.key = key;
+            this.field = field;
+            this.preference = preference;
+        }
+
+        void complete(String value)
+        {
+            this.value = value;
+            done.countDown();
+        }
+
+        void fail(RuntimeException error)
+        {
+            this.error = error;
+            done.countDown();
+        }
+
+        String await(long timeoutMillis)
+        {
+            try
+            {
+                if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS))
+                {
+                    throw new RuntimeException("Timed out waiting for coalesced redis read, key: " + key);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            if (null != error)
+            {
+                throw error;
+            }
+            return value;
+        }
+    }
+}
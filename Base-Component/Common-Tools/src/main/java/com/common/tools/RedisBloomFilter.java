@@ -0,0 +1,493 @@
+package com.common.tools;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.util.MurmurHash;
+
+/**
+ * 存储在 Redis 位图中的可扩展布隆过滤器
+ * <p>
+ * 按预计元素数 expectedInsertions 和误判率 fpp 计算位数 m 和哈希函数个数 k; 元素的 k 个位置在客户端由两个 MurmurHash64A
+ * 组合计算(Kirsch-Mitzenmacher), 只把位偏移发给 Redis:
+ * <ul>
+ * <li>判断 {@link #mightContain(String)}/{@link #mightContainAll(Collection)}: 一个管道发送全部 GETBIT, 数千个元素一次往返</li>
+ * <li>添加 {@link #add(String)}/{@link #addAll(Collection)}: 每个元素一次脚本调用, 多个元素一个管道;
+ * 脚本先检查旧的层, 再对最新一层 SETBIT 并计数</li>
+ * </ul>
+ * 可扩展(默认开启): 最新一层的元素数达到容量后由脚本增加一层, 第 i 层(从0开始)容量为 expectedInsertions * 2^i、
+ * 误判率为 fpp / 2^(i+1), 总误判率不超过 fpp; 关闭后只有一层, 超出容量后误判率上升。<br/>
+ * 每层的位数不能超过 2^32, 层数上限 {@link #getMaxLayers()} 在创建时按此计算并传给脚本, 达到上限后不再扩展,
+ * 继续添加时误判率上升。<br/>
+ * key: bloom:{name}:meta(hash, 层数和各层元素数)和 bloom:{name}:&lt;层号&gt;(位图), 同一槽位。
+ * 本地缓存的层数落后时(其他实例扩展了过滤器), 判断时多一次往返读取新的层, 添加时脚本拒绝后按新的层数重试, 不会漏判。
+ *
+ */
+public class RedisBloomFilter
+{
+    /**
+     * 添加: KEYS[1] meta, KEYS[2..] 各层位图(从旧到新); ARGV 客户端的层数、最新一层的容量、层数上限, 之后每层为 k 和 k 个偏移;
+     * 返回1为新元素, 0为已存在(或判断为已存在), 负数为服务端的层数(客户端的层数已落后)
+     */
+    static final RedisScript<Long> ADD = RedisScript.of(
+            "local layers = tonumber(redis.call('HGET', KEYS[1], 'layers') or '1')\n"
+                    + "local n = tonumber(ARGV[1])\n"
+                    + "if layers ~= n then\n"
+                    + "  return -layers\n"
+                    + "end\n"
+                    + "local pos = 4\n"
+                    + "for l = 1, n - 1 do\n"
+                    + "  local k = tonumber(ARGV[pos])\n"
+                    + "  local found = true\n"
+                    + "  for j = 1, k do\n"
+                    + "    if redis.call('GETBIT', KEYS[l + 1], ARGV[pos + j]) == 0 then\n"
+                    + "      found = false\n"
+                    + "      break\n"
+                    + "    end\n"
+                    + "  end\n"
+                    + "  if found then\n"
+                    + "    return 0\n"
+                    + "  end\n"
+                    + "  pos = pos + k + 1\n"
+                    + "end\n"
+                    + "local added = 0\n"
+                    + "for j = 1, tonumber(ARGV[pos]) do\n"
+                    + "  if redis.call('SETBIT', KEYS[n + 1], ARGV[pos + j], 1) == 0 then\n"
+                    + "    added = 1\n"
+                    + "  end\n"
+                    + "end\n"
+                    + "if added == 1 and n < tonumber(ARGV[3])\n"
+                    + "    and redis.call('HINCRBY', KEYS[1], 'n' .. (n - 1), 1) >= tonumber(ARGV[2]) then\n"
+                    + "  redis.call('HSET', KEYS[1], 'layers', n + 1)\n"
+                    + "end\n"
+                    + "return added",
+            BuilderFactory.LONG);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int SEED1 = 0x1b873593;
+
+    private static final int SEED2 = 0xcc9e2d51;
+
+    private static final long MAX_BITS = 1L << 32;
+
+    private final RedisUtil redisUtil;
+
+    private final String keyPrefix;
+
+    private final String metaKey;
+
+    /**
+     * 各层参数, 长度即层数上限
+     */
+    private final Layer[] layers;
+
+    /**
+     * 本地缓存的层数, 0表示尚未读取
+     */
+    private volatile int layerCount;
+
+    /**
+     * 可扩展的过滤器
+     *
+     * @param redisUtil
+     * @param name
+     * @param expectedInsertions
+     *            预计元素数(第一层的容量)
+     * @param fpp
+     *            误判率, 0 ~ 1
+     */
+    public RedisBloomFilter(RedisUtil redisUtil, String name, long expectedInsertions, double fpp)
+    {
+        this(redisUtil, name, expectedInsertions, fpp, true);
+    }
+
+    /**
+     * @param redisUtil
+     * @param name
+     * @param expectedInsertions
+     * @param fpp
+     * @param scalable
+     *            为false时只有一层
+     */
+    public RedisBloomFilter(RedisUtil redisUtil, String name, long expectedInsertions, double fpp,
+            boolean scalable)
+    {
+        if (expectedInsertions <= 0)
+        {
+            throw new IllegalArgumentException("expectedInsertions must be positive: " + expectedInsertions);
+        }
+        if (fpp <= 0 || fpp >= 1)
+        {
+            throw new IllegalArgumentException("fpp must be between 0 and 1: " + fpp);
+        }
+        this.redisUtil = redisUtil;
+        this.keyPrefix = "bloom:{" + name + "}:";
+        this.metaKey = keyPrefix + "meta";
+        this.layers = layers(expectedInsertions, fpp, scalable);
+        redisUtil.registerScript(ADD);
+    }
+
+    /**
+     * 添加元素
+     *
+     * @param element
+     * @return 元素之前不存在(按过滤器判断)时返回true
+     */
+    public boolean add(String element)
+    {
+        return addAll(Arrays.asList(element)).get(element);
+    }
+
+    /**
+     * 用一个管道添加多个元素
+     *
+     * @param elements
+     * @return 元素 -> 之前是否不存在, 顺序与elements一致(重复的元素只添加一次)
+     */
+    public Map<String, Boolean> addAll(Collection<String> elements)
+    {
+        Map<String, Boolean> results = new LinkedHashMap<String, Boolean>();
+        List<String> pending = new ArrayList<String>(new LinkedHashSet<String>(elements));
+        for (String element : pending)
+        {
+            results.put(element, null);
+        }
+        int n = currentLayers();
+        while (!pending.isEmpty())
+        {
+            List<RedisScript.Call<Long>> calls = new ArrayList<RedisScript.Call<Long>>(pending.size());
+            List<String> keys = layerKeys(n);
+            for (String element : pending)
+            {
+                calls.add(ADD.call(keys, addArgs(element, n)));
+            }
+            List<Object> replies = redisUtil.evalPipelined(calls);
+            List<String> stale = new ArrayList<String>();
+            int latest = n;
+            for (int i = 0; i < pending.size(); i++)
+            {
+                Object reply = replies.get(i);
+                if (reply instanceof RuntimeException)
+                {
+                    throw (RuntimeException) reply;
+                }
+                long result = (Long) reply;
+                if (result < 0)
+                {
+                    // 本批添加期间或之前过滤器已扩展
+                    stale.add(pending.get(i));
+                    latest = Math.max(latest, (int) -result);
+                }
+                else
+                {
+                    results.put(pending.get(i), result == 1);
+                }
+            }
+            if (latest > n)
+            {
+                n = latest;
+                updateLayers(n);
+            }
+            pending = stale;
+        }
+        return results;
+    }
+
+    /**
+     * 元素是否可能存在; 返回false时一定不存在
+     *
+     * @param element
+     * @return
+     */
+    public boolean mightContain(String element)
+    {
+        return mightContainAll(Arrays.asList(element)).get(element);
+    }
+
+    /**
+     * 用一个管道判断多个元素
+     *
+     * @param elements
+     * @return 元素 -> 是否可能存在, 顺序与elements一致
+     */
+    public Map<String, Boolean> mightContainAll(Collection<String> elements)
+    {
+        final List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(elements));
+        final long[][] hashes = new long[distinct.size()][];
+        for (int i = 0; i < hashes.length; i++)
+        {
+            hashes[i] = hash(distinct.get(i));
+        }
+        boolean[] found = new boolean[distinct.size()];
+        int from = 0;
+        int to = Math.max(layerCount, 1);
+        while (true)
+        {
+            // 同一个管道里读取当前层数, 层数增加时再读取新的层
+            int latest = probe(distinct, hashes, found, from, to);
+            if (latest <= to)
+            {
+                break;
+            }
+            updateLayers(latest);
+            from = to;
+            to = latest;
+        }
+        Map<String, Boolean> results = new LinkedHashMap<String, Boolean>();
+        for (int i = 0; i < found.length; i++)
+        {
+            results.put(distinct.get(i), found[i]);
+        }
+        return results;
+    }
+
+    /**
+     * 删除过滤器的全部数据
+     */
+    public void delete()
+    {
+        int n = getLayerCount();
+        List<String> keys = new ArrayList<String>(layerKeys(n));
+        redisUtil.del(keys.toArray(new String[keys.size()]));
+        layerCount = 0;
+    }
+
+    /**
+     * 当前层数(读取 Redis)
+     *
+     * @return
+     */
+    public int getLayerCount()
+    {
+        layerCount = 0;
+        return currentLayers();
+    }
+
+    /**
+     * 层数上限, 之后的一层位数会超过 2^32; 不可扩展时为1
+     *
+     * @return
+     */
+    public int getMaxLayers()
+    {
+        return layers.length;
+    }
+
+    /**
+     * 第一层的位数
+     *
+     * @return
+     */
+    public long getBitSize()
+    {
+        return layer(0).bits;
+    }
+
+    /**
+     * 第一层的哈希函数个数
+     *
+     * @return
+     */
+    public int getHashFunctions()
+    {
+        return layer(0).hashes;
+    }
+
+    /**
+     * 发送一个管道: 读取层数, 并对尚未命中的元素读取 [from, to) 层的位
+     *
+     * @return 服务端的层数
+     */
+    private int probe(final List<String> elements, final long[][] hashes, boolean[] found, final int from,
+            final int to)
+    {
+        final boolean[] skip = found.clone();
+        List<Object> replies = redisUtil.pipelineExecute(metaKey, new PipelineExecute()
+        {
+            @Override
+            public void execute() throws Exception
+            {
+                hget(metaKey, "layers");
+                for (int i = 0; i < elements.size(); i++)
+                {
+                    if (skip[i])
+                    {
+                        continue;
+                    }
+                    for (int l = from; l < to; l++)
+                    {
+                        Layer layer = layer(l);
+                        String key = keyPrefix + l;
+                        for (int j = 0; j < layer.hashes; j++)
+                        {
+                            getbit(key, layer.offset(hashes[i], j));
+                        }
+                    }
+                }
+            }
+        });
+        int r = 0;
+        Object layersReply = replies.get(r++);
+        for (int i = 0; i < elements.size(); i++)
+        {
+            if (skip[i])
+            {
+                continue;
+            }
+            for (int l = from; l < to; l++)
+            {
+                boolean all = true;
+                for (int j = 0; j < layer(l).hashes; j++)
+                {
+                    Object bit = replies.get(r++);
+                    if (bit instanceof RuntimeException)
+                    {
+                        throw (RuntimeException) bit;
+                    }
+                    all &= Boolean.TRUE.equals(bit);
+                }
+                found[i] |= all;
+            }
+        }
+        return null == layersReply ? 1 : Integer.parseInt(layersReply.toString());
+    }
+
+    private int currentLayers()
+    {
+        int n = layerCount;
+        if (n == 0)
+        {
+            String value = redisUtil.hget(metaKey, "layers");
+            n = null == value ? 1 : Integer.parseInt(value);
+            updateLayers(n);
+        }
+        return n;
+    }
+
+    private void updateLayers(int n)
+    {
+        layer(n - 1);
+        if (n > layerCount)
+        {
+            layerCount = n;
+        }
+    }
+
+    private List<String> layerKeys(int n)
+    {
+        List<String> keys = new ArrayList<String>(n + 1);
+        keys.add(metaKey);
+        for (int l = 0; l < n; l++)
+        {
+            keys.add(keyPrefix + l);
+        }
+        return keys;
+    }
+
+    private List<String> addArgs(String element, int n)
+    {
+        long[] h = hash(element);
+        List<String> args = new ArrayList<String>();
+        args.add(String.valueOf(n));
+        args.add(String.valueOf(layer(n - 1).capacity));
+        args.add(String.valueOf(layers.length));
+        for (int l = 0; l < n; l++)
+        {
+            Layer layer = layer(l);
+            args.add(String.valueOf(layer.hashes));
+            for (int j = 0; j < layer.hashes; j++)
+            {
+                args.add(String.valueOf(layer.offset(h, j)));
+            }
+        }
+        return args;
+    }
+
+    /**
+     * 第 index 层的参数; 服务端的层数超过上限时(其他实例使用了不同的参数)抛出异常
+     */
+    private Layer layer(int index)
+    {
+        if (index >= layers.length)
+        {
+            throw new IllegalStateException("bloom filter " + metaKey + " has " + (index + 1)
+                    + " layers, more than " + layers.length + " allowed by expectedInsertions and fpp");
+        }
+        return layers[index];
+    }
+
+    /**
+     * 计算位数不超过 2^32 的各层参数
+     */
+    private static Layer[] layers(long expectedInsertions, double fpp, boolean scalable)
+    {
+        List<Layer> layers = new ArrayList<Layer>();
+        for (int i = 0; scalable || i == 0; i++)
+        {
+            // 容量和误判率都逐层翻倍收紧, 位数单调增加
+            double capacity = scalable ? expectedInsertions * Math.pow(2, i) : expectedInsertions;
+            double p = scalable ? fpp / Math.pow(2, i + 1) : fpp;
+            if (Layer.bits(capacity, p) > MAX_BITS)
+            {
+                break;
+            }
+            layers.add(new Layer((long) capacity, p));
+        }
+        if (layers.isEmpty())
+        {
+            throw new IllegalArgumentException("bloom filter layer needs "
+                    + (long) Layer.bits(expectedInsertions, scalable ? fpp / 2 : fpp)
+                    + " bits, more than 2^32; reduce expectedInsertions or raise fpp");
+        }
+        return layers.toArray(new Layer[layers.size()]);
+    }
+
+    private static long[] hash(String element)
+    {
+        byte[] bytes = element.getBytes(UTF_8);
+        return new long[]
+        {
+                MurmurHash.hash64A(bytes, SEED1), MurmurHash.hash64A(bytes, SEED2)
+        };
+    }
+
+    /**
+     * 一层的容量、位数和哈希函数个数
+     */
+    private static final class Layer
+    {
+        private static final double LN2 = Math.log(2);
+
+        private final long capacity;
+
+        private final long bits;
+
+        private final int hashes;
+
+        private Layer(long capacity, double fpp)
+        {
+            this.capacity = capacity;
+            this.bits = Math.max((long) Math.ceil(bits(capacity, fpp)), 64);
+            this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * LN2));
+        }
+
+        private static double bits(double capacity, double fpp)
+        {
+            return -capacity * Math.log(fpp) / (LN2 * LN2);
+        }
+
+        private long offset(long[] h, int j)
+        {
+            long combined = h[0] + j * h[1];
+            return (combined & Long.MAX_VALUE) % bits;
+        }
+    }
+}
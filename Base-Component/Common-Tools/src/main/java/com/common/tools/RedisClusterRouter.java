@@ -0,0 +1,408 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisClusterInfoCache;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisClusterException;
+import redis.clients.jedis.exceptions.JedisClusterMaxRedirectionsException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
+
+/**
+ * Redis Cluster 路由
+ * <p>
+ * 按 CRC16(key) % 16384 计算槽位(支持 {hashtag}), 缓存槽位到节点的映射, 每个节点一个连接池。<br/>
+ * {@link #execute(String, JedisAction)} 自动处理 MOVED/ASK 重定向;
+ * 多key操作由 {@link KeyRouter} 按节点拆分后并行执行, 需要同一槽位的命令在节点的管道内按槽位拆分。
+ *
+ */
+public class RedisClusterRouter extends KeyRouter<Integer>
+{
+    private static final Logger logger = LoggerFactory.getLogger(RedisClusterRouter.class);
+
+    private static final int SLOT_COUNT = 16384;
+
+    private final Set<String> startNodes;
+
+    private final JedisClusterInfoCache cache;
+
+    private final int maxRedirections;
+
+    /**
+     * 连接和读取超时(毫秒), 也用于获取槽位映射的临时连接
+     */
+    private final int timeOut;
+
+    /**
+     * 同一时间只允许一个线程刷新槽位映射
+     */
+    private final AtomicBoolean renewing = new AtomicBoolean(false);
+
+    /**
+     * 持有槽位的主节点连接池, 槽位映射变化时重建, 避免每次遍历全部槽位
+     */
+    private volatile List<JedisPool> masterPools = Collections.emptyList();
+
+    /**
+     * @param startNodes
+     *            集群节点地址 host:port, 任意一个可达即可
+     * @param poolConfig
+     *            每个节点连接池的配置
+     * @param timeOut
+     * @param maxRedirections
+     *            单次操作最多跟随的重定向次数
+     * @param threads
+     *            多key操作并行执行的线程数
+     */
+    public RedisClusterRouter(Set<String> startNodes, GenericObjectPoolConfig poolConfig, int timeOut,
+            int maxRedirections, int threads)
+    {
+        super("redis-cluster", threads);
+        this.startNodes = startNodes;
+        this.cache = new JedisClusterInfoCache(poolConfig, timeOut);
+        this.maxRedirections = maxRedirections;
+        this.timeOut = timeOut;
+        initializeSlotsCache();
+    }
+
+    /**
+     * 计算key所在的槽位
+     *
+     * @param key
+     * @return
+     */
+    public static int getSlot(String key)
+    {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    public static int getSlot(byte[] key)
+    {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    @Override
+    public Integer partitionOf(String key)
+    {
+        return getSlot(key);
+    }
+
+    @Override
+    public Integer partitionOf(byte[] key)
+    {
+        return getSlot(key);
+    }
+
+    /**
+     * 借用key所在槽位主节点的连接, 不处理重定向
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public Jedis getResource(String key)
+    {
+        return getResource(getSlot(key));
+    }
+
+    @Override
+    public Jedis getResource(byte[] key)
+    {
+        return getResource(getSlot(key));
+    }
+
+    /**
+     * 借用指定槽位主节点的连接, 槽位没有节点时刷新一次映射
+     *
+     * @param slot
+     * @return
+     */
+    public Jedis getResource(int slot)
+    {
+        return poolOf(slot).getResource();
+    }
+
+    /**
+     * 槽位所在主节点的连接池, 槽位没有节点时刷新一次映射
+     */
+    @Override
+    protected JedisPool poolOf(Integer slot)
+    {
+        JedisPool pool = cache.getSlotPool(slot);
+        if (null == pool)
+        {
+            renewSlotCache();
+            pool = cache.getSlotPool(slot);
+            if (null == pool)
+            {
+                throw new JedisClusterException("No reachable node in cluster for slot " + slot);
+            }
+        }
+        return pool;
+    }
+
+    @Override
+    protected JedisPool redirect(JedisRedirectionException e)
+    {
+        if (e instanceof JedisAskDataException)
+        {
+            cache.setNodeIfNotExist(e.getTargetNode());
+            return cache.getNode(JedisClusterInfoCache.getNodeKey(e.getTargetNode()));
+        }
+        onRedirect(e);
+        return null;
+    }
+
+    @Override
+    protected int getMaxRedirections()
+    {
+        return maxRedirections;
+    }
+
+    @Override
+    protected void onConnectionFailure()
+    {
+        renewSlotCache();
+    }
+
+    /**
+     * 在key所在的节点上执行操作, 遇到 MOVED 刷新槽位映射后重试, 遇到 ASK 向目标节点发送 ASKING 后重试
+     *
+     * @param key
+     * @param action
+     * @return
+     */
+    public <T> T execute(String key, JedisAction<T> action)
+    {
+        return executeByKey(key, action);
+    }
+
+    /**
+     * 在槽位所在的节点上执行操作, 处理 MOVED/ASK 重定向
+     *
+     * @param slot
+     * @param action
+     * @return
+     */
+    @Override
+    public <T> T execute(Integer slot, JedisAction<T> action)
+    {
+        return execute(slot, null, action);
+    }
+
+    /**
+     * 调用方在自己借用的连接上执行命令收到重定向后, 从该重定向开始继续执行:
+     * MOVED 刷新槽位映射后在新节点重试, ASK 向目标节点发送 ASKING 后重试, 重试的连接由路由器借还
+     *
+     * @param slot
+     * @param redirect
+     *            调用方收到的重定向, 为null时与 {@link #execute(Integer, JedisAction)} 相同
+     * @param action
+     * @return
+     */
+    public <T> T execute(Integer slot, JedisRedirectionException redirect, JedisAction<T> action)
+    {
+        HostAndPort askNode = null;
+        int attempt = 0;
+        if (redirect instanceof JedisAskDataException)
+        {
+            askNode = redirect.getTargetNode();
+            attempt = 1;
+        }
+        else if (null != redirect)
+        {
+            onRedirect(redirect);
+            attempt = 1;
+        }
+        boolean connectionRetried = false;
+        for (; attempt <= maxRedirections; attempt++)
+        {
+            Jedis jedis = null;
+            try
+            {
+                if (null == askNode)
+                {
+                    jedis = getResource(slot);
+                }
+                else
+                {
+                    cache.setNodeIfNotExist(askNode);
+                    jedis = cache.getNode(JedisClusterInfoCache.getNodeKey(askNode)).getResource();
+                    jedis.asking();
+                }
+                return action.doInJedis(jedis);
+            }
+            catch (JedisAskDataException e)
+            {
+                askNode = e.getTargetNode();
+            }
+            catch (JedisMovedDataException e)
+            {
+                askNode = null;
+                onRedirect(e);
+            }
+            catch (JedisConnectionException e)
+            {
+                // 节点不可达时刷新一次映射再试, 以便故障转移后找到新的主节点
+                if (connectionRetried)
+                {
+                    throw e;
+                }
+                connectionRetried = true;
+                askNode = null;
+                renewSlotCache();
+            }
+            finally
+            {
+                if (null != jedis)
+                {
+                    jedis.close();
+                }
+            }
+        }
+        throw new JedisClusterMaxRedirectionsException("Too many cluster redirections for slot " + slot);
+    }
+
+    /**
+     * 处理重定向: MOVED 说明槽位已迁移, 先更新该槽位再刷新完整映射; ASK 是迁移中的临时跳转, 不更新映射
+     *
+     * @param e
+     */
+    public void onRedirect(JedisRedirectionException e)
+    {
+        if (e instanceof JedisMovedDataException)
+        {
+            cache.assignSlotToNode(e.getSlot(), e.getTargetNode());
+            rebuildMasterPools();
+            renewSlotCache();
+        }
+    }
+
+    /**
+     * 当前持有槽位的主节点连接池
+     *
+     * @return
+     */
+    @Override
+    public List<JedisPool> getMasterPools()
+    {
+        return masterPools;
+    }
+
+    /**
+     * 根据当前槽位映射重建主节点连接池列表
+     */
+    private void rebuildMasterPools()
+    {
+        Set<JedisPool> masters = new LinkedHashSet<JedisPool>();
+        for (int slot = 0; slot < SLOT_COUNT; slot++)
+        {
+            JedisPool pool = cache.getSlotPool(slot);
+            if (null != pool)
+            {
+                masters.add(pool);
+            }
+        }
+        masterPools = Collections.unmodifiableList(new ArrayList<JedisPool>(masters));
+    }
+
+    /**
+     * 刷新槽位映射, 已有线程在刷新时直接返回
+     */
+    public void renewSlotCache()
+    {
+        if (!renewing.compareAndSet(false, true))
+        {
+            return;
+        }
+        try
+        {
+            for (JedisPool pool : cache.getNodes().values())
+            {
+                Jedis jedis = null;
+                try
+                {
+                    jedis = pool.getResource();
+                    cache.discoverClusterSlots(jedis);
+                    rebuildMasterPools();
+                    return;
+                }
+                catch (Exception e)
+                {
+                    logger.warn("从集群节点刷新槽位映射失败," + e.getMessage());
+                }
+                finally
+                {
+                    if (null != jedis)
+                    {
+                        jedis.close();
+                    }
+                }
+            }
+            initializeSlotsCache();
+        }
+        finally
+        {
+            renewing.set(false);
+        }
+    }
+
+    @Override
+    protected void closePools()
+    {
+        for (JedisPool pool : cache.getNodes().values())
+        {
+            try
+            {
+                pool.destroy();
+            }
+            catch (Exception e)
+            {
+                logger.error("关闭redis集群节点连接池异常," + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void initializeSlotsCache()
+    {
+        for (String node : startNodes)
+        {
+            String[] hostAndPort = node.split(":");
+            Jedis jedis = null;
+            try
+            {
+                jedis = new Jedis(hostAndPort[0], Integer.parseInt(hostAndPort[1]), timeOut, timeOut);
+                cache.discoverClusterNodesAndSlots(jedis);
+                rebuildMasterPools();
+                return;
+            }
+            catch (Exception e)
+            {
+                logger.warn("从集群节点 " + node + " 获取槽位映射失败," + e.getMessage());
+            }
+            finally
+            {
+                if (null != jedis)
+                {
+                    jedis.close();
+                }
+            }
+        }
+        throw new JedisConnectionException("Could not get cluster slots from any of the nodes: " + startNodes);
+    }
+}
@@ -0,0 +1,431 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * 本地聚合的计数器
+ * <p>
+ * {@link #incrBy(String, long)}/{@link #hincrBy(String, String, long)} 只在本地的 LongAdder 上累加(分段、无锁),
+ * 后台线程每隔 flushIntervalMillis, 或累计的增量次数超过 maxPendingIncrements 时, 把各计数器自上次提交以来的差值用一个管道
+ * (INCRBY/HINCRBY, 集群/分片模式下按节点分组并行)提交, 每个计数器每次提交一条命令。<br/>
+ * 提交失败(连接异常、集群重定向)时差值保留到下次提交, 连接在管道执行中途断开时已执行的命令也会再次提交(可能重复计入);
+ * 只有类型错误(WRONGTYPE)的增量丢弃;
+ * 进程崩溃时丢失最近一个提交周期内的增量, 缩短 flushIntervalMillis 或调小 maxPendingIncrements 可以缩小丢失窗口,
+ * 代价是更多的命令。应用关闭前调用 {@link #close()} 提交剩余的增量。<br/>
+ * 连续两次提交都没有增量的计数器从本地移除, 移除后的下一次提交再检查一次, 计入移除前后并发的增量。
+ *
+ */
+public class RedisCounters
+{
+    private static final Logger logger = LoggerFactory.getLogger(RedisCounters.class);
+
+    /**
+     * 每 64 次增量抽查一次是否达到 maxPendingIncrements
+     */
+    private static final int CHECK_MASK = 63;
+
+    private final RedisUtil redisUtil;
+
+    private final long maxPendingIncrements;
+
+    private final ConcurrentHashMap<Object, Counter> counters = new ConcurrentHashMap<Object, Counter>();
+
+    /**
+     * 上次提交时移除的计数器, 本次提交再检查一次
+     */
+    private List<Counter> retired = new ArrayList<Counter>();
+
+    private final LongAdder increments = new LongAdder();
+
+    private volatile long incrementsAtFlush;
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final ScheduledExecutorService flusher;
+
+    private volatile boolean closed;
+
+    /**
+     * @param redisUtil
+     * @param flushIntervalMillis
+     *            提交间隔, 即最长的提交延迟和崩溃时的丢失窗口
+     * @param maxPendingIncrements
+     *            累计的增量次数达到该值时提前提交, 不大于0时只按间隔提交
+     */
+    public RedisCounters(RedisUtil redisUtil, long flushIntervalMillis, long maxPendingIncrements)
+    {
+        if (flushIntervalMillis <= 0)
+        {
+            throw new IllegalArgumentException("flushIntervalMillis must be positive: " + flushIntervalMillis);
+        }
+        this.redisUtil = redisUtil;
+        this.maxPendingIncrements = maxPendingIncrements;
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "redis-counters-flusher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        flusher.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                flushQuietly();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 字符串计数器增加delta, 提交时使用 INCRBY
+     *
+     * @param key
+     * @param delta
+     */
+    public void incrBy(String key, long delta)
+    {
+        Counter counter = counters.get(key);
+        if (null == counter)
+        {
+            counter = counters.computeIfAbsent(key, k -> new Counter(key, null));
+        }
+        add(counter, delta);
+    }
+
+    /**
+     * hash 字段计数器增加delta, 提交时使用 HINCRBY
+     *
+     * @param key
+     * @param field
+     * @param delta
+     */
+    public void hincrBy(String key, String field, long delta)
+    {
+        HashField id = new HashField(key, field);
+        Counter counter = counters.get(id);
+        if (null == counter)
+        {
+            counter = counters.computeIfAbsent(id, k -> new Counter(key, field));
+        }
+        add(counter, delta);
+    }
+
+    /**
+     * 尚未提交的增量
+     *
+     * @param key
+     * @return
+     */
+    public long getPending(String key)
+    {
+        Counter counter = counters.get(key);
+        return null == counter ? 0 : counter.sum.sum() - counter.flushed;
+    }
+
+    public long getPending(String key, String field)
+    {
+        Counter counter = counters.get(new HashField(key, field));
+        return null == counter ? 0 : counter.sum.sum() - counter.flushed;
+    }
+
+    /**
+     * 立即提交全部差值, 与后台提交互斥
+     *
+     * @return 提交的计数器数
+     */
+    public synchronized int flush()
+    {
+        incrementsAtFlush = increments.sum();
+        flushRequested.set(false);
+        List<Counter> dirty = new ArrayList<Counter>();
+        List<Long> deltas = new ArrayList<Long>();
+        List<Counter> previouslyRetired = retired;
+        List<Counter> retiring = new ArrayList<Counter>();
+        for (Counter counter : previouslyRetired)
+        {
+            collect(counter, dirty, deltas);
+        }
+        for (Counter counter : counters.values())
+        {
+            if (!collect(counter, dirty, deltas) && ++counter.idleFlushes >= 2
+                    && counters.remove(counter.id(), counter))
+            {
+                retiring.add(counter);
+            }
+        }
+        if (!dirty.isEmpty())
+        {
+            try
+            {
+                send(dirty, deltas);
+            }
+            catch (RuntimeException e)
+            {
+                // 没有提交的差值下次重新计算; 已移除的计数器留到下次再检查
+                retiring.addAll(previouslyRetired);
+                retired = retiring;
+                throw e;
+            }
+        }
+        retired = retiring;
+        keepUnflushed(previouslyRetired);
+        return dirty.size();
+    }
+
+    /**
+     * 已移除的计数器还有没提交的差值时留到下次提交
+     */
+    private void keepUnflushed(List<Counter> previouslyRetired)
+    {
+        for (Counter counter : previouslyRetired)
+        {
+            if (counter.sum.sum() != counter.flushed)
+            {
+                retired.add(counter);
+            }
+        }
+    }
+
+    /**
+     * 停止后台提交并提交剩余的增量
+     */
+    public void close()
+    {
+        closed = true;
+        flusher.shutdown();
+        try
+        {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void add(Counter counter, long delta)
+    {
+        counter.sum.add(delta);
+        if (maxPendingIncrements > 0)
+        {
+            increments.increment();
+            if ((ThreadLocalRandom.current().nextInt() & CHECK_MASK) == 0
+                    && increments.sum() - incrementsAtFlush >= maxPendingIncrements && !closed
+                    && flushRequested.compareAndSet(false, true))
+            {
+                try
+                {
+                    flusher.execute(this::flushQuietly);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // 已关闭, 由 close() 提交
+                }
+            }
+        }
+    }
+
+    /**
+     * 计数器有未提交的差值时加入待提交列表
+     */
+    private static boolean collect(Counter counter, List<Counter> dirty, List<Long> deltas)
+    {
+        long delta = counter.sum.sum() - counter.flushed;
+        if (delta == 0)
+        {
+            return false;
+        }
+        counter.idleFlushes = 0;
+        dirty.add(counter);
+        deltas.add(delta);
+        return true;
+    }
+
+    /**
+     * 用管道提交差值; 同一个key的全部计数器在一次回调中按顺序追加, key被重定向后重发时覆盖之前的响应。<br/>
+     * 只有 WRONGTYPE(key的类型不对, 重试也不会成功)的增量丢弃并记为已提交; 重定向等其他错误和没有执行的命令保留差值,
+     * 下次重新提交; 管道执行异常时已成功的部分照常记为已提交, 再抛出异常
+     */
+    private void send(final List<Counter> dirty, List<Long> deltas)
+    {
+        final Map<String, List<Integer>> byKey = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < dirty.size(); i++)
+        {
+            String key = dirty.get(i).key;
+            List<Integer> indexes = byKey.get(key);
+            if (null == indexes)
+            {
+                indexes = new ArrayList<Integer>();
+                byKey.put(key, indexes);
+            }
+            indexes.add(i);
+        }
+        final long[] amounts = new long[deltas.size()];
+        for (int i = 0; i < amounts.length; i++)
+        {
+            amounts[i] = deltas.get(i);
+        }
+        final Response<?>[] responses = new Response<?>[dirty.size()];
+        RuntimeException failure = null;
+        try
+        {
+            redisUtil.pipelineExecute(byKey.keySet(), new KeyedPipelineExecute()
+            {
+                @Override
+                public Response<?> execute(Pipeline pipeline, String key)
+                {
+                    Response<?> last = null;
+                    for (Integer i : byKey.get(key))
+                    {
+                        Counter counter = dirty.get(i);
+                        last = responses[i] = null == counter.field ? pipeline.incrBy(key, amounts[i])
+                                : pipeline.hincrBy(key, counter.field, amounts[i]);
+                    }
+                    return last;
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            failure = e;
+        }
+        int retained = 0;
+        for (int i = 0; i < dirty.size(); i++)
+        {
+            Counter counter = dirty.get(i);
+            try
+            {
+                if (null == responses[i])
+                {
+                    retained++;
+                    continue;
+                }
+                responses[i].get();
+            }
+            catch (JedisDataException e)
+            {
+                if (!isWrongType(e))
+                {
+                    // 重定向、节点不可用或管道没有执行完, 下次重试
+                    retained++;
+                    continue;
+                }
+                logger.error("提交计数器 " + counter.id() + " 失败, 丢弃增量 " + amounts[i] + "," + e.getMessage());
+            }
+            counter.flushed += amounts[i];
+        }
+        if (null != failure)
+        {
+            throw failure;
+        }
+        if (retained > 0)
+        {
+            logger.warn(retained + " 个计数器提交失败, 差值保留到下次提交");
+        }
+    }
+
+    private static boolean isWrongType(JedisDataException e)
+    {
+        return null != e.getMessage() && e.getMessage().startsWith("WRONGTYPE");
+    }
+
+    private void flushQuietly()
+    {
+        try
+        {
+            flush();
+        }
+        catch (Exception e)
+        {
+            logger.warn("提交计数器失败, 下次重试," + e.getMessage());
+        }
+    }
+
+    /**
+     * 一个计数器: 累计值和已提交的部分
+     */
+    private static final class Counter
+    {
+        private final String key;
+
+        private final String field;
+
+        private final LongAdder sum = new LongAdder();
+
+        /**
+         * 已提交的累计值, 只由提交线程访问
+         */
+        private volatile long flushed;
+
+        private int idleFlushes;
+
+        private Counter(String key, String field)
+        {
+            this.key = key;
+            this.field = field;
+        }
+
+        private Object id()
+        {
+            return null == field ? key : new HashField(key, field);
+        }
+    }
+
+    private static final class HashField
+    {
+        private final String key;
+
+        private final String field;
+
+        private HashField(String key, String field)
+        {
+            this.key = key;
+            this.field = field;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof HashField))
+            {
+                return false;
+            }
+            HashField other = (HashField) obj;
+            return key.equals(other.key) && field.equals(other.field);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return key.hashCode() * 31 + field.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return key + "#" + field;
+        }
+    }
+}
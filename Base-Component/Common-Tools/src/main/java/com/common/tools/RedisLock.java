@@ -0,0 +1,608 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * 基于 {@link RedisUtil} 的分布式锁
+ * <p>
+ * 加锁用一个脚本原子地执行 SET NX PX 并对同名计数器 INCR, 计数器的值作为 fencing token 随租约返回, 单调递增,
+ * 下游存储可以据此拒绝过期持有者的写入; 释放用脚本比较持有者后删除, 不会误删其他持有者的锁, 删除成功后再发布释放通知。<br/>
+ * 持有期间后台的看门狗每隔租期的 1/3 用一个管道续期本实例持有的全部锁, 进程崩溃后锁在一个租期内自动过期;
+ * 续期发现锁已被他人持有(例如长时间 GC 后租约已过期)时租约标记为失效, {@link Lease#isHeld()} 返回false。<br/>
+ * 等待中的线程订阅释放通知, 收到通知后本进程内只唤醒一个等待者去竞争, 不轮询; 通知经 {@link RedisUtil#publish(String, String)}
+ * 发往频道名所在的节点, 与订阅的节点相同, 分片模式下锁的key在其他分片也能收到。通知丢失(订阅断开)时最迟在锁的剩余有效期后重试。
+ *
+ * <pre>
+ * RedisLock.Lease lease = redisLock.tryLock("order:1001", 3000);
+ * if (null != lease)
+ * {
+ *     try
+ *     {
+ *         storage.write(data, lease.getToken());
+ *     }
+ *     finally
+ *     {
+ *         lease.unlock();
+ *     }
+ * }
+ * </pre>
+ *
+ * 锁的key为 lock:{name}, fencing 计数器为 lock:{name}:token(不过期), 同一槽位; name 中已含{hashtag}时不再添加。
+ *
+ */
+public class RedisLock
+{
+    private static final Logger logger = LoggerFactory.getLogger(RedisLock.class);
+
+    /**
+     * 加锁: 成功返回 token(大于0), 失败返回 -1 - 锁的剩余毫秒数
+     */
+    static final RedisScript<Long> ACQUIRE = RedisScript.of(
+            "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then\n"
+                    + "  return redis.call('INCR', KEYS[2])\n"
+                    + "end\n"
+                    + "return -1 - math.max(redis.call('PTTL', KEYS[1]), 0)",
+            BuilderFactory.LONG);
+
+    /**
+     * 续期: 仍由 ARGV[1] 持有时返回1
+     */
+    static final RedisScript<Long> RENEW = RedisScript.of(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n"
+                    + "  return redis.call('PEXPIRE', KEYS[1], ARGV[2])\n"
+                    + "end\n"
+                    + "return 0",
+            BuilderFactory.LONG);
+
+    /**
+     * 释放: 仍由 ARGV[1] 持有时删除, 返回1
+     */
+    static final RedisScript<Long> RELEASE = RedisScript.of(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n"
+                    + "  redis.call('DEL', KEYS[1])\n"
+                    + "  return 1\n"
+                    + "end\n"
+                    + "return 0",
+            BuilderFactory.LONG);
+
+    private final RedisUtil redisUtil;
+
+    private final long leaseMillis;
+
+    private final String channel;
+
+    private final String ownerPrefix = UUID.randomUUID().toString() + ":";
+
+    private final AtomicLong ownerSeq = new AtomicLong();
+
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 锁的key -> 本进程内的等待者
+     */
+    private final ConcurrentHashMap<String, Waiters> waiters = new ConcurrentHashMap<String, Waiters>();
+
+    private final ScheduledExecutorService watchdog;
+
+    private final Listener listener = new Listener();
+
+    private volatile Thread subscriber;
+
+    private volatile boolean closed;
+
+    /**
+     * 租期30秒, 通知频道 redis-lock:released
+     *
+     * @param redisUtil
+     */
+    public RedisLock(RedisUtil redisUtil)
+    {
+        this(redisUtil, 30000, "redis-lock:released");
+    }
+
+    /**
+     * @param redisUtil
+     * @param leaseMillis
+     *            租期, 持有者停止续期(崩溃、失联)后锁最多保留这么久
+     * @param channel
+     *            释放通知的频道, 使用同一组锁的进程应相同
+     */
+    public RedisLock(RedisUtil redisUtil, long leaseMillis, String channel)
+    {
+        if (leaseMillis < 30)
+        {
+            throw new IllegalArgumentException("leaseMillis must be at least 30: " + leaseMillis);
+        }
+        this.redisUtil = redisUtil;
+        this.leaseMillis = leaseMillis;
+        this.channel = channel;
+        redisUtil.registerScript(ACQUIRE);
+        redisUtil.registerScript(RENEW);
+        redisUtil.registerScript(RELEASE);
+        watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "redis-lock-watchdog");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = leaseMillis / 3;
+        watchdog.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                renewAll();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 尝试加锁, 不等待
+     *
+     * @param name
+     * @return 租约, 锁被他人持有时返回null
+     */
+    public Lease tryLock(String name)
+    {
+        String key = lockKey(name);
+        String owner = ownerPrefix + ownerSeq.incrementAndGet();
+        long start = System.currentTimeMillis();
+        return granted(name, key, owner, acquire(key, owner), start);
+    }
+
+    /**
+     * 加锁, 最多等待 waitMillis
+     *
+     * @param name
+     * @param waitMillis
+     *            为0时不等待
+     * @return 租约, 超时返回null
+     * @throws InterruptedException
+     */
+    public Lease tryLock(String name, long waitMillis) throws InterruptedException
+    {
+        String key = lockKey(name);
+        String owner = ownerPrefix + ownerSeq.incrementAndGet();
+        long deadline = System.currentTimeMillis() + waitMillis;
+        Waiters waiting = null;
+        boolean signalled = false;
+        try
+        {
+            while (true)
+            {
+                long start = System.currentTimeMillis();
+                long reply = acquire(key, owner);
+                Lease lease = granted(name, key, owner, reply, start);
+                if (null != lease)
+                {
+                    signalled = false;
+                    return lease;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    return null;
+                }
+                if (null == waiting)
+                {
+                    // 先登记再重试一次, 登记之前发出的释放通知不会错过
+                    waiting = join(key);
+                    continue;
+                }
+                // 锁的剩余有效期内没有收到通知时直接重试, 持有者可能已崩溃
+                long ttl = -1 - reply - (System.currentTimeMillis() - start);
+                long wait = Math.min(remaining, ttl > 0 ? ttl : leaseMillis);
+                signalled = waiting.permits.tryAcquire(Math.max(wait, 1), TimeUnit.MILLISECONDS);
+            }
+        }
+        finally
+        {
+            if (null != waiting)
+            {
+                leave(key, waiting, signalled);
+            }
+        }
+    }
+
+    /**
+     * 加锁, 一直等待
+     *
+     * @param name
+     * @return
+     * @throws InterruptedException
+     */
+    public Lease lock(String name) throws InterruptedException
+    {
+        return tryLock(name, Long.MAX_VALUE / 2);
+    }
+
+    /**
+     * 停止看门狗和通知订阅; 未释放的锁不再续期, 在租期后过期
+     */
+    public void close()
+    {
+        closed = true;
+        watchdog.shutdownNow();
+        if (listener.isSubscribed())
+        {
+            listener.unsubscribe();
+        }
+        Thread t = subscriber;
+        if (null != t)
+        {
+            t.interrupt();
+        }
+    }
+
+    public long getLeaseMillis()
+    {
+        return leaseMillis;
+    }
+
+    /**
+     * 本实例当前持有的租约数
+     *
+     * @return
+     */
+    public int getHeldCount()
+    {
+        return leases.size();
+    }
+
+    /**
+     * 执行加锁脚本
+     *
+     * @return 脚本的返回值
+     */
+    private long acquire(String key, String owner)
+    {
+        return redisUtil.eval(ACQUIRE, Arrays.asList(key, tokenKey(key)),
+                Arrays.asList(owner, String.valueOf(leaseMillis)));
+    }
+
+    /**
+     * 加锁成功时生成租约并交给看门狗
+     *
+     * @param reply
+     *            加锁脚本的返回值
+     * @param start
+     *            发送加锁请求的时刻
+     * @return 加锁失败时返回null
+     */
+    private Lease granted(String name, String key, String owner, long reply, long start)
+    {
+        if (reply <= 0)
+        {
+            return null;
+        }
+        Lease lease = new Lease(name, key, owner, reply, start + leaseMillis);
+        leases.add(lease);
+        return lease;
+    }
+
+    /**
+     * 用一个管道续期全部租约
+     */
+    private void renewAll()
+    {
+        if (leases.isEmpty())
+        {
+            return;
+        }
+        List<Lease> held = new ArrayList<Lease>(leases);
+        List<RedisScript.Call<Long>> calls = new ArrayList<RedisScript.Call<Long>>(held.size());
+        String lease = String.valueOf(leaseMillis);
+        for (Lease l : held)
+        {
+            calls.add(RENEW.call(Arrays.asList(l.key), Arrays.asList(l.owner, lease)));
+        }
+        long start = System.currentTimeMillis();
+        List<Object> results;
+        try
+        {
+            results = redisUtil.evalPipelined(calls);
+        }
+        catch (Exception e)
+        {
+            // 连接异常, 下次再试; 超过租期仍无法续期时锁会在服务端过期
+            logger.warn("redis lock 续期失败," + e.getMessage());
+            return;
+        }
+        for (int i = 0; i < held.size(); i++)
+        {
+            Lease l = held.get(i);
+            Object result = results.get(i);
+            if (result instanceof Long && (Long) result == 1)
+            {
+                l.expiresAt = start + leaseMillis;
+            }
+            else if (result instanceof Long && leases.remove(l))
+            {
+                l.lost = true;
+                logger.warn("redis lock " + l.name + " 已不再由本实例持有, token: " + l.token);
+            }
+        }
+    }
+
+    private Waiters join(String key)
+    {
+        startSubscriber();
+        while (true)
+        {
+            Waiters w = waiters.computeIfAbsent(key, k -> new Waiters());
+            synchronized (w)
+            {
+                if (!w.removed)
+                {
+                    w.count++;
+                    return w;
+                }
+            }
+        }
+    }
+
+    /**
+     * 离开等待; 收到了通知却没有拿到锁(超时、被其他进程抢先)时把通知交给下一个等待者
+     */
+    private void leave(String key, Waiters w, boolean signalled)
+    {
+        synchronized (w)
+        {
+            w.count--;
+            if (w.count == 0)
+            {
+                w.removed = true;
+                waiters.remove(key, w);
+            }
+            else if (signalled)
+            {
+                w.signal();
+            }
+        }
+    }
+
+    private void released(String key)
+    {
+        Waiters w = waiters.get(key);
+        if (null != w)
+        {
+            w.signal();
+        }
+    }
+
+    private void startSubscriber()
+    {
+        if (null != subscriber || closed)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            if (null != subscriber)
+            {
+                return;
+            }
+            Thread t = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    subscribeLoop();
+                }
+            }, "redis-lock-subscriber");
+            t.setDaemon(true);
+            subscriber = t;
+            t.start();
+        }
+        // 等订阅生效再开始等待, 否则第一次等待期间的释放通知会错过
+        for (int i = 0; i < 100 && !listener.isSubscribed() && !closed; i++)
+        {
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 订阅释放通知, 断开后重新订阅; 重连期间等待者按锁的剩余有效期重试
+     */
+    private void subscribeLoop()
+    {
+        while (!closed)
+        {
+            try
+            {
+                redisUtil.subscribe(listener, channel);
+            }
+            catch (Exception e)
+            {
+                if (!closed)
+                {
+                    logger.warn("redis lock 订阅释放通知中断, 1秒后重试," + e.getMessage());
+                }
+            }
+            // 断开期间的通知已丢失, 唤醒等待者重试一次
+            for (Waiters w : waiters.values())
+            {
+                w.signal();
+            }
+            try
+            {
+                Thread.sleep(1000);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
+
+    private static String lockKey(String name)
+    {
+        int open = name.indexOf('{');
+        boolean tagged = open >= 0 && name.indexOf('}', open + 1) > open + 1;
+        return tagged ? "lock:" + name : "lock:{" + name + "}";
+    }
+
+    private static String tokenKey(String lockKey)
+    {
+        return lockKey + ":token";
+    }
+
+    /**
+     * 同一个锁在本进程内的等待者, 每次释放通知放出一个许可
+     */
+    private static final class Waiters
+    {
+        private final Semaphore permits = new Semaphore(0);
+
+        private int count;
+
+        private boolean removed;
+
+        private void signal()
+        {
+            // 许可最多保留一个, 多次通知不会一次唤醒多个等待者
+            if (permits.availablePermits() == 0)
+            {
+                permits.release();
+            }
+        }
+    }
+
+    private final class Listener extends JedisPubSub
+    {
+        @Override
+        public void onMessage(String channel, String message)
+        {
+            released(message);
+        }
+    }
+
+    /**
+     * 锁的租约
+     */
+    public final class Lease implements AutoCloseable
+    {
+        private final String name;
+
+        private final String key;
+
+        private final String owner;
+
+        private final long token;
+
+        private volatile long expiresAt;
+
+        private volatile boolean lost;
+
+        private Lease(String name, String key, String owner, long token, long expiresAt)
+        {
+            this.name = name;
+            this.key = key;
+            this.owner = owner;
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * fencing token, 同名锁每次加锁递增
+         *
+         * @return
+         */
+        public long getToken()
+        {
+            return token;
+        }
+
+        /**
+         * 按本地时钟估计的租约到期时刻, 看门狗每次续期后推后
+         *
+         * @return
+         */
+        public long getExpiresAt()
+        {
+            return expiresAt;
+        }
+
+        /**
+         * 租约是否仍然有效: 未释放、续期没有发现被他人持有、且本地估计尚未到期
+         *
+         * @return
+         */
+        public boolean isHeld()
+        {
+            return !lost && leases.contains(this) && System.currentTimeMillis() < expiresAt;
+        }
+
+        /**
+         * 释放锁
+         *
+         * @return 锁仍由本租约持有并已删除时返回true; 已过期或被他人持有时返回false
+         */
+        public boolean unlock()
+        {
+            if (!leases.remove(this))
+            {
+                return false;
+            }
+            Long released = redisUtil.eval(RELEASE, Arrays.asList(key), Arrays.asList(owner));
+            if (null == released || released != 1)
+            {
+                return false;
+            }
+            // 不在脚本内 PUBLISH: 分片模式下锁的key所在分片不一定是订阅者连接的分片
+            try
+            {
+                redisUtil.publish(channel, key);
+            }
+            catch (Exception e)
+            {
+                // 锁已释放, 等待者最迟在锁的剩余有效期后重试
+                logger.warn("redis lock " + name + " 发布释放通知失败," + e.getMessage());
+            }
+            return true;
+        }
+
+        @Override
+        public void close()
+        {
+            unlock();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Lease[" + name + ", token=" + token + "]";
+        }
+    }
+}
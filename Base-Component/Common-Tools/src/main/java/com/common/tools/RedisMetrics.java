@@ -0,0 +1,442 @@
+package com.common.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Pool;
+import redis.clients.util.RedisOutputStream;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * RedisUtil 运行指标
+ * <p>
+ * 借用连接时记录等待耗时, 归还连接时按命令(可选按key前缀)记录执行耗时, 异常时累计错误数和连接损坏数。<br/>
+ * 一次调用的中间状态保存在线程本地变量中, 记录路径上只有原子计数, 不加锁。<br/>
+ * 配置了 {@link SlowCommandLog} 时, 超过阈值的命令连同key、请求/响应大小和等待耗时一起记入环形缓冲区。<br/>
+ * 可通过 {@link RedisUtil#getMetrics()} 直接读取, 也可通过 JMX 查看。
+ *
+ */
+public class RedisMetrics implements RedisMetricsMXBean
+{
+    private static final Logger logger = LoggerFactory.getLogger(RedisMetrics.class);
+
+    /**
+     * 每类统计最多的名称数(命令或key前缀), 超出后计入 "(other)"
+     */
+    private static final int MAX_NAMES = 1000;
+
+    private final ConcurrentHashMap<String, LatencyHistogram> commands = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final ConcurrentHashMap<String, LatencyHistogram> keyPrefixes = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder brokenConnections = new LongAdder();
+
+    private final String keyPrefixDelimiter;
+
+    private final Supplier<List<Pool<Jedis>>> pools;
+
+    private final SlowCommandLog slowLog;
+
+    private final ValueCompressor compressor;
+
+    private final ThreadLocal<Call> current = ThreadLocal.withInitial(Call::new);
+
+    private ObjectName objectName;
+
+    /**
+     * 当前线程正在进行的调用
+     */
+    private static final class Call
+    {
+        long borrowed;
+
+        long waitNanos;
+
+        Object key;
+
+        boolean failed;
+
+        boolean payload;
+
+        Object request;
+
+        Object response;
+    }
+
+    /**
+     * @param keyPrefixDelimiter
+     *            key前缀分隔符, 为null时不按前缀统计
+     * @param pools
+     *            当前使用的连接池
+     * @param slowLog
+     *            慢命令记录, 为null时不记录
+     * @param compressor
+     *            值压缩, 为null时压缩统计为空
+     */
+    public RedisMetrics(String keyPrefixDelimiter, Supplier<List<Pool<Jedis>>> pools, SlowCommandLog slowLog,
+            ValueCompressor compressor)
+    {
+        this.keyPrefixDelimiter = keyPrefixDelimiter;
+        this.pools = pools;
+        this.slowLog = slowLog;
+        this.compressor = compressor;
+    }
+
+    /**
+     * 连接借用成功
+     *
+     * @param startNanos
+     *            开始借用的时间
+     * @param key
+     *            路由key, String 或 byte[], 没有时为null
+     */
+    public void borrowed(long startNanos, Object key)
+    {
+        long now = System.nanoTime();
+        borrowWait.record(now - startNanos);
+        Call call = current.get();
+        call.borrowed = now;
+        call.waitNanos = now - startNanos;
+        call.key = key;
+        call.failed = false;
+    }
+
+    /**
+     * 记录本次调用的请求值与响应值, 只保存引用, 命令超过慢命令阈值时才计算字节数
+     *
+     * @param request
+     * @param response
+     */
+    public void payload(Object request, Object response)
+    {
+        Call call = current.get();
+        call.payload = true;
+        call.request = request;
+        call.response = response;
+    }
+
+    /**
+     * 调用出现异常
+     *
+     * @param broken
+     *            连接是否损坏
+     */
+    public void failed(boolean broken)
+    {
+        errors.increment();
+        if (broken)
+        {
+            brokenConnections.increment();
+        }
+        current.get().failed = true;
+    }
+
+    /**
+     * 调用结束, 连接归还前调用
+     *
+     * @param command
+     */
+    public void completed(String command)
+    {
+        Call call = current.get();
+        if (call.borrowed == 0)
+        {
+            return;
+        }
+        long elapsed = System.nanoTime() - call.borrowed;
+        record(histogram(commands, command), elapsed, call.failed);
+        if (null != keyPrefixDelimiter && null != call.key)
+        {
+            record(histogram(keyPrefixes, keyPrefix(call.key)), elapsed, call.failed);
+        }
+        if (null != slowLog && slowLog.isSlow(elapsed + call.waitNanos))
+        {
+            long requestBytes = call.payload ? sizeOf(call.key) + sizeOf(call.request) : -1;
+            long responseBytes = call.payload ? sizeOf(call.response) : -1;
+            slowLog.add(command, call.key, requestBytes, responseBytes, call.waitNanos, elapsed, call.failed);
+        }
+        call.borrowed = 0;
+        call.key = null;
+        call.failed = false;
+        call.payload = false;
+        call.request = null;
+        call.response = null;
+    }
+
+    /**
+     * 注册到平台 MBeanServer, ObjectName 为 com.common.tools:type=RedisUtil,name=name
+     *
+     * @param name
+     */
+    public void register(String name)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName("com.common.tools:type=RedisUtil,name=" + ObjectName.quote(name));
+            if (server.isRegistered(on))
+            {
+                logger.warn("Redis指标MBean已存在, 将被替换: " + on);
+                server.unregisterMBean(on);
+            }
+            server.registerMBean(this, on);
+            objectName = on;
+        }
+        catch (Exception e)
+        {
+            logger.error("注册Redis指标MBean异常," + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 从 MBeanServer 注销
+     */
+    public void unregister()
+    {
+        if (null == objectName)
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (Exception e)
+        {
+            logger.warn("注销Redis指标MBean异常," + e.getMessage());
+        }
+        objectName = null;
+    }
+
+    public Map<String, LatencyHistogram.Snapshot> getCommandLatencies()
+    {
+        return snapshot(commands);
+    }
+
+    public Map<String, LatencyHistogram.Snapshot> getKeyPrefixLatencies()
+    {
+        return snapshot(keyPrefixes);
+    }
+
+    public LatencyHistogram.Snapshot getBorrowWait()
+    {
+        return borrowWait.snapshot();
+    }
+
+    public long getErrors()
+    {
+        return errors.sum();
+    }
+
+    public long getBrokenConnections()
+    {
+        return brokenConnections.sum();
+    }
+
+    public int getActiveConnections()
+    {
+        int active = 0;
+        for (Pool<Jedis> pool : pools.get())
+        {
+            active += pool.getNumActive();
+        }
+        return active;
+    }
+
+    public int getIdleConnections()
+    {
+        int idle = 0;
+        for (Pool<Jedis> pool : pools.get())
+        {
+            idle += pool.getNumIdle();
+        }
+        return idle;
+    }
+
+    public int getWaitingThreads()
+    {
+        int waiters = 0;
+        for (Pool<Jedis> pool : pools.get())
+        {
+            waiters += pool.getNumWaiters();
+        }
+        return waiters;
+    }
+
+    public long getPoolMeanBorrowWaitMillis()
+    {
+        List<Pool<Jedis>> current = pools.get();
+        if (current.isEmpty())
+        {
+            return 0;
+        }
+        long sum = 0;
+        for (Pool<Jedis> pool : current)
+        {
+            sum += pool.getMeanBorrowWaitTimeMillis();
+        }
+        return sum / current.size();
+    }
+
+    public long getPoolMaxBorrowWaitMillis()
+    {
+        long max = 0;
+        for (Pool<Jedis> pool : pools.get())
+        {
+            max = Math.max(max, pool.getMaxBorrowWaitTimeMillis());
+        }
+        return max;
+    }
+
+    public List<SlowCommandLog.Entry> getSlowCommands()
+    {
+        return null == slowLog ? new ArrayList<SlowCommandLog.Entry>() : slowLog.getEntries();
+    }
+
+    public long getSlowCommandCount()
+    {
+        return null == slowLog ? 0 : slowLog.getTotal();
+    }
+
+    public ValueCompressor.Stats getCompression()
+    {
+        return null == compressor ? new ValueCompressor.Stats(0, 0, 0, 0, 0, 0, 0, 0) : compressor.getStats();
+    }
+
+    /**
+     * 慢命令记录, 未开启时返回null
+     *
+     * @return
+     */
+    public SlowCommandLog getSlowCommandLog()
+    {
+        return slowLog;
+    }
+
+    public void reset()
+    {
+        commands.clear();
+        keyPrefixes.clear();
+        borrowWait.reset();
+        errors.reset();
+        brokenConnections.reset();
+        if (null != slowLog)
+        {
+            slowLog.clear();
+        }
+        if (null != compressor)
+        {
+            compressor.reset();
+        }
+    }
+
+    /**
+     * 估算值的字节数: 字符串按UTF-8长度, 集合与Map累加元素
+     *
+     * @param value
+     * @return
+     */
+    static long sizeOf(Object value)
+    {
+        if (null == value)
+        {
+            return 0;
+        }
+        if (value instanceof byte[])
+        {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof String)
+        {
+            return RedisOutputStream.utf8Length((String) value);
+        }
+        if (value instanceof Number)
+        {
+            return 8;
+        }
+        long size = 0;
+        if (value instanceof Object[])
+        {
+            for (Object element : (Object[]) value)
+            {
+                size += sizeOf(element);
+            }
+        }
+        else if (value instanceof Collection)
+        {
+            for (Object element : (Collection<?>) value)
+            {
+                size += sizeOf(element);
+            }
+        }
+        else if (value instanceof Map)
+        {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+            {
+                size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            }
+        }
+        return size;
+    }
+
+    private static void record(LatencyHistogram histogram, long nanos, boolean failed)
+    {
+        if (failed)
+        {
+            histogram.recordError(nanos);
+        }
+        else
+        {
+            histogram.record(nanos);
+        }
+    }
+
+    private static LatencyHistogram histogram(ConcurrentHashMap<String, LatencyHistogram> map, String name)
+    {
+        LatencyHistogram histogram = map.get(name);
+        if (null == histogram)
+        {
+            if (map.size() >= MAX_NAMES)
+            {
+                name = "(other)";
+            }
+            histogram = map.computeIfAbsent(name, n -> new LatencyHistogram());
+        }
+        return histogram;
+    }
+
+    private String keyPrefix(Object key)
+    {
+        String k = key instanceof byte[] ? SafeEncoder.encode((byte[]) key) : key.toString();
+        int end = k.indexOf(keyPrefixDelimiter);
+        return end > 0 ? k.substring(0, end) : "(none)";
+    }
+
+    private static Map<String, LatencyHistogram.Snapshot> snapshot(Map<String, LatencyHistogram> map)
+    {
+        Map<String, LatencyHistogram.Snapshot> result = new TreeMap<String, LatencyHistogram.Snapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : map.entrySet())
+        {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+}
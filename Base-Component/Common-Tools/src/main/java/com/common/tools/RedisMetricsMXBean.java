@@ -0,0 +1,63 @@
+package com.common.tools;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RedisUtil 运行指标的 JMX 接口, 时间单位为微秒(连接池自身的统计为毫秒)
+ *
+ */
+public interface RedisMetricsMXBean
+{
+    /**
+     * 按命令统计的执行耗时(不含等待连接的时间)
+     */
+    Map<String, LatencyHistogram.Snapshot> getCommandLatencies();
+
+    /**
+     * 按key前缀统计的执行耗时, 未配置前缀分隔符时为空
+     */
+    Map<String, LatencyHistogram.Snapshot> getKeyPrefixLatencies();
+
+    /**
+     * 从连接池借用连接的等待耗时
+     */
+    LatencyHistogram.Snapshot getBorrowWait();
+
+    long getErrors();
+
+    /**
+     * 被判定为连接损坏的异常次数
+     */
+    long getBrokenConnections();
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getWaitingThreads();
+
+    long getPoolMeanBorrowWaitMillis();
+
+    long getPoolMaxBorrowWaitMillis();
+
+    /**
+     * 最近的慢命令, 最新的在前; 未开启慢命令记录时为空
+     */
+    List<SlowCommandLog.Entry> getSlowCommands();
+
+    /**
+     * 累计的慢命令数
+     */
+    long getSlowCommandCount();
+
+    /**
+     * setObject/getObject 的压缩统计: 压缩比、平均压缩和解压耗时; 未开启压缩时全为0
+     */
+    ValueCompressor.Stats getCompression();
+
+    /**
+     * 清零所有统计
+     */
+    void reset();
+}
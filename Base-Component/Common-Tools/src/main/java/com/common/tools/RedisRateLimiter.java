@@ -0,0 +1,408 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import redis.clients.jedis.BuilderFactory;
+
+/**
+ * 基于 {@link RedisUtil} 的限流器
+ * <p>
+ * 每次判断是一次脚本调用(一次往返), 判断和扣减在服务端原子完成:
+ * <ul>
+ * <li>令牌桶 {@link #tokenBucket(RedisUtil, String, long, double)}: hash 中保存令牌数和上次补充时刻, 按速率补充, 最多 capacity 个,
+ * 允许突发</li>
+ * <li>滑动窗口日志 {@link #slidingWindow(RedisUtil, String, long, long)}: sorted set 中记录窗口内每个许可的时刻, 任意 windowMillis
+ * 内最多 limit 个, 没有固定窗口边界处的突发</li>
+ * </ul>
+ * {@link #tryAcquireAll(Collection, int)} 用一个管道判断多个key。时刻取调用方的本地时钟, 各实例的时钟偏差会计入限流误差。<br/>
+ * 令牌桶可以开启本地预取({@link #setLocalPrefetch(int, long)}): 向 Redis 申请许可时多取 batch 个放在本地, 之后的调用在本地扣减,
+ * 非常热的key大部分调用不访问 Redis; 预取的许可超过 maxHoldMillis 未用完时作废(不归还), 因此开启后实际通过的请求略少于配置的速率。
+ * 本地许可按key保存, 用完或作废的key每隔 maxHoldMillis 在访问 Redis 时清理, 只保留最近访问过的key。
+ *
+ */
+public class RedisRateLimiter
+{
+    /**
+     * 令牌桶: KEYS[1] 桶; ARGV 容量、每毫秒补充数、当前毫秒、至少取、最多取、key的毫秒有效期; 返回取到的令牌数, 不足 ARGV[4] 时为0
+     */
+    static final RedisScript<Long> TOKEN_BUCKET = RedisScript.of(
+            "local capacity = tonumber(ARGV[1])\n"
+                    + "local rate = tonumber(ARGV[2])\n"
+                    + "local now = tonumber(ARGV[3])\n"
+                    + "local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'ts')\n"
+                    + "local tokens = tonumber(bucket[1]) or capacity\n"
+                    + "local ts = tonumber(bucket[2]) or now\n"
+                    + "if now > ts then\n"
+                    + "  tokens = math.min(capacity, tokens + (now - ts) * rate)\n"
+                    + "  ts = now\n"
+                    + "end\n"
+                    + "local granted = math.min(math.floor(tokens), tonumber(ARGV[5]))\n"
+                    + "if granted < tonumber(ARGV[4]) then\n"
+                    + "  granted = 0\n"
+                    + "end\n"
+                    + "redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens - granted), 'ts', tostring(ts))\n"
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[6])\n"
+                    + "return granted",
+            BuilderFactory.LONG);
+
+    /**
+     * 滑动窗口日志: KEYS[1] 窗口; ARGV 上限、窗口毫秒、当前毫秒、许可数、成员前缀; 返回通过的许可数, 超出上限时为0
+     */
+    static final RedisScript<Long> SLIDING_WINDOW = RedisScript.of(
+            "local limit = tonumber(ARGV[1])\n"
+                    + "local now = tonumber(ARGV[3])\n"
+                    + "local permits = tonumber(ARGV[4])\n"
+                    + "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now - tonumber(ARGV[2]))\n"
+                    + "if redis.call('ZCARD', KEYS[1]) + permits > limit then\n"
+                    + "  return 0\n"
+                    + "end\n"
+                    + "for i = 1, permits do\n"
+                    + "  redis.call('ZADD', KEYS[1], now, ARGV[5] .. ':' .. i)\n"
+                    + "end\n"
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[2])\n"
+                    + "return permits",
+            BuilderFactory.LONG);
+
+    private final RedisUtil redisUtil;
+
+    private final String keyPrefix;
+
+    private final boolean bucket;
+
+    /**
+     * 令牌桶容量或窗口上限
+     */
+    private final long limit;
+
+    /**
+     * 令牌桶每毫秒补充数
+     */
+    private final double permitsPerMilli;
+
+    private final long windowMillis;
+
+    private final String memberPrefix = UUID.randomUUID().toString() + ":";
+
+    private final AtomicLong memberSeq = new AtomicLong();
+
+    private int prefetchBatch = 0;
+
+    private long prefetchMaxHoldMillis = 0;
+
+    private final ConcurrentHashMap<String, LocalPermits> local = new ConcurrentHashMap<String, LocalPermits>();
+
+    /**
+     * 下次清理本地许可的时刻
+     */
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    private RedisRateLimiter(RedisUtil redisUtil, String keyPrefix, boolean bucket, long limit,
+            double permitsPerMilli, long windowMillis)
+    {
+        if (limit <= 0)
+        {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        this.redisUtil = redisUtil;
+        this.keyPrefix = null == keyPrefix ? "" : keyPrefix;
+        this.bucket = bucket;
+        this.limit = limit;
+        this.permitsPerMilli = permitsPerMilli;
+        this.windowMillis = windowMillis;
+        redisUtil.registerScript(bucket ? TOKEN_BUCKET : SLIDING_WINDOW);
+    }
+
+    /**
+     * 令牌桶限流
+     *
+     * @param redisUtil
+     * @param keyPrefix
+     *            加在限流key前的前缀, 例如 ratelimit:api:
+     * @param capacity
+     *            桶容量, 即允许的最大突发
+     * @param permitsPerSecond
+     *            每秒补充的令牌数
+     * @return
+     */
+    public static RedisRateLimiter tokenBucket(RedisUtil redisUtil, String keyPrefix, long capacity,
+            double permitsPerSecond)
+    {
+        if (permitsPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        return new RedisRateLimiter(redisUtil, keyPrefix, true, capacity, permitsPerSecond / 1000, 0);
+    }
+
+    /**
+     * 滑动窗口日志限流
+     *
+     * @param redisUtil
+     * @param keyPrefix
+     * @param limit
+     *            窗口内允许的许可数
+     * @param windowMillis
+     *            窗口长度
+     * @return
+     */
+    public static RedisRateLimiter slidingWindow(RedisUtil redisUtil, String keyPrefix, long limit, long windowMillis)
+    {
+        if (windowMillis <= 0)
+        {
+            throw new IllegalArgumentException("windowMillis must be positive: " + windowMillis);
+        }
+        return new RedisRateLimiter(redisUtil, keyPrefix, false, limit, 0, windowMillis);
+    }
+
+    /**
+     * 开启令牌桶的本地预取
+     *
+     * @param batch
+     *            每次向 Redis 多取的许可数, 不大于0时关闭
+     * @param maxHoldMillis
+     *            预取的许可在本地保留的最长时间
+     * @return this
+     */
+    public RedisRateLimiter setLocalPrefetch(int batch, long maxHoldMillis)
+    {
+        if (!bucket && batch > 0)
+        {
+            throw new IllegalStateException("local prefetch is only supported by token bucket limiters");
+        }
+        this.prefetchBatch = Math.max(batch, 0);
+        this.prefetchMaxHoldMillis = maxHoldMillis;
+        local.clear();
+        return this;
+    }
+
+    /**
+     * 获取一个许可, 不等待
+     *
+     * @param key
+     * @return 是否通过
+     */
+    public boolean tryAcquire(String key)
+    {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * 获取多个许可, 不等待; 许可不足时一个也不扣减
+     *
+     * @param key
+     * @param permits
+     * @return 是否通过
+     */
+    public boolean tryAcquire(String key, int permits)
+    {
+        checkPermits(permits);
+        long now = System.currentTimeMillis();
+        LocalPermits held = prefetchBatch > 0 ? localPermits(key) : null;
+        if (null != held)
+        {
+            boolean allowed;
+            synchronized (held)
+            {
+                if (held.take(permits, now))
+                {
+                    return true;
+                }
+                long granted = redisUtil.eval(script(), Arrays.asList(keyPrefix + key), args(now, permits));
+                allowed = held.granted(granted, permits, now + prefetchMaxHoldMillis);
+            }
+            sweep(now);
+            return allowed;
+        }
+        return redisUtil.eval(script(), Arrays.asList(keyPrefix + key), args(now, permits)) >= permits;
+    }
+
+    /**
+     * 用一个管道对多个key各获取 permits 个许可(集群/分片模式下按节点分组并行)
+     *
+     * @param keys
+     * @param permits
+     * @return key -> 是否通过, 顺序与keys一致(重复的key只判断一次)
+     */
+    public Map<String, Boolean> tryAcquireAll(Collection<String> keys, int permits)
+    {
+        checkPermits(permits);
+        long now = System.currentTimeMillis();
+        Map<String, Boolean> results = new LinkedHashMap<String, Boolean>();
+        List<String> remote = new ArrayList<String>(keys.size());
+        for (String key : new LinkedHashSet<String>(keys))
+        {
+            LocalPermits held = prefetchBatch > 0 ? localPermits(key) : null;
+            boolean taken;
+            if (null != held)
+            {
+                synchronized (held)
+                {
+                    taken = held.take(permits, now);
+                }
+            }
+            else
+            {
+                taken = false;
+            }
+            results.put(key, taken ? Boolean.TRUE : null);
+            if (!taken)
+            {
+                remote.add(key);
+            }
+        }
+        if (remote.isEmpty())
+        {
+            return results;
+        }
+        List<RedisScript.Call<Long>> calls = new ArrayList<RedisScript.Call<Long>>(remote.size());
+        List<String> args = args(now, permits);
+        for (String key : remote)
+        {
+            calls.add(script().call(Arrays.asList(keyPrefix + key), args));
+        }
+        List<Object> replies = redisUtil.evalPipelined(calls);
+        if (prefetchBatch > 0)
+        {
+            sweep(now);
+        }
+        for (int i = 0; i < remote.size(); i++)
+        {
+            Object reply = replies.get(i);
+            if (reply instanceof RuntimeException)
+            {
+                throw (RuntimeException) reply;
+            }
+            String key = remote.get(i);
+            long granted = (Long) reply;
+            if (prefetchBatch > 0)
+            {
+                LocalPermits held = localPermits(key);
+                synchronized (held)
+                {
+                    results.put(key, held.granted(granted, permits, now + prefetchMaxHoldMillis));
+                }
+            }
+            else
+            {
+                results.put(key, granted >= permits);
+            }
+        }
+        return results;
+    }
+
+    public long getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * 本地保存预取许可的key数
+     *
+     * @return
+     */
+    int getLocalKeyCount()
+    {
+        return local.size();
+    }
+
+    private RedisScript<Long> script()
+    {
+        return bucket ? TOKEN_BUCKET : SLIDING_WINDOW;
+    }
+
+    private List<String> args(long now, int permits)
+    {
+        if (bucket)
+        {
+            // 从空桶补满所需的时间之后key过期, 过期后重新创建的满桶与补满的桶相同
+            long ttl = (long) Math.ceil(limit / permitsPerMilli) + 1000;
+            return Arrays.asList(String.valueOf(limit), Double.toString(permitsPerMilli), String.valueOf(now),
+                    String.valueOf(permits), String.valueOf(permits + prefetchBatch), String.valueOf(ttl));
+        }
+        return Arrays.asList(String.valueOf(limit), String.valueOf(windowMillis), String.valueOf(now),
+                String.valueOf(permits), memberPrefix + memberSeq.incrementAndGet());
+    }
+
+    private LocalPermits localPermits(String key)
+    {
+        LocalPermits held = local.get(key);
+        if (null == held)
+        {
+            held = local.computeIfAbsent(key, k -> new LocalPermits());
+        }
+        return held;
+    }
+
+    /**
+     * 每隔 maxHoldMillis 删除用完或作废的本地许可; 删除后仍在使用该对象的调用取到的许可只是作废, 不会多放行
+     */
+    private void sweep(long now)
+    {
+        long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + Math.max(prefetchMaxHoldMillis, 1)))
+        {
+            return;
+        }
+        local.values().removeIf(held -> held.drained(now));
+    }
+
+    private static void checkPermits(int permits)
+    {
+        if (permits <= 0)
+        {
+            throw new IllegalArgumentException("permits must be positive: " + permits);
+        }
+    }
+
+    /**
+     * 本地预取的许可, 访问时加锁
+     */
+    private static final class LocalPermits
+    {
+        private long remaining;
+
+        private long expiresAt;
+
+        private boolean take(int permits, long now)
+        {
+            if (now >= expiresAt)
+            {
+                remaining = 0;
+            }
+            if (remaining >= permits)
+            {
+                remaining -= permits;
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized boolean drained(long now)
+        {
+            return remaining == 0 || now >= expiresAt;
+        }
+
+        /**
+         * 记录从 Redis 取到的许可, 本次调用用掉 permits 个, 其余留在本地
+         */
+        private boolean granted(long granted, int permits, long expiresAt)
+        {
+            if (granted < permits)
+            {
+                return false;
+            }
+            this.remaining = granted - permits;
+            this.expiresAt = expiresAt;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,639 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.BuilderFactory;
+
+/**
+ * 基于 Redis list 的可靠队列(至少投递一次)
+ * <p>
+ * 生产者 {@link #send(String)}/{@link #sendAll(Collection)} 把消息 LPUSH 到待处理列表; 消费者取消息时用脚本原子地把消息
+ * RPOPLPUSH 到处理中列表, 并在 sorted set 中记录可见性截止时刻, 一次最多取 max 条(一次往返)。处理完成后
+ * {@link #ack(Message)} 删除消息, {@link #nack(Message)} 放回待处理列表末尾; 消费者崩溃或处理超过 visibilityMillis
+ * 未确认的消息由 {@link #reap()} 放回待处理列表头部重新投递, 处理时间较长时可以用 {@link #extend(Message, long)} 延长。<br/>
+ * 队列为空时 {@link #poll(int, long)} 用 BRPOPLPUSH 阻塞等待, 不轮询; 阻塞取到第一条后在第二次往返中登记截止时刻并再取 max-1 条,
+ * 两次往返之间崩溃留下的消息由 reap() 补记截止时刻, 之后同样重新投递。<br/>
+ * {@link #start(int, int, long, MessageHandler)} 在 {@link ThreadPoolUtils} 的线程池中运行消费者, 处理成功的消息 ack,
+ * 抛出异常的 nack, 同一批的确认用一个管道提交; 同时启动后台的 reap 线程。<br/>
+ * 截止时刻取本地时钟, 各实例的时钟偏差会计入可见性超时。确认时核对截止时刻, 超时后已重新投递的消息不会被原来的消费者确认。<br/>
+ * key: queue:{name}(待处理)、queue:{name}:processing(处理中)、queue:{name}:deadlines(截止时刻), 同一槽位;
+ * name 中已含{hashtag}时不再添加。消息在 Redis 中保存为 "id:body", 需要通过本类发送。
+ *
+ */
+public class RedisReliableQueue
+{
+    private static final Logger logger = LoggerFactory.getLogger(RedisReliableQueue.class);
+
+    /**
+     * 取消息: KEYS 待处理、处理中、截止时刻; ARGV 最多条数、截止时刻、已由 BRPOPLPUSH 移到处理中的消息(可选); 返回取到的消息
+     */
+    static final RedisScript<List<String>> POP = RedisScript.of(
+            "if ARGV[3] then\n"
+                    + "  redis.call('ZADD', KEYS[3], ARGV[2], ARGV[3])\n"
+                    + "end\n"
+                    + "local items = {}\n"
+                    + "for i = 1, tonumber(ARGV[1]) do\n"
+                    + "  local item = redis.call('RPOPLPUSH', KEYS[1], KEYS[2])\n"
+                    + "  if not item then\n"
+                    + "    break\n"
+                    + "  end\n"
+                    + "  redis.call('ZADD', KEYS[3], ARGV[2], item)\n"
+                    + "  items[#items + 1] = item\n"
+                    + "end\n"
+                    + "return items",
+            BuilderFactory.STRING_LIST);
+
+    /**
+     * 确认: KEYS 待处理、处理中、截止时刻; ARGV 消息、取到时的截止时刻、是否放回; 截止时刻一致(仍是这次投递)时返回1
+     */
+    static final RedisScript<Long> SETTLE = RedisScript.of(
+            "local score = redis.call('ZSCORE', KEYS[3], ARGV[1])\n"
+                    + "if not score or tonumber(score) ~= tonumber(ARGV[2]) then\n"
+                    + "  return 0\n"
+                    + "end\n"
+                    + "redis.call('ZREM', KEYS[3], ARGV[1])\n"
+                    + "if redis.call('LREM', KEYS[2], -1, ARGV[1]) > 0 and ARGV[3] == '1' then\n"
+                    + "  redis.call('LPUSH', KEYS[1], ARGV[1])\n"
+                    + "end\n"
+                    + "return 1",
+            BuilderFactory.LONG);
+
+    /**
+     * 延长: KEYS[1] 截止时刻; ARGV 消息、原截止时刻、新截止时刻; 仍是这次投递时返回1
+     */
+    static final RedisScript<Long> EXTEND = RedisScript.of(
+            "local score = redis.call('ZSCORE', KEYS[1], ARGV[1])\n"
+                    + "if not score or tonumber(score) ~= tonumber(ARGV[2]) then\n"
+                    + "  return 0\n"
+                    + "end\n"
+                    + "redis.call('ZADD', KEYS[1], ARGV[3], ARGV[1])\n"
+                    + "return 1",
+            BuilderFactory.LONG);
+
+    /**
+     * 重新投递: KEYS 待处理、处理中、截止时刻; ARGV 当前时刻、最多条数、补记的截止时刻;
+     * 超时的消息放回待处理列表头部, 处理中列表里没有截止时刻的消息补记截止时刻; 返回重新投递的条数
+     */
+    static final RedisScript<Long> REAP = RedisScript.of(
+            "local expired = redis.call('ZRANGEBYSCORE', KEYS[3], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2]))\n"
+                    + "local requeued = 0\n"
+                    + "for _, item in ipairs(expired) do\n"
+                    + "  redis.call('ZREM', KEYS[3], item)\n"
+                    + "  if redis.call('LREM', KEYS[2], -1, item) > 0 then\n"
+                    + "    redis.call('RPUSH', KEYS[1], item)\n"
+                    + "    requeued = requeued + 1\n"
+                    + "  end\n"
+                    + "end\n"
+                    + "if redis.call('LLEN', KEYS[2]) > redis.call('ZCARD', KEYS[3]) then\n"
+                    + "  for _, item in ipairs(redis.call('LRANGE', KEYS[2], 0, -1)) do\n"
+                    + "    if not redis.call('ZSCORE', KEYS[3], item) then\n"
+                    + "      redis.call('ZADD', KEYS[3], ARGV[3], item)\n"
+                    + "    end\n"
+                    + "  end\n"
+                    + "end\n"
+                    + "return requeued",
+            BuilderFactory.LONG);
+
+    /**
+     * 每次 reap 最多重新投递的条数
+     */
+    private static final int REAP_BATCH = 1000;
+
+    private final RedisUtil redisUtil;
+
+    private final String pendingKey;
+
+    private final String processingKey;
+
+    private final String deadlinesKey;
+
+    private final List<String> keys;
+
+    private final long visibilityMillis;
+
+    private final String idPrefix = UUID.randomUUID().toString() + "-";
+
+    private final AtomicLong idSeq = new AtomicLong();
+
+    private final List<CountDownLatch> consumers = new ArrayList<CountDownLatch>();
+
+    /**
+     * 已启动的消费者中最长的阻塞等待时间(按秒向上取整), 用于计算 {@link #close()} 的等待时间
+     */
+    private long blockWaitMillis;
+
+    private ScheduledExecutorService reaper;
+
+    private volatile boolean closed;
+
+    /**
+     * @param redisUtil
+     * @param name
+     *            队列名
+     * @param visibilityMillis
+     *            可见性超时, 取出后超过这么久未确认的消息重新投递
+     */
+    public RedisReliableQueue(RedisUtil redisUtil, String name, long visibilityMillis)
+    {
+        if (visibilityMillis <= 0)
+        {
+            throw new IllegalArgumentException("visibilityMillis must be positive: " + visibilityMillis);
+        }
+        int open = name.indexOf('{');
+        boolean tagged = open >= 0 && name.indexOf('}', open + 1) > open + 1;
+        this.redisUtil = redisUtil;
+        this.pendingKey = tagged ? "queue:" + name : "queue:{" + name + "}";
+        this.processingKey = pendingKey + ":processing";
+        this.deadlinesKey = pendingKey + ":deadlines";
+        this.keys = Arrays.asList(pendingKey, processingKey, deadlinesKey);
+        this.visibilityMillis = visibilityMillis;
+        redisUtil.registerScript(POP);
+        redisUtil.registerScript(SETTLE);
+        redisUtil.registerScript(EXTEND);
+        redisUtil.registerScript(REAP);
+    }
+
+    /**
+     * 发送一条消息
+     *
+     * @param body
+     * @return 消息id
+     */
+    public String send(String body)
+    {
+        return sendAll(Collections.singletonList(body)).get(0);
+    }
+
+    /**
+     * 一次往返发送多条消息, 按顺序投递
+     *
+     * @param bodies
+     * @return 与bodies顺序一致的消息id
+     */
+    public List<String> sendAll(Collection<String> bodies)
+    {
+        List<String> ids = new ArrayList<String>(bodies.size());
+        if (bodies.isEmpty())
+        {
+            return ids;
+        }
+        String[] items = new String[bodies.size()];
+        int i = 0;
+        for (String body : bodies)
+        {
+            String id = idPrefix + Long.toString(idSeq.incrementAndGet(), 36);
+            ids.add(id);
+            items[i++] = id + ":" + body;
+        }
+        redisUtil.lpush(pendingKey, items);
+        return ids;
+    }
+
+    /**
+     * 取最多max条消息, 不等待
+     *
+     * @param max
+     * @return 队列为空时返回空列表
+     */
+    public List<Message> poll(int max)
+    {
+        return pop(max, null);
+    }
+
+    /**
+     * 取最多max条消息, 队列为空时阻塞等待
+     *
+     * @param max
+     * @param timeoutMillis
+     *            最长等待时间, 按秒向上取整; 不大于0时不等待
+     * @return 超时返回空列表
+     */
+    public List<Message> poll(int max, long timeoutMillis)
+    {
+        List<Message> messages = pop(max, null);
+        if (!messages.isEmpty() || timeoutMillis <= 0)
+        {
+            return messages;
+        }
+        int seconds = (int) Math.max(1, (timeoutMillis + 999) / 1000);
+        String item = redisUtil.brpoplpush(pendingKey, processingKey, seconds);
+        if (null == item)
+        {
+            return messages;
+        }
+        return pop(max - 1, item);
+    }
+
+    /**
+     * 确认处理完成, 删除消息
+     *
+     * @param message
+     * @return 消息已超时并重新投递时返回false
+     */
+    public boolean ack(Message message)
+    {
+        return redisUtil.eval(SETTLE, keys, settleArgs(message, false)) == 1;
+    }
+
+    /**
+     * 处理失败, 把消息放回待处理列表末尾
+     *
+     * @param message
+     * @return 消息已超时并重新投递时返回false
+     */
+    public boolean nack(Message message)
+    {
+        return redisUtil.eval(SETTLE, keys, settleArgs(message, true)) == 1;
+    }
+
+    /**
+     * 用一个管道确认多条消息
+     *
+     * @param acked
+     *            处理完成的消息
+     * @param nacked
+     *            处理失败、放回队列的消息
+     * @return 确认成功的条数
+     */
+    public int settleAll(Collection<Message> acked, Collection<Message> nacked)
+    {
+        List<RedisScript.Call<Long>> calls = new ArrayList<RedisScript.Call<Long>>(acked.size() + nacked.size());
+        for (Message message : acked)
+        {
+            calls.add(SETTLE.call(keys, settleArgs(message, false)));
+        }
+        for (Message message : nacked)
+        {
+            calls.add(SETTLE.call(keys, settleArgs(message, true)));
+        }
+        int settled = 0;
+        for (Object reply : redisUtil.evalPipelined(calls))
+        {
+            if (reply instanceof RuntimeException)
+            {
+                throw (RuntimeException) reply;
+            }
+            settled += ((Long) reply).intValue();
+        }
+        return settled;
+    }
+
+    /**
+     * 把消息的可见性截止时刻延长到 millis 毫秒之后
+     *
+     * @param message
+     * @param millis
+     * @return 消息已超时并重新投递时返回false
+     */
+    public boolean extend(Message message, long millis)
+    {
+        long deadline = System.currentTimeMillis() + millis;
+        boolean extended = redisUtil.eval(EXTEND, Arrays.asList(deadlinesKey),
+                Arrays.asList(message.raw, String.valueOf(message.deadline), String.valueOf(deadline))) == 1;
+        if (extended)
+        {
+            message.deadline = deadline;
+        }
+        return extended;
+    }
+
+    /**
+     * 把超时未确认的消息放回待处理列表头部, 由后台线程定期执行, 也可以手动调用
+     *
+     * @return 重新投递的条数
+     */
+    public long reap()
+    {
+        long now = System.currentTimeMillis();
+        long total = 0;
+        long requeued;
+        do
+        {
+            requeued = redisUtil.eval(REAP, keys, Arrays.asList(String.valueOf(now), String.valueOf(REAP_BATCH),
+                    String.valueOf(now + visibilityMillis)));
+            total += requeued;
+        }
+        while (requeued >= REAP_BATCH);
+        return total;
+    }
+
+    /**
+     * 待处理的消息数
+     *
+     * @return
+     */
+    public long size()
+    {
+        return redisUtil.llen(pendingKey);
+    }
+
+    /**
+     * 处理中(已取出未确认)的消息数
+     *
+     * @return
+     */
+    public long inFlight()
+    {
+        return redisUtil.llen(processingKey);
+    }
+
+    /**
+     * 在 {@link ThreadPoolUtils} 的线程池中启动消费者, 并启动后台 reap
+     *
+     * @param consumerCount
+     *            消费者数, 每个消费者长期占用线程池的一个线程
+     * @param batchSize
+     *            每次最多取的条数
+     * @param blockMillis
+     *            队列为空时每次阻塞等待的时间, 按秒向上取整; 阻塞中的消费者不能被中断, 最长要等这么久才发现已关闭
+     * @param handler
+     */
+    public void start(int consumerCount, int batchSize, long blockMillis, MessageHandler handler)
+    {
+        ExecutorService executor = ThreadPoolUtils.getExecutorService();
+        if (null == executor)
+        {
+            throw new IllegalStateException("ThreadPoolUtils is not initialized");
+        }
+        start(executor, consumerCount, batchSize, blockMillis, handler);
+    }
+
+    /**
+     * 在指定的线程池中启动消费者, 并启动后台 reap
+     *
+     * @param executor
+     * @param consumerCount
+     * @param batchSize
+     * @param blockMillis
+     * @param handler
+     */
+    public synchronized void start(ExecutorService executor, int consumerCount, final int batchSize,
+            final long blockMillis, final MessageHandler handler)
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("queue is closed");
+        }
+        if (batchSize <= 0)
+        {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        startReaper();
+        blockWaitMillis = Math.max(blockWaitMillis, Math.max(1, (blockMillis + 999) / 1000) * 1000);
+        for (int i = 0; i < consumerCount; i++)
+        {
+            final CountDownLatch stopped = new CountDownLatch(1);
+            consumers.add(stopped);
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        consume(batchSize, blockMillis, handler);
+                    }
+                    finally
+                    {
+                        stopped.countDown();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 停止消费者和后台 reap, 等待消费者处理完当前的一批; 未取出的消息留在队列中<br/>
+     * 所有消费者共用一个截止时刻: 阻塞等待时间(blockMillis 按秒向上取整)加上 visibilityMillis, 即刚取到一批的消费者
+     * 处理完这批的时间; 到时仍未停止的消费者不再等待, 它们未确认的消息超时后重新投递
+     */
+    public void close()
+    {
+        List<CountDownLatch> running;
+        long deadline;
+        synchronized (this)
+        {
+            closed = true;
+            if (null != reaper)
+            {
+                reaper.shutdownNow();
+            }
+            running = new ArrayList<CountDownLatch>(consumers);
+            deadline = System.currentTimeMillis() + blockWaitMillis + visibilityMillis;
+        }
+        int unfinished = 0;
+        for (CountDownLatch stopped : running)
+        {
+            try
+            {
+                if (!stopped.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+                {
+                    unfinished++;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (unfinished > 0)
+        {
+            logger.warn("队列 " + pendingKey + " 关闭时仍有 " + unfinished + " 个消费者未停止");
+        }
+    }
+
+    private void consume(int batchSize, long blockMillis, MessageHandler handler)
+    {
+        while (!closed && !Thread.currentThread().isInterrupted())
+        {
+            List<Message> batch;
+            try
+            {
+                batch = poll(batchSize, blockMillis);
+            }
+            catch (Exception e)
+            {
+                logger.warn("取队列消息失败, 1秒后重试," + e.getMessage());
+                sleepQuietly(1000);
+                continue;
+            }
+            List<Message> acked = new ArrayList<Message>(batch.size());
+            List<Message> nacked = new ArrayList<Message>();
+            for (Message message : batch)
+            {
+                try
+                {
+                    handler.handle(message);
+                    acked.add(message);
+                }
+                catch (Exception e)
+                {
+                    logger.warn("处理队列消息 " + message.getId() + " 失败, 放回队列", e);
+                    nacked.add(message);
+                }
+            }
+            if (batch.isEmpty())
+            {
+                continue;
+            }
+            try
+            {
+                settleAll(acked, nacked);
+            }
+            catch (Exception e)
+            {
+                // 未确认的消息超时后重新投递
+                logger.warn("确认队列消息失败," + e.getMessage());
+            }
+        }
+    }
+
+    private List<Message> pop(int max, String claimed)
+    {
+        long deadline = System.currentTimeMillis() + visibilityMillis;
+        List<String> args = new ArrayList<String>(3);
+        args.add(String.valueOf(Math.max(max, 0)));
+        args.add(String.valueOf(deadline));
+        if (null != claimed)
+        {
+            args.add(claimed);
+        }
+        List<String> items = redisUtil.eval(POP, keys, args);
+        List<Message> messages = new ArrayList<Message>(items.size() + 1);
+        if (null != claimed)
+        {
+            messages.add(new Message(claimed, deadline));
+        }
+        for (String item : items)
+        {
+            messages.add(new Message(item, deadline));
+        }
+        return messages;
+    }
+
+    private static List<String> settleArgs(Message message, boolean requeue)
+    {
+        return Arrays.asList(message.raw, String.valueOf(message.deadline), requeue ? "1" : "0");
+    }
+
+    private void startReaper()
+    {
+        if (null != reaper)
+        {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "redis-queue-reaper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long interval = Math.max(10, visibilityMillis / 4);
+        reaper.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    long requeued = reap();
+                    if (requeued > 0)
+                    {
+                        logger.info("队列 " + pendingKey + " 重新投递超时消息 " + requeued + " 条");
+                    }
+                }
+                catch (Exception e)
+                {
+                    logger.warn("重新投递超时消息失败," + e.getMessage());
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static void sleepQuietly(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 消息处理器, 正常返回时 ack, 抛出异常时 nack
+     */
+    public interface MessageHandler
+    {
+        void handle(Message message) throws Exception;
+    }
+
+    /**
+     * 一次投递的消息
+     */
+    public static final class Message
+    {
+        private final String raw;
+
+        private final String id;
+
+        private final String body;
+
+        /**
+         * 本次投递的可见性截止时刻, 确认时用于核对
+         */
+        private volatile long deadline;
+
+        private Message(String raw, long deadline)
+        {
+            int sep = raw.indexOf(':');
+            this.raw = raw;
+            this.id = sep < 0 ? raw : raw.substring(0, sep);
+            this.body = sep < 0 ? raw : raw.substring(sep + 1);
+            this.deadline = deadline;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public String getBody()
+        {
+            return body;
+        }
+
+        /**
+         * @return 可见性截止时刻(毫秒)
+         */
+        public long getDeadline()
+        {
+            return deadline;
+        }
+
+        @Override
+        public String toString()
+        {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.common.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+
+import redis.clients.jedis.Builder;
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Lua 脚本
+ * <p>
+ * 源码的 SHA1 在构造时计算, 通过 {@link RedisUtil#eval(RedisScript, List, List)} 以 EVALSHA 执行,
+ * 服务端没有缓存该脚本(重启、主从切换、SCRIPT FLUSH 之后)时自动 SCRIPT LOAD 并重试。<br/>
+ * 脚本的返回值由 Builder 转换: 字符串(含状态回复)为 byte[], 整数为 Long, 数组为 List, nil/false 为 null,
+ * 可直接使用 BuilderFactory 中的 LONG、STRING、STRING_LIST 等。通常定义为常量:
+ *
+ * <pre>
+ * static final RedisScript&lt;Long&gt; INCR_IF_EXISTS = RedisScript.of(
+ *         "if redis.call('EXISTS', KEYS[1]) == 1 then return redis.call('INCRBY', KEYS[1], ARGV[1]) end",
+ *         BuilderFactory.LONG);
+ * </pre>
+ *
+ * 集群/分片模式下按第一个key路由, 脚本访问的key都要通过 KEYS 传入并位于同一槽位(可使用{hashtag})。
+ *
+ * @param <T>
+ *            结果类型
+ */
+public final class RedisScript<T>
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String source;
+
+    private final byte[] sourceBytes;
+
+    private final String sha1;
+
+    private final byte[] sha1Bytes;
+
+    private final Builder<T> resultBuilder;
+
+    private RedisScript(String source, Builder<T> resultBuilder)
+    {
+        if (null == source || null == resultBuilder)
+        {
+            throw new IllegalArgumentException("source and resultBuilder must not be null");
+        }
+        this.source = source;
+        this.sourceBytes = source.getBytes(UTF_8);
+        this.sha1 = sha1Hex(sourceBytes);
+        this.sha1Bytes = SafeEncoder.encode(sha1);
+        this.resultBuilder = resultBuilder;
+    }
+
+    /**
+     * @param source
+     *            Lua 源码
+     * @param resultBuilder
+     *            结果转换
+     * @return
+     */
+    public static <T> RedisScript<T> of(String source, Builder<T> resultBuilder)
+    {
+        return new RedisScript<T>(source, resultBuilder);
+    }
+
+    /**
+     * 不转换结果: 字符串为 byte[], 整数为 Long, 数组为 List
+     *
+     * @param source
+     * @return
+     */
+    public static RedisScript<Object> of(String source)
+    {
+        return new RedisScript<Object>(source, BuilderFactory.EVAL_BINARY_RESULT);
+    }
+
+    /**
+     * 从 classpath 读取脚本(UTF-8)
+     *
+     * @param resource
+     *            资源路径, 例如 scripts/incr_if_exists.lua
+     * @param resultBuilder
+     * @return
+     */
+    public static <T> RedisScript<T> fromClasspath(String resource, Builder<T> resultBuilder)
+    {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (null == loader)
+        {
+            loader = RedisScript.class.getClassLoader();
+        }
+        InputStream in = loader.getResourceAsStream(resource);
+        if (null == in)
+        {
+            throw new IllegalArgumentException("script not found in classpath: " + resource);
+        }
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1)
+            {
+                out.write(buf, 0, n);
+            }
+            return new RedisScript<T>(new String(out.toByteArray(), UTF_8), resultBuilder);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("failed to read script: " + resource, e);
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch (IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 生成一次调用, 用于 {@link RedisUtil#evalPipelined(List)}
+     *
+     * @param keys
+     * @param args
+     * @return
+     */
+    public Call<T> call(List<String> keys, List<String> args)
+    {
+        return new Call<T>(this, keys, args);
+    }
+
+    public String getSource()
+    {
+        return source;
+    }
+
+    public String getSha1()
+    {
+        return sha1;
+    }
+
+    byte[] getSourceBytes()
+    {
+        return sourceBytes;
+    }
+
+    byte[] getSha1Bytes()
+    {
+        return sha1Bytes;
+    }
+
+    /**
+     * 转换 EVALSHA 的原始回复
+     *
+     * @param raw
+     * @return
+     */
+    T build(Object raw)
+    {
+        return resultBuilder.build(raw);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        return this == obj || obj instanceof RedisScript && sha1.equals(((RedisScript<?>) obj).sha1);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return sha1.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RedisScript[" + sha1 + "]";
+    }
+
+    /**
+     * SHA1 的十六进制小写形式, 与 SCRIPT LOAD 的返回值相同
+     *
+     * @param bytes
+     * @return
+     */
+    static String sha1Hex(byte[] bytes)
+    {
+        byte[] digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++)
+        {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * 脚本的一次调用: 脚本、KEYS 和 ARGV
+     *
+     * @param <T>
+     */
+    public static final class Call<T>
+    {
+        private final RedisScript<T> script;
+
+        private final List<String> keys;
+
+        private final List<String> args;
+
+        private Call(RedisScript<T> script, List<String> keys, List<String> args)
+        {
+            this.script = script;
+            this.keys = null == keys ? Collections.<String> emptyList() : keys;
+            this.args = null == args ? Collections.<String> emptyList() : args;
+        }
+
+        public RedisScript<T> getScript()
+        {
+            return script;
+        }
+
+        public List<String> getKeys()
+        {
+            return keys;
+        }
+
+        public List<String> getArgs()
+        {
+            return args;
+        }
+
+        /**
+         * 集群/分片模式下的路由key(第一个key), 没有key时为null
+         *
+         * @return
+         */
+        String getRoutingKey()
+        {
+            return keys.isEmpty() ? null : keys.get(0);
+        }
+
+        /**
+         * EVALSHA 的参数: KEYS 之后是 ARGV
+         *
+         * @return
+         */
+        byte[][] params()
+        {
+            return RedisScript.params(keys, args);
+        }
+
+        @Override
+        public String toString()
+        {
+            return script + " keys=" + keys + " args=" + args;
+        }
+    }
+
+    static byte[][] params(List<String> keys, List<String> args)
+    {
+        byte[][] params = new byte[keys.size() + args.size()][];
+        int i = 0;
+        for (String key : keys)
+        {
+            params[i++] = SafeEncoder.encode(key);
+        }
+        for (String arg : args)
+        {
+            params[i++] = SafeEncoder.encode(arg);
+        }
+        return params;
+    }
+}
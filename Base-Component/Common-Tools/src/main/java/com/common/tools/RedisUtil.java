@@ -1,23 +1,43 @@
 package com.common.tools;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Component;
 
 import redis.clients.jedis.BinaryClient.LIST_POSITION;
 import redis.clients.jedis.Client;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
 import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.SortingParams;
+import redis.clients.jedis.Tuple;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
 import redis.clients.util.Pool;
 import redis.clients.util.SafeEncoder;
 
@@ -26,7 +46,7 @@ import redis.clients.util.SafeEncoder;
  * 
  */
 @Component
-public class RedisUtil implements InitializingBean
+public class RedisUtil implements InitializingBean, DisposableBean
 {
 
     private Logger logger = LoggerFactory.getLogger(RedisUtil.class);
@@ -42,6 +62,96 @@ public class RedisUtil implements InitializingBean
     // 数据源连接池
     private JedisSentinelPool pool;
 
+    // 近端缓存, 默认关闭; 开启后 get(String)/getObject(String) 优先读取进程内缓存
+    private boolean nearCacheEnabled = false;
+    private int nearCacheMaxSize = 10000;
+    private long nearCacheTtlMillis = 1000;
+    private NearCache.EvictionPolicy nearCacheEvictionPolicy = NearCache.EvictionPolicy.LRU;
+    // 字符串值与对象值分开缓存, 避免同一个key以不同方式读取时互相污染
+    private NearCache stringNearCache;
+    private NearCache objectNearCache;
+
+    // 读请求合并, 默认关闭; 开启后并发的 get(String)/hget 在时间窗口内合并为一次管道调用, 按读取偏好读主节点或从节点
+    private boolean coalescingEnabled = false;
+    private long coalescingWindowMicros = 200;
+    private int coalescingMaxBatchSize = 64;
+    private int coalescingThreads = 2;
+    private ReadCoalescer readCoalescer;
+
+    // 从节点读, 默认关闭; 开启后 replicaReadGroups 中的只读操作发往从节点, 写操作仍然发往主节点
+    private boolean replicaReadEnabled = false;
+    private Set<ReadGroup> replicaReadGroups = EnumSet.allOf(ReadGroup.class);
+    private long replicaRefreshMillis = 5000;
+    private ReplicaPools replicaPools;
+
+    // 集群节点地址 host:port, 配置后使用 Redis Cluster 模式, 不再使用 sentinels
+    private Set<String> clusterNodes = null;
+    private int clusterMaxRedirections = 5;
+    // 多key操作按节点拆分后并行执行的线程数
+    private int multiKeyThreads = 16;
+    private RedisClusterRouter clusterRouter;
+    // 分片的 master 名称, 配置多个时按一致性哈希把key分布到各 master(同一组 sentinels 监控)
+    private Set<String> masterNames = null;
+    // 每个分片在哈希环上的虚拟节点数
+    private int shardVirtualNodes = 160;
+    private ShardedSentinelRouter shardRouter;
+    // 集群或分片模式下的key路由, 其他模式为null
+    private KeyRouter<?> keyRouter;
+    // 运行指标, 默认关闭; 开启后记录每个命令的耗时分布、连接等待耗时和错误数, 并注册为 JMX MBean
+    private boolean metricsEnabled = false;
+    // key前缀分隔符, 配置后额外按key前缀统计耗时, 例如 ":" 时 user:1001 计入 user
+    private String metricsKeyPrefixDelimiter = null;
+    private RedisMetrics metrics;
+    // 慢命令记录, 阈值(微秒)为负数时关闭; 开启后超过阈值的命令记入固定大小的环形缓冲区, 可通过 JMX 或 getSlowCommandLog() 查询
+    private long slowLogThresholdMicros = -1;
+    private int slowLogSize = 128;
+    private int slowLogMaxKeyLength = 64;
+    private boolean slowLogHashKeys = false;
+    // setObject 使用的编解码器, getObject 按数据头自动识别; 改为 JavaSerializationCodec 时写入的值与旧版本格式相同
+    private Codec<Object> codec = new BinaryCodec();
+    // 反序列化白名单: 完整类名或以 .* 结尾的包名, 为null时不限制; 对本实例 getObject 等读取的 Java 序列化、BinaryCodec 数据生效
+    private Set<String> deserializationAllowList = null;
+    private ClassAllowList allowList;
+    // setObject 的压缩阈值(编码后的字节数), 负数时关闭; 压缩的值在数据头中标记, getObject 自动解压
+    private int compressThreshold = -1;
+    // Deflater 压缩级别 0~9
+    private int compressLevel = Deflater.BEST_SPEED;
+    private ValueCompressor valueCompressor;
+    // setObject 的分块阈值(编码、压缩后的字节数), 负数时关闭; 超过阈值的对象拆成多个分块key, 原key中保存清单
+    // del/expired/expireAt/persist/rename/renamenx 同时处理分块; 用 set 等其他命令覆盖或被内存淘汰时分块会残留, 见 ChunkedValues
+    private int chunkThreshold = -1;
+    // 分块大小(字节)
+    private int chunkSize = 256 * 1024;
+    // 覆盖或删除后旧分块保留的秒数, 保证切换前开始的读取能读完
+    private int chunkGraceSeconds = 60;
+    private ChunkedValues chunkedValues;
+    // mGetObject/mSetObject 每个并行编解码分段的对象数, 对象数不超过该值或未初始化 ThreadPoolUtils 时在调用线程中编解码, 不大于0时关闭并行
+    private int parallelCodecBatchSize = 64;
+    // 启动时加载到主节点的 Lua 脚本; 执行过的脚本也会登记, 节点返回 NOSCRIPT(主从切换、重启)时全部重新加载
+    private Collection<RedisScript<?>> scripts = null;
+    private final ScriptRegistry scriptRegistry = new ScriptRegistry();
+    // 单次调用指定的读取偏好, 优先于 replicaReadGroups
+    private static final ThreadLocal<ReadPreference> readPreference = new ThreadLocal<ReadPreference>();
+
+    /**
+     * 只读操作按数据类型分组, 可按组开启从节点读
+     */
+    public enum ReadGroup
+    {
+        KEY, STRING, HASH, LIST, SET, ZSET
+    }
+
+    /**
+     * 单次调用的读取偏好
+     */
+    public enum ReadPreference
+    {
+        /** 只读主节点 */
+        MASTER,
+        /** 优先读从节点, 从节点不可用时读主节点 */
+        REPLICA
+    }
+
     /**
      * 初始化连接参数
      */
@@ -49,7 +159,7 @@ public class RedisUtil implements InitializingBean
     {
         try
         {
-            if (CollectionUtils.isEmpty(sentinels))
+            if (CollectionUtils.isEmpty(sentinels) && CollectionUtils.isEmpty(clusterNodes))
             {
                 throw new NullPointerException("Redis Sentinels is empty! More than one sentinels must seperated by '|'");
             }
@@ -79,7 +189,73 @@ public class RedisUtil implements InitializingBean
             // 时直接逐出,不再根据MinEvictableIdleTimeMillis判断 (默认逐出策略)
             // poolConfig.setSoftMinEvictableIdleTimeMillis(1800000);
             // 读取超时时间
-            pool = new JedisSentinelPool(masterName, this.sentinels, poolConfig, timeOut);
+            if (CollectionUtils.isNotEmpty(clusterNodes))
+            {
+                clusterRouter = new RedisClusterRouter(clusterNodes, poolConfig, timeOut, clusterMaxRedirections,
+                        multiKeyThreads);
+                keyRouter = clusterRouter;
+            }
+            else if (null != masterNames && masterNames.size() > 1)
+            {
+                shardRouter = new ShardedSentinelRouter(masterNames, this.sentinels, poolConfig, timeOut,
+                        shardVirtualNodes, multiKeyThreads);
+                keyRouter = shardRouter;
+            }
+            else
+            {
+                if (null != masterNames && masterNames.size() == 1)
+                {
+                    masterName = masterNames.iterator().next();
+                }
+                pool = new JedisSentinelPool(masterName, this.sentinels, poolConfig, timeOut);
+            }
+            if (null != keyRouter && (replicaReadEnabled || coalescingEnabled))
+            {
+                logger.warn("Redis Cluster/分片模式不支持从节点读和读请求合并, 已忽略相关配置");
+            }
+            if (replicaReadEnabled && null == keyRouter)
+            {
+                replicaPools = new ReplicaPools(masterName, this.sentinels, poolConfig, timeOut, pool,
+                        replicaRefreshMillis);
+            }
+
+            if (null != deserializationAllowList)
+            {
+                allowList = ClassAllowList.of(deserializationAllowList);
+            }
+            if (compressThreshold >= 0)
+            {
+                valueCompressor = new ValueCompressor(compressThreshold, compressLevel);
+            }
+            if (chunkThreshold >= 0)
+            {
+                chunkedValues = new ChunkedValues(chunkThreshold, chunkSize, chunkGraceSeconds);
+            }
+            if (metricsEnabled || slowLogThresholdMicros >= 0)
+            {
+                SlowCommandLog slowLog = slowLogThresholdMicros < 0 ? null
+                        : new SlowCommandLog(slowLogSize, slowLogThresholdMicros, slowLogMaxKeyLength, slowLogHashKeys);
+                metrics = new RedisMetrics(metricsKeyPrefixDelimiter, this::currentPools, slowLog, valueCompressor);
+                metrics.register(null != clusterRouter ? "cluster" : null != shardRouter ? "shard" : masterName);
+            }
+            if (nearCacheEnabled)
+            {
+                stringNearCache = new NearCache(nearCacheMaxSize, nearCacheTtlMillis, nearCacheEvictionPolicy);
+                objectNearCache = new NearCache(nearCacheMaxSize, nearCacheTtlMillis, nearCacheEvictionPolicy);
+            }
+            if (coalescingEnabled && null == keyRouter)
+            {
+                readCoalescer = new ReadCoalescer(this, coalescingWindowMicros, coalescingMaxBatchSize,
+                        coalescingThreads, maxWaitMillis + timeOut);
+            }
+            if (null != scripts)
+            {
+                for (RedisScript<?> script : scripts)
+                {
+                    scriptRegistry.register(script);
+                }
+                loadScripts();
+            }
         }
         catch (Exception e)
         {
@@ -99,6 +275,108 @@ public class RedisUtil implements InitializingBean
      */
     private Jedis getJedis()
     {
+        long start = borrowStart();
+        return borrowed(masterResource(), start, null);
+    }
+
+    /**
+     * 获取key所在节点的连接, 集群模式下按槽位路由, 分片模式下按一致性哈希路由
+     * 
+     * @param key
+     * @return
+     */
+    private Jedis getJedis(String key)
+    {
+        long start = borrowStart();
+        return borrowed(null != keyRouter ? keyRouter.getResource(key) : masterResource(), start, key);
+    }
+
+    private Jedis getJedis(byte[] key)
+    {
+        long start = borrowStart();
+        return borrowed(null != keyRouter ? keyRouter.getResource(key) : masterResource(), start, key);
+    }
+
+    /**
+     * 获取只读操作使用的连接, 集群/分片模式下读取key所在的主节点
+     * 
+     * @param group
+     * @param key
+     * @return
+     */
+    private Jedis getReadJedis(ReadGroup group, String key)
+    {
+        long start = borrowStart();
+        return borrowed(null != keyRouter ? keyRouter.getResource(key) : readResource(group), start, key);
+    }
+
+    private Jedis getReadJedis(ReadGroup group, byte[] key)
+    {
+        long start = borrowStart();
+        return borrowed(null != keyRouter ? keyRouter.getResource(key) : readResource(group), start, key);
+    }
+
+    /**
+     * 获取只读操作使用的连接: 按单次调用的读取偏好或所属分组决定是否使用从节点, 从节点不可用时返回主节点连接
+     * 
+     * @param group
+     * @return
+     */
+    private Jedis getReadJedis(ReadGroup group)
+    {
+        long start = borrowStart();
+        return borrowed(readResource(group), start, null);
+    }
+
+    /**
+     * 在已借用的连接上执行单key命令; 集群模式下收到 MOVED/ASK 时经
+     * {@link RedisClusterRouter#execute(Integer, JedisRedirectionException, JedisAction)} 跟随重定向重试,
+     * 借用的连接仍由调用方归还
+     * 
+     * @param jedis
+     *            key所在节点的连接
+     * @param key
+     * @param action
+     * @return
+     */
+    private <T> T followRedirects(Jedis jedis, String key, JedisAction<T> action)
+    {
+        try
+        {
+            return action.doInJedis(jedis);
+        }
+        catch (JedisRedirectionException e)
+        {
+            if (null == clusterRouter)
+            {
+                throw e;
+            }
+            return clusterRouter.execute(RedisClusterRouter.getSlot(key), e, action);
+        }
+    }
+
+    private <T> T followRedirects(Jedis jedis, byte[] key, JedisAction<T> action)
+    {
+        try
+        {
+            return action.doInJedis(jedis);
+        }
+        catch (JedisRedirectionException e)
+        {
+            if (null == clusterRouter)
+            {
+                throw e;
+            }
+            return clusterRouter.execute(RedisClusterRouter.getSlot(key), e, action);
+        }
+    }
+
+    private Jedis masterResource()
+    {
+        if (null != keyRouter)
+        {
+            throw new UnsupportedOperationException("This operation needs a routing key in Redis Cluster/sharded mode");
+        }
         Jedis jedis = null;
         if (null != pool)
         {
@@ -107,6 +385,127 @@ public class RedisUtil implements InitializingBean
         return jedis;
     }
 
+    private Jedis readResource(ReadGroup group)
+    {
+        if (readPreferenceOf(group) == ReadPreference.REPLICA)
+        {
+            Jedis jedis = replicaPools.getResource();
+            if (null != jedis)
+            {
+                return jedis;
+            }
+        }
+        return masterResource();
+    }
+
+    /**
+     * 当前线程读取该分组时实际使用的偏好: 单次调用指定的偏好优先, 其次按 replicaReadGroups; 未开启从节点读时为 MASTER
+     * 
+     * @param group
+     * @return
+     */
+    private ReadPreference readPreferenceOf(ReadGroup group)
+    {
+        if (null == replicaPools)
+        {
+            return ReadPreference.MASTER;
+        }
+        ReadPreference preference = readPreference.get();
+        if (null != preference)
+        {
+            return preference;
+        }
+        return replicaReadGroups.contains(group) ? ReadPreference.REPLICA : ReadPreference.MASTER;
+    }
+
+    /**
+     * 记录本次调用的请求值与响应值, 仅在命令超过慢命令阈值时才计算字节数
+     * 
+     * @param request
+     * @param response
+     */
+    private void payload(Object request, Object response)
+    {
+        if (null != metrics)
+        {
+            metrics.payload(request, response);
+        }
+    }
+
+    private long borrowStart()
+    {
+        return null == metrics ? 0 : System.nanoTime();
+    }
+
+    /**
+     * 记录连接等待耗时, 并开始对本次调用计时
+     * 
+     * @param jedis
+     * @param start
+     * @param key
+     * @return
+     */
+    private Jedis borrowed(Jedis jedis, long start, Object key)
+    {
+        if (null != metrics && null != jedis)
+        {
+            metrics.borrowed(start, key);
+        }
+        return jedis;
+    }
+
+    /**
+     * 当前使用的所有连接池(主节点、集群节点或分片, 以及从节点)
+     * 
+     * @return
+     */
+    private List<Pool<Jedis>> currentPools()
+    {
+        List<Pool<Jedis>> pools = new ArrayList<Pool<Jedis>>();
+        if (null != pool)
+        {
+            pools.add(pool);
+        }
+        if (null != keyRouter)
+        {
+            pools.addAll(keyRouter.getMasterPools());
+        }
+        if (null != replicaPools)
+        {
+            pools.addAll(replicaPools.getPools());
+        }
+        return pools;
+    }
+
+    /**
+     * 以指定的读取偏好执行一组操作, 例如写后立即读时强制读主节点:<br/>
+     * redisUtil.withReadPreference(ReadPreference.MASTER, () -> redisUtil.hgetall(key))
+     * 
+     * @param preference
+     * @param action
+     * @return
+     */
+    public <T> T withReadPreference(ReadPreference preference, Supplier<T> action)
+    {
+        ReadPreference previous = readPreference.get();
+        readPreference.set(preference);
+        try
+        {
+            return action.get();
+        }
+        finally
+        {
+            if (null == previous)
+            {
+                readPreference.remove();
+            }
+            else
+            {
+                readPreference.set(previous);
+            }
+        }
+    }
+
     /**
      * 清除所有key.
      * 
@@ -123,8 +522,15 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
+            if (null != keyRouter)
+            {
+                keyRouter.executeOnMasters(j -> j.flushAll());
+                clearNearCache();
+                return "OK";
+            }
             jedis = getJedis();
             flash = jedis.flushAll();
+            clearNearCache();
         }
         catch (Exception e)
         {
@@ -134,7 +540,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "flushAll");
         }
         return flash;
     }
@@ -169,8 +575,11 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            status = jedis.renamenx(oldkey, newkey);
+            jedis = getJedis(oldkey);
+            status = followRedirects(jedis, oldkey, routed -> null == chunkedValues ? routed.renamenx(oldkey, newkey)
+                    : null == chunkedValues.rename(routed, SafeEncoder.encode(oldkey), SafeEncoder.encode(newkey), true)
+                            ? 0 : 1);
+            invalidateNearCache(oldkey, newkey);
         }
         catch (Exception e)
         {
@@ -180,7 +589,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "renamenx");
         }
 
         return status;
@@ -202,8 +611,10 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            status = jedis.rename(oldkey, newkey);
+            jedis = getJedis(oldkey);
+            status = followRedirects(jedis, oldkey, routed -> null == chunkedValues ? routed.rename(oldkey, newkey)
+                    : chunkedValues.rename(routed, oldkey, newkey, false));
+            invalidateNearCache(oldkey, newkey);
         }
         catch (Exception e)
         {
@@ -213,7 +624,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "rename");
         }
 
         return status;
@@ -235,8 +646,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            count = jedis.expire(key, seconds);
+            jedis = getJedis(key);
+            count = followRedirects(jedis, key, routed -> null == chunkedValues ? routed.expire(key, seconds)
+                    : chunkedValues.expire(routed, SafeEncoder.encode(key), seconds));
         }
         catch (Exception e)
         {
@@ -246,7 +658,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "expired");
         }
 
         return count;
@@ -268,8 +680,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            count = jedis.expireAt(key, timestamp);
+            jedis = getJedis(key);
+            count = followRedirects(jedis, key, routed -> null == chunkedValues ? routed.expireAt(key, timestamp)
+                    : chunkedValues.expireAt(routed, SafeEncoder.encode(key), timestamp));
         }
         catch (Exception e)
         {
@@ -279,7 +692,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "expireAt");
         }
         return count;
     }
@@ -298,8 +711,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.ttl(key);
+            jedis = getReadJedis(ReadGroup.KEY, key);
+            len = followRedirects(jedis, key, routed -> routed.ttl(key));
         }
         catch (Exception e)
         {
@@ -309,7 +722,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "ttl");
         }
 
         return len;
@@ -328,8 +741,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            count = jedis.persist(key);
+            jedis = getJedis(key);
+            count = followRedirects(jedis, key, routed -> null == chunkedValues ? routed.persist(key)
+                    : chunkedValues.persist(routed, SafeEncoder.encode(key)));
         }
         catch (Exception e)
         {
@@ -339,7 +753,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "persist");
         }
         return count;
     }
@@ -353,13 +767,24 @@ public class RedisUtil implements InitializingBean
      */
     public long del(String... keys)
     {
+        if (null != chunkedValues)
+        {
+            return del(SafeEncoder.encodeMany(keys));
+        }
         long count = 0;
         Jedis jedis = null;
         boolean broken = false;
         try
         {
+            if (null != keyRouter)
+            {
+                count = keyRouter.del(keys);
+                invalidateNearCache(keys);
+                return count;
+            }
             jedis = getJedis();
             count = jedis.del(keys);
+            invalidateNearCache(keys);
         }
         catch (Exception e)
         {
@@ -369,14 +794,14 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "del");
         }
 
         return count;
     }
 
     /**
-     * 删除keys对应的记录,可以是多个key
+     * 删除keys对应的记录,可以是多个key; 开启分块存储时同时删除分块存储的值的全部分块
      * 
      * @param String
      *            ... keys
@@ -389,8 +814,15 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
+            if (null != keyRouter)
+            {
+                count = null == chunkedValues ? keyRouter.del(keys) : keyRouter.del(keys, chunkedValues::deleteAll);
+                invalidateNearCache(keys);
+                return count;
+            }
             jedis = getJedis();
-            count = jedis.del(keys);
+            count = null == chunkedValues ? jedis.del(keys) : chunkedValues.deleteAll(jedis, keys);
+            invalidateNearCache(keys);
         }
         catch (Exception e)
         {
@@ -400,7 +832,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "del");
         }
         return count;
     }
@@ -419,8 +851,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            exis = jedis.exists(key);
+            jedis = getReadJedis(ReadGroup.KEY, key);
+            exis = followRedirects(jedis, key, routed -> routed.exists(key));
         }
         catch (Exception e)
         {
@@ -430,7 +862,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "exists");
         }
 
         return exis;
@@ -450,8 +882,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            list = jedis.sort(key);
+            jedis = getJedis(key);
+            list = followRedirects(jedis, key, routed -> routed.sort(key));
         }
         catch (Exception e)
         {
@@ -461,7 +893,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sort");
         }
 
         return list;
@@ -483,8 +915,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            list = jedis.sort(key, parame);
+            jedis = getJedis(key);
+            list = followRedirects(jedis, key, routed -> routed.sort(key, parame));
         }
         catch (Exception e)
         {
@@ -494,7 +926,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sort");
         }
 
         return list;
@@ -514,8 +946,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            type = jedis.type(key);
+            jedis = getReadJedis(ReadGroup.KEY, key);
+            type = followRedirects(jedis, key, routed -> routed.type(key));
         }
         catch (Exception e)
         {
@@ -525,13 +957,14 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "type");
         }
         return type;
     }
 
     /**
-     * 查找所有匹配给定的模式的键
+     * 查找所有匹配给定的模式的键<br/>
+     * KEYS 会阻塞Redis直到遍历完整个键空间, 键数量大时请使用 {@link #scanKeys(String, int)}
      * 
      * @param String
      *            key的表达式,*表示多个，？表示一个
@@ -543,7 +976,16 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
+            if (null != keyRouter)
+            {
+                set = new HashSet<String>();
+                for (Set<String> part : keyRouter.executeOnMasters(j -> j.keys(pattern)))
+                {
+                    set.addAll(part);
+                }
+                return set;
+            }
+            jedis = getReadJedis(ReadGroup.KEY);
             set = jedis.keys(pattern);
         }
         catch (Exception e)
@@ -554,30 +996,32 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "keys");
         }
 
         return set;
     }
 
     /**
-     * 从hash中删除指定的存储
+     * 使用游标增量扫描键空间, 返回一批结果<br/>
+     * 游标只对发出它的节点有效: 开启从节点读时仍发往主节点; 集群模式下请使用 {@link #scanKeys(String, int)}
      * 
-     * @param String
-     *            key
-     * @param String
-     *            fieid 存储的名字
-     * @return 状态码，1成功，0失败
+     * @param cursor
+     *            游标, 第一次传"0", 返回的游标为"0"表示扫描结束
+     * @param params
+     *            MATCH/COUNT 参数
+     * @return ScanResult<String>
      */
-    public long hdel(String key, String fieid)
+    public ScanResult<String> scan(String cursor, ScanParams params)
     {
-        long s = 0;
+        ScanResult<String> result = null;
         Jedis jedis = null;
         boolean broken = false;
         try
         {
+            // 游标只在发出它的节点上有效, 从节点轮询会跳过或重复元素, 游标扫描总是发往主节点
             jedis = getJedis();
-            s = jedis.hdel(key, fieid);
+            result = jedis.scan(cursor, params);
         }
         catch (Exception e)
         {
@@ -586,64 +1030,119 @@ public class RedisUtil implements InitializingBean
         }
         finally
         {
-            // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "scan");
         }
 
-        return s;
+        return result;
     }
 
     /**
-     * 移除给定的一个key。
+     * 以SCAN游标惰性遍历匹配给定模式的键, 用于替代 {@link #keys(String)}<br/>
+     * 每消费完一批才扫描下一批, 不会阻塞Redis, 也不会一次性加载全部键
      * 
-     * @Title: hdel
-     * @param key
+     * @param pattern
+     *            key的表达式,*表示多个，？表示一个
+     * @param batchSize
+     *            每次扫描的COUNT提示值
      * @return
-     * @author: yong
-     * @date: 2013-1-15下午03:20:58
      */
-    public long hdel(String key)
+    public ScanIterator<String> scanKeys(String pattern, int batchSize)
     {
-        long s = 0;
-        Jedis jedis = null;
-        boolean broken = false;
-        try
-        {
-            jedis = getJedis();
-            s = jedis.del(key);
-        }
-        catch (Exception e)
+        if (null != keyRouter)
         {
-            broken = handleJedisException(e);
-            throw new RuntimeException(e);
+            return scanKeysOnMasters(pattern, batchSize);
         }
-        finally
+        return new ScanIterator<String>(pattern, batchSize)
         {
-            // returnJedis(jedis);
-            closeResource(jedis, broken);
-        }
-        return s;
+            @Override
+            protected ScanResult<String> scan(String cursor, ScanParams params)
+            {
+                return RedisUtil.this.scan(cursor, params);
+            }
+        };
     }
 
     /**
-     * 测试hash中指定的存储是否存在
+     * 集群/分片模式下依次扫描每个主节点, 一个节点扫描结束后切换到下一个节点
      * 
-     * @param String
-     *            key
-     * @param String
-     *            fieid 存储的名字
-     * @return 1存在，0不存在
+     * @param pattern
+     * @param batchSize
+     * @return
      */
-    public boolean hexists(String key, String fieid)
+    private ScanIterator<String> scanKeysOnMasters(String pattern, int batchSize)
     {
-        boolean s = false;
-        Jedis jedis = null;
-        boolean broken = false;
-        try
+        final List<? extends Pool<Jedis>> masters = keyRouter.getMasterPools();
+        return new ScanIterator<String>(pattern, batchSize)
         {
-            jedis = getJedis();
-            s = jedis.hexists(key, fieid);
-        }
+            private int node = 0;
+
+            private String nodeCursor = ScanParams.SCAN_POINTER_START;
+
+            @Override
+            protected ScanResult<String> scan(String cursor, ScanParams params)
+            {
+                if (masters.isEmpty())
+                {
+                    return new ScanResult<String>(ScanParams.SCAN_POINTER_START, new ArrayList<String>());
+                }
+                Jedis jedis = null;
+                boolean broken = false;
+                try
+                {
+                    jedis = masters.get(node).getResource();
+                    ScanResult<String> result = jedis.scan(nodeCursor, params);
+                    nodeCursor = result.getStringCursor();
+                    if (ScanParams.SCAN_POINTER_START.equals(nodeCursor) && ++node < masters.size())
+                    {
+                        // 还有节点未扫描, 返回非结束游标
+                        return new ScanResult<String>(node + ":" + nodeCursor, result.getResult());
+                    }
+                    return result;
+                }
+                catch (Exception e)
+                {
+                    broken = handleJedisException(e);
+                    throw new RuntimeException(e);
+                }
+                finally
+                {
+                    closeResource(jedis, broken, "scan");
+                }
+            }
+        };
+    }
+
+    /**
+     * 以流的形式惰性遍历匹配给定模式的键, limit/findFirst 等短路操作会停止后续扫描
+     * 
+     * @param pattern
+     * @param batchSize
+     * @return
+     */
+    public Stream<String> scanKeyStream(String pattern, int batchSize)
+    {
+        return scanKeys(pattern, batchSize).stream();
+    }
+
+    /**
+     * 从hash中删除指定的存储
+     * 
+     * @param String
+     *            key
+     * @param String
+     *            fieid 存储的名字
+     * @return 状态码，1成功，0失败
+     */
+    public long hdel(String key, String fieid)
+    {
+        long s = 0;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.hdel(key, fieid));
+        }
         catch (Exception e)
         {
             broken = handleJedisException(e);
@@ -652,7 +1151,72 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hdel");
+        }
+
+        return s;
+    }
+
+    /**
+     * 移除给定的一个key。
+     * 
+     * @Title: hdel
+     * @param key
+     * @return
+     * @author: yong
+     * @date: 2013-1-15下午03:20:58
+     */
+    public long hdel(String key)
+    {
+        long s = 0;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.del(key));
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            // returnJedis(jedis);
+            closeResource(jedis, broken, "hdel");
+        }
+        return s;
+    }
+
+    /**
+     * 测试hash中指定的存储是否存在
+     * 
+     * @param String
+     *            key
+     * @param String
+     *            fieid 存储的名字
+     * @return 1存在，0不存在
+     */
+    public boolean hexists(String key, String fieid)
+    {
+        boolean s = false;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getReadJedis(ReadGroup.HASH, key);
+            s = followRedirects(jedis, key, routed -> routed.hexists(key, fieid));
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            // returnJedis(jedis);
+            closeResource(jedis, broken, "hexists");
         }
 
         return s;
@@ -669,14 +1233,19 @@ public class RedisUtil implements InitializingBean
      */
     public String hget(String key, String field)
     {
+        if (null != readCoalescer)
+        {
+            return readCoalescer.hget(key, field, readPreferenceOf(ReadGroup.HASH));
+        }
 
         String s = null;
         Jedis jedis = null;
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.hget(key, field);
+            jedis = getReadJedis(ReadGroup.HASH, key);
+            s = followRedirects(jedis, key, routed -> routed.hget(key, field));
+            payload(null, s);
         }
         catch (Exception e)
         {
@@ -686,14 +1255,15 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hget");
         }
 
         return s;
     }
 
     /**
-     * 以Map的形式返回hash中的存储和值
+     * 以Map的形式返回hash中的存储和值<br/>
+     * 一次返回全部数据, 大hash请使用 {@link #hscanIterator(String, int)}
      * 
      * @param String
      *            key
@@ -706,8 +1276,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            map = jedis.hgetAll(key);
+            jedis = getReadJedis(ReadGroup.HASH, key);
+            map = followRedirects(jedis, key, routed -> routed.hgetAll(key));
+            payload(null, map);
         }
         catch (Exception e)
         {
@@ -717,7 +1288,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hgetall");
         }
         return map;
     }
@@ -740,8 +1311,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.hincrBy(key, fieid, value);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.hincrBy(key, fieid, value));
         }
         catch (Exception e)
         {
@@ -751,14 +1322,15 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hincrby");
         }
 
         return s;
     }
 
     /**
-     * 返回指定hash中的所有存储名字,类似Map中的keySet方法
+     * 返回指定hash中的所有存储名字,类似Map中的keySet方法<br/>
+     * 一次返回全部数据, 大hash请使用 {@link #hscanIterator(String, int)}
      * 
      * @param String
      *            key
@@ -771,8 +1343,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            set = jedis.hkeys(key);
+            jedis = getReadJedis(ReadGroup.HASH, key);
+            set = followRedirects(jedis, key, routed -> routed.hkeys(key));
         }
         catch (Exception e)
         {
@@ -782,7 +1354,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hkeys");
         }
         return set;
     }
@@ -801,8 +1373,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.hlen(key);
+            jedis = getReadJedis(ReadGroup.HASH, key);
+            len = followRedirects(jedis, key, routed -> routed.hlen(key));
         }
         catch (Exception e)
         {
@@ -812,7 +1384,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hlen");
         }
         return len;
     }
@@ -833,8 +1405,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            list = jedis.hmget(key, fieids);
+            jedis = getReadJedis(ReadGroup.HASH, key);
+            list = followRedirects(jedis, key, routed -> routed.hmget(key, fieids));
+            payload(fieids, list);
         }
         catch (Exception e)
         {
@@ -844,7 +1417,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hmget");
         }
         return list;
     }
@@ -865,8 +1438,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.hmset(key, map);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.hmset(key, map));
+            payload(map, s);
         }
         catch (Exception e)
         {
@@ -876,7 +1450,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hmset");
         }
         return s;
     }
@@ -899,8 +1473,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.hset(key, fieid, value);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.hset(key, fieid, value));
+            payload(value, s);
         }
         catch (Exception e)
         {
@@ -909,7 +1484,7 @@ public class RedisUtil implements InitializingBean
         }
         finally
         {
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hset");
         }
         return s;
     }
@@ -932,8 +1507,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.hsetnx(key, fieid, value);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.hsetnx(key, fieid, value));
+            payload(value, s);
         }
         catch (Exception e)
         {
@@ -943,13 +1519,14 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hsetnx");
         }
         return s;
     }
 
     /**
-     * 获取hash中value的集合
+     * 获取hash中value的集合<br/>
+     * 一次返回全部数据, 大hash请使用 {@link #hscanIterator(String, int)}
      * 
      * @param String
      *            key
@@ -962,8 +1539,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            list = jedis.hvals(key);
+            jedis = getReadJedis(ReadGroup.HASH, key);
+            list = followRedirects(jedis, key, routed -> routed.hvals(key));
+            payload(null, list);
         }
         catch (Exception e)
         {
@@ -973,12 +1551,94 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "hvals");
         }
 
         return list;
     }
 
+    /**
+     * 使用游标增量扫描hash, 返回一批结果
+     * 
+     * @param key
+     * @param cursor
+     *            游标, 第一次传"0", 返回的游标为"0"表示扫描结束
+     * @param params
+     *            MATCH/COUNT 参数
+     * @return ScanResult<Map.Entry<String, String>>
+     */
+    public ScanResult<Map.Entry<String, String>> hscan(String key, String cursor, ScanParams params)
+    {
+        ScanResult<Map.Entry<String, String>> result = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getJedis(key);
+            result = followRedirects(jedis, key, routed -> routed.hscan(key, cursor, params));
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken, "hscan");
+        }
+
+        return result;
+    }
+
+    /**
+     * 以HSCAN游标惰性遍历hash中的存储名和值, 内存占用只与count有关
+     * 
+     * @param key
+     * @param pattern
+     *            匹配模式, 为null时不过滤
+     * @param count
+     *            每次扫描的COUNT提示值
+     * @return
+     */
+    public ScanIterator<Map.Entry<String, String>> hscanIterator(final String key, String pattern, int count)
+    {
+        return new ScanIterator<Map.Entry<String, String>>(pattern, count)
+        {
+            @Override
+            protected ScanResult<Map.Entry<String, String>> scan(String cursor, ScanParams params)
+            {
+                return hscan(key, cursor, params);
+            }
+        };
+    }
+
+    /**
+     * 以HSCAN游标惰性遍历hash中的存储名和值
+     * 
+     * @param key
+     * @param count
+     *            每次扫描的COUNT提示值
+     * @return
+     */
+    public ScanIterator<Map.Entry<String, String>> hscanIterator(String key, int count)
+    {
+        return hscanIterator(key, null, count);
+    }
+
+    /**
+     * 以HSCAN游标分批处理hash中的存储名和值, 每扫描到一批回调一次
+     * 
+     * @param key
+     * @param count
+     *            每次扫描的COUNT提示值
+     * @param consumer
+     *            批处理回调
+     */
+    public void hscan(String key, int count, Consumer<List<Map.Entry<String, String>>> consumer)
+    {
+        hscanIterator(key, null, count).forEachBatch(consumer);
+    }
+
     /**
      * List长度
      * 
@@ -1006,8 +1666,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            count = jedis.llen(key);
+            jedis = getReadJedis(ReadGroup.LIST, key);
+            count = followRedirects(jedis, key, routed -> routed.llen(key));
         }
         catch (Exception e)
         {
@@ -1017,7 +1677,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "llen");
         }
 
         return count;
@@ -1041,8 +1701,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            status = jedis.lset(key, index, value);
+            jedis = getJedis(key);
+            status = followRedirects(jedis, key, routed -> routed.lset(key, index, value));
+            payload(value, status);
         }
         catch (Exception e)
         {
@@ -1052,7 +1713,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lset");
         }
 
         return status;
@@ -1075,8 +1736,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            lset = jedis.lset(key, index, value);
+            jedis = getJedis(key);
+            lset = followRedirects(jedis, key, routed -> routed.lset(key, index, value));
+            payload(value, lset);
         }
         catch (Exception e)
         {
@@ -1086,7 +1748,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lset");
         }
         return lset;
     }
@@ -1110,8 +1772,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            linsert = jedis.linsert(key, where, pivot, value);
+            jedis = getJedis(key);
+            linsert = followRedirects(jedis, key, routed -> routed.linsert(key, where, pivot, value));
         }
         catch (Exception e)
         {
@@ -1121,7 +1783,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "linsert");
         }
         return linsert;
     }
@@ -1146,8 +1808,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            count = jedis.linsert(key, where, pivot, value);
+            jedis = getJedis(key);
+            count = followRedirects(jedis, key, routed -> routed.linsert(key, where, pivot, value));
         }
         catch (Exception e)
         {
@@ -1157,7 +1819,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "linsert");
         }
         return count;
     }
@@ -1193,8 +1855,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            value = jedis.lindex(key, index);
+            jedis = getReadJedis(ReadGroup.LIST, key);
+            value = followRedirects(jedis, key, routed -> routed.lindex(key, index));
+            payload(null, value);
         }
         catch (Exception e)
         {
@@ -1204,7 +1867,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lindex");
         }
 
         return value;
@@ -1224,8 +1887,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            encode = jedis.lpop(key);
+            jedis = getJedis(key);
+            encode = followRedirects(jedis, key, routed -> routed.lpop(key));
+            payload(null, encode);
         }
         catch (Exception e)
         {
@@ -1235,7 +1899,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lpop");
         }
 
         return encode;
@@ -1255,8 +1919,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            value = jedis.lpop(key);
+            jedis = getJedis(key);
+            value = followRedirects(jedis, key, routed -> routed.lpop(key));
+            payload(null, value);
         }
         catch (Exception e)
         {
@@ -1266,7 +1931,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lpop");
         }
         return value;
     }
@@ -1285,8 +1950,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            value = jedis.rpop(key);
+            jedis = getJedis(key);
+            value = followRedirects(jedis, key, routed -> routed.rpop(key));
+            payload(null, value);
         }
         catch (Exception e)
         {
@@ -1296,12 +1962,49 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "rpop");
         }
 
         return value;
     }
 
+    /**
+     * 把source最后一条记录移到destination头部, source为空时阻塞等待; 阻塞的时间不计入耗时统计<br/>
+     * 集群/分片模式下source和destination需要在同一个节点(使用相同的 {hash tag})
+     * 
+     * @param source
+     * @param destination
+     * @param timeoutSeconds
+     *            最长等待秒数, 0为一直等待
+     * @return 移动的记录, 超时返回null
+     */
+    public String brpoplpush(String source, String destination, int timeoutSeconds)
+    {
+        String value = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            if (null != clusterRouter)
+            {
+                // 跟随 MOVED/ASK 重定向
+                return clusterRouter.execute(source, routed -> routed.brpoplpush(source, destination, timeoutSeconds));
+            }
+            jedis = null != keyRouter ? keyRouter.getResource(source) : masterResource();
+            value = jedis.brpoplpush(source, destination, timeoutSeconds);
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken);
+        }
+        return value;
+    }
+
     /**
      * 向List尾部追加记录
      * 
@@ -1318,8 +2021,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            lpush = jedis.lpush(key, value);
+            jedis = getJedis(key);
+            lpush = followRedirects(jedis, key, routed -> routed.lpush(key, value));
+            payload(value, lpush);
         }
         catch (Exception e)
         {
@@ -1329,7 +2033,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lpush");
         }
 
         return lpush;
@@ -1351,8 +2055,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            lpush = jedis.lpush(key, value);
+            jedis = getJedis(key);
+            lpush = followRedirects(jedis, key, routed -> routed.lpush(key, value));
+            payload(value, lpush);
         }
         catch (Exception e)
         {
@@ -1362,7 +2067,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lpush");
         }
 
         return lpush;
@@ -1384,8 +2089,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            count = jedis.rpush(key, value);
+            jedis = getJedis(key);
+            count = followRedirects(jedis, key, routed -> routed.rpush(key, value));
+            payload(value, count);
         }
         catch (Exception e)
         {
@@ -1395,7 +2101,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "rpush");
         }
 
         return count;
@@ -1417,8 +2123,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            count = jedis.lpush(key, value);
+            jedis = getJedis(key);
+            count = followRedirects(jedis, key, routed -> routed.lpush(key, value));
+            payload(value, count);
         }
         catch (Exception e)
         {
@@ -1428,7 +2135,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lpush");
         }
 
         return count;
@@ -1452,8 +2159,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            list = jedis.lrange(key, start, end);
+            jedis = getReadJedis(ReadGroup.LIST, key);
+            list = followRedirects(jedis, key, routed -> routed.lrange(key, start, end));
+            payload(null, list);
         }
         catch (Exception e)
         {
@@ -1463,7 +2171,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lrange");
         }
 
         return list;
@@ -1487,8 +2195,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            list = jedis.lrange(key, start, end);
+            jedis = getReadJedis(ReadGroup.LIST, key);
+            list = followRedirects(jedis, key, routed -> routed.lrange(key, start, end));
+            payload(null, list);
         }
         catch (Exception e)
         {
@@ -1498,7 +2207,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lrange");
         }
 
         return list;
@@ -1522,8 +2231,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            count = jedis.lrem(key, c, value);
+            jedis = getJedis(key);
+            count = followRedirects(jedis, key, routed -> routed.lrem(key, c, value));
         }
         catch (Exception e)
         {
@@ -1533,7 +2242,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lrem");
         }
 
         return count;
@@ -1557,7 +2266,7 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
+            jedis = getJedis(key);
             lrem = lrem(SafeEncoder.encode(key), c, SafeEncoder.encode(value));
         }
         catch (Exception e)
@@ -1568,7 +2277,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "lrem");
         }
 
         return lrem;
@@ -1592,8 +2301,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            str = jedis.ltrim(key, start, end);
+            jedis = getJedis(key);
+            str = followRedirects(jedis, key, routed -> routed.ltrim(key, start, end));
         }
         catch (Exception e)
         {
@@ -1603,7 +2312,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "ltrim");
         }
 
         return str;
@@ -1627,8 +2336,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            ltrim = jedis.ltrim(key, start, end);
+            jedis = getJedis(key);
+            ltrim = followRedirects(jedis, key, routed -> routed.ltrim(key, start, end));
         }
         catch (Exception e)
         {
@@ -1638,7 +2347,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "ltrim");
         }
 
         return ltrim;
@@ -1660,8 +2369,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.sadd(key, member);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.sadd(key, member));
+            payload(member, s);
         }
         catch (Exception e)
         {
@@ -1671,7 +2381,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sadd");
         }
 
         return s;
@@ -1691,8 +2401,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.scard(key);
+            jedis = getReadJedis(ReadGroup.SET, key);
+            len = followRedirects(jedis, key, routed -> routed.scard(key));
         }
         catch (Exception e)
         {
@@ -1702,7 +2412,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "scard");
         }
 
         return len;
@@ -1722,7 +2432,11 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
+            if (null != keyRouter)
+            {
+                return keyRouter.sdiff(keys);
+            }
+            jedis = getReadJedis(ReadGroup.SET);
             set = jedis.sdiff(keys);
         }
         catch (Exception e)
@@ -1733,7 +2447,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sdiff");
         }
         return set;
     }
@@ -1754,8 +2468,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.sdiffstore(newkey, keys);
+            jedis = getJedis(newkey);
+            s = followRedirects(jedis, newkey, routed -> routed.sdiffstore(newkey, keys));
         }
         catch (Exception e)
         {
@@ -1765,7 +2479,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sdiffstore");
         }
 
         return s;
@@ -1785,7 +2499,11 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
+            if (null != keyRouter)
+            {
+                return keyRouter.sinter(keys);
+            }
+            jedis = getReadJedis(ReadGroup.SET);
             set = jedis.sinter(keys);
         }
         catch (Exception e)
@@ -1796,7 +2514,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sinter");
         }
 
         return set;
@@ -1818,8 +2536,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.sinterstore(newkey, keys);
+            jedis = getJedis(newkey);
+            s = followRedirects(jedis, newkey, routed -> routed.sinterstore(newkey, keys));
         }
         catch (Exception e)
         {
@@ -1829,7 +2547,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sinterstore");
         }
 
         return s;
@@ -1851,8 +2569,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.sismember(key, member);
+            jedis = getReadJedis(ReadGroup.SET, key);
+            s = followRedirects(jedis, key, routed -> routed.sismember(key, member));
         }
         catch (Exception e)
         {
@@ -1862,14 +2580,15 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sismember");
         }
 
         return s;
     }
 
     /**
-     * 返回集合中的所有成员
+     * 返回集合中的所有成员<br/>
+     * 一次返回全部数据, 大集合请使用 {@link #sscanIterator(String, int)}
      * 
      * @param String
      *            key
@@ -1882,8 +2601,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            set = jedis.smembers(key);
+            jedis = getReadJedis(ReadGroup.SET, key);
+            set = followRedirects(jedis, key, routed -> routed.smembers(key));
+            payload(null, set);
         }
         catch (Exception e)
         {
@@ -1893,34 +2613,31 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "smembers");
         }
 
         return set;
     }
 
     /**
-     * 将成员从源集合移出放入目标集合 <br/>
-     * 如果源集合不存在或不包哈指定成员，不进行任何操作，返回0<br/>
-     * 否则该成员从源集合上删除，并添加到目标集合，如果目标集合中成员已存在，则只在源集合进行删除
+     * 使用游标增量扫描集合, 返回一批结果
      * 
-     * @param String
-     *            srckey 源集合
-     * @param String
-     *            dstkey 目标集合
-     * @param String
-     *            member 源集合中的成员
-     * @return 状态码，1成功，0失败
+     * @param key
+     * @param cursor
+     *            游标, 第一次传"0", 返回的游标为"0"表示扫描结束
+     * @param params
+     *            MATCH/COUNT 参数
+     * @return ScanResult<String>
      */
-    public long smove(String srckey, String dstkey, String member)
+    public ScanResult<String> sscan(String key, String cursor, ScanParams params)
     {
-        long s = 0;
+        ScanResult<String> result = null;
         Jedis jedis = null;
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.smove(srckey, dstkey, member);
+            jedis = getJedis(key);
+            result = followRedirects(jedis, key, routed -> routed.sscan(key, cursor, params));
         }
         catch (Exception e)
         {
@@ -1929,8 +2646,93 @@ public class RedisUtil implements InitializingBean
         }
         finally
         {
-            // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sscan");
+        }
+
+        return result;
+    }
+
+    /**
+     * 以SSCAN游标惰性遍历集合中的成员, 内存占用只与count有关
+     * 
+     * @param key
+     * @param pattern
+     *            匹配模式, 为null时不过滤
+     * @param count
+     *            每次扫描的COUNT提示值
+     * @return
+     */
+    public ScanIterator<String> sscanIterator(final String key, String pattern, int count)
+    {
+        return new ScanIterator<String>(pattern, count)
+        {
+            @Override
+            protected ScanResult<String> scan(String cursor, ScanParams params)
+            {
+                return sscan(key, cursor, params);
+            }
+        };
+    }
+
+    /**
+     * 以SSCAN游标惰性遍历集合中的成员
+     * 
+     * @param key
+     * @param count
+     *            每次扫描的COUNT提示值
+     * @return
+     */
+    public ScanIterator<String> sscanIterator(String key, int count)
+    {
+        return sscanIterator(key, null, count);
+    }
+
+    /**
+     * 以SSCAN游标分批处理集合中的成员, 每扫描到一批回调一次
+     * 
+     * @param key
+     * @param count
+     *            每次扫描的COUNT提示值
+     * @param consumer
+     *            批处理回调
+     */
+    public void sscan(String key, int count, Consumer<List<String>> consumer)
+    {
+        sscanIterator(key, null, count).forEachBatch(consumer);
+    }
+
+    /**
+     * 将成员从源集合移出放入目标集合 <br/>
+     * 如果源集合不存在或不包哈指定成员，不进行任何操作，返回0<br/>
+     * 否则该成员从源集合上删除，并添加到目标集合，如果目标集合中成员已存在，则只在源集合进行删除
+     * 
+     * @param String
+     *            srckey 源集合
+     * @param String
+     *            dstkey 目标集合
+     * @param String
+     *            member 源集合中的成员
+     * @return 状态码，1成功，0失败
+     */
+    public long smove(String srckey, String dstkey, String member)
+    {
+        long s = 0;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getJedis(srckey);
+            s = followRedirects(jedis, srckey, routed -> routed.smove(srckey, dstkey, member));
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            // returnJedis(jedis);
+            closeResource(jedis, broken, "smove");
         }
 
         return s;
@@ -1950,8 +2752,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.spop(key);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.spop(key));
         }
         catch (Exception e)
         {
@@ -1961,7 +2763,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "spop");
         }
 
         return s;
@@ -1983,8 +2785,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.srem(key, member);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.srem(key, member));
         }
         catch (Exception e)
         {
@@ -1994,7 +2796,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "srem");
         }
 
         return s;
@@ -2015,7 +2817,11 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
+            if (null != keyRouter)
+            {
+                return keyRouter.sunion(keys);
+            }
+            jedis = getReadJedis(ReadGroup.SET);
             set = jedis.sunion(keys);
         }
         catch (Exception e)
@@ -2026,7 +2832,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sunion");
         }
 
         return set;
@@ -2047,8 +2853,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.sunionstore(newkey, keys);
+            jedis = getJedis(newkey);
+            s = followRedirects(jedis, newkey, routed -> routed.sunionstore(newkey, keys));
         }
         catch (Exception e)
         {
@@ -2058,7 +2864,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "sunionstore");
         }
 
         return s;
@@ -2082,8 +2888,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.zadd(key, score, member);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.zadd(key, score, member));
         }
         catch (Exception e)
         {
@@ -2093,7 +2899,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zadd");
         }
 
         return s;
@@ -2113,8 +2919,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.zcard(key);
+            jedis = getReadJedis(ReadGroup.ZSET, key);
+            len = followRedirects(jedis, key, routed -> routed.zcard(key));
         }
         catch (Exception e)
         {
@@ -2124,7 +2930,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zcard");
         }
 
         return len;
@@ -2147,8 +2953,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.zcount(key, min, max);
+            jedis = getReadJedis(ReadGroup.ZSET, key);
+            len = followRedirects(jedis, key, routed -> routed.zcount(key, min, max));
         }
         catch (Exception e)
         {
@@ -2158,7 +2964,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zcount");
         }
 
         return len;
@@ -2182,8 +2988,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.zincrby(key, score, member);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.zincrby(key, score, member));
         }
         catch (Exception e)
         {
@@ -2193,14 +2999,15 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zincrby");
         }
 
         return s;
     }
 
     /**
-     * 返回指定位置的集合元素,0为第一个元素，-1为最后一个元素
+     * 返回指定位置的集合元素,0为第一个元素，-1为最后一个元素<br/>
+     * 需要遍历大有序集合的全部成员时请使用 {@link #zscanIterator(String, int)}
      * 
      * @param String
      *            key
@@ -2217,8 +3024,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            set = jedis.zrange(key, start, end);
+            jedis = getReadJedis(ReadGroup.ZSET, key);
+            set = followRedirects(jedis, key, routed -> routed.zrange(key, start, end));
+            payload(null, set);
         }
         catch (Exception e)
         {
@@ -2228,12 +3036,94 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zrange");
         }
 
         return set;
     }
 
+    /**
+     * 使用游标增量扫描有序集合, 返回一批结果
+     * 
+     * @param key
+     * @param cursor
+     *            游标, 第一次传"0", 返回的游标为"0"表示扫描结束
+     * @param params
+     *            MATCH/COUNT 参数
+     * @return ScanResult<Tuple>
+     */
+    public ScanResult<Tuple> zscan(String key, String cursor, ScanParams params)
+    {
+        ScanResult<Tuple> result = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getJedis(key);
+            result = followRedirects(jedis, key, routed -> routed.zscan(key, cursor, params));
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken, "zscan");
+        }
+
+        return result;
+    }
+
+    /**
+     * 以ZSCAN游标惰性遍历有序集合中的成员及分值, 内存占用只与count有关
+     * 
+     * @param key
+     * @param pattern
+     *            匹配模式, 为null时不过滤
+     * @param count
+     *            每次扫描的COUNT提示值
+     * @return
+     */
+    public ScanIterator<Tuple> zscanIterator(final String key, String pattern, int count)
+    {
+        return new ScanIterator<Tuple>(pattern, count)
+        {
+            @Override
+            protected ScanResult<Tuple> scan(String cursor, ScanParams params)
+            {
+                return zscan(key, cursor, params);
+            }
+        };
+    }
+
+    /**
+     * 以ZSCAN游标惰性遍历有序集合中的成员及分值
+     * 
+     * @param key
+     * @param count
+     *            每次扫描的COUNT提示值
+     * @return
+     */
+    public ScanIterator<Tuple> zscanIterator(String key, int count)
+    {
+        return zscanIterator(key, null, count);
+    }
+
+    /**
+     * 以ZSCAN游标分批处理有序集合中的成员及分值, 每扫描到一批回调一次
+     * 
+     * @param key
+     * @param count
+     *            每次扫描的COUNT提示值
+     * @param consumer
+     *            批处理回调
+     */
+    public void zscan(String key, int count, Consumer<List<Tuple>> consumer)
+    {
+        zscanIterator(key, null, count).forEachBatch(consumer);
+    }
+
     /**
      * 返回指定权重区间的元素集合
      * 
@@ -2252,8 +3142,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            set = jedis.zrangeByScore(key, min, max);
+            jedis = getReadJedis(ReadGroup.ZSET, key);
+            set = followRedirects(jedis, key, routed -> routed.zrangeByScore(key, min, max));
         }
         catch (Exception e)
         {
@@ -2263,7 +3153,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zrangeByScore");
         }
 
         return set;
@@ -2286,8 +3176,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            index = jedis.zrank(key, member);
+            jedis = getReadJedis(ReadGroup.ZSET, key);
+            index = followRedirects(jedis, key, routed -> routed.zrank(key, member));
         }
         catch (Exception e)
         {
@@ -2297,7 +3187,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zrank");
         }
 
         return index;
@@ -2320,8 +3210,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            index = jedis.zrevrank(key, member);
+            jedis = getReadJedis(ReadGroup.ZSET, key);
+            index = followRedirects(jedis, key, routed -> routed.zrevrank(key, member));
         }
         catch (Exception e)
         {
@@ -2331,7 +3221,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zrevrank");
         }
         return index;
     }
@@ -2352,8 +3242,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.zrem(key, member);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.zrem(key, member));
         }
         catch (Exception e)
         {
@@ -2363,7 +3253,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zrem");
         }
         return s;
     }
@@ -2381,8 +3271,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.del(key);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.del(key));
         }
         catch (Exception e)
         {
@@ -2392,7 +3282,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zrem");
         }
 
         return s;
@@ -2416,8 +3306,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.zremrangeByRank(key, start, end);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.zremrangeByRank(key, start, end));
         }
         catch (Exception e)
         {
@@ -2427,7 +3317,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zremrangeByRank");
         }
         return s;
     }
@@ -2450,8 +3340,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            s = jedis.zremrangeByScore(key, min, max);
+            jedis = getJedis(key);
+            s = followRedirects(jedis, key, routed -> routed.zremrangeByScore(key, min, max));
         }
         catch (Exception e)
         {
@@ -2461,7 +3351,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zremrangeByScore");
         }
 
         return s;
@@ -2485,8 +3375,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            set = jedis.zrevrange(key, start, end);
+            jedis = getReadJedis(ReadGroup.ZSET, key);
+            set = followRedirects(jedis, key, routed -> routed.zrevrange(key, start, end));
         }
         catch (Exception e)
         {
@@ -2496,7 +3386,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zrevrange");
         }
 
         return set;
@@ -2517,8 +3407,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            score = jedis.zscore(key, memebr);
+            jedis = getReadJedis(ReadGroup.ZSET, key);
+            score = followRedirects(jedis, key, routed -> routed.zscore(key, memebr));
         }
         catch (Exception e)
         {
@@ -2528,7 +3418,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zscore");
         }
 
         return score;
@@ -2543,13 +3433,37 @@ public class RedisUtil implements InitializingBean
      */
     public String get(String key)
     {
+        long nearCacheVersion = 0;
+        if (null != stringNearCache)
+        {
+            Object cached = stringNearCache.get(key);
+            if (null != cached)
+            {
+                return (String) cached;
+            }
+            nearCacheVersion = stringNearCache.version(key);
+        }
+        if (null != readCoalescer)
+        {
+            String value = readCoalescer.get(key, readPreferenceOf(ReadGroup.STRING));
+            if (null != stringNearCache)
+            {
+                stringNearCache.put(key, value, nearCacheVersion);
+            }
+            return value;
+        }
         String value = null;
         Jedis jedis = null;
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            value = jedis.get(key);
+            jedis = getReadJedis(ReadGroup.STRING, key);
+            value = followRedirects(jedis, key, routed -> routed.get(key));
+            payload(null, value);
+            if (null != stringNearCache)
+            {
+                stringNearCache.put(key, value, nearCacheVersion);
+            }
         }
         catch (Exception e)
         {
@@ -2558,7 +3472,7 @@ public class RedisUtil implements InitializingBean
         }
         finally
         {
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "get");
         }
 
         return value;
@@ -2578,8 +3492,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            value = jedis.get(key);
+            jedis = getReadJedis(ReadGroup.STRING, key);
+            value = followRedirects(jedis, key, routed -> routed.get(key));
+            payload(null, value);
         }
         catch (Exception e)
         {
@@ -2589,7 +3504,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "get");
         }
 
         return value;
@@ -2613,8 +3528,10 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            str = jedis.setex(key, seconds, value);
+            jedis = getJedis(key);
+            str = followRedirects(jedis, key, routed -> routed.setex(key, seconds, value));
+            payload(value, str);
+            invalidateNearCache(key);
         }
         catch (Exception e)
         {
@@ -2624,7 +3541,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "setEx");
         }
 
         return str;
@@ -2648,8 +3565,10 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            str = jedis.setex(key, seconds, value);
+            jedis = getJedis(key);
+            str = followRedirects(jedis, key, routed -> routed.setex(key, seconds, value));
+            payload(value, str);
+            invalidateNearCache(key);
         }
         catch (Exception e)
         {
@@ -2659,7 +3578,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "setEx");
         }
 
         return str;
@@ -2681,8 +3600,10 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            str = jedis.setnx(key, value);
+            jedis = getJedis(key);
+            str = followRedirects(jedis, key, routed -> routed.setnx(key, value));
+            payload(value, str);
+            invalidateNearCache(key);
         }
         catch (Exception e)
         {
@@ -2692,7 +3613,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "setnx");
         }
 
         return str;
@@ -2714,8 +3635,10 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            set = jedis.set(key, value);
+            jedis = getJedis(key);
+            set = followRedirects(jedis, key, routed -> routed.set(key, value));
+            payload(value, set);
+            invalidateNearCache(key);
         }
         catch (Exception e)
         {
@@ -2724,7 +3647,7 @@ public class RedisUtil implements InitializingBean
         }
         finally
         {
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "set");
         }
 
         return set;
@@ -2746,8 +3669,10 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            status = jedis.set(key, value);
+            jedis = getJedis(key);
+            status = followRedirects(jedis, key, routed -> routed.set(key, value));
+            payload(value, status);
+            invalidateNearCache(key);
         }
         catch (Exception e)
         {
@@ -2756,7 +3681,7 @@ public class RedisUtil implements InitializingBean
         }
         finally
         {
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "set");
         }
 
         return status;
@@ -2774,7 +3699,7 @@ public class RedisUtil implements InitializingBean
      */
     public String setObject(String keyStr, Object obj)
     {
-        return this.set(keyStr.getBytes(), SerializeUtil.serialize(obj));
+        return setTyped(keyStr, obj, codec);
     }
 
     /**
@@ -2791,11 +3716,12 @@ public class RedisUtil implements InitializingBean
      */
     public String setObject(String keyStr, int expire, Object obj)
     {
-        return this.setEx(keyStr.getBytes(), expire, SerializeUtil.serialize(obj));
+        return setTyped(keyStr, expire, obj, codec);
     }
 
     /**
-     * 跟据key获取对象
+     * 跟据key获取对象, 值无法解码(数据损坏、类不在白名单中等)时记录错误并返回null<br/>
+     * 开启近端缓存后, 命中时返回的是缓存中的同一个对象实例, 调用方不应修改它
      * 
      * @Title: getObject
      * @param keys
@@ -2806,36 +3732,142 @@ public class RedisUtil implements InitializingBean
      */
     public Object getObject(String keyStr)
     {
+        return getDecoded(keyStr, null, false);
+    }
+
+    /**
+     * 使用指定的编解码器设置对象, 例如 {@link PojoCodec#of(Class)}; 压缩、分块与 setObject 相同
+     * 
+     * @param keyStr
+     * @param obj
+     * @param codec
+     * @return
+     */
+    public <T> String setTyped(String keyStr, T obj, Codec<T> codec)
+    {
+        if (null != chunkedValues)
+        {
+            return setChunked(keyStr, 0, obj, codec);
+        }
+        String status = this.set(keyStr.getBytes(), SerializeUtil.encode(obj, codec, valueCompressor));
+        invalidateNearCache(keyStr);
+        return status;
+    }
+
+    /**
+     * 使用指定的编解码器设置对象, 并指定过期时间
+     * 
+     * @param keyStr
+     * @param expire
+     *            过期时间
+     * @param obj
+     * @param codec
+     * @return
+     */
+    public <T> String setTyped(String keyStr, int expire, T obj, Codec<T> codec)
+    {
+        if (null != chunkedValues)
+        {
+            return setChunked(keyStr, expire, obj, codec);
+        }
+        String status = this.setEx(keyStr.getBytes(), expire, SerializeUtil.encode(obj, codec, valueCompressor));
+        invalidateNearCache(keyStr);
+        return status;
+    }
+
+    /**
+     * 使用指定的编解码器读取对象; 值不是由该编解码器写入时(例如迁移前用 setObject 写入的旧数据)按数据头选择已注册的编解码器<br/>
+     * 开启近端缓存后, 命中时返回的是缓存中的同一个对象实例, 调用方不应修改它
+     * 
+     * @param keyStr
+     * @param codec
+     * @return
+     * @throws RuntimeException 值无法解码, 与 getObject 返回null不同
+     */
+    public <T> T getTyped(String keyStr, Codec<T> codec)
+    {
+        return getDecoded(keyStr, codec, true);
+    }
+
+    /**
+     * @param keyStr
+     * @param codec
+     * @param failOnDecodeError
+     *            为false时解码失败记录错误并返回null(getObject 的原有行为)
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T getDecoded(String keyStr, Codec<T> codec, boolean failOnDecodeError)
+    {
+        long nearCacheVersion = 0;
+        if (null != objectNearCache)
+        {
+            Object cached = objectNearCache.get(keyStr);
+            if (null != cached)
+            {
+                return (T) cached;
+            }
+            nearCacheVersion = objectNearCache.version(keyStr);
+        }
         byte[] o = this.get(keyStr.getBytes());
+        ChunkedValues.Manifest manifest = ChunkedValues.Manifest.parse(o);
+        if (null != manifest)
+        {
+            o = getChunked(keyStr.getBytes(), manifest);
+        }
         if (null == o)
         {
             return null;
         }
-        return SerializeUtil.unserialize(o);
+        T obj = failOnDecodeError ? SerializeUtil.decode(o, codec, valueCompressor, allowList)
+                : (T) decodeOrNull(keyStr, o, codec);
+        if (null != objectNearCache)
+        {
+            objectNearCache.put(keyStr, obj, nearCacheVersion);
+        }
+        return obj;
     }
 
     /**
-     * 从指定位置开始插入数据，插入的数据会覆盖指定位置以后的数据<br/>
-     * 例:String str1="123456789";<br/>
-     * 对str1操作后setRange(key,4,0000)，str1="123400009";
+     * 解码失败时记录错误并返回null
      * 
-     * @param String
-     *            key
-     * @param long
-     *            offset
-     * @param String
-     *            value
-     * @return long value的长度
+     * @param keyStr
+     * @param value
+     * @param codec
+     *            可以为null
+     * @return
      */
-    public long setRange(String key, long offset, String value)
+    private Object decodeOrNull(String keyStr, byte[] value, Codec<?> codec)
     {
-        long len = -1;
+        try
+        {
+            return SerializeUtil.decode(value, codec, valueCompressor, allowList);
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("反序列化对象失败, key: " + keyStr, e);
+            return null;
+        }
+    }
+
+    /**
+     * 删除setObject写入的对象, 分块存储的对象同时删除全部分块
+     * 
+     * @param keyStr
+     * @return 删除的记录数
+     */
+    public long delObject(String keyStr)
+    {
+        byte[] key = keyStr.getBytes();
+        long count = 0;
         Jedis jedis = null;
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.setrange(key, offset, value);
+            jedis = getJedis(key);
+            count = followRedirects(jedis, key, routed -> null != chunkedValues ? chunkedValues.delete(routed, key)
+                    : routed.del(key));
+            invalidateNearCache(keyStr);
         }
         catch (Exception e)
         {
@@ -2844,19 +3876,336 @@ public class RedisUtil implements InitializingBean
         }
         finally
         {
-            // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "delObject");
         }
 
-        return len;
+        return count;
     }
 
     /**
-     * 在指定的key中追加value
+     * 批量获取对象, 一次 MGET(集群/分片模式下按节点分组, 每个节点一个 GET 管道并行执行), 对象数较多时并行反序列化<br/>
+     * 开启近端缓存时先查近端缓存, 命中的对象不再读取
      * 
-     * @param String
-     *            key
-     * @param String
+     * @param keys
+     * @return key -> 对象, 按keys的迭代顺序, 不存在或无法解码(同 getObject, 记录错误)的key不包含在结果中
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> mGetObject(Collection<String> keys)
+    {
+        Map<String, Object> found = new HashMap<String, Object>();
+        List<String> misses = new ArrayList<String>(keys.size());
+        List<Long> nearCacheVersions = new ArrayList<Long>();
+        for (String key : new LinkedHashSet<String>(keys))
+        {
+            Object cached = null == objectNearCache ? null : objectNearCache.get(key);
+            if (null != cached)
+            {
+                found.put(key, cached);
+            }
+            else
+            {
+                misses.add(key);
+                nearCacheVersions.add(null == objectNearCache ? 0 : objectNearCache.version(key));
+            }
+        }
+        if (!misses.isEmpty())
+        {
+            final byte[][] values = mgetBytes(misses);
+            for (int i = 0; i < values.length; i++)
+            {
+                ChunkedValues.Manifest manifest = ChunkedValues.Manifest.parse(values[i]);
+                if (null != manifest)
+                {
+                    values[i] = getChunked(misses.get(i).getBytes(), manifest);
+                }
+            }
+            final Object[] objects = new Object[values.length];
+            ThreadPoolUtils.parallelFor(values.length, parallelCodecBatchSize,
+                    i -> objects[i] = decodeOrNull(misses.get(i), values[i], null));
+            for (int i = 0; i < objects.length; i++)
+            {
+                if (null != objects[i])
+                {
+                    found.put(misses.get(i), objects[i]);
+                    if (null != objectNearCache)
+                    {
+                        objectNearCache.put(misses.get(i), objects[i], nearCacheVersions.get(i));
+                    }
+                }
+            }
+        }
+        Map<String, T> result = new LinkedHashMap<String, T>(found.size() * 4 / 3 + 1);
+        for (String key : keys)
+        {
+            Object obj = found.get(key);
+            if (null != obj)
+            {
+                result.put(key, (T) obj);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量设置对象, 对象数较多时并行序列化, 一个管道写入(集群/分片模式下按节点分组并行执行); 编码、压缩和分块与 setObject 相同
+     * 
+     * @param objects
+     *            key -> 对象
+     * @param expire
+     *            过期时间(秒), 不大于0时不过期
+     * @return 状态码
+     */
+    public String mSetObject(Map<String, ?> objects, final int expire)
+    {
+        if (objects.isEmpty())
+        {
+            return null;
+        }
+        final String[] keys = objects.keySet().toArray(new String[objects.size()]);
+        final Object[] values = objects.values().toArray();
+        final Map<String, byte[]> encoded = new HashMap<String, byte[]>(keys.length * 4 / 3 + 1);
+        final byte[][] bytes = new byte[keys.length][];
+        ThreadPoolUtils.parallelFor(keys.length, parallelCodecBatchSize,
+                i -> bytes[i] = SerializeUtil.encode(values[i], codec, valueCompressor));
+        for (int i = 0; i < keys.length; i++)
+        {
+            encoded.put(keys[i], bytes[i]);
+        }
+        KeyedPipelineExecute writer = new KeyedPipelineExecute()
+        {
+            @Override
+            public Response<?> execute(Pipeline pipeline, String key)
+            {
+                byte[] value = encoded.get(key);
+                return expire > 0 ? pipeline.setex(key.getBytes(), expire, value) : pipeline.set(key.getBytes(), value);
+            }
+
+            @Override
+            public List<Object> execute(Jedis jedis, String... group)
+            {
+                if (null == chunkedValues)
+                {
+                    return super.execute(jedis, group);
+                }
+                byte[][] groupKeys = new byte[group.length][];
+                byte[][] groupValues = new byte[group.length][];
+                for (int i = 0; i < group.length; i++)
+                {
+                    groupKeys[i] = group[i].getBytes();
+                    groupValues[i] = encoded.get(group[i]);
+                }
+                return chunkedValues.writeAll(jedis, groupKeys, groupValues, expire);
+            }
+        };
+        List<Object> results = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            if (null != keyRouter)
+            {
+                results = keyRouter.pipelined(keys, writer);
+            }
+            else
+            {
+                jedis = getJedis();
+                results = writer.execute(jedis, keys);
+                payload(bytes, results);
+            }
+            invalidateNearCache(keys);
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken, "mSetObject");
+        }
+
+        String status = null;
+        for (Object result : results)
+        {
+            if (result instanceof JedisDataException)
+            {
+                throw (JedisDataException) result;
+            }
+            status = (String) result;
+        }
+        return status;
+    }
+
+    /**
+     * 批量读取二进制值, 与keys顺序一致, 不存在或不是字符串的key为null
+     */
+    private byte[][] mgetBytes(List<String> keys)
+    {
+        byte[][] values = new byte[keys.size()][];
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            if (null != keyRouter)
+            {
+                List<Object> results = keyRouter.pipelined(keys.toArray(new String[keys.size()]),
+                        new KeyedPipelineExecute()
+                        {
+                            @Override
+                            public Response<?> execute(Pipeline pipeline, String key)
+                            {
+                                return pipeline.get(key.getBytes());
+                            }
+                        });
+                for (int i = 0; i < values.length; i++)
+                {
+                    Object result = results.get(i);
+                    values[i] = result instanceof byte[] ? (byte[]) result : null;
+                }
+                return values;
+            }
+            byte[][] keyBytes = new byte[values.length][];
+            for (int i = 0; i < keyBytes.length; i++)
+            {
+                keyBytes[i] = keys.get(i).getBytes();
+            }
+            jedis = getReadJedis(ReadGroup.STRING);
+            List<byte[]> results = jedis.mget(keyBytes);
+            payload(keyBytes, results);
+            results.toArray(values);
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken, "mGetObject");
+        }
+
+        return values;
+    }
+
+    private <T> String setChunked(String keyStr, int expire, T obj, Codec<T> codec)
+    {
+        byte[] key = keyStr.getBytes();
+        ByteArrayOutput buffer = SerializeUtil.acquireBuffer();
+        String status = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            int length = SerializeUtil.encode(obj, codec, valueCompressor, buffer);
+            jedis = getJedis(key);
+            status = followRedirects(jedis, key,
+                    routed -> chunkedValues.write(routed, key, buffer.getBuffer(), length, expire));
+            invalidateNearCache(keyStr);
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            SerializeUtil.releaseBuffer(buffer);
+            closeResource(jedis, broken, "setObject");
+        }
+
+        return status;
+    }
+
+    /**
+     * 读取分块存储的对象; 分块不完整说明读取期间清单已被切换(或读到了落后的从节点), 从主节点重新读取一次清单
+     * 
+     * @param key
+     * @param manifest
+     * @return 编码数据, key已不存在时返回null
+     */
+    private byte[] getChunked(byte[] key, ChunkedValues.Manifest manifest)
+    {
+        byte[] data = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getReadJedis(ReadGroup.STRING, key);
+            data = followRedirects(jedis, key, routed -> ChunkedValues.read(routed, key, manifest));
+            if (null == data)
+            {
+                closeResource(jedis, false, "getChunked");
+                jedis = null;
+                jedis = getJedis(key);
+                byte[] current = followRedirects(jedis, key, routed -> routed.get(key));
+                ChunkedValues.Manifest latest = ChunkedValues.Manifest.parse(current);
+                data = null == latest ? current
+                        : followRedirects(jedis, key, routed -> ChunkedValues.read(routed, key, latest));
+                if (null != latest && null == data)
+                {
+                    throw new IllegalStateException("chunked value is incomplete or corrupted: " + SafeEncoder.encode(key));
+                }
+            }
+            payload(null, data);
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken, "getChunked");
+        }
+
+        return data;
+    }
+
+    /**
+     * 从指定位置开始插入数据，插入的数据会覆盖指定位置以后的数据<br/>
+     * 例:String str1="123456789";<br/>
+     * 对str1操作后setRange(key,4,0000)，str1="123400009";
+     * 
+     * @param String
+     *            key
+     * @param long
+     *            offset
+     * @param String
+     *            value
+     * @return long value的长度
+     */
+    public long setRange(String key, long offset, String value)
+    {
+        long len = -1;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getJedis(key);
+            len = followRedirects(jedis, key, routed -> routed.setrange(key, offset, value));
+            payload(value, len);
+            invalidateNearCache(key);
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            // returnJedis(jedis);
+            closeResource(jedis, broken, "setRange");
+        }
+
+        return len;
+    }
+
+    /**
+     * 在指定的key中追加value
+     * 
+     * @param String
+     *            key
+     * @param String
      *            value
      * @return long 追加后value的长度
      **/
@@ -2867,8 +4216,10 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.append(key, value);
+            jedis = getJedis(key);
+            len = followRedirects(jedis, key, routed -> routed.append(key, value));
+            payload(value, len);
+            invalidateNearCache(key);
         }
         catch (Exception e)
         {
@@ -2878,7 +4229,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "append");
         }
 
         return len;
@@ -2900,8 +4251,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.decrBy(key, number);
+            jedis = getJedis(key);
+            len = followRedirects(jedis, key, routed -> routed.decrBy(key, number));
+            invalidateNearCache(key);
         }
         catch (Exception e)
         {
@@ -2911,7 +4263,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "decrBy");
         }
 
         return len;
@@ -2934,8 +4286,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.incrBy(key, number);
+            jedis = getJedis(key);
+            len = followRedirects(jedis, key, routed -> routed.incrBy(key, number));
+            invalidateNearCache(key);
         }
         catch (Exception e)
         {
@@ -2945,7 +4298,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "incrBy");
         }
 
         return len;
@@ -2969,8 +4322,9 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            value = jedis.getrange(key, startOffset, endOffset);
+            jedis = getReadJedis(ReadGroup.STRING, key);
+            value = followRedirects(jedis, key, routed -> routed.getrange(key, startOffset, endOffset));
+            payload(null, value);
         }
         catch (Exception e)
         {
@@ -2980,7 +4334,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "getrange");
         }
 
         return value;
@@ -3003,8 +4357,10 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            str = jedis.getSet(key, value);
+            jedis = getJedis(key);
+            str = followRedirects(jedis, key, routed -> routed.getSet(key, value));
+            payload(value, str);
+            invalidateNearCache(key);
         }
         catch (Exception e)
         {
@@ -3014,7 +4370,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "getSet");
         }
 
         return str;
@@ -3034,8 +4390,13 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
+            if (null != keyRouter)
+            {
+                return keyRouter.mget(keys);
+            }
+            jedis = getReadJedis(ReadGroup.STRING);
             str = jedis.mget(keys);
+            payload(keys, str);
         }
         catch (Exception e)
         {
@@ -3045,7 +4406,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "mget");
         }
 
         return str;
@@ -3065,8 +4426,22 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
+            if (null != keyRouter)
+            {
+                str = keyRouter.mset(keysvalues);
+                for (int i = 0; i < keysvalues.length; i += 2)
+                {
+                    invalidateNearCache(keysvalues[i]);
+                }
+                return str;
+            }
             jedis = getJedis();
             str = jedis.mset(keysvalues);
+            payload(keysvalues, str);
+            for (int i = 0; i < keysvalues.length; i += 2)
+            {
+                invalidateNearCache(keysvalues[i]);
+            }
         }
         catch (Exception e)
         {
@@ -3076,7 +4451,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "mset");
         }
 
         return str;
@@ -3096,8 +4471,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            len = jedis.strlen(key);
+            jedis = getReadJedis(ReadGroup.STRING, key);
+            len = followRedirects(jedis, key, routed -> routed.strlen(key));
         }
         catch (Exception e)
         {
@@ -3107,7 +4482,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "strlen");
         }
 
         return len;
@@ -3124,26 +4499,31 @@ public class RedisUtil implements InitializingBean
      * @date: 2012-12-21下午02:52:53
      */
     public List<Object> pipelineExecute(PipelineExecute pipelineExecute)
+    {
+        return pipelineExecute(null, pipelineExecute);
+    }
+
+    /**
+     * 在routingKey所在的节点上使用管道执行特定操作, 集群模式下管道内的key应与routingKey在同一槽位(可使用{hashtag})
+     * 
+     * @param routingKey
+     *            为null时使用主节点(仅非集群模式)
+     * @param pipelineExecute
+     * @return
+     */
+    public List<Object> pipelineExecute(String routingKey, PipelineExecute pipelineExecute)
     {
         List<Object> backResult = null;
         Jedis jedis = null;
         boolean broken = false;
         try
         {
-            jedis = getJedis();
+            jedis = null == routingKey ? getJedis() : getJedis(routingKey);
             Client client = jedis.getClient();
             pipelineExecute.setClient(client);
-            try
-            {
-                pipelineExecute.execute();
-                // pipelineExecute.sync();
-                backResult = pipelineExecute.syncAndReturnAll();
-            }
-            catch (Exception ex)
-            {
-                broken = handleJedisException(ex);
-                throw ex;
-            }
+            pipelineExecute.execute();
+            // pipelineExecute.sync();
+            backResult = pipelineExecute.syncAndReturnAll();
         }
         catch (Exception e)
         {
@@ -3153,45 +4533,30 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "pipelineExecute");
         }
 
         return backResult;
     }
 
     /**
-     * 执行redis操作并对事务进行控制
+     * 在只读操作使用的连接上用管道执行只读命令, 按读取偏好或分组决定是否使用从节点(仅非集群/分片模式)
      * 
-     * @Title: execute
-     * @param redisExecute
+     * @param group
+     * @param pipelineExecute
      * @return
-     * @throws @author:
-     *             yong
-     * @date: 2012-12-20下午12:35:45
      */
-    public List<Object> execute(RedisTransactionExecute redisExecute)
+    public List<Object> readPipelineExecute(ReadGroup group, PipelineExecute pipelineExecute)
     {
         List<Object> backResult = null;
         Jedis jedis = null;
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            Client client = jedis.getClient();
-            redisExecute.setClient(client);
-            try
-            {
-                client.multi();
-                redisExecute.execute();
-                backResult = redisExecute.exec();
-            }
-            catch (Exception ex)
-            {
-                backResult = null;
-                redisExecute.discard();
-                broken = handleJedisException(ex);
-                throw ex;
-            }
+            jedis = getReadJedis(group);
+            pipelineExecute.setClient(jedis.getClient());
+            pipelineExecute.execute();
+            backResult = pipelineExecute.syncAndReturnAll();
         }
         catch (Exception e)
         {
@@ -3200,46 +4565,144 @@ public class RedisUtil implements InitializingBean
         }
         finally
         {
-            // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "readPipelineExecute");
         }
 
         return backResult;
     }
 
     /**
-     * 开启对keys监控,并对key的操作进行事务管理
+     * 按key使用管道批量执行命令, 集群/分片模式下按key所在节点分组, 每组一个管道并行执行:<br/>
+     * redisUtil.pipelineExecute(keys, new KeyedPipelineExecute() { public Response<?> execute(Pipeline p, String key) { return p.hgetAll(key); } })
      * 
-     * @Title: watchExecute
-     * @param redisExecute
      * @param keys
-     * @return
-     * @throws @author:
-     *             yong
-     * @date: 2012-12-21上午01:33:19
+     * @param keyedPipelineExecute
+     * @return 与keys迭代顺序一致的结果, 单个命令的错误以 JedisDataException 放入结果
      */
-    public List<Object> watchExecute(RedisTransactionExecute redisExecute, byte[]... keys)
+    public List<Object> pipelineExecute(Collection<String> keys, KeyedPipelineExecute keyedPipelineExecute)
     {
+        String[] keyArray = keys.toArray(new String[keys.size()]);
+        if (keyArray.length == 0)
+        {
+            return new ArrayList<Object>();
+        }
         List<Object> backResult = null;
         Jedis jedis = null;
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            Client client = jedis.getClient();
-            redisExecute.setClient(client);
-            try
+            if (null != keyRouter)
             {
-                client.watch(keys);
-                client.multi();
-                redisExecute.execute();
-                backResult = redisExecute.exec();
+                return keyRouter.pipelined(keyArray, keyedPipelineExecute);
             }
-            catch (Exception ex)
-            {
-                backResult = null;
-                redisExecute.discard();
-                broken = handleJedisException(ex);
+            jedis = getJedis();
+            backResult = keyedPipelineExecute.execute(jedis, keyArray);
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken, "pipelineExecute");
+        }
+
+        return backResult;
+    }
+
+    /**
+     * 执行redis操作并对事务进行控制
+     * 
+     * @Title: execute
+     * @param redisExecute
+     * @return
+     * @throws @author:
+     *             yong
+     * @date: 2012-12-20下午12:35:45
+     */
+    public List<Object> execute(RedisTransactionExecute redisExecute)
+    {
+        return execute(null, redisExecute);
+    }
+
+    /**
+     * 在routingKey所在的节点上执行事务, 集群模式下事务内的key必须与routingKey在同一槽位(可使用{hashtag})
+     * 
+     * @param routingKey
+     *            为null时使用主节点(仅非集群模式)
+     * @param redisExecute
+     * @return
+     */
+    public List<Object> execute(String routingKey, RedisTransactionExecute redisExecute)
+    {
+        List<Object> backResult = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = null == routingKey ? getJedis() : getJedis(routingKey);
+            Client client = jedis.getClient();
+            redisExecute.setClient(client);
+            try
+            {
+                client.multi();
+                redisExecute.execute();
+                backResult = redisExecute.exec();
+            }
+            catch (Exception ex)
+            {
+                backResult = null;
+                redisExecute.discard();
+                throw ex;
+            }
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            // returnJedis(jedis);
+            closeResource(jedis, broken, "execute");
+        }
+
+        return backResult;
+    }
+
+    /**
+     * 开启对keys监控,并对key的操作进行事务管理
+     * 
+     * @Title: watchExecute
+     * @param redisExecute
+     * @param keys
+     * @return
+     * @throws @author:
+     *             yong
+     * @date: 2012-12-21上午01:33:19
+     */
+    public List<Object> watchExecute(RedisTransactionExecute redisExecute, byte[]... keys)
+    {
+        List<Object> backResult = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getJedis(keys[0]);
+            Client client = jedis.getClient();
+            redisExecute.setClient(client);
+            try
+            {
+                client.watch(keys);
+                client.multi();
+                redisExecute.execute();
+                backResult = redisExecute.exec();
+            }
+            catch (Exception ex)
+            {
+                backResult = null;
+                redisExecute.discard();
                 throw ex;
             }
             finally
@@ -3255,7 +4718,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "watchExecute");
         }
 
         return backResult;
@@ -3280,7 +4743,7 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
+            jedis = getJedis(keys[0]);
             Client client = jedis.getClient();
             redisExecute.setClient(client);
             try
@@ -3294,7 +4757,6 @@ public class RedisUtil implements InitializingBean
             {
                 backResult = null;
                 redisExecute.discard();
-                broken = handleJedisException(ex);
                 throw ex;
             }
             finally
@@ -3310,12 +4772,232 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "watchExecute");
+        }
+
+        return backResult;
+    }
+
+    /**
+     * 执行 Lua 脚本(EVALSHA), 节点没有缓存脚本时自动加载后重试; 集群/分片模式下在第一个key所在的节点执行
+     * 
+     * @param script
+     * @param keys
+     *            KEYS, 脚本访问的key都应通过 KEYS 传入
+     * @param args
+     *            ARGV
+     * @return 按脚本的 Builder 转换后的结果
+     */
+    public <T> T eval(RedisScript<T> script, List<String> keys, List<String> args)
+    {
+        List<String> keyList = null == keys ? Collections.<String> emptyList() : keys;
+        List<String> argList = null == args ? Collections.<String> emptyList() : args;
+        T result = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            final byte[][] params = RedisScript.params(keyList, argList);
+            if (null != clusterRouter && !keyList.isEmpty())
+            {
+                // 集群模式下跟随 MOVED/ASK 重定向, 在最终执行脚本的连接上计时
+                final String key = keyList.get(0);
+                final long start = borrowStart();
+                result = clusterRouter.execute(key,
+                        routed -> scriptRegistry.eval(borrowed(routed, start, key), script, keyList.size(), params));
+            }
+            else
+            {
+                jedis = keyList.isEmpty() ? getJedis() : getJedis(keyList.get(0));
+                result = scriptRegistry.eval(jedis, script, keyList.size(), params);
+            }
+            invalidateNearCache(keyList.toArray(new String[keyList.size()]));
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            if (null == jedis && null != metrics)
+            {
+                // 集群模式下连接由 clusterRouter 借还
+                metrics.completed("evalsha");
+            }
+            closeResource(jedis, broken, "evalsha");
+        }
+        return result;
+    }
+
+    /**
+     * 用管道执行多次脚本调用, 一次往返; 集群/分片模式下按每次调用的第一个key分组, 每组一个管道并行执行:<br/>
+     * redisUtil.evalPipelined(Arrays.asList(SCRIPT_A.call(keys, args), SCRIPT_B.call(keys, args)))
+     * 
+     * @param calls
+     * @return 与calls顺序一致的结果, 单个调用的错误以 JedisDataException 放入结果
+     */
+    public List<Object> evalPipelined(final List<? extends RedisScript.Call<?>> calls)
+    {
+        if (calls.isEmpty())
+        {
+            return new ArrayList<Object>();
+        }
+        List<Object> backResult = null;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            if (null != keyRouter)
+            {
+                String[] routingKeys = new String[calls.size()];
+                for (int i = 0; i < routingKeys.length; i++)
+                {
+                    routingKeys[i] = calls.get(i).getRoutingKey();
+                    if (null == routingKeys[i])
+                    {
+                        throw new IllegalArgumentException(
+                                "Script calls need at least one key in Redis Cluster/sharded mode: " + calls.get(i));
+                    }
+                }
+                backResult = keyRouter.executeGrouped(routingKeys, (routed, indexes) -> {
+                    List<RedisScript.Call<?>> group = new ArrayList<RedisScript.Call<?>>(indexes.size());
+                    for (Integer i : indexes)
+                    {
+                        group.add(calls.get(i));
+                    }
+                    return scriptRegistry.evalAll(routed, group);
+                });
+            }
+            else
+            {
+                jedis = getJedis();
+                backResult = scriptRegistry.evalAll(jedis, calls);
+            }
+            for (RedisScript.Call<?> call : calls)
+            {
+                invalidateNearCache(call.getKeys().toArray(new String[call.getKeys().size()]));
+            }
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken, "evalPipelined");
         }
 
         return backResult;
     }
 
+    /**
+     * 向频道发布消息; 集群/分片模式下发往频道名所在的节点(集群会广播到所有节点)
+     * 
+     * @param channel
+     * @param message
+     * @return 收到消息的订阅者数
+     */
+    public long publish(String channel, String message)
+    {
+        long receivers = 0;
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = getJedis(channel);
+            receivers = jedis.publish(channel, message);
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken, "publish");
+        }
+        return receivers;
+    }
+
+    /**
+     * 订阅频道, 阻塞到 listener 取消全部订阅或连接断开为止; 订阅期间独占一个连接, 不计入命令耗时。
+     * 集群/分片模式下连接第一个频道名所在的节点
+     * 
+     * @param listener
+     * @param channels
+     */
+    public void subscribe(JedisPubSub listener, String... channels)
+    {
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            jedis = null != keyRouter ? keyRouter.getResource(channels[0]) : masterResource();
+            jedis.subscribe(listener, channels);
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            closeResource(jedis, broken);
+        }
+    }
+
+    /**
+     * 登记 Lua 脚本并加载到当前的主节点; 加载失败时只记录日志, 执行时会再次加载
+     * 
+     * @param script
+     */
+    public void registerScript(RedisScript<?> script)
+    {
+        if (scriptRegistry.register(script) && (null != pool || null != keyRouter))
+        {
+            loadScripts();
+        }
+    }
+
+    /**
+     * 把已登记的脚本加载到所有主节点
+     */
+    private void loadScripts()
+    {
+        if (scriptRegistry.isEmpty())
+        {
+            return;
+        }
+        Jedis jedis = null;
+        boolean broken = false;
+        try
+        {
+            if (null != keyRouter)
+            {
+                keyRouter.executeOnMasters(routed -> scriptRegistry.loadAll(routed));
+            }
+            else
+            {
+                jedis = getJedis();
+                if (null != jedis)
+                {
+                    scriptRegistry.loadAll(jedis);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            broken = handleJedisException(e);
+            logger.warn("加载 Lua 脚本失败, 执行时将重新加载: " + e.getMessage());
+        }
+        finally
+        {
+            closeResource(jedis, broken, "scriptLoad");
+        }
+    }
+
     /**
      * 关闭JEDIS数据库连接(返回连接池)
      * 
@@ -3378,8 +5060,8 @@ public class RedisUtil implements InitializingBean
         boolean broken = false;
         try
         {
-            jedis = getJedis();
-            set = jedis.zrevrangeByScore(key, max, min);
+            jedis = getReadJedis(ReadGroup.ZSET, key);
+            set = followRedirects(jedis, key, routed -> routed.zrevrangeByScore(key, max, min));
         }
         catch (Exception e)
         {
@@ -3389,7 +5071,7 @@ public class RedisUtil implements InitializingBean
         finally
         {
             // returnJedis(jedis);
-            closeResource(jedis, broken);
+            closeResource(jedis, broken, "zrevrangeByScore");
         }
 
         return set;
@@ -3465,34 +5147,470 @@ public class RedisUtil implements InitializingBean
         this.minIdle = minIdle;
     }
 
-    public void afterPropertiesSet() throws Exception
+    public boolean isNearCacheEnabled()
     {
-        init();
+        return nearCacheEnabled;
     }
 
-    /**
-     * 判断jedis抛出的异常类型，网络异常或者一般异常
-     * 
-     * @param exception
-     * @return
-     */
-    private boolean handleJedisException(Exception exception)
+    public void setNearCacheEnabled(boolean nearCacheEnabled)
     {
-        if (exception instanceof JedisConnectionException)
-        {
-            logger.error("Redis connection lost. Exception is : ", exception);
-        }
-        else if (exception instanceof JedisDataException)
-        {
-            if (exception.getMessage() != null && exception.getMessage().indexOf("READONLY") != -1)
-            {
-                logger.error("Redis connection are read-only slave. Exception is : ", exception);
-            }
-            else
-            {
-                return false;
-            }
-        }
+        this.nearCacheEnabled = nearCacheEnabled;
+    }
+
+    public int getNearCacheMaxSize()
+    {
+        return nearCacheMaxSize;
+    }
+
+    public void setNearCacheMaxSize(int nearCacheMaxSize)
+    {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+    }
+
+    public long getNearCacheTtlMillis()
+    {
+        return nearCacheTtlMillis;
+    }
+
+    public void setNearCacheTtlMillis(long nearCacheTtlMillis)
+    {
+        this.nearCacheTtlMillis = nearCacheTtlMillis;
+    }
+
+    public NearCache.EvictionPolicy getNearCacheEvictionPolicy()
+    {
+        return nearCacheEvictionPolicy;
+    }
+
+    public void setNearCacheEvictionPolicy(NearCache.EvictionPolicy nearCacheEvictionPolicy)
+    {
+        this.nearCacheEvictionPolicy = nearCacheEvictionPolicy;
+    }
+
+    public boolean isCoalescingEnabled()
+    {
+        return coalescingEnabled;
+    }
+
+    public void setCoalescingEnabled(boolean coalescingEnabled)
+    {
+        this.coalescingEnabled = coalescingEnabled;
+    }
+
+    public long getCoalescingWindowMicros()
+    {
+        return coalescingWindowMicros;
+    }
+
+    public void setCoalescingWindowMicros(long coalescingWindowMicros)
+    {
+        this.coalescingWindowMicros = coalescingWindowMicros;
+    }
+
+    public int getCoalescingMaxBatchSize()
+    {
+        return coalescingMaxBatchSize;
+    }
+
+    public void setCoalescingMaxBatchSize(int coalescingMaxBatchSize)
+    {
+        this.coalescingMaxBatchSize = coalescingMaxBatchSize;
+    }
+
+    public int getCoalescingThreads()
+    {
+        return coalescingThreads;
+    }
+
+    public void setCoalescingThreads(int coalescingThreads)
+    {
+        this.coalescingThreads = coalescingThreads;
+    }
+
+    public boolean isReplicaReadEnabled()
+    {
+        return replicaReadEnabled;
+    }
+
+    public void setReplicaReadEnabled(boolean replicaReadEnabled)
+    {
+        this.replicaReadEnabled = replicaReadEnabled;
+    }
+
+    public Set<ReadGroup> getReplicaReadGroups()
+    {
+        return replicaReadGroups;
+    }
+
+    public void setReplicaReadGroups(Set<ReadGroup> replicaReadGroups)
+    {
+        this.replicaReadGroups = EnumSet.noneOf(ReadGroup.class);
+        this.replicaReadGroups.addAll(replicaReadGroups);
+    }
+
+    public long getReplicaRefreshMillis()
+    {
+        return replicaRefreshMillis;
+    }
+
+    public void setReplicaRefreshMillis(long replicaRefreshMillis)
+    {
+        this.replicaRefreshMillis = replicaRefreshMillis;
+    }
+
+    public Set<String> getClusterNodes()
+    {
+        return clusterNodes;
+    }
+
+    public void setClusterNodes(Set<String> clusterNodes)
+    {
+        this.clusterNodes = clusterNodes;
+    }
+
+    public int getClusterMaxRedirections()
+    {
+        return clusterMaxRedirections;
+    }
+
+    public void setClusterMaxRedirections(int clusterMaxRedirections)
+    {
+        this.clusterMaxRedirections = clusterMaxRedirections;
+    }
+
+    public int getMultiKeyThreads()
+    {
+        return multiKeyThreads;
+    }
+
+    public void setMultiKeyThreads(int multiKeyThreads)
+    {
+        this.multiKeyThreads = multiKeyThreads;
+    }
+
+    public boolean isMetricsEnabled()
+    {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled)
+    {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public String getMetricsKeyPrefixDelimiter()
+    {
+        return metricsKeyPrefixDelimiter;
+    }
+
+    public void setMetricsKeyPrefixDelimiter(String metricsKeyPrefixDelimiter)
+    {
+        this.metricsKeyPrefixDelimiter = metricsKeyPrefixDelimiter;
+    }
+
+    public long getSlowLogThresholdMicros()
+    {
+        return slowLogThresholdMicros;
+    }
+
+    public void setSlowLogThresholdMicros(long slowLogThresholdMicros)
+    {
+        this.slowLogThresholdMicros = slowLogThresholdMicros;
+    }
+
+    public int getSlowLogSize()
+    {
+        return slowLogSize;
+    }
+
+    public void setSlowLogSize(int slowLogSize)
+    {
+        this.slowLogSize = slowLogSize;
+    }
+
+    public int getSlowLogMaxKeyLength()
+    {
+        return slowLogMaxKeyLength;
+    }
+
+    public void setSlowLogMaxKeyLength(int slowLogMaxKeyLength)
+    {
+        this.slowLogMaxKeyLength = slowLogMaxKeyLength;
+    }
+
+    public boolean isSlowLogHashKeys()
+    {
+        return slowLogHashKeys;
+    }
+
+    public void setSlowLogHashKeys(boolean slowLogHashKeys)
+    {
+        this.slowLogHashKeys = slowLogHashKeys;
+    }
+
+    /**
+     * 慢命令记录, 未开启时返回null
+     * 
+     * @return
+     */
+    public SlowCommandLog getSlowCommandLog()
+    {
+        return null == metrics ? null : metrics.getSlowCommandLog();
+    }
+
+    /**
+     * 运行指标, 未开启时返回null
+     * 
+     * @return
+     */
+    public RedisMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    public Codec<Object> getCodec()
+    {
+        return codec;
+    }
+
+    public void setCodec(Codec<Object> codec)
+    {
+        this.codec = codec;
+    }
+
+    public int getParallelCodecBatchSize()
+    {
+        return parallelCodecBatchSize;
+    }
+
+    public void setParallelCodecBatchSize(int parallelCodecBatchSize)
+    {
+        this.parallelCodecBatchSize = parallelCodecBatchSize;
+    }
+
+    public Set<String> getDeserializationAllowList()
+    {
+        return deserializationAllowList;
+    }
+
+    public void setDeserializationAllowList(Set<String> deserializationAllowList)
+    {
+        this.deserializationAllowList = deserializationAllowList;
+    }
+
+    public int getCompressThreshold()
+    {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold)
+    {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public int getCompressLevel()
+    {
+        return compressLevel;
+    }
+
+    public void setCompressLevel(int compressLevel)
+    {
+        this.compressLevel = compressLevel;
+    }
+
+    /**
+     * 值压缩及其统计(压缩比、耗时), 未开启时返回null
+     * 
+     * @return
+     */
+    public ValueCompressor getValueCompressor()
+    {
+        return valueCompressor;
+    }
+
+    public int getChunkThreshold()
+    {
+        return chunkThreshold;
+    }
+
+    public void setChunkThreshold(int chunkThreshold)
+    {
+        this.chunkThreshold = chunkThreshold;
+    }
+
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize)
+    {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkGraceSeconds()
+    {
+        return chunkGraceSeconds;
+    }
+
+    public void setChunkGraceSeconds(int chunkGraceSeconds)
+    {
+        this.chunkGraceSeconds = chunkGraceSeconds;
+    }
+
+    public Collection<RedisScript<?>> getScripts()
+    {
+        return scripts;
+    }
+
+    public void setScripts(Collection<RedisScript<?>> scripts)
+    {
+        this.scripts = scripts;
+    }
+
+    public Set<String> getMasterNames()
+    {
+        return masterNames;
+    }
+
+    public void setMasterNames(Set<String> masterNames)
+    {
+        this.masterNames = masterNames;
+    }
+
+    public int getShardVirtualNodes()
+    {
+        return shardVirtualNodes;
+    }
+
+    public void setShardVirtualNodes(int shardVirtualNodes)
+    {
+        this.shardVirtualNodes = shardVirtualNodes;
+    }
+
+    /**
+     * 分片路由, 非分片模式返回null. 可通过 {@link ShardedSentinelRouter#partitionOf(String)} 查询key所在的分片
+     * 
+     * @return
+     */
+    public ShardedSentinelRouter getShardRouter()
+    {
+        return shardRouter;
+    }
+
+    /**
+     * 集群路由, 非集群模式返回null. 需要跟随 MOVED/ASK 重定向的自定义操作可使用
+     * {@link RedisClusterRouter#execute(String, JedisAction)}
+     * 
+     * @return
+     */
+    public RedisClusterRouter getClusterRouter()
+    {
+        return clusterRouter;
+    }
+
+    /**
+     * 从节点连接池, 未开启从节点读时返回null
+     * 
+     * @return
+     */
+    public ReplicaPools getReplicaPools()
+    {
+        return replicaPools;
+    }
+
+    /**
+     * 字符串值的近端缓存, 未开启时返回null
+     * 
+     * @return
+     */
+    public NearCache getStringNearCache()
+    {
+        return stringNearCache;
+    }
+
+    /**
+     * 对象值的近端缓存, 未开启时返回null
+     * 
+     * @return
+     */
+    public NearCache getObjectNearCache()
+    {
+        return objectNearCache;
+    }
+
+    public void afterPropertiesSet() throws Exception
+    {
+        init();
+    }
+
+    /**
+     * 停止后台线程, 注销指标MBean并关闭所有连接池
+     */
+    public void destroy() throws Exception
+    {
+        if (null != readCoalescer)
+        {
+            readCoalescer.shutdown();
+        }
+        if (null != metrics)
+        {
+            metrics.unregister();
+        }
+        if (null != replicaPools)
+        {
+            replicaPools.close();
+        }
+        if (null != keyRouter)
+        {
+            keyRouter.close();
+        }
+        if (null != pool)
+        {
+            pool.destroy();
+        }
+    }
+
+    /**
+     * 判断jedis抛出的异常类型，网络异常或者一般异常
+     * 
+     * @param exception
+     * @return
+     */
+    private boolean handleJedisException(Exception exception)
+    {
+        boolean broken = isBroken(exception);
+        if (null != metrics)
+        {
+            metrics.failed(broken);
+        }
+        return broken;
+    }
+
+    private boolean isBroken(Exception exception)
+    {
+        if (exception instanceof JedisConnectionException)
+        {
+            logger.error("Redis connection lost. Exception is : ", exception);
+        }
+        else if (exception instanceof JedisRedirectionException && null != clusterRouter)
+        {
+            // 槽位已迁移, 刷新映射后下次调用即可路由到新节点
+            logger.warn("Redis cluster redirection: " + exception.getMessage());
+            clusterRouter.onRedirect((JedisRedirectionException) exception);
+            return false;
+        }
+        else if (exception instanceof JedisDataException)
+        {
+            if (exception.getMessage() != null && exception.getMessage().indexOf("READONLY") != -1)
+            {
+                logger.error("Redis connection are read-only slave. Exception is : ", exception);
+            }
+            else
+            {
+                return false;
+            }
+        }
         else
         {
             logger.error("Jedis exception happen. Exception is : ", exception);
@@ -3500,6 +5618,62 @@ public class RedisUtil implements InitializingBean
         return true;
     }
 
+    /**
+     * 本节点写入后使近端缓存中对应的key失效
+     * 
+     * @param keys
+     */
+    private void invalidateNearCache(String... keys)
+    {
+        if (null == stringNearCache)
+        {
+            return;
+        }
+        for (String key : keys)
+        {
+            stringNearCache.invalidate(key);
+            objectNearCache.invalidate(key);
+        }
+    }
+
+    private void invalidateNearCache(byte[]... keys)
+    {
+        if (null == stringNearCache)
+        {
+            return;
+        }
+        for (byte[] key : keys)
+        {
+            invalidateNearCache(SafeEncoder.encode(key));
+        }
+    }
+
+    private void clearNearCache()
+    {
+        if (null == stringNearCache)
+        {
+            return;
+        }
+        stringNearCache.clear();
+        objectNearCache.clear();
+    }
+
+    /**
+     * 记录命令耗时后释放连接
+     * 
+     * @param jedis
+     * @param conectionBroken
+     * @param command
+     */
+    private void closeResource(Jedis jedis, boolean conectionBroken, String command)
+    {
+        if (null != metrics && null != jedis)
+        {
+            metrics.completed(command);
+        }
+        closeResource(jedis, conectionBroken);
+    }
+
     /**
      * 关闭/是否连接池资源，若是网络异常，则断开连接，如果是一般异常，将直接抛出异常
      * 
@@ -3510,7 +5684,7 @@ public class RedisUtil implements InitializingBean
     {
         try
         {
-            if (null != jedis && null != pool)
+            if (null != jedis)
             {
                 jedis.close();
             }
@@ -0,0 +1,258 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisSentinelPool;
+
+/**
+ * 从节点(replica)连接池
+ * <p>
+ * 通过与主节点相同的 sentinels 发现 master 下的从节点, 为每个健康的从节点建立连接池,
+ * 读请求按轮询方式分配。后台线程定时重新发现从节点, 主从切换后自动重建连接池。
+ *
+ */
+public class ReplicaPools
+{
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaPools.class);
+
+    private final String masterName;
+
+    private final Set<String> sentinels;
+
+    private final GenericObjectPoolConfig poolConfig;
+
+    private final int timeOut;
+
+    /**
+     * 主节点连接池, 用于排除已被提升为主节点的地址
+     */
+    private final JedisSentinelPool masterPool;
+
+    private final ScheduledExecutorService refresher;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile Map<HostAndPort, JedisPool> pools = Collections.emptyMap();
+
+    private volatile List<JedisPool> poolList = Collections.emptyList();
+
+    /**
+     * @param masterName
+     * @param sentinels
+     * @param poolConfig
+     * @param timeOut
+     * @param masterPool
+     * @param refreshMillis
+     *            重新发现从节点的间隔(毫秒)
+     */
+    public ReplicaPools(String masterName, Set<String> sentinels, GenericObjectPoolConfig poolConfig, int timeOut,
+            JedisSentinelPool masterPool, long refreshMillis)
+    {
+        this.masterName = masterName;
+        this.sentinels = sentinels;
+        this.poolConfig = poolConfig;
+        this.timeOut = timeOut;
+        this.masterPool = masterPool;
+        refresh();
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "redis-replica-refresher-" + ReplicaPools.this.masterName);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        refresher.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    refresh();
+                }
+                catch (Exception e)
+                {
+                    logger.error("刷新redis从节点异常," + e.getMessage(), e);
+                }
+            }
+        }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 轮询获取一个从节点连接, 所有从节点都不可用时返回null
+     *
+     * @return
+     */
+    public Jedis getResource()
+    {
+        List<JedisPool> current = poolList;
+        int size = current.size();
+        for (int i = 0; i < size; i++)
+        {
+            JedisPool p = current.get((next.getAndIncrement() & Integer.MAX_VALUE) % size);
+            try
+            {
+                return p.getResource();
+            }
+            catch (Exception e)
+            {
+                logger.warn("获取redis从节点连接失败, 尝试下一个从节点," + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 当前的从节点连接池
+     *
+     * @return
+     */
+    public List<JedisPool> getPools()
+    {
+        return poolList;
+    }
+
+    /**
+     * 当前可用的从节点地址
+     *
+     * @return
+     */
+    public Set<HostAndPort> getReplicas()
+    {
+        return Collections.unmodifiableSet(pools.keySet());
+    }
+
+    /**
+     * 从 sentinels 重新发现从节点, 新增的节点建立连接池, 下线或已提升为主节点的节点关闭连接池
+     */
+    public synchronized void refresh()
+    {
+        List<HostAndPort> discovered = discover();
+        if (null == discovered)
+        {
+            // 所有 sentinel 都不可达, 保留现有连接池
+            return;
+        }
+        HostAndPort master = masterPool.getCurrentHostMaster();
+        Map<HostAndPort, JedisPool> old = pools;
+        Map<HostAndPort, JedisPool> fresh = new HashMap<HostAndPort, JedisPool>();
+        for (HostAndPort replica : discovered)
+        {
+            if (replica.equals(master) || fresh.containsKey(replica))
+            {
+                continue;
+            }
+            JedisPool p = old.get(replica);
+            if (null == p)
+            {
+                p = new JedisPool(poolConfig, replica.getHost(), replica.getPort(), timeOut);
+                logger.info("发现redis从节点: " + replica);
+            }
+            fresh.put(replica, p);
+        }
+        pools = fresh;
+        poolList = new ArrayList<JedisPool>(fresh.values());
+        for (Map.Entry<HostAndPort, JedisPool> entry : old.entrySet())
+        {
+            if (!fresh.containsKey(entry.getKey()))
+            {
+                logger.info("移除redis从节点: " + entry.getKey());
+                closePool(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 停止刷新并关闭所有从节点连接池
+     */
+    public synchronized void close()
+    {
+        refresher.shutdownNow();
+        for (JedisPool p : pools.values())
+        {
+            closePool(p);
+        }
+        pools = Collections.emptyMap();
+        poolList = Collections.emptyList();
+    }
+
+    /**
+     * 依次询问 sentinel, 返回第一个成功应答的 sentinel 所知道的健康从节点; 全部失败返回null
+     *
+     * @return
+     */
+    private List<HostAndPort> discover()
+    {
+        for (String sentinel : sentinels)
+        {
+            String[] hostAndPort = sentinel.split(":");
+            Jedis jedis = null;
+            try
+            {
+                jedis = new Jedis(hostAndPort[0], Integer.parseInt(hostAndPort[1]), timeOut);
+                List<HostAndPort> replicas = new ArrayList<HostAndPort>();
+                for (Map<String, String> info : jedis.sentinelSlaves(masterName))
+                {
+                    if (isHealthy(info))
+                    {
+                        replicas.add(new HostAndPort(info.get("ip"), Integer.parseInt(info.get("port"))));
+                    }
+                }
+                return replicas;
+            }
+            catch (Exception e)
+            {
+                logger.warn("从sentinel " + sentinel + " 获取从节点失败," + e.getMessage());
+            }
+            finally
+            {
+                if (null != jedis)
+                {
+                    jedis.close();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isHealthy(Map<String, String> info)
+    {
+        String flags = info.get("flags");
+        if (null != flags && (flags.contains("s_down") || flags.contains("o_down") || flags.contains("disconnected")))
+        {
+            return false;
+        }
+        String linkStatus = info.get("master-link-status");
+        return null == linkStatus || "ok".equals(linkStatus);
+    }
+
+    private static void closePool(JedisPool p)
+    {
+        try
+        {
+            p.destroy();
+        }
+        catch (Exception e)
+        {
+            logger.error("关闭redis从节点连接池异常," + e.getMessage(), e);
+        }
+    }
+}
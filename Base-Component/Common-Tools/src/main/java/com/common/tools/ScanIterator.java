@@ -0,0 +1,140 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+/**
+ * 基于游标(SCAN/HSCAN/SSCAN/ZSCAN)的惰性迭代器
+ * <p>
+ * 只有当前批次消费完后才会发起下一次扫描, 每次扫描单独借用并归还连接,
+ * 调用方随时停止迭代即可提前结束, 不需要关闭任何资源。<br/>
+ * 游标扫描期间集合被修改时, 元素可能重复返回, 调用方需要自行容忍。
+ *
+ */
+public abstract class ScanIterator<T> implements Iterator<T>
+{
+    private final ScanParams params;
+
+    private String cursor = ScanParams.SCAN_POINTER_START;
+
+    private boolean finished = false;
+
+    private Iterator<T> batch;
+
+    /**
+     * @param pattern
+     *            匹配模式, 为空时不过滤
+     * @param count
+     *            每次扫描的COUNT提示值
+     */
+    protected ScanIterator(String pattern, int count)
+    {
+        params = new ScanParams();
+        if (null != pattern && pattern.length() > 0)
+        {
+            params.match(pattern);
+        }
+        if (count > 0)
+        {
+            params.count(count);
+        }
+    }
+
+    /**
+     * 执行一次扫描
+     *
+     * @param cursor
+     * @param params
+     * @return
+     */
+    protected abstract ScanResult<T> scan(String cursor, ScanParams params);
+
+    public boolean hasNext()
+    {
+        // 一次扫描可能返回空批次而游标未结束, 需要继续扫描
+        while ((null == batch || !batch.hasNext()) && !finished)
+        {
+            batch = fetch().iterator();
+        }
+        return null != batch && batch.hasNext();
+    }
+
+    public T next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        return batch.next();
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * 当前游标, 可用于断点续扫
+     *
+     * @return
+     */
+    public String getCursor()
+    {
+        return cursor;
+    }
+
+    /**
+     * 按扫描批次回调剩余元素, 空批次不回调
+     *
+     * @param consumer
+     */
+    public void forEachBatch(Consumer<? super List<T>> consumer)
+    {
+        if (null != batch && batch.hasNext())
+        {
+            List<T> rest = new ArrayList<T>();
+            while (batch.hasNext())
+            {
+                rest.add(batch.next());
+            }
+            consumer.accept(rest);
+        }
+        while (!finished)
+        {
+            List<T> items = fetch();
+            if (!items.isEmpty())
+            {
+                consumer.accept(items);
+            }
+        }
+        batch = null;
+    }
+
+    private List<T> fetch()
+    {
+        ScanResult<T> result = scan(cursor, params);
+        cursor = result.getStringCursor();
+        finished = ScanParams.SCAN_POINTER_START.equals(cursor);
+        return result.getResult();
+    }
+
+    /**
+     * 转换为顺序流, 流的短路操作(limit/findFirst等)会停止后续扫描
+     *
+     * @return
+     */
+    public Stream<T> stream()
+    {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL), false);
+    }
+}
@@ -0,0 +1,200 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Lua 脚本注册表
+ * <p>
+ * 记录启动时配置和执行过的脚本, 执行时只发送 SHA1(EVALSHA)。节点返回 NOSCRIPT(重启、主从切换到新的主节点、SCRIPT FLUSH)
+ * 说明脚本没有执行, 此时在该节点上重新加载全部已注册的脚本后重试一次, 避免切换后每个脚本各遇到一次 NOSCRIPT。
+ *
+ */
+final class ScriptRegistry
+{
+    private final Set<RedisScript<?>> scripts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param script
+     * @return 之前未注册时返回true
+     */
+    boolean register(RedisScript<?> script)
+    {
+        return scripts.add(script);
+    }
+
+    boolean isEmpty()
+    {
+        return scripts.isEmpty();
+    }
+
+    /**
+     * 在连接所在的节点上加载节点还没有缓存的已注册脚本
+     *
+     * @param jedis
+     * @return 加载的脚本数
+     */
+    int loadAll(Jedis jedis)
+    {
+        List<RedisScript<?>> all = new ArrayList<RedisScript<?>>(scripts);
+        if (all.isEmpty())
+        {
+            return 0;
+        }
+        byte[][] shas = new byte[all.size()][];
+        for (int i = 0; i < shas.length; i++)
+        {
+            shas[i] = all.get(i).getSha1Bytes();
+        }
+        List<Long> exists = jedis.scriptExists(shas);
+        int loaded = 0;
+        for (int i = 0; i < shas.length; i++)
+        {
+            if (null == exists || i >= exists.size() || exists.get(i) != 1)
+            {
+                load(jedis, all.get(i));
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 执行脚本, NOSCRIPT 时重新加载后重试一次
+     *
+     * @param jedis
+     * @param script
+     * @param keyCount
+     * @param params
+     *            KEYS 之后是 ARGV
+     * @return
+     */
+    <T> T eval(Jedis jedis, RedisScript<T> script, int keyCount, byte[][] params)
+    {
+        register(script);
+        Object raw;
+        try
+        {
+            raw = jedis.evalsha(script.getSha1Bytes(), keyCount, params);
+        }
+        catch (JedisDataException e)
+        {
+            if (!isNoScript(e))
+            {
+                throw e;
+            }
+            reload(jedis, script);
+            raw = jedis.evalsha(script.getSha1Bytes(), keyCount, params);
+        }
+        return script.build(raw);
+    }
+
+    /**
+     * 在一个管道中执行多次脚本调用, 返回 NOSCRIPT 的调用在重新加载后用第二个管道重试
+     *
+     * @param jedis
+     * @param calls
+     * @return 与calls顺序一致的结果, 单个调用的错误以 JedisDataException 放入结果
+     */
+    List<Object> evalAll(Jedis jedis, List<? extends RedisScript.Call<?>> calls)
+    {
+        List<Object> results = new ArrayList<Object>(calls.size());
+        List<Integer> pending = new ArrayList<Integer>(calls.size());
+        for (int i = 0; i < calls.size(); i++)
+        {
+            register(calls.get(i).getScript());
+            results.add(null);
+            pending.add(i);
+        }
+        List<Integer> missing = pipelined(jedis, calls, pending, results);
+        if (!missing.isEmpty())
+        {
+            // 调用的脚本都已注册, 一次加载节点缺少的全部脚本
+            if (loadAll(jedis) == 0)
+            {
+                Set<RedisScript<?>> distinct = new LinkedHashSet<RedisScript<?>>();
+                for (Integer i : missing)
+                {
+                    distinct.add(calls.get(i).getScript());
+                }
+                for (RedisScript<?> script : distinct)
+                {
+                    load(jedis, script);
+                }
+            }
+            pipelined(jedis, calls, missing, results);
+        }
+        return results;
+    }
+
+    /**
+     * 用管道执行指定下标的调用, 结果写入results
+     *
+     * @return 返回 NOSCRIPT 的调用下标
+     */
+    private List<Integer> pipelined(Jedis jedis, List<? extends RedisScript.Call<?>> calls, List<Integer> indexes,
+            List<Object> results)
+    {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Object>> responses = new ArrayList<Response<Object>>(indexes.size());
+        for (Integer i : indexes)
+        {
+            RedisScript.Call<?> call = calls.get(i);
+            responses.add(pipeline.evalsha(call.getScript().getSha1Bytes(), call.getKeys().size(), call.params()));
+        }
+        pipeline.sync();
+        List<Integer> missing = new ArrayList<Integer>();
+        for (int j = 0; j < indexes.size(); j++)
+        {
+            int i = indexes.get(j);
+            try
+            {
+                results.set(i, calls.get(i).getScript().build(responses.get(j).get()));
+            }
+            catch (JedisDataException e)
+            {
+                if (isNoScript(e))
+                {
+                    missing.add(i);
+                }
+                results.set(i, e);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 节点丢失了脚本缓存, 一般是其他脚本也已丢失, 一起加载
+     */
+    private void reload(Jedis jedis, RedisScript<?> script)
+    {
+        if (loadAll(jedis) == 0)
+        {
+            // SCRIPT EXISTS 与 EVALSHA 之间缓存又被清空, 单独加载
+            load(jedis, script);
+        }
+    }
+
+    private static void load(Jedis jedis, RedisScript<?> script)
+    {
+        String sha = SafeEncoder.encode(jedis.scriptLoad(script.getSourceBytes()));
+        if (!script.getSha1().equals(sha))
+        {
+            throw new IllegalStateException("SCRIPT LOAD returned " + sha + ", expected " + script.getSha1());
+        }
+    }
+
+    private static boolean isNoScript(JedisDataException e)
+    {
+        return null != e.getMessage() && e.getMessage().startsWith("NOSCRIPT");
+    }
+}
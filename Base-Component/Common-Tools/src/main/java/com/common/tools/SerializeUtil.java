@@ -1,90 +1,354 @@
 package com.common.tools;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ServiceLoader;
 
 /**
  * 序列化工具类
+ * <p>
+ * serialize/unserialize 使用 Java 序列化; encode/decode 使用可插拔的 {@link Codec}, 数据以2个字节的数据头开头:
+ * {@link #HEADER_MAGIC} 和编码标识(低4位, 高4位为标志位, 见 {@link #FLAG_COMPRESSED})。
+ * Java 序列化的数据以 0xACED 开头, 不加数据头, 因此新旧数据可以共存, decode 都能读取。
  * 
  */
 public class SerializeUtil {
 	
 	/**
-	 * 将对象转换成二进制
+	 * 数据头的第一个字节, 与 Java 序列化的魔数 0xAC 不同
+	 */
+	public static final int HEADER_MAGIC = 0xC5;
+	
+	public static final int HEADER_LENGTH = 2;
+	
+	/**
+	 * 数据头标志位: 数据已压缩, 数据头之后是原始长度(变长编码)和 Deflate 数据
+	 */
+	public static final int FLAG_COMPRESSED = 0x10;
+	
+	/**
+	 * 数据头标志位: 分块存储的清单, 对象数据在各个分块key中, 见 {@link ChunkedValues}
+	 */
+	public static final int FLAG_CHUNKED = 0x20;
+	
+	private static final int JAVA_MAGIC = 0xAC;
+	
+	private static final Codec<?>[] CODECS = new Codec<?>[16];
+	
+	/**
+	 * 线程缓冲池保留的单个缓冲区的最大容量
+	 */
+	public static final int MAX_RETAINED_BUFFER = 1 << 20;
+	
+	private static final ThreadLocal<BufferPool> BUFFERS = new ThreadLocal<BufferPool>() {
+		@Override
+		protected BufferPool initialValue() {
+			return new BufferPool();
+		}
+	};
+	
+	/**
+	 * 线程内空闲的缓冲区, 编码过程中可能嵌套借用, 因此保留多个
+	 */
+	private static final class BufferPool {
+		private final ByteArrayOutput[] free = new ByteArrayOutput[4];
+		private int size;
+	}
+	
+	private static final JavaSerializationCodec JAVA_CODEC = new JavaSerializationCodec();
+	
+	static {
+		registerCodec(JAVA_CODEC);
+		registerCodec(new BinaryCodec());
+		for (Codec<?> codec : ServiceLoader.load(Codec.class, SerializeUtil.class.getClassLoader())) {
+			registerCodec(codec);
+		}
+	}
+	
+	/**
+	 * 注册编解码器, 同一标识不能注册不同的实现
+	 * @param codec
+	 */
+	public static synchronized void registerCodec(Codec<?> codec) {
+		int id = codec.getId();
+		if (id < 1 || id >= CODECS.length) {
+			throw new IllegalArgumentException("codec id must be between 1 and " + (CODECS.length - 1) + ": " + id);
+		}
+		Codec<?> existing = CODECS[id];
+		if (null != existing && existing.getClass() != codec.getClass()) {
+			throw new IllegalArgumentException("codec id " + id + " already registered by " + existing.getClass().getName());
+		}
+		CODECS[id] = codec;
+	}
+	
+	/**
+	 * 按标识获取编解码器, 未注册时返回null
+	 * @param id
+	 * @return
+	 */
+	public static Codec<?> getCodec(int id) {
+		return id > 0 && id < CODECS.length ? CODECS[id] : null;
+	}
+	
+	/**
+	 * 使用指定的编解码器编码, 结果带数据头(Java 序列化除外)
+	 * @param object
+	 * @param codec
+	 * @return
+	 */
+	public static <T> byte[] encode(T object, Codec<T> codec) {
+		return encode(object, codec, null);
+	}
+	
+	/**
+	 * 使用指定的编解码器编码, 编码结果达到压缩阈值时压缩并在数据头中标记; 未压缩的 Java 序列化数据不加数据头<br/>
+	 * 使用线程内复用的缓冲区编码, 只分配最终结果大小的数组
+	 * @param object
+	 * @param codec
+	 * @param compressor 为null时不压缩
+	 * @return
+	 */
+	public static <T> byte[] encode(T object, Codec<T> codec, ValueCompressor compressor) {
+		ByteArrayOutput out = acquireBuffer();
+		try {
+			encode(object, codec, compressor, out);
+			return out.toByteArray();
+		} finally {
+			releaseBuffer(out);
+		}
+	}
+	
+	/**
+	 * 编码并追加到out, 格式与 {@link #encode(Object, Codec, ValueCompressor)} 相同;
+	 * 结果为 out.getBuffer() 中 [写入前的 out.size(), out.size()) 的部分
+	 * @param object
+	 * @param codec
+	 * @param compressor 为null时不压缩
+	 * @param out
+	 * @return 写入的字节数
+	 */
+	public static <T> int encode(T object, Codec<T> codec, ValueCompressor compressor, ByteArrayOutput out) {
+		int mark = out.size();
+		boolean header = codec.getId() != JavaSerializationCodec.ID;
+		try {
+			if (null == compressor) {
+				if (header) {
+					out.write(HEADER_MAGIC);
+					out.write(codec.getId());
+				}
+				codec.encode(object, out);
+				return out.size() - mark;
+			}
+			// 先编码到临时缓冲区, 达到阈值时压缩写入out, 否则原样复制
+			ByteArrayOutput raw = acquireBuffer();
+			try {
+				codec.encode(object, raw);
+				int length = raw.size();
+				if (compressor.shouldCompress(length)) {
+					out.write(HEADER_MAGIC);
+					out.write(codec.getId() | FLAG_COMPRESSED);
+					writeVarInt(out, length);
+					if (compressor.compress(raw.getBuffer(), 0, length, out)) {
+						return out.size() - mark;
+					}
+					out.truncate(mark);
+				}
+				if (header) {
+					out.write(HEADER_MAGIC);
+					out.write(codec.getId());
+				}
+				out.write(raw.getBuffer(), 0, length);
+				return out.size() - mark;
+			} finally {
+				releaseBuffer(raw);
+			}
+		} catch (IOException e) {
+			out.truncate(mark);
+			throw new RuntimeException("encode failed, codec: " + codec.getClass().getName(), e);
+		}
+	}
+	
+	/**
+	 * 从当前线程的缓冲池借用一个空缓冲区, 用完后必须调用 {@link #releaseBuffer(ByteArrayOutput)} 归还, 归还后不能再使用
+	 * @return
+	 */
+	public static ByteArrayOutput acquireBuffer() {
+		BufferPool pool = BUFFERS.get();
+		if (pool.size == 0) {
+			return new ByteArrayOutput(1024);
+		}
+		ByteArrayOutput buffer = pool.free[--pool.size];
+		pool.free[pool.size] = null;
+		return buffer;
+	}
+	
+	/**
+	 * 归还缓冲区; 超过 {@link #MAX_RETAINED_BUFFER} 的缓冲区直接丢弃, 避免长期占用大块内存
+	 * @param buffer
+	 */
+	public static void releaseBuffer(ByteArrayOutput buffer) {
+		BufferPool pool = BUFFERS.get();
+		if (buffer.capacity() > MAX_RETAINED_BUFFER || pool.size == pool.free.length) {
+			return;
+		}
+		buffer.reset();
+		pool.free[pool.size++] = buffer;
+	}
+	
+	/**
+	 * 按数据头选择编解码器解码, 没有数据头的按 Java 序列化处理
+	 * @param bytes
+	 * @return
+	 */
+	public static Object decode(byte[] bytes) {
+		return decode(bytes, null);
+	}
+	
+	/**
+	 * 按数据头选择编解码器解码, 压缩的数据先解压
+	 * @param bytes
+	 * @param compressor 记录解压统计, 可以为null
+	 * @return
+	 */
+	public static Object decode(byte[] bytes, ValueCompressor compressor) {
+		return decode(bytes, null, compressor);
+	}
+	
+	/**
+	 * 数据头中的编码标识与codec相同时使用codec解码, 否则按数据头选择已注册的编解码器;
+	 * 不需要注册的编解码器(例如 {@link PojoCodec})用这个方法读取, 同时兼容用通用编码写入的旧数据
+	 * @param bytes
+	 * @param codec
+	 * @param compressor 记录解压统计, 可以为null
+	 * @return
+	 * @throws RuntimeException 数据无法识别或已损坏, 带数据头的数据与旧的 Java 序列化数据相同
+	 */
+	public static <T> T decode(byte[] bytes, Codec<T> codec, ValueCompressor compressor) {
+		return decode(bytes, codec, compressor, null);
+	}
+	
+	/**
+	 * 同 {@link #decode(byte[], Codec, ValueCompressor)}, 数据中的类名按allowList检查
+	 * @param bytes
+	 * @param codec 可以为null
+	 * @param compressor 记录解压统计, 可以为null
+	 * @param allowList 反序列化白名单, 为null时不限制
+	 * @return
+	 * @throws RuntimeException 数据无法识别、已损坏或类不在白名单中, 带数据头的数据与旧的 Java 序列化数据相同
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T decode(byte[] bytes, Codec<T> codec, ValueCompressor compressor, ClassAllowList allowList) {
+		if (null == bytes) {
+			return null;
+		}
+		Codec<?> decoder;
+		byte[] data = bytes;
+		int offset;
+		try {
+			if (hasHeader(bytes)) {
+				int flags = bytes[1] & 0xF0;
+				if (flags == FLAG_CHUNKED) {
+					throw new IllegalArgumentException("chunked value manifest, read it with RedisUtil.getObject");
+				}
+				int id = bytes[1] & 0x0F;
+				decoder = null != codec && codec.getId() == id ? codec : getCodec(id);
+				if (null == decoder || (flags & ~FLAG_COMPRESSED) != 0) {
+					throw new IllegalArgumentException("unsupported codec header: 0x" + Integer.toHexString(bytes[1] & 0xFF));
+				}
+				offset = HEADER_LENGTH;
+				if (flags == FLAG_COMPRESSED) {
+					// 原始长度(变长编码) + 压缩数据
+					int length = 0;
+					int shift = 0;
+					int b;
+					do {
+						if (offset >= bytes.length || shift > 28) {
+							throw new IOException("Corrupted compressed value header");
+						}
+						b = bytes[offset++] & 0xFF;
+						length |= (b & 0x7F) << shift;
+						shift += 7;
+					} while ((b & 0x80) != 0);
+					data = ValueCompressor.decompress(bytes, offset, bytes.length - offset, length, compressor);
+					offset = 0;
+				}
+			} else if (bytes.length > 0 && (bytes[0] & 0xFF) == JAVA_MAGIC) {
+				decoder = null != codec && codec.getId() == JavaSerializationCodec.ID ? codec : CODECS[JavaSerializationCodec.ID];
+				offset = 0;
+			} else {
+				throw new IllegalArgumentException("unknown data format");
+			}
+			return (T) decoder.decode(data, offset, data.length - offset, allowList);
+		} catch (IOException | RuntimeException e) {
+			throw new RuntimeException("decode failed", e);
+		}
+	}
+	
+	private static void writeVarInt(ByteArrayOutput out, int v) {
+		while ((v & ~0x7F) != 0) {
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+	
+	/**
+	 * 是否以 {@link #HEADER_MAGIC} 开头
+	 * @param bytes
+	 * @return
+	 */
+	public static boolean hasHeader(byte[] bytes) {
+		return null != bytes && bytes.length >= HEADER_LENGTH && (bytes[0] & 0xFF) == HEADER_MAGIC;
+	}
+	
+	/**
+	 * 将对象转换成二进制(Java 序列化), 复用线程内的缓冲区和 ObjectOutputStream
 	 * @param object
 	 * @return  
 	 * @throws 
 	 */
 	public static byte[] serialize(Object object) {
-		ObjectOutputStream oos = null;
-		ByteArrayOutputStream baos = null;
-		byte[] bytes=null;
+		ByteArrayOutput out = acquireBuffer();
 		try {
-			// 序列化
-			baos = new ByteArrayOutputStream();
-			oos = new ObjectOutputStream(baos);
-			oos.writeObject(object);
-			bytes = baos.toByteArray();
-			oos.flush();
+			JAVA_CODEC.encode(object, out);
+			return out.toByteArray();
 		} catch (Exception e) {
 			e.printStackTrace();
-		}finally{
-			if(null!=oos){
-				try {
-					oos.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-			if(null!=baos){
-				try {
-					baos.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
+			return null;
+		} finally {
+			releaseBuffer(out);
+		}
+	}
+	
+	/**
+	 * 将对象的 Java 序列化结果追加到out, 不分配新的数组
+	 * @param object
+	 * @param out
+	 * @return 写入的字节数
+	 */
+	public static int serialize(Object object, ByteArrayOutput out) {
+		int mark = out.size();
+		try {
+			JAVA_CODEC.encode(object, out);
+			return out.size() - mark;
+		} catch (IOException e) {
+			out.truncate(mark);
+			throw new RuntimeException("serialize failed", e);
 		}
-		return bytes;
 	}
 
 	/**
-	 * 二进制转换成对象
+	 * 二进制转换成对象, 按 {@link #decode(byte[])} 解码, 解码失败时返回null<br/>
+	 * 不检查类名, 需要白名单时使用 {@link #decode(byte[], Codec, ValueCompressor, ClassAllowList)}
 	 * @param bytes
 	 * @return  
 	 * @throws 
 	 */
 	public static Object unserialize(byte[] bytes) {
-
-		ByteArrayInputStream bais = null;
-		ObjectInputStream ois =null;
-		Object object=null;
 		try {
-			// 反序列化
-			bais = new ByteArrayInputStream(bytes);
-			ois = new ObjectInputStream(bais);
-			object = ois.readObject();
-			return object;
+			return decode(bytes);
 		} catch (Exception e) {
 			e.printStackTrace();
-		}finally{
-			if(null!=ois){
-				try {
-					ois.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-			if(null!=bais){
-				try {
-					bais.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
+			return null;
 		}
-		return object;
 	}
 }
@@ -0,0 +1,160 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.util.Hashing;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 客户端一致性哈希分片
+ * <p>
+ * 同一组 sentinels 监控多个 master, 每个 master 一个 JedisSentinelPool(各自处理主从切换)。<br/>
+ * key 通过带虚拟节点的一致性哈希环映射到 master; key 中包含 {hashtag} 时只对 hashtag 计算哈希,
+ * 可以让相关的key落在同一个分片上。增删分片时只有相邻区间的key会迁移。
+ *
+ */
+public class ShardedSentinelRouter extends KeyRouter<String>
+{
+    private static final Logger logger = LoggerFactory.getLogger(ShardedSentinelRouter.class);
+
+    private final Map<String, JedisSentinelPool> pools = new LinkedHashMap<String, JedisSentinelPool>();
+
+    private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+
+    /**
+     * @param masterNames
+     *            分片的 master 名称
+     * @param sentinels
+     * @param poolConfig
+     * @param timeOut
+     * @param virtualNodes
+     *            每个分片在哈希环上的虚拟节点数
+     * @param threads
+     *            多key操作并行执行的线程数
+     */
+    public ShardedSentinelRouter(Set<String> masterNames, Set<String> sentinels, GenericObjectPoolConfig poolConfig,
+            int timeOut, int virtualNodes, int threads)
+    {
+        super("redis-shard", threads);
+        for (String masterName : masterNames)
+        {
+            pools.put(masterName, new JedisSentinelPool(masterName, sentinels, poolConfig, timeOut));
+            for (int n = 0; n < virtualNodes; n++)
+            {
+                ring.put(Hashing.MURMUR_HASH.hash("SHARD-" + masterName + "-NODE-" + n), masterName);
+            }
+        }
+        logger.info("redis分片初始化完成, masters: " + masterNames);
+    }
+
+    /**
+     * key所在分片的 master 名称
+     */
+    @Override
+    public String partitionOf(String key)
+    {
+        Map.Entry<Long, String> node = ring.ceilingEntry(Hashing.MURMUR_HASH.hash(hashTag(key)));
+        return null == node ? ring.firstEntry().getValue() : node.getValue();
+    }
+
+    @Override
+    public String partitionOf(byte[] key)
+    {
+        return partitionOf(SafeEncoder.encode(key));
+    }
+
+    @Override
+    public <T> T execute(String masterName, JedisAction<T> action)
+    {
+        Jedis jedis = pools.get(masterName).getResource();
+        try
+        {
+            return action.doInJedis(jedis);
+        }
+        finally
+        {
+            jedis.close();
+        }
+    }
+
+    @Override
+    protected JedisSentinelPool poolOf(String masterName)
+    {
+        return pools.get(masterName);
+    }
+
+    @Override
+    public Jedis getResource(String key)
+    {
+        return pools.get(partitionOf(key)).getResource();
+    }
+
+    @Override
+    public Jedis getResource(byte[] key)
+    {
+        return pools.get(partitionOf(key)).getResource();
+    }
+
+    @Override
+    public List<JedisSentinelPool> getMasterPools()
+    {
+        return new ArrayList<JedisSentinelPool>(pools.values());
+    }
+
+    /**
+     * 分片的连接池, master 名称 -> 连接池
+     *
+     * @return
+     */
+    public Map<String, JedisSentinelPool> getPools()
+    {
+        return pools;
+    }
+
+    @Override
+    protected void closePools()
+    {
+        for (JedisSentinelPool pool : pools.values())
+        {
+            try
+            {
+                pool.destroy();
+            }
+            catch (Exception e)
+            {
+                logger.error("关闭redis分片连接池异常," + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 取 {hashtag} 中的内容, 没有或为空时返回key本身
+     *
+     * @param key
+     * @return
+     */
+    private static String hashTag(String key)
+    {
+        int start = key.indexOf('{');
+        if (start != -1)
+        {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1)
+            {
+                return key.substring(start + 1, end);
+            }
+        }
+        return key;
+    }
+}
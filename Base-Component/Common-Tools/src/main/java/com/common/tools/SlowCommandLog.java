@@ -0,0 +1,258 @@
+package com.common.tools;
+
+import java.beans.ConstructorProperties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import redis.clients.util.Hashing;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 慢命令环形缓冲区
+ * <p>
+ * 记录耗时超过阈值的命令, 容量固定, 写满后覆盖最早的记录。写入只有一次序号自增和一次数组写,
+ * 只有慢命令才会创建记录对象, 正常命令不产生任何分配。
+ *
+ */
+public class SlowCommandLog
+{
+    private final AtomicReferenceArray<Entry> entries;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final long thresholdNanos;
+
+    private final int maxKeyLength;
+
+    private final boolean hashKeys;
+
+    /**
+     * @param size
+     *            保留的记录数
+     * @param thresholdMicros
+     *            慢命令阈值(微秒), 执行耗时与等待连接耗时之和超过该值即记录
+     * @param maxKeyLength
+     *            key超过该长度时截断
+     * @param hashKeys
+     *            为true时只记录key的哈希值, 避免敏感key出现在监控中
+     */
+    public SlowCommandLog(int size, long thresholdMicros, int maxKeyLength, boolean hashKeys)
+    {
+        this.entries = new AtomicReferenceArray<Entry>(Math.max(1, size));
+        this.thresholdNanos = thresholdMicros * 1000;
+        this.maxKeyLength = maxKeyLength;
+        this.hashKeys = hashKeys;
+    }
+
+    public boolean isSlow(long nanos)
+    {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * 记录一条慢命令
+     *
+     * @param command
+     * @param key
+     *            String 或 byte[], 可为null
+     * @param requestBytes
+     *            未知时为-1
+     * @param responseBytes
+     *            未知时为-1
+     * @param waitNanos
+     * @param elapsedNanos
+     * @param failed
+     */
+    public void add(String command, Object key, long requestBytes, long responseBytes, long waitNanos,
+            long elapsedNanos, boolean failed)
+    {
+        long seq = sequence.getAndIncrement();
+        entries.set((int) (seq % entries.length()), new Entry(seq, System.currentTimeMillis(), command, describe(key),
+                requestBytes, responseBytes, waitNanos / 1000, elapsedNanos / 1000, Thread.currentThread().getName(),
+                failed));
+    }
+
+    /**
+     * 缓冲区中的全部记录, 最新的在前
+     *
+     * @return
+     */
+    public List<Entry> getEntries()
+    {
+        return getEntries(entries.length());
+    }
+
+    /**
+     * 最近的若干条记录, 最新的在前
+     *
+     * @param limit
+     * @return
+     */
+    public List<Entry> getEntries(int limit)
+    {
+        List<Entry> result = new ArrayList<Entry>(Math.min(limit, entries.length()));
+        long last = sequence.get() - 1;
+        for (long seq = last; seq >= 0 && seq > last - entries.length() && result.size() < limit; seq--)
+        {
+            Entry entry = entries.get((int) (seq % entries.length()));
+            // 槽位可能已被更新的记录覆盖或尚未写入
+            if (null != entry && entry.getId() == seq)
+            {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 累计记录过的慢命令数(包括已被覆盖的)
+     *
+     * @return
+     */
+    public long getTotal()
+    {
+        return sequence.get();
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < entries.length(); i++)
+        {
+            entries.set(i, null);
+        }
+    }
+
+    private String describe(Object key)
+    {
+        if (null == key)
+        {
+            return null;
+        }
+        byte[] raw = key instanceof byte[] ? (byte[]) key : null;
+        if (hashKeys)
+        {
+            raw = null == raw ? SafeEncoder.encode(key.toString()) : raw;
+            return "#" + Long.toHexString(Hashing.MURMUR_HASH.hash(raw));
+        }
+        String k = null == raw ? key.toString() : SafeEncoder.encode(raw);
+        return k.length() > maxKeyLength ? k.substring(0, maxKeyLength) + "..." : k;
+    }
+
+    /**
+     * 一条慢命令记录, 时间单位为微秒
+     */
+    public static class Entry
+    {
+        private final long id;
+
+        private final long timestamp;
+
+        private final String command;
+
+        private final String key;
+
+        private final long requestBytes;
+
+        private final long responseBytes;
+
+        private final long waitMicros;
+
+        private final long elapsedMicros;
+
+        private final String thread;
+
+        private final boolean failed;
+
+        @ConstructorProperties(
+        {
+                "id", "timestamp", "command", "key", "requestBytes", "responseBytes", "waitMicros", "elapsedMicros",
+                "thread", "failed"
+        })
+        public Entry(long id, long timestamp, String command, String key, long requestBytes, long responseBytes,
+                long waitMicros, long elapsedMicros, String thread, boolean failed)
+        {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.command = command;
+            this.key = key;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.waitMicros = waitMicros;
+            this.elapsedMicros = elapsedMicros;
+            this.thread = thread;
+            this.failed = failed;
+        }
+
+        public long getId()
+        {
+            return id;
+        }
+
+        /**
+         * 记录时间(毫秒时间戳)
+         */
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public String getCommand()
+        {
+            return command;
+        }
+
+        /**
+         * 截断或哈希后的key, 没有路由key的命令为null
+         */
+        public String getKey()
+        {
+            return key;
+        }
+
+        public long getRequestBytes()
+        {
+            return requestBytes;
+        }
+
+        public long getResponseBytes()
+        {
+            return responseBytes;
+        }
+
+        /**
+         * 等待连接池的耗时
+         */
+        public long getWaitMicros()
+        {
+            return waitMicros;
+        }
+
+        /**
+         * 命令执行耗时, 不含等待连接的时间
+         */
+        public long getElapsedMicros()
+        {
+            return elapsedMicros;
+        }
+
+        public String getThread()
+        {
+            return thread;
+        }
+
+        public boolean isFailed()
+        {
+            return failed;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "command=" + command + ", key=" + key + ", requestBytes=" + requestBytes + ", responseBytes="
+                    + responseBytes + ", wait=" + waitMicros + "us, elapsed=" + elapsedMicros + "us, thread=" + thread
+                    + (failed ? ", failed" : "");
+        }
+    }
+}
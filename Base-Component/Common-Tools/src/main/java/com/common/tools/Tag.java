@@ -0,0 +1,26 @@
+package com.common.tools;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记由 {@link PojoCodec} 编码的字段及其编号
+ * <p>
+ * 编号写入数据中代替字段名, 同一个类(含父类)中不能重复; 字段改名不影响已有数据, 删除字段后不要复用它的编号。
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Tag
+{
+    /**
+     * 字段编号, 1 ~ 2^28-1, 小于16时占1个字节
+     *
+     * @return
+     */
+    int value();
+}
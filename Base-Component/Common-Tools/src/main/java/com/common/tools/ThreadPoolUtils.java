@@ -1,7 +1,12 @@
 package com.common.tools;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 import org.springframework.beans.factory.InitializingBean;
 
@@ -32,4 +37,93 @@ public class ThreadPoolUtils implements InitializingBean
     {
         return executorService;
     }
+
+    /**
+     * 对 [0, size) 的每个下标执行action, 按batchSize分段后由线程池和调用线程一起执行<br/>
+     * 分段由执行线程依次领取, 调用线程执行完自己领取的分段后只等待已被领取的分段, 线程池繁忙或未初始化时全部由调用线程执行,
+     * 不会因为等待排队的任务而阻塞。任一分段抛出异常时, 等待全部分段结束后抛出第一个异常。
+     * 
+     * @param size
+     * @param batchSize
+     *            每段的下标数, 不大于0或不小于size时直接在调用线程执行
+     * @param action
+     */
+    public static void parallelFor(int size, int batchSize, final IntConsumer action)
+    {
+        ExecutorService executor = executorService;
+        if (null == executor || batchSize <= 0 || size <= batchSize)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                action.accept(i);
+            }
+            return;
+        }
+        final int step = batchSize;
+        final int total = size;
+        final int batches = (size + batchSize - 1) / batchSize;
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(batches);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Runnable worker = new Runnable()
+        {
+            public void run()
+            {
+                int batch;
+                while ((batch = next.getAndIncrement()) < batches)
+                {
+                    try
+                    {
+                        int end = Math.min(total, (batch + 1) * step);
+                        for (int i = batch * step; i < end; i++)
+                        {
+                            action.accept(i);
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        error.compareAndSet(null, e);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        try
+        {
+            for (int i = 1; i < batches; i++)
+            {
+                executor.execute(worker);
+            }
+        }
+        catch (RejectedExecutionException e)
+        {
+            // 剩余分段由调用线程执行
+        }
+        worker.run();
+        try
+        {
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        Throwable e = error.get();
+        if (e instanceof RuntimeException)
+        {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error)
+        {
+            throw (Error) e;
+        }
+        if (null != e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,347 @@
+package com.common.tools;
+
+import java.beans.ConstructorProperties;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 值压缩
+ * <p>
+ * 编码结果不小于阈值时用 Deflate(raw, 无 zlib 头)压缩, 压缩后不变小则保留原始数据。
+ * 是否压缩记录在数据头的标志位中(见 {@link SerializeUtil#FLAG_COMPRESSED}), 读取时自动解压,
+ * 因此关闭压缩或调整阈值后旧数据仍可读取。<br/>
+ * Deflater/Inflater 按线程复用, 记录压缩比和压缩、解压耗时。
+ *
+ */
+public class ValueCompressor
+{
+    private static final ThreadLocal<Deflater[]> deflaters = new ThreadLocal<Deflater[]>()
+    {
+        @Override
+        protected Deflater[] initialValue()
+        {
+            return new Deflater[10];
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>()
+    {
+        @Override
+        protected Inflater initialValue()
+        {
+            return new Inflater(true);
+        }
+    };
+
+    private final int threshold;
+
+    private final int level;
+
+    private final LongAdder compressed = new LongAdder();
+
+    private final LongAdder incompressible = new LongAdder();
+
+    private final LongAdder rawBytes = new LongAdder();
+
+    private final LongAdder compressedBytes = new LongAdder();
+
+    private final LongAdder compressNanos = new LongAdder();
+
+    private final LongAdder decompressed = new LongAdder();
+
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * @param threshold
+     *            编码结果达到该字节数时压缩
+     * @param level
+     *            Deflater 压缩级别 0~9, 默认 {@link Deflater#BEST_SPEED}
+     */
+    public ValueCompressor(int threshold, int level)
+    {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+        {
+            throw new IllegalArgumentException("compress level must be between 0 and 9: " + level);
+        }
+        this.threshold = Math.max(threshold, 0);
+        this.level = level;
+    }
+
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * 是否需要尝试压缩
+     *
+     * @param length
+     * @return
+     */
+    public boolean shouldCompress(int length)
+    {
+        return length >= threshold;
+    }
+
+    /**
+     * 压缩 src[off, off + len) 并追加到out, 压缩后不小于原始长度时回退out并返回false
+     *
+     * @param src
+     * @param off
+     * @param len
+     * @param out
+     * @return 是否已压缩
+     */
+    public boolean compress(byte[] src, int off, int len, ByteArrayOutput out)
+    {
+        long start = System.nanoTime();
+        Deflater deflater = deflater();
+        int mark = out.size();
+        try
+        {
+            deflater.setInput(src, off, len);
+            deflater.finish();
+            while (!deflater.finished())
+            {
+                int room = len - (out.size() - mark);
+                if (room <= 0)
+                {
+                    break;
+                }
+                out.ensureCapacity(Math.min(room, 64 * 1024));
+                byte[] buf = out.getBuffer();
+                int n = deflater.deflate(buf, out.size(), Math.min(room, buf.length - out.size()));
+                out.skip(n);
+            }
+            boolean smaller = deflater.finished() && out.size() - mark < len;
+            compressNanos.add(System.nanoTime() - start);
+            if (!smaller)
+            {
+                out.truncate(mark);
+                incompressible.increment();
+                return false;
+            }
+            compressed.increment();
+            rawBytes.add(len);
+            compressedBytes.add(out.size() - mark);
+            return true;
+        }
+        finally
+        {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * 解压, 统计记录到compressor(可以为null)
+     *
+     * @param src
+     * @param off
+     * @param len
+     * @param originalLength
+     *            原始数据长度
+     * @param compressor
+     * @return
+     * @throws IOException
+     */
+    public static byte[] decompress(byte[] src, int off, int len, int originalLength, ValueCompressor compressor)
+            throws IOException
+    {
+        // Deflate 的压缩比上限约为 1032:1, 超出说明长度字段已损坏, 避免按错误的长度分配内存
+        if (originalLength < 0 || originalLength > (long) len * 1032 + 64)
+        {
+            throw new IOException("Corrupted compressed value, invalid length " + originalLength);
+        }
+        long start = System.nanoTime();
+        Inflater inflater = inflaters.get();
+        try
+        {
+            inflater.setInput(src, off, len);
+            byte[] raw = new byte[originalLength];
+            int n = 0;
+            while (n < originalLength)
+            {
+                int read = inflater.inflate(raw, n, originalLength - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                n += read;
+            }
+            if (n != originalLength)
+            {
+                throw new IOException("Corrupted compressed value, expected " + originalLength + " bytes, got " + n);
+            }
+            if (null != compressor)
+            {
+                compressor.decompressed.increment();
+                compressor.decompressNanos.add(System.nanoTime() - start);
+            }
+            return raw;
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Corrupted compressed value", e);
+        }
+        finally
+        {
+            inflater.reset();
+        }
+    }
+
+    private Deflater deflater()
+    {
+        Deflater[] cache = deflaters.get();
+        Deflater deflater = cache[level];
+        if (null == deflater)
+        {
+            deflater = new Deflater(level, true);
+            cache[level] = deflater;
+        }
+        return deflater;
+    }
+
+    /**
+     * 当前的统计
+     *
+     * @return
+     */
+    public Stats getStats()
+    {
+        return new Stats(compressed.sum(), incompressible.sum(), rawBytes.sum(), compressedBytes.sum(),
+                compressNanos.sum(), decompressed.sum(), decompressNanos.sum());
+    }
+
+    public void reset()
+    {
+        compressed.reset();
+        incompressible.reset();
+        rawBytes.reset();
+        compressedBytes.reset();
+        compressNanos.reset();
+        decompressed.reset();
+        decompressNanos.reset();
+    }
+
+    /**
+     * 压缩统计, 时间单位为微秒
+     */
+    public static class Stats
+    {
+        private final long compressedCount;
+
+        private final long incompressibleCount;
+
+        private final long rawBytes;
+
+        private final long compressedBytes;
+
+        private final double compressRatio;
+
+        private final double meanCompressMicros;
+
+        private final long decompressedCount;
+
+        private final double meanDecompressMicros;
+
+        private Stats(long compressedCount, long incompressibleCount, long rawBytes, long compressedBytes,
+                long compressNanos, long decompressedCount, long decompressNanos)
+        {
+            this(compressedCount, incompressibleCount, rawBytes, compressedBytes,
+                    compressedBytes == 0 ? 0 : (double) rawBytes / compressedBytes,
+                    compressedCount + incompressibleCount == 0 ? 0
+                            : compressNanos / 1000.0 / (compressedCount + incompressibleCount),
+                    decompressedCount, decompressedCount == 0 ? 0 : decompressNanos / 1000.0 / decompressedCount);
+        }
+
+        @ConstructorProperties(
+        {
+                "compressedCount", "incompressibleCount", "rawBytes", "compressedBytes", "compressRatio",
+                "meanCompressMicros", "decompressedCount", "meanDecompressMicros"
+        })
+        public Stats(long compressedCount, long incompressibleCount, long rawBytes, long compressedBytes,
+                double compressRatio, double meanCompressMicros, long decompressedCount, double meanDecompressMicros)
+        {
+            this.compressedCount = compressedCount;
+            this.incompressibleCount = incompressibleCount;
+            this.rawBytes = rawBytes;
+            this.compressedBytes = compressedBytes;
+            this.compressRatio = compressRatio;
+            this.meanCompressMicros = meanCompressMicros;
+            this.decompressedCount = decompressedCount;
+            this.meanDecompressMicros = meanDecompressMicros;
+        }
+
+        /**
+         * 压缩后写入的值个数
+         */
+        public long getCompressedCount()
+        {
+            return compressedCount;
+        }
+
+        /**
+         * 达到阈值但压缩后没有变小、按原始数据写入的值个数
+         */
+        public long getIncompressibleCount()
+        {
+            return incompressibleCount;
+        }
+
+        /**
+         * 已压缩的值的原始字节数
+         */
+        public long getRawBytes()
+        {
+            return rawBytes;
+        }
+
+        public long getCompressedBytes()
+        {
+            return compressedBytes;
+        }
+
+        /**
+         * 原始字节数 / 压缩后字节数
+         */
+        public double getCompressRatio()
+        {
+            return compressRatio;
+        }
+
+        /**
+         * 每次尝试压缩的平均耗时(含未变小的)
+         */
+        public double getMeanCompressMicros()
+        {
+            return meanCompressMicros;
+        }
+
+        public long getDecompressedCount()
+        {
+            return decompressedCount;
+        }
+
+        public double getMeanDecompressMicros()
+        {
+            return meanDecompressMicros;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "compressed=" + compressedCount + ", incompressible=" + incompressibleCount + ", ratio="
+                    + String.format("%.2f", compressRatio) + ", compress=" + String.format("%.1f", meanCompressMicros)
+                    + "us, decompressed=" + decompressedCount + ", decompress="
+                    + String.format("%.1f", meanDecompressMicros) + "us";
+        }
+    }
+}
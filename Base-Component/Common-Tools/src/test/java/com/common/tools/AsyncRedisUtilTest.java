@@ -0,0 +1,147 @@
+package com.common.tools;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * AsyncRedisUtil: 结果与同步调用相同、Redis 错误使 future 异常结束、线程池和队列满时立即返回失败的 future
+ */
+public class AsyncRedisUtilTest extends EmbeddedRedisTestCase
+{
+    private AsyncRedisUtil async;
+
+    public AsyncRedisUtilTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(AsyncRedisUtilTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        async = new AsyncRedisUtil(redis);
+        async.setIoThreads(4);
+        async.setQueueCapacity(16);
+        async.afterPropertiesSet();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        async.destroy();
+        super.tearDown();
+    }
+
+    public void testSameResultsAsRedisUtil() throws Exception
+    {
+        assertEquals("OK", get(async.set("k", "v")));
+        assertEquals("v", get(async.get("k")));
+        assertEquals(redis.get("k"), get(async.get("k")));
+        assertNull(get(async.get("missing")));
+        assertEquals(Long.valueOf(5), get(async.incrBy("n", 5)));
+        assertEquals(Long.valueOf(1), get(async.hset("h", "f", "x")));
+        assertEquals(redis.hgetall("h"), get(async.hgetall("h")));
+        assertEquals(Arrays.asList("v", null, "5"), get(async.mget("k", "missing", "n")));
+        assertEquals("OK", get(async.setObject("o", Collections.singletonList("a"))));
+        assertEquals(Collections.singletonList("a"), get(async.getObject("o")));
+        assertEquals(Boolean.TRUE, get(async.exists("k")));
+        assertEquals("v", get(async.submit(r -> r.get("k"))));
+
+        // 互不依赖的读取并行发出
+        CompletableFuture<String> a = async.get("k");
+        CompletableFuture<String> n = async.get("n");
+        assertEquals("v5", CompletableFuture.allOf(a, n).thenApply(ignored -> a.join() + n.join()).get(5,
+                TimeUnit.SECONDS));
+    }
+
+    public void testRedisErrorCompletesExceptionally() throws Exception
+    {
+        redis.hset("h", "f", "v");
+        CompletableFuture<String> future = async.get("h");
+        try
+        {
+            get(future);
+            fail("WRONGTYPE expected");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(future.isCompletedExceptionally());
+            assertTrue(String.valueOf(e.getCause()), e.getCause().toString().contains("WRONGTYPE"));
+        }
+        // 连接归还后仍可使用
+        assertEquals(Long.valueOf(1), get(async.hlen("h")));
+    }
+
+    public void testSaturatedPoolFailsFast() throws Exception
+    {
+        AsyncRedisUtil small = new AsyncRedisUtil(redis);
+        small.setIoThreads(1);
+        small.setQueueCapacity(1);
+        small.init();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try
+        {
+            CompletableFuture<String> running = small.submit(r -> {
+                started.countDown();
+                await(release);
+                return r.get("k");
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            CompletableFuture<String> queued = small.get("k");
+
+            long start = System.nanoTime();
+            CompletableFuture<String> rejected = small.get("k");
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            assertTrue(rejected.isCompletedExceptionally());
+            try
+            {
+                rejected.join();
+                fail("saturated pool should reject");
+            }
+            catch (RuntimeException e)
+            {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+
+            release.countDown();
+            assertNull(get(running));
+            assertNull(get(queued));
+        }
+        finally
+        {
+            release.countDown();
+            small.destroy();
+        }
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception
+    {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.common.tools;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * BinaryCodec 编解码及新旧数据兼容
+ */
+public class BinaryCodecTest extends TestCase
+{
+    private final BinaryCodec codec = new BinaryCodec();
+
+    public BinaryCodecTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(BinaryCodecTest.class);
+    }
+
+    public void testBasicValues()
+    {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("int", 42);
+        map.put("long", -7L);
+        map.put("double", 1.5d);
+        map.put("string", "中文 text");
+        map.put("bytes", new byte[] { 1, 2, 3 });
+        map.put("ints", new int[] { 1, -1, Integer.MAX_VALUE });
+        map.put("date", new Date(1234567890L));
+        map.put("list", new ArrayList<Object>(Arrays.asList("a", null, 3)));
+        map.put("enum", Color.GREEN);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> copy = (Map<String, Object>) roundTrip(map);
+        assertEquals(42, copy.get("int"));
+        assertEquals(-7L, copy.get("long"));
+        assertEquals(1.5d, copy.get("double"));
+        assertEquals("中文 text", copy.get("string"));
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, (byte[]) copy.get("bytes")));
+        assertTrue(Arrays.equals(new int[] { 1, -1, Integer.MAX_VALUE }, (int[]) copy.get("ints")));
+        assertEquals(new Date(1234567890L), copy.get("date"));
+        assertEquals(Arrays.asList("a", null, 3), copy.get("list"));
+        assertSame(Color.GREEN, copy.get("enum"));
+    }
+
+    public void testCyclicAndSharedReferences()
+    {
+        Node a = new Node("a");
+        Node b = new Node("b");
+        a.next = b;
+        b.next = a;
+        a.children.add(b);
+        a.children.add(b);
+
+        Node copy = (Node) roundTrip(a);
+        assertEquals("a", copy.name);
+        assertEquals("b", copy.next.name);
+        assertSame(copy, copy.next.next);
+        assertEquals(2, copy.children.size());
+        assertSame(copy.next, copy.children.get(0));
+        assertSame(copy.next, copy.children.get(1));
+    }
+
+    public void testSuperclassFields()
+    {
+        Child child = new Child();
+        child.value = "child";
+        ((Parent) child).value = "parent";
+        child.id = 9;
+
+        Child copy = (Child) roundTrip(child);
+        assertEquals("child", copy.value);
+        assertEquals("parent", ((Parent) copy).value);
+        assertEquals(9, copy.id);
+    }
+
+    public void testCustomWriteObject()
+    {
+        CustomWrite obj = new CustomWrite();
+        obj.name = "custom";
+        obj.derived = 6;
+
+        CustomWrite copy = (CustomWrite) roundTrip(obj);
+        assertEquals("custom", copy.name);
+        // transient 字段由 readObject 恢复
+        assertEquals(6, copy.derived);
+    }
+
+    public void testJdkSubclassFallsBackToJavaSerialization()
+    {
+        NamedList list = new NamedList();
+        list.label = "labels";
+        list.add("x");
+        list.add("y");
+
+        NamedList copy = (NamedList) roundTrip(list);
+        assertEquals(NamedList.class, copy.getClass());
+        assertEquals("labels", copy.label);
+        assertEquals(Arrays.asList("x", "y"), copy);
+    }
+
+    public void testClassWithoutNoArgConstructorFallsBackToJavaSerialization()
+    {
+        NoDefault obj = new NoDefault(5);
+        obj.note = "n";
+
+        NoDefault copy = (NoDefault) roundTrip(obj);
+        assertEquals(5, copy.x);
+        assertEquals("n", copy.note);
+    }
+
+    public void testNotSerializableIsRejected()
+    {
+        try
+        {
+            SerializeUtil.encode(new Object(), codec);
+            fail("expected failure");
+        }
+        catch (RuntimeException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * 旧版本的类写入的数据用新版本的类读取: 删除的字段被跳过, 新增的字段为默认值
+     */
+    public void testFieldAddedAndRemoved() throws Exception
+    {
+        PersonV1 v1 = new PersonV1();
+        v1.name = "tom";
+        v1.age = 30;
+        v1.removed = "gone";
+
+        byte[] bytes = renameClass(SerializeUtil.encode(v1, codec), PersonV1.class, PersonV2.class);
+        PersonV2 v2 = (PersonV2) SerializeUtil.decode(bytes);
+        assertEquals("tom", v2.name);
+        assertEquals(30, v2.age);
+        assertEquals(0L, v2.added);
+
+        v2.added = 99L;
+        PersonV1 back = (PersonV1) SerializeUtil.decode(renameClass(SerializeUtil.encode(v2, codec), PersonV2.class,
+                PersonV1.class));
+        assertEquals("tom", back.name);
+        assertEquals(30, back.age);
+        assertNull(back.removed);
+    }
+
+    public void testTruncatedPayloadFails()
+    {
+        Node a = new Node("truncated");
+        a.children.add(new Node("child"));
+        byte[] bytes = SerializeUtil.encode(a, codec);
+        for (int length = 0; length < bytes.length; length++)
+        {
+            try
+            {
+                SerializeUtil.decode(Arrays.copyOf(bytes, length));
+                fail("decoded a payload truncated to " + length + " bytes");
+            }
+            catch (RuntimeException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * 损坏的数据只能抛出 RuntimeException, 不能出现 Error(例如按损坏的长度分配超大数组)
+     */
+    public void testCorruptPayloadFailsCleanly()
+    {
+        Node a = new Node("corrupt");
+        a.next = new Node("next");
+        a.children.add(a.next);
+        byte[] bytes = SerializeUtil.encode(a, codec);
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++)
+        {
+            byte[] corrupt = bytes.clone();
+            int pos = SerializeUtil.HEADER_LENGTH + random.nextInt(corrupt.length - SerializeUtil.HEADER_LENGTH);
+            corrupt[pos] = (byte) random.nextInt(256);
+            try
+            {
+                SerializeUtil.decode(corrupt);
+            }
+            catch (RuntimeException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * 带数据头的数据与旧的 Java 序列化数据解码失败时的表现相同
+     */
+    public void testDecodeFailureIsConsistentAcrossFormats()
+    {
+        byte[] binary = SerializeUtil.encode("value", codec);
+        byte[] legacy = SerializeUtil.serialize("value");
+        assertEquals("value", SerializeUtil.decode(binary));
+        assertEquals("value", SerializeUtil.decode(legacy));
+        assertDecodeFails(Arrays.copyOf(binary, binary.length - 1));
+        assertDecodeFails(Arrays.copyOf(legacy, legacy.length - 1));
+        assertNull(SerializeUtil.unserialize(Arrays.copyOf(binary, binary.length - 1)));
+        assertNull(SerializeUtil.unserialize(Arrays.copyOf(legacy, legacy.length - 1)));
+    }
+
+    private static void assertDecodeFails(byte[] bytes)
+    {
+        try
+        {
+            SerializeUtil.decode(bytes);
+            fail("expected decode failure");
+        }
+        catch (RuntimeException e)
+        {
+            assertEquals("decode failed", e.getMessage());
+        }
+    }
+
+    private Object roundTrip(Object obj)
+    {
+        byte[] bytes = SerializeUtil.encode(obj, codec);
+        assertTrue(SerializeUtil.hasHeader(bytes));
+        return SerializeUtil.decode(bytes);
+    }
+
+    /**
+     * 把数据中的类名替换成另一个同样长度的类名, 模拟类的版本变化
+     */
+    private static byte[] renameClass(byte[] bytes, Class<?> from, Class<?> to)
+    {
+        byte[] source = from.getName().getBytes();
+        byte[] target = to.getName().getBytes();
+        assertEquals(source.length, target.length);
+        for (int i = 0; i + source.length <= bytes.length; i++)
+        {
+            if (Arrays.equals(source, Arrays.copyOfRange(bytes, i, i + source.length)))
+            {
+                byte[] renamed = bytes.clone();
+                System.arraycopy(target, 0, renamed, i, target.length);
+                return renamed;
+            }
+        }
+        throw new AssertionError("class name not found in payload");
+    }
+
+    enum Color
+    {
+        RED, GREEN
+    }
+
+    static class Node implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        String name;
+
+        Node next;
+
+        List<Node> children = new ArrayList<Node>();
+
+        Node()
+        {
+        }
+
+        Node(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    static class Parent implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        String value;
+    }
+
+    static class Child extends Parent
+    {
+        private static final long serialVersionUID = 1L;
+
+        String value;
+
+        int id;
+    }
+
+    static class CustomWrite implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        String name;
+
+        transient int derived;
+
+        private void writeObject(ObjectOutputStream out) throws IOException
+        {
+            out.defaultWriteObject();
+            out.writeInt(derived);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+        {
+            in.defaultReadObject();
+            derived = in.readInt();
+        }
+    }
+
+    static class NamedList extends ArrayList<String>
+    {
+        private static final long serialVersionUID = 1L;
+
+        String label;
+    }
+
+    static class NoDefault implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int x;
+
+        String note;
+
+        NoDefault(int x)
+        {
+            this.x = x;
+        }
+    }
+
+    static class PersonV1 implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        String name;
+
+        int age;
+
+        String removed;
+    }
+
+    static class PersonV2 implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        String name;
+
+        int age;
+
+        long added;
+    }
+}
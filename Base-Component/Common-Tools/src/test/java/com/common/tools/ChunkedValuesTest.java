@@ -0,0 +1,125 @@
+package com.common.tools;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import redis.clients.jedis.Jedis;
+
+/**
+ * 分块存储的值随 del/expire/persist/rename 一起处理分块
+ */
+public class ChunkedValuesTest extends EmbeddedRedisTestCase
+{
+    private Jedis jedis;
+
+    public ChunkedValuesTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ChunkedValuesTest.class);
+    }
+
+    @Override
+    protected void configure(RedisUtil redis)
+    {
+        redis.setChunkThreshold(10000);
+        redis.setChunkSize(4096);
+        redis.setChunkGraceSeconds(5);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        jedis = new Jedis(server.getHostAndPort().getHost(), server.getPort());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        jedis.close();
+        super.tearDown();
+    }
+
+    public void testRoundTrip()
+    {
+        byte[] value = randomBytes(50000);
+        redis.setObject("big", value);
+        assertEquals(13, chunks("big").size());
+        assertTrue(Arrays.equals(value, (byte[]) redis.getObject("big")));
+    }
+
+    public void testDelRemovesChunks()
+    {
+        redis.setObject("big", randomBytes(50000));
+        redis.set("small", "v");
+        assertEquals(2, redis.del("big", "small", "missing"));
+        assertTrue(chunks("big").isEmpty());
+        assertNull(redis.getObject("big"));
+    }
+
+    public void testExpireAndPersistApplyToChunks()
+    {
+        redis.setObject("big", randomBytes(50000));
+        for (String chunk : chunks("big"))
+        {
+            assertEquals(-1L, (long) jedis.ttl(chunk));
+        }
+
+        assertEquals(1, redis.expired("big", 100));
+        for (String chunk : chunks("big"))
+        {
+            long ttl = jedis.ttl(chunk);
+            assertTrue("chunk ttl " + ttl, ttl > 100 && ttl <= 105);
+        }
+
+        assertEquals(1, redis.persist("big"));
+        for (String chunk : chunks("big"))
+        {
+            assertEquals(-1L, (long) jedis.ttl(chunk));
+        }
+    }
+
+    public void testRenameMovesChunks()
+    {
+        byte[] value = randomBytes(50000);
+        redis.setObject("big", value);
+        redis.setObject("other", randomBytes(30000));
+        Set<String> replaced = chunks("other");
+
+        assertEquals("OK", redis.rename("big", "other"));
+        assertTrue(chunks("big").isEmpty());
+        assertTrue(Arrays.equals(value, (byte[]) redis.getObject("other")));
+        // 被覆盖的值的分块在宽限期后过期
+        for (String chunk : replaced)
+        {
+            long ttl = jedis.ttl(chunk);
+            assertTrue("chunk ttl " + ttl, ttl > 0 && ttl <= 5);
+        }
+
+        redis.set("taken", "v");
+        assertEquals(0, redis.renamenx("other", "taken"));
+        assertEquals(1, redis.renamenx("other", "free"));
+        assertTrue(Arrays.equals(value, (byte[]) redis.getObject("free")));
+        assertEquals(1, redis.delObject("free"));
+        assertTrue(chunks("free").isEmpty());
+    }
+
+    private Set<String> chunks(String key)
+    {
+        return jedis.keys("{" + key + "}:chunk:*");
+    }
+
+    private static byte[] randomBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,117 @@
+package com.common.tools;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * 反序列化白名单
+ */
+public class ClassAllowListTest extends TestCase
+{
+    private static final ClassAllowList DEFAULTS = ClassAllowList.of(Collections.<String> emptyList());
+
+    public ClassAllowListTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ClassAllowListTest.class);
+    }
+
+    public void testDefaultsAreExplicitClasses()
+    {
+        assertTrue(DEFAULTS.allows("java.util.HashMap"));
+        assertTrue(DEFAULTS.allows("[Ljava.lang.String;"));
+        assertTrue(DEFAULTS.allows("[[I"));
+        // 默认白名单不按包放行, java.util 的子包不允许
+        assertFalse(DEFAULTS.allows("java.util.logging.Level"));
+        assertFalse(DEFAULTS.allows("java.util.PriorityQueue"));
+        assertFalse(DEFAULTS.allows(Payload.class.getName()));
+    }
+
+    public void testPatterns()
+    {
+        ClassAllowList list = ClassAllowList.of(Arrays.asList("com.common.*", "java.util.logging.Level"));
+        assertTrue(list.allows(Payload.class.getName()));
+        assertTrue(list.allows("[L" + Payload.class.getName() + ";"));
+        assertTrue(list.allows("java.util.logging.Level"));
+        assertFalse(list.allows("org.example.Payload"));
+    }
+
+    public void testJdkValuesDecodeWithDefaults()
+    {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("list", new ArrayList<Object>(Arrays.asList(1, "a")));
+        map.put("date", new Date(1L));
+        map.put("decimal", new BigDecimal("1.5"));
+        map.put("unmodifiable", Collections.unmodifiableList(Arrays.asList("x")));
+
+        assertEquals(map, decode(SerializeUtil.serialize(map), DEFAULTS));
+        assertEquals(map, decode(SerializeUtil.encode(map, new BinaryCodec()), DEFAULTS));
+    }
+
+    public void testRejectedClassFailsForBothFormats()
+    {
+        Payload payload = new Payload();
+        assertRejected(SerializeUtil.serialize(payload), DEFAULTS);
+        assertRejected(SerializeUtil.encode(payload, new BinaryCodec()), DEFAULTS);
+        assertRejected(SerializeUtil.serialize(Level.INFO), DEFAULTS);
+
+        List<Object> nested = new ArrayList<Object>();
+        nested.add(payload);
+        assertRejected(SerializeUtil.encode(nested, new BinaryCodec()), DEFAULTS);
+    }
+
+    /**
+     * 白名单属于每次解码, 不同调用方互不影响
+     */
+    public void testAllowListsAreIndependent()
+    {
+        byte[] bytes = SerializeUtil.serialize(new Payload());
+        ClassAllowList allowed = ClassAllowList.of(Collections.singleton(Payload.class.getName()));
+
+        assertTrue(decode(bytes, allowed) instanceof Payload);
+        assertRejected(bytes, DEFAULTS);
+        assertTrue(decode(bytes, null) instanceof Payload);
+        assertTrue(decode(bytes, allowed) instanceof Payload);
+    }
+
+    private static Object decode(byte[] bytes, ClassAllowList allowList)
+    {
+        return SerializeUtil.decode(bytes, null, null, allowList);
+    }
+
+    private static void assertRejected(byte[] bytes, ClassAllowList allowList)
+    {
+        try
+        {
+            decode(bytes, allowList);
+            fail("expected rejection");
+        }
+        catch (RuntimeException e)
+        {
+            assertTrue(String.valueOf(e.getCause()), e.getCause().getMessage().contains("not allowed"));
+        }
+    }
+
+    static class Payload implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        String value = "v";
+    }
+}
@@ -0,0 +1,2129 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.util.JedisClusterCRC16;
+
+/**
+ * 进程内的 Redis 替身
+ * <p>
+ * 实现 RedisUtil 用到的字符串、hash、list、set、sorted set、键管理、事务(MULTI/EXEC/WATCH)和发布订阅命令,
+ * 配合 {@link EmbeddedSentinel} 可以在没有任何外部服务的情况下运行 RedisUtil 的测试、基准和主从切换演练:
+ *
+ * <pre>
+ * EmbeddedRedisServer server = new EmbeddedRedisServer(0);
+ * server.start();
+ * EmbeddedSentinel sentinel = new EmbeddedSentinel("master", server.getHostAndPort(), 0);
+ * sentinel.start();
+ * redisUtil.setSentinels(Collections.singleton(sentinel.getHostAndPort().toString()));
+ * </pre>
+ *
+ * 所有命令在同一把锁内执行, 事务天然是原子的; 过期key在访问时惰性删除。只用于测试, 不追求与 Redis 的性能和边界行为完全一致。<br/>
+ * SCRIPT LOAD/EXISTS/FLUSH 和 NOSCRIPT 的行为与 Redis 相同, 脚本由 LuaJ 执行({@link LuaScripting}), 测试的是脚本本身。<br/>
+ * {@link #setSlotOwners(HostAndPort[])} 之后作为集群节点运行, 应答 CLUSTER SLOTS 和 ASKING, 按槽位回复 MOVED/ASK/CROSSSLOT。
+ *
+ */
+public class EmbeddedRedisServer extends RespServer
+{
+    private static final String WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+
+    private static final String NOT_INTEGER = "ERR value is not an integer or out of range";
+
+    private static final String NOT_FLOAT = "ERR value is not a valid float";
+
+    private static final String SYNTAX = "ERR syntax error";
+
+    private static final Set<String> COMMANDS = new HashSet<String>(Arrays.asList("PING", "ECHO", "SELECT",
+            "CLIENT", "INFO", "DBSIZE", "FLUSHALL", "FLUSHDB", "DEL", "EXISTS", "EXPIRE", "PEXPIRE", "EXPIREAT",
+            "PEXPIREAT", "PERSIST", "TTL", "PTTL", "TYPE", "KEYS", "SCAN", "RENAME", "RENAMENX", "SORT", "GET", "SET",
+            "SETEX", "PSETEX", "SETNX", "GETSET", "MGET", "MSET", "APPEND", "STRLEN", "INCR", "DECR", "INCRBY",
+            "DECRBY", "GETRANGE", "SETRANGE", "SETBIT", "GETBIT", "BITCOUNT", "HGET", "HSET", "HSETNX", "HMSET",
+            "HMGET", "HGETALL", "HDEL", "HEXISTS", "HLEN", "HKEYS", "HVALS", "HINCRBY", "HSCAN", "LPUSH", "RPUSH",
+            "LPOP", "RPOP", "LLEN", "LRANGE", "LINDEX", "LSET", "LREM", "LTRIM", "LINSERT", "RPOPLPUSH",
+            "BRPOPLPUSH", "SADD", "SREM", "SMEMBERS", "SISMEMBER", "SCARD", "SPOP", "SMOVE", "SINTER", "SUNION",
+            "SDIFF", "SINTERSTORE", "SUNIONSTORE", "SDIFFSTORE", "SSCAN", "ZADD", "ZREM", "ZSCORE", "ZINCRBY",
+            "ZCARD", "ZCOUNT", "ZRANK", "ZREVRANK", "ZRANGE", "ZREVRANGE", "ZRANGEBYSCORE", "ZREVRANGEBYSCORE",
+            "ZREMRANGEBYRANK", "ZREMRANGEBYSCORE", "ZSCAN", "SCRIPT", "EVAL", "EVALSHA", "PUBLISH"));
+
+    /**
+     * 不带key的命令, 集群模式下不检查槽位
+     */
+    private static final Set<String> KEYLESS = new HashSet<String>(Arrays.asList("PING", "ECHO", "SELECT", "CLIENT",
+            "INFO", "DBSIZE", "FLUSHALL", "FLUSHDB", "KEYS", "SCAN", "SCRIPT", "PUBLISH", "MULTI", "EXEC", "DISCARD",
+            "UNWATCH"));
+
+    private final Map<String, Object> data = new HashMap<String, Object>();
+
+    private final Map<String, Long> expires = new HashMap<String, Long>();
+
+    /**
+     * key的修改版本号, 用于 WATCH
+     */
+    private final Map<String, Long> versions = new HashMap<String, Long>();
+
+    private long versionSeq = 0;
+
+    /**
+     * SCAN 系列命令的游标 -> 上一批最后一个元素, 按元素顺序续扫, 扫描期间一直存在的元素不会遗漏
+     */
+    private final Map<Long, String> cursors = new LinkedHashMap<Long, String>()
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, String> eldest)
+        {
+            return size() > 1024;
+        }
+    };
+
+    private long cursorSeq = 0;
+
+    /**
+     * 已加载的脚本 SHA1 -> 源码
+     */
+    private final Map<String, String> scripts = new HashMap<String, String>();
+
+    private final LuaScripting lua = new LuaScripting();
+
+    /**
+     * 集群模式下槽位 -> 持有该槽位的主节点, 各节点共享同一个数组; null 表示不是集群节点
+     */
+    private volatile HostAndPort[] slotOwners;
+
+    /**
+     * 迁出中的槽位 -> 目标节点, 本节点没有的key回复 ASK
+     */
+    private final Map<Integer, HostAndPort> migrating = new ConcurrentHashMap<Integer, HostAndPort>();
+
+    /**
+     * 迁入中的槽位, 紧跟在 ASKING 之后的命令可以访问
+     */
+    private final Set<Integer> importing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 回复 MOVED/ASK 的次数
+     */
+    private final AtomicLong redirections = new AtomicLong();
+
+    /**
+     * 执行脚本的次数
+     */
+    private final AtomicLong scriptRuns = new AtomicLong();
+
+    /**
+     * @param port
+     *            监听端口, 0 表示由系统分配
+     */
+    public EmbeddedRedisServer(int port)
+    {
+        super("embedded-redis", port);
+    }
+
+    /**
+     * 清空数据
+     */
+    public synchronized void flushAll()
+    {
+        for (String key : data.keySet())
+        {
+            touch(key);
+        }
+        data.clear();
+        expires.clear();
+    }
+
+    /**
+     * 清空脚本缓存, 模拟重启
+     */
+    public synchronized void flushScripts()
+    {
+        scripts.clear();
+    }
+
+    /**
+     * 作为集群节点运行: 应答 CLUSTER SLOTS, 访问其他节点的槽位时回复 MOVED。<br/>
+     * 各节点传入同一个数组, 修改数组元素即模拟槽位迁移完成, 客户端缓存的旧映射会收到 MOVED
+     *
+     * @param slotOwners
+     *            长度 16384, 槽位 -> 持有该槽位的主节点
+     */
+    public void setSlotOwners(HostAndPort[] slotOwners)
+    {
+        this.slotOwners = slotOwners;
+    }
+
+    /**
+     * 模拟槽位迁出: 本节点没有的key回复 ASK
+     *
+     * @param slot
+     * @param target
+     *            目标节点, null 表示结束迁出
+     */
+    public void setMigrating(int slot, HostAndPort target)
+    {
+        if (null == target)
+        {
+            migrating.remove(slot);
+        }
+        else
+        {
+            migrating.put(slot, target);
+        }
+    }
+
+    /**
+     * 模拟槽位迁入: ASKING 之后的命令可以访问该槽位
+     *
+     * @param slot
+     * @param importing
+     */
+    public void setImporting(int slot, boolean importing)
+    {
+        if (importing)
+        {
+            this.importing.add(slot);
+        }
+        else
+        {
+            this.importing.remove(slot);
+        }
+    }
+
+    /**
+     * 回复 MOVED/ASK 的次数
+     *
+     * @return
+     */
+    public long getRedirections()
+    {
+        return redirections.get();
+    }
+
+    /**
+     * EVAL/EVALSHA 执行脚本的次数
+     *
+     * @return
+     */
+    public long getScriptRuns()
+    {
+        return scriptRuns.get();
+    }
+
+    /**
+     * 当前key的数量(含尚未惰性删除的过期key)
+     *
+     * @return
+     */
+    public synchronized int size()
+    {
+        return data.size();
+    }
+
+    @Override
+    protected Object execute(Session session, List<String> args)
+    {
+        String command = args.get(0);
+        if (null != slotOwners)
+        {
+            if ("ASKING".equals(command))
+            {
+                session.asking = true;
+                return Status.OK;
+            }
+            if ("CLUSTER".equals(command))
+            {
+                return cluster(args);
+            }
+            boolean asking = session.asking;
+            session.asking = false;
+            checkSlot(args, asking);
+        }
+        if ("MULTI".equals(command))
+        {
+            if (null != session.queued)
+            {
+                throw new RespError("ERR MULTI calls can not be nested");
+            }
+            session.queued = new ArrayList<List<String>>();
+            session.queueFailed = false;
+            return Status.OK;
+        }
+        if ("EXEC".equals(command))
+        {
+            return exec(session);
+        }
+        if ("DISCARD".equals(command))
+        {
+            if (null == session.queued)
+            {
+                throw new RespError("ERR DISCARD without MULTI");
+            }
+            session.queued = null;
+            session.watched = null;
+            return Status.OK;
+        }
+        if ("WATCH".equals(command))
+        {
+            checkArity(args, 2);
+            if (null != session.queued)
+            {
+                throw new RespError("ERR WATCH inside MULTI is not allowed");
+            }
+            synchronized (this)
+            {
+                if (null == session.watched)
+                {
+                    session.watched = new HashMap<String, Long>();
+                }
+                for (int i = 1; i < args.size(); i++)
+                {
+                    session.watched.put(args.get(i), version(args.get(i)));
+                }
+            }
+            return Status.OK;
+        }
+        if ("UNWATCH".equals(command))
+        {
+            session.watched = null;
+            return Status.OK;
+        }
+        if (null != session.queued)
+        {
+            if (!COMMANDS.contains(command))
+            {
+                session.queueFailed = true;
+                throw unknown(command);
+            }
+            session.queued.add(args);
+            return Status.QUEUED;
+        }
+        synchronized (this)
+        {
+            return call(args);
+        }
+    }
+
+    private Object exec(Session session)
+    {
+        if (null == session.queued)
+        {
+            throw new RespError("ERR EXEC without MULTI");
+        }
+        List<List<String>> queued = session.queued;
+        Map<String, Long> watched = session.watched;
+        boolean failed = session.queueFailed;
+        session.queued = null;
+        session.watched = null;
+        if (failed)
+        {
+            throw new RespError("EXECABORT Transaction discarded because of previous errors.");
+        }
+        synchronized (this)
+        {
+            if (null != watched)
+            {
+                for (Map.Entry<String, Long> entry : watched.entrySet())
+                {
+                    if (version(entry.getKey()) != entry.getValue())
+                    {
+                        return NULL_ARRAY;
+                    }
+                }
+            }
+            List<Object> results = new ArrayList<Object>(queued.size());
+            for (List<String> args : queued)
+            {
+                try
+                {
+                    results.add(call(args));
+                }
+                catch (RespError e)
+                {
+                    results.add(e);
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * 在锁内执行单条命令
+     */
+    private Object call(List<String> a)
+    {
+        String command = a.get(0);
+        switch (command)
+        {
+        // 连接与服务器
+        case "PING":
+            return a.size() > 1 ? a.get(1) : Status.PONG;
+        case "ECHO":
+            checkArity(a, 2);
+            return a.get(1);
+        case "SELECT":
+        case "CLIENT":
+            return Status.OK;
+        case "INFO":
+            return "# Server\r\nredis_version:embedded\r\n# Replication\r\nrole:master\r\n";
+        case "DBSIZE":
+            return (long) data.size();
+        case "FLUSHALL":
+        case "FLUSHDB":
+            flushAll();
+            return Status.OK;
+        // 键
+        case "DEL":
+            checkArity(a, 2);
+            return del(a.subList(1, a.size()));
+        case "EXISTS":
+            checkArity(a, 2);
+            long exists = 0;
+            for (int i = 1; i < a.size(); i++)
+            {
+                exists += null == lookup(a.get(i)) ? 0 : 1;
+            }
+            return exists;
+        case "EXPIRE":
+            checkArity(a, 3);
+            return expireAt(a.get(1), System.currentTimeMillis() + toLong(a.get(2)) * 1000);
+        case "PEXPIRE":
+            checkArity(a, 3);
+            return expireAt(a.get(1), System.currentTimeMillis() + toLong(a.get(2)));
+        case "EXPIREAT":
+            checkArity(a, 3);
+            return expireAt(a.get(1), toLong(a.get(2)) * 1000);
+        case "PEXPIREAT":
+            checkArity(a, 3);
+            return expireAt(a.get(1), toLong(a.get(2)));
+        case "PERSIST":
+            checkArity(a, 2);
+            return null != lookup(a.get(1)) && null != expires.remove(a.get(1)) ? 1L : 0L;
+        case "TTL":
+            checkArity(a, 2);
+            long pttl = pttl(a.get(1));
+            return pttl < 0 ? pttl : (pttl + 999) / 1000;
+        case "PTTL":
+            checkArity(a, 2);
+            return pttl(a.get(1));
+        case "TYPE":
+            checkArity(a, 2);
+            return new Status(typeOf(lookup(a.get(1))));
+        case "KEYS":
+            checkArity(a, 2);
+            return keys(a.get(1));
+        case "SCAN":
+            checkArity(a, 2);
+            return scan(liveKeys(), a.get(1), a, 2);
+        case "RENAME":
+            checkArity(a, 3);
+            rename(a.get(1), a.get(2));
+            return Status.OK;
+        case "RENAMENX":
+            checkArity(a, 3);
+            if (null == lookup(a.get(1)))
+            {
+                throw new RespError("ERR no such key");
+            }
+            if (null != lookup(a.get(2)))
+            {
+                return 0L;
+            }
+            rename(a.get(1), a.get(2));
+            return 1L;
+        case "SORT":
+            checkArity(a, 2);
+            return sort(a);
+        // 字符串
+        case "GET":
+            checkArity(a, 2);
+            return string(a.get(1));
+        case "SET":
+            checkArity(a, 3);
+            return set(a);
+        case "SETEX":
+            checkArity(a, 4);
+            put(a.get(1), a.get(3));
+            expires.put(a.get(1), System.currentTimeMillis() + toLong(a.get(2)) * 1000);
+            return Status.OK;
+        case "PSETEX":
+            checkArity(a, 4);
+            put(a.get(1), a.get(3));
+            expires.put(a.get(1), System.currentTimeMillis() + toLong(a.get(2)));
+            return Status.OK;
+        case "SETNX":
+            checkArity(a, 3);
+            if (null != lookup(a.get(1)))
+            {
+                return 0L;
+            }
+            put(a.get(1), a.get(2));
+            return 1L;
+        case "GETSET":
+            checkArity(a, 3);
+            String old = string(a.get(1));
+            put(a.get(1), a.get(2));
+            return old;
+        case "MGET":
+            checkArity(a, 2);
+            List<Object> values = new ArrayList<Object>(a.size() - 1);
+            for (int i = 1; i < a.size(); i++)
+            {
+                Object v = lookup(a.get(i));
+                values.add(v instanceof String ? v : null);
+            }
+            return values;
+        case "MSET":
+            if (a.size() < 3 || a.size() % 2 == 0)
+            {
+                throw new RespError("ERR wrong number of arguments for 'mset' command");
+            }
+            for (int i = 1; i < a.size(); i += 2)
+            {
+                put(a.get(i), a.get(i + 1));
+            }
+            return Status.OK;
+        case "APPEND":
+            checkArity(a, 3);
+            String appended = nullToEmpty(string(a.get(1))) + a.get(2);
+            update(a.get(1), appended);
+            return (long) appended.length();
+        case "STRLEN":
+            checkArity(a, 2);
+            return (long) nullToEmpty(string(a.get(1))).length();
+        case "INCR":
+            checkArity(a, 2);
+            return incrBy(a.get(1), 1);
+        case "DECR":
+            checkArity(a, 2);
+            return incrBy(a.get(1), -1);
+        case "INCRBY":
+            checkArity(a, 3);
+            return incrBy(a.get(1), toLong(a.get(2)));
+        case "DECRBY":
+            checkArity(a, 3);
+            return incrBy(a.get(1), -toLong(a.get(2)));
+        case "GETRANGE":
+            checkArity(a, 4);
+            return range(nullToEmpty(string(a.get(1))), toLong(a.get(2)), toLong(a.get(3)));
+        case "SETRANGE":
+            checkArity(a, 4);
+            return setRange(a.get(1), (int) toLong(a.get(2)), a.get(3));
+        case "SETBIT":
+            checkArity(a, 4);
+            return setBit(a.get(1), toLong(a.get(2)), a.get(3));
+        case "GETBIT":
+            checkArity(a, 3);
+            return getBit(nullToEmpty(string(a.get(1))), toLong(a.get(2)));
+        case "BITCOUNT":
+            checkArity(a, 2);
+            long bits = 0;
+            for (char c : nullToEmpty(string(a.get(1))).toCharArray())
+            {
+                bits += Integer.bitCount(c & 0xff);
+            }
+            return bits;
+        // hash
+        case "HGET":
+            checkArity(a, 3);
+            Map<String, String> hget = hash(a.get(1), false);
+            return null == hget ? null : hget.get(a.get(2));
+        case "HSET":
+        case "HMSET":
+            if (a.size() < 4 || a.size() % 2 != 0)
+            {
+                throw new RespError("ERR wrong number of arguments for '" + command.toLowerCase(Locale.ROOT)
+                        + "' command");
+            }
+            Map<String, String> hset = hash(a.get(1), true);
+            long added = 0;
+            for (int i = 2; i < a.size(); i += 2)
+            {
+                added += null == hset.put(a.get(i), a.get(i + 1)) ? 1 : 0;
+            }
+            touch(a.get(1));
+            return "HSET".equals(command) ? (Object) added : Status.OK;
+        case "HSETNX":
+            checkArity(a, 4);
+            Map<String, String> hsetnx = hash(a.get(1), true);
+            if (hsetnx.containsKey(a.get(2)))
+            {
+                return 0L;
+            }
+            hsetnx.put(a.get(2), a.get(3));
+            touch(a.get(1));
+            return 1L;
+        case "HMGET":
+            checkArity(a, 3);
+            Map<String, String> hmget = hash(a.get(1), false);
+            List<Object> fields = new ArrayList<Object>(a.size() - 2);
+            for (int i = 2; i < a.size(); i++)
+            {
+                fields.add(null == hmget ? null : hmget.get(a.get(i)));
+            }
+            return fields;
+        case "HGETALL":
+            checkArity(a, 2);
+            List<Object> all = new ArrayList<Object>();
+            Map<String, String> hgetall = hash(a.get(1), false);
+            if (null != hgetall)
+            {
+                for (Map.Entry<String, String> entry : hgetall.entrySet())
+                {
+                    all.add(entry.getKey());
+                    all.add(entry.getValue());
+                }
+            }
+            return all;
+        case "HDEL":
+            checkArity(a, 3);
+            Map<String, String> hdel = hash(a.get(1), false);
+            long removed = 0;
+            if (null != hdel)
+            {
+                for (int i = 2; i < a.size(); i++)
+                {
+                    removed += null == hdel.remove(a.get(i)) ? 0 : 1;
+                }
+                changed(a.get(1), hdel.isEmpty());
+            }
+            return removed;
+        case "HEXISTS":
+            checkArity(a, 3);
+            Map<String, String> hexists = hash(a.get(1), false);
+            return null != hexists && hexists.containsKey(a.get(2)) ? 1L : 0L;
+        case "HLEN":
+            checkArity(a, 2);
+            Map<String, String> hlen = hash(a.get(1), false);
+            return null == hlen ? 0L : (long) hlen.size();
+        case "HKEYS":
+            checkArity(a, 2);
+            Map<String, String> hkeys = hash(a.get(1), false);
+            return null == hkeys ? Collections.emptyList() : new ArrayList<String>(hkeys.keySet());
+        case "HVALS":
+            checkArity(a, 2);
+            Map<String, String> hvals = hash(a.get(1), false);
+            return null == hvals ? Collections.emptyList() : new ArrayList<String>(hvals.values());
+        case "HINCRBY":
+            checkArity(a, 4);
+            Map<String, String> hincr = hash(a.get(1), true);
+            long hvalue = toLong(nullToZero(hincr.get(a.get(2))), NOT_INTEGER) + toLong(a.get(3));
+            hincr.put(a.get(2), String.valueOf(hvalue));
+            touch(a.get(1));
+            return hvalue;
+        case "HSCAN":
+            checkArity(a, 3);
+            Map<String, String> hscan = hash(a.get(1), false);
+            return scanHash(hscan, a);
+        // list
+        case "LPUSH":
+        case "RPUSH":
+            checkArity(a, 3);
+            LinkedList<String> push = list(a.get(1), true);
+            for (int i = 2; i < a.size(); i++)
+            {
+                if ("LPUSH".equals(command))
+                {
+                    push.addFirst(a.get(i));
+                }
+                else
+                {
+                    push.addLast(a.get(i));
+                }
+            }
+            touch(a.get(1));
+            notifyAll();
+            return (long) push.size();
+        case "LPOP":
+        case "RPOP":
+            checkArity(a, 2);
+            LinkedList<String> pop = list(a.get(1), false);
+            if (null == pop)
+            {
+                return null;
+            }
+            String popped = "LPOP".equals(command) ? pop.removeFirst() : pop.removeLast();
+            changed(a.get(1), pop.isEmpty());
+            return popped;
+        case "LLEN":
+            checkArity(a, 2);
+            LinkedList<String> llen = list(a.get(1), false);
+            return null == llen ? 0L : (long) llen.size();
+        case "LRANGE":
+            checkArity(a, 4);
+            LinkedList<String> lrange = list(a.get(1), false);
+            return null == lrange ? Collections.emptyList() : slice(lrange, toLong(a.get(2)), toLong(a.get(3)));
+        case "LINDEX":
+            checkArity(a, 3);
+            LinkedList<String> lindex = list(a.get(1), false);
+            if (null == lindex)
+            {
+                return null;
+            }
+            int index = (int) normalize(toLong(a.get(2)), lindex.size());
+            return index < 0 || index >= lindex.size() ? null : lindex.get(index);
+        case "LSET":
+            checkArity(a, 4);
+            LinkedList<String> lset = list(a.get(1), false);
+            if (null == lset)
+            {
+                throw new RespError("ERR no such key");
+            }
+            int lsetIndex = (int) normalize(toLong(a.get(2)), lset.size());
+            if (lsetIndex < 0 || lsetIndex >= lset.size())
+            {
+                throw new RespError("ERR index out of range");
+            }
+            lset.set(lsetIndex, a.get(3));
+            touch(a.get(1));
+            return Status.OK;
+        case "LREM":
+            checkArity(a, 4);
+            return lrem(a.get(1), toLong(a.get(2)), a.get(3));
+        case "LTRIM":
+            checkArity(a, 4);
+            LinkedList<String> ltrim = list(a.get(1), false);
+            if (null != ltrim)
+            {
+                List<String> kept = slice(ltrim, toLong(a.get(2)), toLong(a.get(3)));
+                ltrim.clear();
+                ltrim.addAll(kept);
+                changed(a.get(1), ltrim.isEmpty());
+            }
+            return Status.OK;
+        case "LINSERT":
+            checkArity(a, 5);
+            return linsert(a.get(1), a.get(2), a.get(3), a.get(4));
+        case "RPOPLPUSH":
+            checkArity(a, 3);
+            return rpoplpush(a.get(1), a.get(2));
+        case "BRPOPLPUSH":
+            checkArity(a, 4);
+            return brpoplpush(a.get(1), a.get(2), toLong(a.get(3)));
+        // set
+        case "SADD":
+            checkArity(a, 3);
+            Set<String> sadd = set(a.get(1), true);
+            long sadded = 0;
+            for (int i = 2; i < a.size(); i++)
+            {
+                sadded += sadd.add(a.get(i)) ? 1 : 0;
+            }
+            touch(a.get(1));
+            return sadded;
+        case "SREM":
+            checkArity(a, 3);
+            Set<String> srem = set(a.get(1), false);
+            long sremoved = 0;
+            if (null != srem)
+            {
+                for (int i = 2; i < a.size(); i++)
+                {
+                    sremoved += srem.remove(a.get(i)) ? 1 : 0;
+                }
+                changed(a.get(1), srem.isEmpty());
+            }
+            return sremoved;
+        case "SMEMBERS":
+            checkArity(a, 2);
+            Set<String> smembers = set(a.get(1), false);
+            return null == smembers ? Collections.emptyList() : new ArrayList<String>(smembers);
+        case "SISMEMBER":
+            checkArity(a, 3);
+            Set<String> sismember = set(a.get(1), false);
+            return null != sismember && sismember.contains(a.get(2)) ? 1L : 0L;
+        case "SCARD":
+            checkArity(a, 2);
+            Set<String> scard = set(a.get(1), false);
+            return null == scard ? 0L : (long) scard.size();
+        case "SPOP":
+            checkArity(a, 2);
+            Set<String> spop = set(a.get(1), false);
+            if (null == spop)
+            {
+                return null;
+            }
+            List<String> candidates = new ArrayList<String>(spop);
+            String member = candidates.get((int) (Math.random() * candidates.size()));
+            spop.remove(member);
+            changed(a.get(1), spop.isEmpty());
+            return member;
+        case "SMOVE":
+            checkArity(a, 4);
+            Set<String> from = set(a.get(1), false);
+            if (null == from || !from.contains(a.get(3)))
+            {
+                return 0L;
+            }
+            Set<String> to = set(a.get(2), true);
+            from.remove(a.get(3));
+            changed(a.get(1), from.isEmpty());
+            to.add(a.get(3));
+            touch(a.get(2));
+            return 1L;
+        case "SINTER":
+        case "SUNION":
+        case "SDIFF":
+            checkArity(a, 2);
+            return new ArrayList<String>(setOp(command, a.subList(1, a.size())));
+        case "SINTERSTORE":
+        case "SUNIONSTORE":
+        case "SDIFFSTORE":
+            checkArity(a, 3);
+            Set<String> result = setOp(command.substring(0, command.length() - 5), a.subList(2, a.size()));
+            remove(a.get(1));
+            if (!result.isEmpty())
+            {
+                data.put(a.get(1), result);
+            }
+            touch(a.get(1));
+            return (long) result.size();
+        case "SSCAN":
+            checkArity(a, 3);
+            Set<String> sscan = set(a.get(1), false);
+            return scan(null == sscan ? new TreeSet<String>() : new TreeSet<String>(sscan), a.get(2), a, 3);
+        // sorted set
+        case "ZADD":
+            return zadd(a);
+        case "ZREM":
+            checkArity(a, 3);
+            SortedSetValue zrem = zset(a.get(1), false);
+            long zremoved = 0;
+            if (null != zrem)
+            {
+                for (int i = 2; i < a.size(); i++)
+                {
+                    zremoved += null == zrem.scores.remove(a.get(i)) ? 0 : 1;
+                }
+                changed(a.get(1), zrem.scores.isEmpty());
+            }
+            return zremoved;
+        case "ZSCORE":
+            checkArity(a, 3);
+            SortedSetValue zscore = zset(a.get(1), false);
+            Double score = null == zscore ? null : zscore.scores.get(a.get(2));
+            return null == score ? null : formatDouble(score);
+        case "ZINCRBY":
+            checkArity(a, 4);
+            SortedSetValue zincr = zset(a.get(1), true);
+            Double current = zincr.scores.get(a.get(3));
+            double incremented = (null == current ? 0 : current) + toDouble(a.get(2));
+            zincr.scores.put(a.get(3), incremented);
+            touch(a.get(1));
+            return formatDouble(incremented);
+        case "ZCARD":
+            checkArity(a, 2);
+            SortedSetValue zcard = zset(a.get(1), false);
+            return null == zcard ? 0L : (long) zcard.scores.size();
+        case "ZCOUNT":
+            checkArity(a, 4);
+            return (long) byScore(a.get(1), a.get(2), a.get(3), false).size();
+        case "ZRANK":
+        case "ZREVRANK":
+            checkArity(a, 3);
+            SortedSetValue zrank = zset(a.get(1), false);
+            if (null == zrank || !zrank.scores.containsKey(a.get(2)))
+            {
+                return null;
+            }
+            List<Map.Entry<String, Double>> ranked = zrank.sorted("ZREVRANK".equals(command));
+            for (int i = 0; i < ranked.size(); i++)
+            {
+                if (ranked.get(i).getKey().equals(a.get(2)))
+                {
+                    return (long) i;
+                }
+            }
+            return null;
+        case "ZRANGE":
+        case "ZREVRANGE":
+            checkArity(a, 4);
+            SortedSetValue zrange = zset(a.get(1), false);
+            if (null == zrange)
+            {
+                return Collections.emptyList();
+            }
+            return entries(slice(zrange.sorted("ZREVRANGE".equals(command)), toLong(a.get(2)), toLong(a.get(3))),
+                    hasOption(a, 4, "WITHSCORES"));
+        case "ZRANGEBYSCORE":
+        case "ZREVRANGEBYSCORE":
+            checkArity(a, 4);
+            return zrangeByScore(a, "ZREVRANGEBYSCORE".equals(command));
+        case "ZREMRANGEBYRANK":
+            checkArity(a, 4);
+            SortedSetValue zremrank = zset(a.get(1), false);
+            if (null == zremrank)
+            {
+                return 0L;
+            }
+            List<Map.Entry<String, Double>> byRank = slice(zremrank.sorted(false), toLong(a.get(2)), toLong(a.get(3)));
+            for (Map.Entry<String, Double> entry : byRank)
+            {
+                zremrank.scores.remove(entry.getKey());
+            }
+            changed(a.get(1), zremrank.scores.isEmpty());
+            return (long) byRank.size();
+        case "ZREMRANGEBYSCORE":
+            checkArity(a, 4);
+            List<Map.Entry<String, Double>> inRange = byScore(a.get(1), a.get(2), a.get(3), false);
+            if (!inRange.isEmpty())
+            {
+                SortedSetValue zremscore = zset(a.get(1), false);
+                for (Map.Entry<String, Double> entry : inRange)
+                {
+                    zremscore.scores.remove(entry.getKey());
+                }
+                changed(a.get(1), zremscore.scores.isEmpty());
+            }
+            return (long) inRange.size();
+        case "ZSCAN":
+            checkArity(a, 3);
+            SortedSetValue zscan = zset(a.get(1), false);
+            return scanSortedSet(zscan, a);
+        case "PUBLISH":
+            // 事务和脚本中的 PUBLISH, 其他情况由基类处理
+            checkArity(a, 3);
+            return publish(a.get(1), a.get(2));
+        // 脚本
+        case "SCRIPT":
+            checkArity(a, 2);
+            return script(a);
+        case "EVAL":
+        case "EVALSHA":
+            checkArity(a, 3);
+            return eval(a, "EVALSHA".equals(command));
+        default:
+            throw unknown(command);
+        }
+    }
+
+    private static RespError unknown(String command)
+    {
+        return new RespError("ERR unknown command '" + command.toLowerCase(Locale.ROOT) + "'");
+    }
+
+    // ---------------------------------------------------------------- 存储
+
+    /**
+     * 取值, 过期的key在此时删除
+     */
+    private Object lookup(String key)
+    {
+        Long at = expires.get(key);
+        if (null != at && at <= System.currentTimeMillis())
+        {
+            expires.remove(key);
+            data.remove(key);
+            touch(key);
+        }
+        return data.get(key);
+    }
+
+    private <T> T typed(String key, Class<T> type)
+    {
+        Object value = lookup(key);
+        if (null == value)
+        {
+            return null;
+        }
+        if (!type.isInstance(value))
+        {
+            throw new RespError(WRONGTYPE);
+        }
+        return type.cast(value);
+    }
+
+    private String string(String key)
+    {
+        return typed(key, String.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> hash(String key, boolean create)
+    {
+        Map<String, String> hash = typed(key, HashMap.class);
+        if (null == hash && create)
+        {
+            hash = new HashMap<String, String>();
+            data.put(key, hash);
+        }
+        return hash;
+    }
+
+    @SuppressWarnings("unchecked")
+    private LinkedList<String> list(String key, boolean create)
+    {
+        LinkedList<String> list = typed(key, LinkedList.class);
+        if (null == list && create)
+        {
+            list = new LinkedList<String>();
+            data.put(key, list);
+        }
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> set(String key, boolean create)
+    {
+        Set<String> set = typed(key, LinkedHashSet.class);
+        if (null == set && create)
+        {
+            set = new LinkedHashSet<String>();
+            data.put(key, set);
+        }
+        return set;
+    }
+
+    private SortedSetValue zset(String key, boolean create)
+    {
+        SortedSetValue zset = typed(key, SortedSetValue.class);
+        if (null == zset && create)
+        {
+            zset = new SortedSetValue();
+            data.put(key, zset);
+        }
+        return zset;
+    }
+
+    /**
+     * 写入字符串并清除过期时间(SET 语义)
+     */
+    private void put(String key, String value)
+    {
+        data.put(key, value);
+        expires.remove(key);
+        touch(key);
+    }
+
+    /**
+     * 修改字符串并保留过期时间
+     */
+    private void update(String key, String value)
+    {
+        lookup(key);
+        data.put(key, value);
+        touch(key);
+    }
+
+    private boolean remove(String key)
+    {
+        boolean existed = null != lookup(key);
+        data.remove(key);
+        expires.remove(key);
+        if (existed)
+        {
+            touch(key);
+        }
+        return existed;
+    }
+
+    /**
+     * 集合类型被修改后调用, 为空时删除key
+     */
+    private void changed(String key, boolean empty)
+    {
+        if (empty)
+        {
+            data.remove(key);
+            expires.remove(key);
+        }
+        touch(key);
+    }
+
+    private void touch(String key)
+    {
+        versions.put(key, ++versionSeq);
+    }
+
+    private long version(String key)
+    {
+        lookup(key);
+        Long version = versions.get(key);
+        return null == version ? 0 : version;
+    }
+
+    private static String typeOf(Object value)
+    {
+        if (null == value)
+        {
+            return "none";
+        }
+        if (value instanceof String)
+        {
+            return "string";
+        }
+        if (value instanceof HashMap)
+        {
+            return "hash";
+        }
+        if (value instanceof LinkedList)
+        {
+            return "list";
+        }
+        if (value instanceof SortedSetValue)
+        {
+            return "zset";
+        }
+        return "set";
+    }
+
+    // ---------------------------------------------------------------- 键
+
+    private long del(List<String> keys)
+    {
+        long count = 0;
+        for (String key : keys)
+        {
+            count += remove(key) ? 1 : 0;
+        }
+        return count;
+    }
+
+    private long expireAt(String key, long at)
+    {
+        if (null == lookup(key))
+        {
+            return 0;
+        }
+        expires.put(key, at);
+        touch(key);
+        lookup(key);
+        return 1;
+    }
+
+    private long pttl(String key)
+    {
+        if (null == lookup(key))
+        {
+            return -2;
+        }
+        Long at = expires.get(key);
+        return null == at ? -1 : Math.max(0, at - System.currentTimeMillis());
+    }
+
+    private TreeSet<String> liveKeys()
+    {
+        TreeSet<String> keys = new TreeSet<String>();
+        for (String key : new ArrayList<String>(data.keySet()))
+        {
+            if (null != lookup(key))
+            {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private List<String> keys(String pattern)
+    {
+        Pattern regex = globToRegex(pattern);
+        List<String> keys = new ArrayList<String>();
+        for (String key : liveKeys())
+        {
+            if (regex.matcher(key).matches())
+            {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private void rename(String from, String to)
+    {
+        Object value = lookup(from);
+        if (null == value)
+        {
+            throw new RespError("ERR no such key");
+        }
+        Long at = expires.get(from);
+        remove(from);
+        remove(to);
+        data.put(to, value);
+        if (null != at)
+        {
+            expires.put(to, at);
+        }
+        touch(to);
+    }
+
+    /**
+     * SORT key [LIMIT offset count] [ASC|DESC] [ALPHA] [STORE destination], 不支持 BY/GET
+     */
+    private Object sort(List<String> a)
+    {
+        Object value = lookup(a.get(1));
+        List<String> items = new ArrayList<String>();
+        if (value instanceof LinkedList || value instanceof LinkedHashSet)
+        {
+            for (Object item : (Iterable<?>) value)
+            {
+                items.add((String) item);
+            }
+        }
+        else if (value instanceof SortedSetValue)
+        {
+            items.addAll(((SortedSetValue) value).scores.keySet());
+        }
+        else if (null != value)
+        {
+            throw new RespError(WRONGTYPE);
+        }
+        boolean desc = false;
+        boolean alpha = false;
+        long offset = 0;
+        long count = -1;
+        String store = null;
+        for (int i = 2; i < a.size(); i++)
+        {
+            String option = a.get(i).toUpperCase(Locale.ROOT);
+            if ("ASC".equals(option))
+            {
+                desc = false;
+            }
+            else if ("DESC".equals(option))
+            {
+                desc = true;
+            }
+            else if ("ALPHA".equals(option))
+            {
+                alpha = true;
+            }
+            else if ("LIMIT".equals(option) && i + 2 < a.size())
+            {
+                offset = toLong(a.get(++i));
+                count = toLong(a.get(++i));
+            }
+            else if ("STORE".equals(option) && i + 1 < a.size())
+            {
+                store = a.get(++i);
+            }
+            else
+            {
+                throw new RespError(SYNTAX);
+            }
+        }
+        if (alpha)
+        {
+            Collections.sort(items);
+        }
+        else
+        {
+            final Map<String, Double> numbers = new HashMap<String, Double>();
+            for (String item : items)
+            {
+                try
+                {
+                    numbers.put(item, Double.valueOf(item));
+                }
+                catch (NumberFormatException e)
+                {
+                    throw new RespError("ERR One or more scores can't be converted into double");
+                }
+            }
+            Collections.sort(items, new Comparator<String>()
+            {
+                public int compare(String x, String y)
+                {
+                    return Double.compare(numbers.get(x), numbers.get(y));
+                }
+            });
+        }
+        if (desc)
+        {
+            Collections.reverse(items);
+        }
+        int from = (int) Math.min(Math.max(offset, 0), items.size());
+        int to = count < 0 ? items.size() : (int) Math.min(from + count, items.size());
+        List<String> sorted = new ArrayList<String>(items.subList(from, to));
+        if (null != store)
+        {
+            remove(store);
+            if (!sorted.isEmpty())
+            {
+                data.put(store, new LinkedList<String>(sorted));
+            }
+            touch(store);
+            return (long) sorted.size();
+        }
+        return sorted;
+    }
+
+    // ---------------------------------------------------------------- 字符串
+
+    /**
+     * SET key value [EX seconds] [PX milliseconds] [NX|XX]
+     */
+    private Object set(List<String> a)
+    {
+        String key = a.get(1);
+        long expireAt = 0;
+        boolean nx = false;
+        boolean xx = false;
+        for (int i = 3; i < a.size(); i++)
+        {
+            String option = a.get(i).toUpperCase(Locale.ROOT);
+            if ("NX".equals(option))
+            {
+                nx = true;
+            }
+            else if ("XX".equals(option))
+            {
+                xx = true;
+            }
+            else if (("EX".equals(option) || "PX".equals(option)) && i + 1 < a.size())
+            {
+                long ttl = toLong(a.get(++i));
+                if (ttl <= 0)
+                {
+                    throw new RespError("ERR invalid expire time in set");
+                }
+                expireAt = System.currentTimeMillis() + ("EX".equals(option) ? ttl * 1000 : ttl);
+            }
+            else
+            {
+                throw new RespError(SYNTAX);
+            }
+        }
+        boolean exists = null != lookup(key);
+        if ((nx && exists) || (xx && !exists))
+        {
+            return null;
+        }
+        put(key, a.get(2));
+        if (expireAt > 0)
+        {
+            expires.put(key, expireAt);
+        }
+        return Status.OK;
+    }
+
+    private long incrBy(String key, long delta)
+    {
+        long value = toLong(nullToZero(string(key)), NOT_INTEGER) + delta;
+        update(key, String.valueOf(value));
+        return value;
+    }
+
+    private long setRange(String key, int offset, String value)
+    {
+        StringBuilder sb = new StringBuilder(nullToEmpty(string(key)));
+        while (sb.length() < offset + value.length())
+        {
+            sb.append('\0');
+        }
+        sb.replace(offset, offset + value.length(), value);
+        update(key, sb.toString());
+        return sb.length();
+    }
+
+    private long setBit(String key, long offset, String bit)
+    {
+        if (!"0".equals(bit) && !"1".equals(bit))
+        {
+            throw new RespError("ERR bit is not an integer or out of range");
+        }
+        StringBuilder sb = new StringBuilder(nullToEmpty(string(key)));
+        int byteIndex = (int) (offset >>> 3);
+        while (sb.length() <= byteIndex)
+        {
+            sb.append('\0');
+        }
+        int mask = 0x80 >>> (int) (offset & 7);
+        int b = sb.charAt(byteIndex);
+        long old = (b & mask) != 0 ? 1 : 0;
+        b = "1".equals(bit) ? b | mask : b & ~mask;
+        sb.setCharAt(byteIndex, (char) (b & 0xff));
+        update(key, sb.toString());
+        return old;
+    }
+
+    private static long getBit(String value, long offset)
+    {
+        int byteIndex = (int) (offset >>> 3);
+        if (byteIndex >= value.length())
+        {
+            return 0;
+        }
+        return (value.charAt(byteIndex) & (0x80 >>> (int) (offset & 7))) != 0 ? 1 : 0;
+    }
+
+    private static String range(String value, long start, long end)
+    {
+        int len = value.length();
+        start = Math.max(normalize(start, len), 0);
+        end = Math.min(normalize(end, len), len - 1);
+        return start > end ? "" : value.substring((int) start, (int) end + 1);
+    }
+
+    // ---------------------------------------------------------------- list
+
+    private long lrem(String key, long count, String value)
+    {
+        LinkedList<String> list = list(key, false);
+        if (null == list)
+        {
+            return 0;
+        }
+        long removed = 0;
+        Iterator<String> it = count < 0 ? list.descendingIterator() : list.iterator();
+        long limit = count == 0 ? Long.MAX_VALUE : Math.abs(count);
+        while (it.hasNext() && removed < limit)
+        {
+            if (it.next().equals(value))
+            {
+                it.remove();
+                removed++;
+            }
+        }
+        changed(key, list.isEmpty());
+        return removed;
+    }
+
+    private long linsert(String key, String where, String pivot, String value)
+    {
+        boolean before = "BEFORE".equalsIgnoreCase(where);
+        if (!before && !"AFTER".equalsIgnoreCase(where))
+        {
+            throw new RespError(SYNTAX);
+        }
+        LinkedList<String> list = list(key, false);
+        if (null == list)
+        {
+            return 0;
+        }
+        ListIterator<String> it = list.listIterator();
+        while (it.hasNext())
+        {
+            if (it.next().equals(pivot))
+            {
+                if (before)
+                {
+                    it.previous();
+                }
+                it.add(value);
+                touch(key);
+                notifyAll();
+                return list.size();
+            }
+        }
+        return -1;
+    }
+
+    private String rpoplpush(String source, String destination)
+    {
+        LinkedList<String> from = list(source, false);
+        if (null == from)
+        {
+            return null;
+        }
+        // 目标类型不对时不能先弹出
+        LinkedList<String> to = list(destination, false);
+        String value = from.removeLast();
+        changed(source, from.isEmpty());
+        if (null == to)
+        {
+            to = list(destination, true);
+        }
+        to.addFirst(value);
+        touch(destination);
+        notifyAll();
+        return value;
+    }
+
+    /**
+     * 阻塞版本, 在服务端锁上等待, 其他连接 push 时被唤醒; timeout 为0时一直等待
+     */
+    private String brpoplpush(String source, String destination, long timeoutSeconds)
+    {
+        long deadline = timeoutSeconds == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutSeconds * 1000;
+        while (true)
+        {
+            String value = rpoplpush(source, destination);
+            if (null != value)
+            {
+                return value;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !isRunning())
+            {
+                return null;
+            }
+            try
+            {
+                wait(Math.min(remaining, 1000));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- 脚本
+
+    private Object script(List<String> a)
+    {
+        String sub = a.get(1).toUpperCase(Locale.ROOT);
+        switch (sub)
+        {
+        case "LOAD":
+            checkArity(a, 3);
+            return loadScript(a.get(2));
+        case "EXISTS":
+            List<Long> exists = new ArrayList<Long>();
+            for (int i = 2; i < a.size(); i++)
+            {
+                exists.add(scripts.containsKey(a.get(i).toLowerCase(Locale.ROOT)) ? 1L : 0L);
+            }
+            return exists;
+        case "FLUSH":
+            scripts.clear();
+            return Status.OK;
+        default:
+            throw new RespError("ERR Unknown SCRIPT subcommand or wrong number of arguments for '" + a.get(1) + "'");
+        }
+    }
+
+    private String loadScript(String source)
+    {
+        String sha = RedisScript.sha1Hex(source.getBytes(CHARSET));
+        scripts.put(sha, source);
+        return sha;
+    }
+
+    /**
+     * EVAL/EVALSHA script numkeys key... arg...
+     */
+    private Object eval(List<String> a, boolean bySha)
+    {
+        String sha = bySha ? a.get(1).toLowerCase(Locale.ROOT) : loadScript(a.get(1));
+        if (!scripts.containsKey(sha))
+        {
+            throw new RespError("NOSCRIPT No matching script. Please use EVAL.");
+        }
+        long numKeys = toLong(a.get(2));
+        if (numKeys < 0 || numKeys > a.size() - 3)
+        {
+            throw new RespError("ERR Number of keys can't be greater than number of args");
+        }
+        scriptRuns.incrementAndGet();
+        int keyEnd = 3 + (int) numKeys;
+        Function<List<String>, Object> redis = command -> {
+            List<String> args = new ArrayList<String>(command);
+            args.set(0, args.get(0).toUpperCase(Locale.ROOT));
+            return call(args);
+        };
+        return lua.eval(sha, scripts.get(sha), a.subList(3, keyEnd), a.subList(keyEnd, a.size()), redis);
+    }
+
+    // ---------------------------------------------------------------- cluster
+
+    /**
+     * CLUSTER SLOTS: 按节点合并连续的槽位区间
+     */
+    private Object cluster(List<String> a)
+    {
+        checkArity(a, 2);
+        if (!"SLOTS".equals(a.get(1).toUpperCase(Locale.ROOT)))
+        {
+            throw new RespError("ERR Unknown CLUSTER subcommand '" + a.get(1) + "'");
+        }
+        HostAndPort[] owners = slotOwners;
+        List<Object> ranges = new ArrayList<Object>();
+        int start = 0;
+        for (int slot = 1; slot <= owners.length; slot++)
+        {
+            if (slot == owners.length || !owners[slot].equals(owners[start]))
+            {
+                ranges.add(Arrays.asList((long) start, (long) slot - 1,
+                        Arrays.asList(owners[start].getHost(), (long) owners[start].getPort())));
+                start = slot;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * 检查命令的key是否属于本节点: 跨槽位回复 CROSSSLOT, 迁出中的槽位本节点没有全部key时回复 ASK(一个都没有)或 TRYAGAIN,
+     * 其他节点的槽位回复 MOVED
+     */
+    private void checkSlot(List<String> a, boolean asking)
+    {
+        List<String> keys = keysOf(a);
+        if (keys.isEmpty())
+        {
+            return;
+        }
+        int slot = JedisClusterCRC16.getSlot(keys.get(0));
+        for (String key : keys)
+        {
+            if (JedisClusterCRC16.getSlot(key) != slot)
+            {
+                throw new RespError("CROSSSLOT Keys in request don't hash to the same slot");
+            }
+        }
+        if (getHostAndPort().equals(slotOwners[slot]))
+        {
+            HostAndPort target = migrating.get(slot);
+            if (null != target)
+            {
+                int missing = 0;
+                synchronized (this)
+                {
+                    for (String key : keys)
+                    {
+                        missing += null == lookup(key) ? 1 : 0;
+                    }
+                }
+                if (missing == keys.size())
+                {
+                    redirections.incrementAndGet();
+                    throw new RespError("ASK " + slot + " " + target);
+                }
+                if (missing > 0)
+                {
+                    throw new RespError("TRYAGAIN Multiple keys request during rehashing of slot");
+                }
+            }
+            return;
+        }
+        if (asking && importing.contains(slot))
+        {
+            return;
+        }
+        redirections.incrementAndGet();
+        throw new RespError("MOVED " + slot + " " + slotOwners[slot]);
+    }
+
+    /**
+     * 命令中的key
+     */
+    private static List<String> keysOf(List<String> a)
+    {
+        String command = a.get(0);
+        if (a.size() < 2 || KEYLESS.contains(command))
+        {
+            return Collections.emptyList();
+        }
+        switch (command)
+        {
+        case "MGET":
+        case "DEL":
+        case "EXISTS":
+        case "WATCH":
+        case "SINTER":
+        case "SUNION":
+        case "SDIFF":
+        case "SINTERSTORE":
+        case "SUNIONSTORE":
+        case "SDIFFSTORE":
+            return a.subList(1, a.size());
+        case "MSET":
+            List<String> keys = new ArrayList<String>();
+            for (int i = 1; i < a.size(); i += 2)
+            {
+                keys.add(a.get(i));
+            }
+            return keys;
+        case "RENAME":
+        case "RENAMENX":
+        case "RPOPLPUSH":
+        case "BRPOPLPUSH":
+        case "SMOVE":
+            return a.subList(1, Math.min(3, a.size()));
+        case "EVAL":
+        case "EVALSHA":
+            if (a.size() < 3)
+            {
+                return Collections.emptyList();
+            }
+            int numKeys = (int) Math.min(Math.max(toLong(a.get(2)), 0), a.size() - 3);
+            return a.subList(3, 3 + numKeys);
+        default:
+            return Collections.singletonList(a.get(1));
+        }
+    }
+
+    // ---------------------------------------------------------------- set
+
+    private Set<String> setOp(String op, List<String> keys)
+    {
+        Set<String> result = null;
+        for (String key : keys)
+        {
+            Set<String> members = set(key, false);
+            if (null == members)
+            {
+                members = Collections.emptySet();
+            }
+            if (null == result)
+            {
+                result = new LinkedHashSet<String>(members);
+            }
+            else if ("SINTER".equals(op))
+            {
+                result.retainAll(members);
+            }
+            else if ("SUNION".equals(op))
+            {
+                result.addAll(members);
+            }
+            else
+            {
+                result.removeAll(members);
+            }
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------- sorted set
+
+    /**
+     * ZADD key [NX|XX] [CH] [INCR] score member [score member ...]
+     */
+    private Object zadd(List<String> a)
+    {
+        checkArity(a, 4);
+        int i = 2;
+        boolean nx = false;
+        boolean xx = false;
+        boolean ch = false;
+        boolean incr = false;
+        for (; i < a.size(); i++)
+        {
+            String option = a.get(i).toUpperCase(Locale.ROOT);
+            if ("NX".equals(option))
+            {
+                nx = true;
+            }
+            else if ("XX".equals(option))
+            {
+                xx = true;
+            }
+            else if ("CH".equals(option))
+            {
+                ch = true;
+            }
+            else if ("INCR".equals(option))
+            {
+                incr = true;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if ((a.size() - i) % 2 != 0 || a.size() == i)
+        {
+            throw new RespError(SYNTAX);
+        }
+        SortedSetValue zset = zset(a.get(1), true);
+        long count = 0;
+        Double last = null;
+        for (; i < a.size(); i += 2)
+        {
+            double score = toDouble(a.get(i));
+            String member = a.get(i + 1);
+            Double current = zset.scores.get(member);
+            if ((nx && null != current) || (xx && null == current))
+            {
+                last = null;
+                continue;
+            }
+            double value = incr && null != current ? current + score : score;
+            zset.scores.put(member, value);
+            last = value;
+            if (null == current || (ch && current != value))
+            {
+                count++;
+            }
+        }
+        changed(a.get(1), zset.scores.isEmpty());
+        if (incr)
+        {
+            return null == last ? null : formatDouble(last);
+        }
+        return count;
+    }
+
+    private List<Map.Entry<String, Double>> byScore(String key, String min, String max, boolean reverse)
+    {
+        SortedSetValue zset = zset(key, false);
+        List<Map.Entry<String, Double>> result = new ArrayList<Map.Entry<String, Double>>();
+        if (null == zset)
+        {
+            return result;
+        }
+        ScoreBound lower = new ScoreBound(min);
+        ScoreBound upper = new ScoreBound(max);
+        for (Map.Entry<String, Double> entry : zset.sorted(reverse))
+        {
+            if (lower.atMost(entry.getValue()) && upper.atLeast(entry.getValue()))
+            {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Z[REV]RANGEBYSCORE key min max [WITHSCORES] [LIMIT offset count]
+     */
+    private List<String> zrangeByScore(List<String> a, boolean reverse)
+    {
+        // ZREVRANGEBYSCORE 的参数顺序是 max min
+        String min = reverse ? a.get(3) : a.get(2);
+        String max = reverse ? a.get(2) : a.get(3);
+        List<Map.Entry<String, Double>> entries = byScore(a.get(1), min, max, reverse);
+        boolean withScores = false;
+        for (int i = 4; i < a.size(); i++)
+        {
+            String option = a.get(i).toUpperCase(Locale.ROOT);
+            if ("WITHSCORES".equals(option))
+            {
+                withScores = true;
+            }
+            else if ("LIMIT".equals(option) && i + 2 < a.size())
+            {
+                int offset = (int) toLong(a.get(++i));
+                long count = toLong(a.get(++i));
+                int from = Math.min(Math.max(offset, 0), entries.size());
+                int to = count < 0 ? entries.size() : (int) Math.min(from + count, entries.size());
+                entries = entries.subList(from, to);
+            }
+            else
+            {
+                throw new RespError(SYNTAX);
+            }
+        }
+        return entries(entries, withScores);
+    }
+
+    private static List<String> entries(List<Map.Entry<String, Double>> entries, boolean withScores)
+    {
+        List<String> result = new ArrayList<String>(entries.size() * (withScores ? 2 : 1));
+        for (Map.Entry<String, Double> entry : entries)
+        {
+            result.add(entry.getKey());
+            if (withScores)
+            {
+                result.add(formatDouble(entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------- scan
+
+    /**
+     * 按元素顺序续扫: 游标对应上一批最后一个元素
+     *
+     * @param elements
+     *            有序的全部元素
+     * @param cursor
+     * @param a
+     * @param optionStart
+     *            MATCH/COUNT 参数的起始位置
+     * @return [下一个游标, 本批元素], hash/zset 由调用方补充 value
+     */
+    private List<Object> scan(TreeSet<String> elements, String cursor, List<String> a, int optionStart)
+    {
+        Pattern match = null;
+        int count = 10;
+        for (int i = optionStart; i < a.size(); i++)
+        {
+            String option = a.get(i).toUpperCase(Locale.ROOT);
+            if ("MATCH".equals(option) && i + 1 < a.size())
+            {
+                match = globToRegex(a.get(++i));
+            }
+            else if ("COUNT".equals(option) && i + 1 < a.size())
+            {
+                count = (int) toLong(a.get(++i));
+            }
+            else
+            {
+                throw new RespError(SYNTAX);
+            }
+        }
+        Iterator<String> it;
+        if ("0".equals(cursor))
+        {
+            it = elements.iterator();
+        }
+        else
+        {
+            String after = cursors.get(toLong(cursor));
+            it = null == after ? Collections.<String> emptyIterator() : elements.tailSet(after, false).iterator();
+        }
+        List<String> batch = new ArrayList<String>();
+        String last = null;
+        int visited = 0;
+        while (it.hasNext() && visited < count)
+        {
+            last = it.next();
+            visited++;
+            if (null == match || match.matcher(last).matches())
+            {
+                batch.add(last);
+            }
+        }
+        String next = "0";
+        if (it.hasNext())
+        {
+            long id = ++cursorSeq;
+            cursors.put(id, last);
+            next = String.valueOf(id);
+        }
+        List<Object> reply = new ArrayList<Object>(2);
+        reply.add(next);
+        reply.add(batch);
+        return reply;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> scanHash(Map<String, String> hash, List<String> a)
+    {
+        List<Object> reply = scan(null == hash ? new TreeSet<String>() : new TreeSet<String>(hash.keySet()), a.get(2),
+                a, 3);
+        List<String> fields = (List<String>) reply.get(1);
+        List<String> pairs = new ArrayList<String>(fields.size() * 2);
+        for (String field : fields)
+        {
+            pairs.add(field);
+            pairs.add(hash.get(field));
+        }
+        reply.set(1, pairs);
+        return reply;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> scanSortedSet(SortedSetValue zset, List<String> a)
+    {
+        List<Object> reply = scan(null == zset ? new TreeSet<String>() : new TreeSet<String>(zset.scores.keySet()),
+                a.get(2), a, 3);
+        List<String> members = (List<String>) reply.get(1);
+        List<String> pairs = new ArrayList<String>(members.size() * 2);
+        for (String member : members)
+        {
+            pairs.add(member);
+            pairs.add(formatDouble(zset.scores.get(member)));
+        }
+        reply.set(1, pairs);
+        return reply;
+    }
+
+    // ---------------------------------------------------------------- 工具
+
+    private static long normalize(long index, int size)
+    {
+        return index < 0 ? size + index : index;
+    }
+
+    private static <T> List<T> slice(List<T> list, long start, long end)
+    {
+        int size = list.size();
+        start = Math.max(normalize(start, size), 0);
+        end = Math.min(normalize(end, size), size - 1);
+        if (start > end)
+        {
+            return new ArrayList<T>();
+        }
+        return new ArrayList<T>(list.subList((int) start, (int) end + 1));
+    }
+
+    private static boolean hasOption(List<String> a, int from, String option)
+    {
+        for (int i = from; i < a.size(); i++)
+        {
+            if (option.equalsIgnoreCase(a.get(i)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long toLong(String value)
+    {
+        return toLong(value, NOT_INTEGER);
+    }
+
+    private static long toLong(String value, String error)
+    {
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new RespError(error);
+        }
+    }
+
+    private static double toDouble(String value)
+    {
+        if ("+inf".equalsIgnoreCase(value) || "inf".equalsIgnoreCase(value))
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        if ("-inf".equalsIgnoreCase(value))
+        {
+            return Double.NEGATIVE_INFINITY;
+        }
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new RespError(NOT_FLOAT);
+        }
+    }
+
+    private static String formatDouble(double value)
+    {
+        if (Double.isInfinite(value))
+        {
+            return value > 0 ? "inf" : "-inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            return String.valueOf((long) value);
+        }
+        return String.valueOf(value);
+    }
+
+    private static String nullToEmpty(String value)
+    {
+        return null == value ? "" : value;
+    }
+
+    private static String nullToZero(String value)
+    {
+        return null == value ? "0" : value;
+    }
+
+    /**
+     * glob 模式(* ? [abc] \x)转为正则
+     */
+    static Pattern globToRegex(String glob)
+    {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++)
+        {
+            char c = glob.charAt(i);
+            switch (c)
+            {
+            case '*':
+                regex.append(".*");
+                break;
+            case '?':
+                regex.append('.');
+                break;
+            case '[':
+                int end = glob.indexOf(']', i + 1);
+                if (end == -1)
+                {
+                    regex.append("\\[");
+                }
+                else
+                {
+                    String body = glob.substring(i + 1, end);
+                    if (body.startsWith("^"))
+                    {
+                        body = "^" + Pattern.quote(body.substring(1)).replace("\\Q", "").replace("\\E", "");
+                    }
+                    regex.append('[').append(body.replace("\\", "\\\\")).append(']');
+                    i = end;
+                }
+                break;
+            case '\\':
+                if (i + 1 < glob.length())
+                {
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                }
+                break;
+            default:
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * sorted set 的值: 成员 -> 分数, 按需排序
+     */
+    private static final class SortedSetValue
+    {
+        private final Map<String, Double> scores = new HashMap<String, Double>();
+
+        private List<Map.Entry<String, Double>> sorted(boolean reverse)
+        {
+            List<Map.Entry<String, Double>> entries = new ArrayList<Map.Entry<String, Double>>(scores.entrySet());
+            Comparator<Map.Entry<String, Double>> order = new Comparator<Map.Entry<String, Double>>()
+            {
+                public int compare(Map.Entry<String, Double> x, Map.Entry<String, Double> y)
+                {
+                    int c = Double.compare(x.getValue(), y.getValue());
+                    return c != 0 ? c : x.getKey().compareTo(y.getKey());
+                }
+            };
+            Collections.sort(entries, reverse ? Collections.reverseOrder(order) : order);
+            return entries;
+        }
+    }
+
+    /**
+     * 分数区间的一端, 支持 -inf/+inf 和 "(" 开区间
+     */
+    private static final class ScoreBound
+    {
+        private final double value;
+
+        private final boolean exclusive;
+
+        private ScoreBound(String bound)
+        {
+            exclusive = bound.startsWith("(");
+            value = toDouble(exclusive ? bound.substring(1) : bound);
+        }
+
+        /**
+         * 作为下界时 score 是否满足
+         */
+        private boolean atMost(double score)
+        {
+            return exclusive ? value < score : value <= score;
+        }
+
+        /**
+         * 作为上界时 score 是否满足
+         */
+        private boolean atLeast(double score)
+        {
+            return exclusive ? score < value : score <= value;
+        }
+    }
+}
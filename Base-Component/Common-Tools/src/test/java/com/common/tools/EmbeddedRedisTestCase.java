@@ -0,0 +1,62 @@
+package com.common.tools;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * 每个测试启动一个内嵌的redis和哨兵, 通过哨兵初始化 RedisUtil
+ */
+public abstract class EmbeddedRedisTestCase extends TestCase
+{
+    protected EmbeddedRedisServer server;
+
+    protected EmbeddedSentinel sentinel;
+
+    protected RedisUtil redis;
+
+    protected EmbeddedRedisTestCase(String testName)
+    {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        server = new EmbeddedRedisServer(0);
+        server.start();
+        sentinel = new EmbeddedSentinel("master", server.getHostAndPort(), 0);
+        sentinel.start();
+        redis = new RedisUtil();
+        redis.setSentinels(Collections.singleton(sentinel.getHostAndPort().toString()));
+        redis.setMasterName("master");
+        configure(redis);
+        redis.init();
+    }
+
+    /**
+     * init之前修改配置
+     *
+     * @param redis
+     */
+    protected void configure(RedisUtil redis)
+    {
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if (null != redis)
+        {
+            redis.destroy();
+        }
+        if (null != sentinel)
+        {
+            sentinel.stop();
+        }
+        if (null != server)
+        {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import redis.clients.jedis.HostAndPort;
+
+/**
+ * 进程内的 sentinel 替身
+ * <p>
+ * 只应答 JedisSentinelPool 用到的命令: SENTINEL get-master-addr-by-name、SENTINEL slaves 和 +switch-master 频道的订阅。
+ * 通过 {@link #failover(HostAndPort)} 可以模拟一次主从切换, 所有订阅的连接池会切换到新的 master。
+ *
+ */
+public class EmbeddedSentinel extends RespServer
+{
+    private static final String SWITCH_MASTER = "+switch-master";
+
+    private final String masterName;
+
+    private volatile HostAndPort master;
+
+    private final List<HostAndPort> replicas = new CopyOnWriteArrayList<HostAndPort>();
+
+    /**
+     * 被标记为主观下线的从节点
+     */
+    private final Set<HostAndPort> downReplicas = new CopyOnWriteArraySet<HostAndPort>();
+
+    /**
+     * @param masterName
+     *            应答的 master 名称
+     * @param master
+     *            master 地址
+     * @param port
+     *            监听端口, 0 表示由系统分配
+     */
+    public EmbeddedSentinel(String masterName, HostAndPort master, int port)
+    {
+        super("embedded-sentinel", port);
+        this.masterName = masterName;
+        this.master = master;
+    }
+
+    public String getMasterName()
+    {
+        return masterName;
+    }
+
+    public HostAndPort getMaster()
+    {
+        return master;
+    }
+
+    /**
+     * 增加一个 SENTINEL slaves 返回的从节点
+     *
+     * @param replica
+     */
+    public void addReplica(HostAndPort replica)
+    {
+        replicas.add(replica);
+    }
+
+    public void removeReplica(HostAndPort replica)
+    {
+        replicas.remove(replica);
+    }
+
+    /**
+     * 标记从节点下线或恢复: 下线的从节点仍在 SENTINEL slaves 中返回, flags 带 s_down, master-link-status 为 err
+     *
+     * @param replica
+     * @param down
+     */
+    public void setReplicaDown(HostAndPort replica, boolean down)
+    {
+        if (down)
+        {
+            downReplicas.add(replica);
+        }
+        else
+        {
+            downReplicas.remove(replica);
+        }
+    }
+
+    /**
+     * 模拟主从切换: 更新 master 地址并发布 +switch-master
+     *
+     * @param newMaster
+     * @return 收到通知的订阅者数
+     */
+    public synchronized long failover(HostAndPort newMaster)
+    {
+        HostAndPort old = master;
+        master = newMaster;
+        replicas.remove(newMaster);
+        return publish(SWITCH_MASTER, masterName + " " + old.getHost() + " " + old.getPort() + " "
+                + newMaster.getHost() + " " + newMaster.getPort());
+    }
+
+    @Override
+    protected Object execute(Session session, List<String> args)
+    {
+        String command = args.get(0);
+        if ("PING".equals(command))
+        {
+            return Status.PONG;
+        }
+        if (!"SENTINEL".equals(command))
+        {
+            throw new RespError("ERR unknown command '" + command.toLowerCase(Locale.ROOT) + "'");
+        }
+        checkArity(args, 3);
+        String sub = args.get(1).toLowerCase(Locale.ROOT);
+        if (!masterName.equals(args.get(2)))
+        {
+            if ("get-master-addr-by-name".equals(sub))
+            {
+                return NULL_ARRAY;
+            }
+            throw new RespError("ERR No such master with that name");
+        }
+        if ("get-master-addr-by-name".equals(sub))
+        {
+            HostAndPort current = master;
+            return Arrays.asList(current.getHost(), String.valueOf(current.getPort()));
+        }
+        if ("slaves".equals(sub) || "replicas".equals(sub))
+        {
+            List<Object> result = new ArrayList<Object>(replicas.size());
+            for (HostAndPort replica : replicas)
+            {
+                boolean down = downReplicas.contains(replica);
+                result.add(Arrays.asList("name", replica.toString(), "ip", replica.getHost(), "port",
+                        String.valueOf(replica.getPort()), "flags", down ? "slave,s_down" : "slave",
+                        "master-link-status", down ? "err" : "ok",
+                        "master-host", master.getHost(), "master-port", String.valueOf(master.getPort())));
+            }
+            return result;
+        }
+        throw new RespError("ERR Unknown sentinel subcommand '" + args.get(1) + "'");
+    }
+}
@@ -0,0 +1,195 @@
+package com.common.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * 复用线程内 ObjectOutputStream 的输出与每次新建 ObjectOutputStream 逐字节相同, 旧版本的读取方依赖这一点
+ */
+public class JavaSerializationCodecTest extends TestCase
+{
+    private final JavaSerializationCodec codec = new JavaSerializationCodec();
+
+    public JavaSerializationCodecTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(JavaSerializationCodecTest.class);
+    }
+
+    public void testRepeatedWritesOnOneThread() throws IOException
+    {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("string", "value");
+        map.put("date", new Date(1234567890L));
+        map.put("list", new ArrayList<Object>(Arrays.asList(1, 2L, "3")));
+        Object[] values = { "text", 42, map, new Bean("a", 1), new int[] { 1, 2, 3 }, map, new Bean("a", 1) };
+        // 同一对象、同一个类连续写入, reset 之后不能出现对上一次写入的引用
+        for (int round = 0; round < 3; round++)
+        {
+            for (Object value : values)
+            {
+                assertSameAsFreshStream(value);
+            }
+        }
+    }
+
+    public void testSharedObjectGraph() throws IOException
+    {
+        Bean shared = new Bean("shared", 7);
+        List<Object> graph = new ArrayList<Object>();
+        graph.add(shared);
+        graph.add(shared);
+        graph.add(new Bean("other", 8));
+        graph.add(Arrays.asList(shared, "tail"));
+        Bean cycle = new Bean("cycle", 9);
+        cycle.next = cycle;
+        graph.add(cycle);
+        assertSameAsFreshStream(graph);
+        assertSameAsFreshStream(graph);
+        assertSameAsFreshStream(shared);
+    }
+
+    public void testNestedEncodeInWriteObject() throws IOException
+    {
+        Nested nested = new Nested(new Bean("inner", 1));
+        assertSameAsFreshStream(nested);
+        assertSameAsFreshStream(Arrays.asList(nested, nested));
+        assertSameAsFreshStream(new Bean("after", 2));
+    }
+
+    public void testWritesAfterFailedSerialization() throws IOException
+    {
+        Bean before = new Bean("before", 1);
+        assertSameAsFreshStream(before);
+
+        List<Object> broken = new ArrayList<Object>();
+        broken.add(new Bean("partial", 2));
+        broken.add(new Object());
+        try
+        {
+            codec.encode(broken, new ByteArrayOutput());
+            fail("non-serializable element should fail");
+        }
+        catch (NotSerializableException expected)
+        {
+        }
+
+        assertSameAsFreshStream(before);
+        assertSameAsFreshStream(new Bean("partial", 2));
+        assertSameAsFreshStream(broken.get(0));
+    }
+
+    public void testSerializeUtilMatchesFreshStream() throws IOException
+    {
+        Bean bean = new Bean("util", 3);
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(Arrays.equals(fresh(bean), SerializeUtil.serialize(bean)));
+        }
+        assertEquals(bean, SerializeUtil.unserialize(SerializeUtil.serialize(bean)));
+    }
+
+    private void assertSameAsFreshStream(Object value) throws IOException
+    {
+        ByteArrayOutput out = new ByteArrayOutput();
+        codec.encode(value, out);
+        byte[] expected = fresh(value);
+        byte[] actual = out.toByteArray();
+        assertTrue("bytes differ from a fresh ObjectOutputStream for " + value, Arrays.equals(expected, actual));
+    }
+
+    private static byte[] fresh(Object value) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(value);
+        oos.flush();
+        return bytes.toByteArray();
+    }
+
+    static class Bean implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        String name;
+
+        int value;
+
+        Bean next;
+
+        Bean(String name, int value)
+        {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Bean))
+            {
+                return false;
+            }
+            Bean other = (Bean) obj;
+            return name.equals(other.name) && value == other.value;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return name.hashCode() * 31 + value;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + ":" + value;
+        }
+    }
+
+    /**
+     * writeObject 中用 SerializeUtil 编码字段, 触发嵌套编码
+     */
+    static class Nested implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        transient Bean bean;
+
+        Nested(Bean bean)
+        {
+            this.bean = bean;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException
+        {
+            out.defaultWriteObject();
+            byte[] inner = SerializeUtil.serialize(bean);
+            out.writeInt(inner.length);
+            out.write(inner);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "nested(" + bean + ")";
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.common.tools;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * LatencyHistogram: 分桶下标、已知分布上的分位数、快照与清零
+ */
+public class LatencyHistogramTest extends TestCase
+{
+    public LatencyHistogramTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(LatencyHistogramTest.class);
+    }
+
+    public void testBucketIndex()
+    {
+        // 小于16的值每个值一个桶
+        for (int v = 0; v < 16; v++)
+        {
+            assertEquals(v, LatencyHistogram.indexOf(v));
+            assertEquals(v, LatencyHistogram.highestValueOf(v));
+        }
+        // [16, 32) 仍是精确的, 之后每个2的幂区间16个子桶
+        assertEquals(16, LatencyHistogram.indexOf(16));
+        assertEquals(31, LatencyHistogram.indexOf(31));
+        assertEquals(32, LatencyHistogram.indexOf(32));
+        assertEquals(32, LatencyHistogram.indexOf(33));
+        assertEquals(33, LatencyHistogram.indexOf(34));
+        assertEquals(33, LatencyHistogram.highestValueOf(32));
+        assertEquals(48, LatencyHistogram.indexOf(64));
+        assertEquals(48, LatencyHistogram.indexOf(67));
+        assertEquals(49, LatencyHistogram.indexOf(68));
+
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++)
+        {
+            long v = random.nextLong() >>> (1 + random.nextInt(40));
+            if (v >= 1L << 40)
+            {
+                continue;
+            }
+            int index = LatencyHistogram.indexOf(v);
+            long high = LatencyHistogram.highestValueOf(index);
+            // 值落在桶的范围内, 桶宽不超过值的 1/16
+            assertTrue(v + " -> " + high, high >= v);
+            assertTrue(v + " -> " + high, index == 0 || LatencyHistogram.highestValueOf(index - 1) < v);
+            assertTrue(v + " -> " + high, high - v <= v / 16);
+        }
+    }
+
+    public void testBucketIndexIsMonotonic()
+    {
+        int previous = 0;
+        for (long v = 0; v < 1 << 16; v++)
+        {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(index == previous || index == previous + 1);
+            previous = index;
+        }
+    }
+
+    public void testValuesBeyondRangeGoToLastBucket()
+    {
+        int last = LatencyHistogram.indexOf((1L << 40) - 1);
+        assertEquals(last, LatencyHistogram.indexOf(1L << 40));
+        assertEquals(last, LatencyHistogram.indexOf(Long.MAX_VALUE));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        // 负值按0记录
+        assertEquals(0.0, snapshot.getP50Micros());
+    }
+
+    public void testUniformDistribution()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1..10000 微秒
+        for (int i = 1; i <= 10000; i++)
+        {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(5000.5, snapshot.getMeanMicros(), 0.001);
+        assertEquals(10000.0, snapshot.getMaxMicros(), 0.001);
+        assertWithin(5000, snapshot.getP50Micros());
+        assertWithin(9900, snapshot.getP99Micros());
+        assertWithin(9990, snapshot.getP999Micros());
+        // 分位数不超过最大值
+        assertTrue(snapshot.getP999Micros() <= snapshot.getMaxMicros());
+    }
+
+    public void testBimodalDistribution()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++)
+        {
+            histogram.record(100000L);
+        }
+        for (int i = 0; i < 10; i++)
+        {
+            histogram.record(50000000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertWithin(100, snapshot.getP50Micros());
+        assertWithin(100, snapshot.getP99Micros());
+        assertWithin(50000, snapshot.getP999Micros());
+        assertEquals(50000.0, snapshot.getMaxMicros(), 0.001);
+    }
+
+    public void testSnapshotAndReset()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram.Snapshot empty = histogram.snapshot();
+        assertEquals(0, empty.getCount());
+        assertEquals(0.0, empty.getMeanMicros());
+        assertEquals(0.0, empty.getP99Micros());
+
+        histogram.record(2000);
+        histogram.recordError(4000);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        histogram.record(8000);
+        // 快照不随之后的记录变化
+        assertEquals(2, snapshot.getCount());
+        assertEquals(1, snapshot.getErrors());
+        assertEquals(3.0, snapshot.getMeanMicros(), 0.001);
+        assertEquals(4.0, snapshot.getMaxMicros(), 0.001);
+        assertEquals(3, histogram.snapshot().getCount());
+
+        histogram.reset();
+        LatencyHistogram.Snapshot cleared = histogram.snapshot();
+        assertEquals(0, cleared.getCount());
+        assertEquals(0, cleared.getErrors());
+        assertEquals(0.0, cleared.getMaxMicros());
+        histogram.record(1000);
+        assertEquals(1.0, histogram.snapshot().getMaxMicros(), 0.001);
+    }
+
+    /**
+     * 分位数取桶的上界, 不小于真实值, 相对误差不超过 1/16
+     */
+    private static void assertWithin(double expectedMicros, double actualMicros)
+    {
+        assertTrue(expectedMicros + " vs " + actualMicros,
+                actualMicros >= expectedMicros && actualMicros <= expectedMicros * (1 + 1.0 / 16));
+    }
+}
@@ -0,0 +1,326 @@
+package com.common.tools;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LoadState;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.PackageLib;
+import org.luaj.vm2.lib.StringLib;
+import org.luaj.vm2.lib.TableLib;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JseBaseLib;
+import org.luaj.vm2.lib.jse.JseMathLib;
+
+import com.common.tools.RespServer.RespError;
+import com.common.tools.RespServer.Status;
+
+/**
+ * 用 LuaJ 执行 EVAL/EVALSHA 的脚本, 供 {@link EmbeddedRedisServer} 使用
+ * <p>
+ * 只加载 Redis 脚本环境中也有的 base/table/string/math 库, 提供 redis.call/pcall/error_reply/status_reply/log;
+ * 参数和回复按 Redis 的规则转换: 整数回复为 number, 空回复为 false, 状态回复为 {ok=...}, 错误回复为 {err=...},
+ * 脚本返回的 number 截断为整数, false/nil 为空回复。<br/>
+ * 由调用方在服务端的锁内执行, 不是线程安全的。
+ *
+ */
+final class LuaScripting
+{
+    private static final LuaString OK = LuaString.valueOf("ok");
+
+    private static final LuaString ERR = LuaString.valueOf("err");
+
+    private final Globals globals = new Globals();
+
+    /**
+     * sha -> 编译后的脚本
+     */
+    private final Map<String, LuaValue> functions = new HashMap<String, LuaValue>();
+
+    /**
+     * 当前脚本的 redis.call
+     */
+    private Function<List<String>, Object> redis;
+
+    LuaScripting()
+    {
+        globals.load(new JseBaseLib());
+        globals.load(new PackageLib());
+        globals.load(new TableLib());
+        globals.load(new StringLib());
+        globals.load(new JseMathLib());
+        LoadState.install(globals);
+        LuaC.install(globals);
+
+        LuaTable api = new LuaTable();
+        api.set("call", new VarArgFunction()
+        {
+            @Override
+            public Varargs invoke(Varargs args)
+            {
+                return toLua(redis.apply(command(args)));
+            }
+        });
+        api.set("pcall", new VarArgFunction()
+        {
+            @Override
+            public Varargs invoke(Varargs args)
+            {
+                try
+                {
+                    return toLua(redis.apply(command(args)));
+                }
+                catch (RespError e)
+                {
+                    return reply(ERR, e.getMessage());
+                }
+            }
+        });
+        api.set("error_reply", new OneArgFunction()
+        {
+            @Override
+            public LuaValue call(LuaValue message)
+            {
+                return reply(ERR, message.checkjstring());
+            }
+        });
+        api.set("status_reply", new OneArgFunction()
+        {
+            @Override
+            public LuaValue call(LuaValue message)
+            {
+                return reply(OK, message.checkjstring());
+            }
+        });
+        api.set("log", new VarArgFunction()
+        {
+            @Override
+            public Varargs invoke(Varargs args)
+            {
+                return NONE;
+            }
+        });
+        api.set("LOG_DEBUG", 0);
+        api.set("LOG_VERBOSE", 1);
+        api.set("LOG_NOTICE", 2);
+        api.set("LOG_WARNING", 3);
+        globals.set("redis", api);
+    }
+
+    /**
+     * 执行脚本
+     *
+     * @param sha
+     * @param source
+     * @param keys
+     *            KEYS
+     * @param args
+     *            ARGV
+     * @param redis
+     *            redis.call 执行的命令, 错误时抛出 {@link RespError}
+     * @return 回复, 类型同 {@link RespServer#execute}
+     */
+    Object eval(String sha, String source, List<String> keys, List<String> args, Function<List<String>, Object> redis)
+    {
+        LuaValue function = functions.get(sha);
+        if (null == function)
+        {
+            try
+            {
+                function = globals.load(source, "@user_script");
+            }
+            catch (LuaError e)
+            {
+                throw new RespError("ERR Error compiling script (new function): " + e.getMessage());
+            }
+            functions.put(sha, function);
+        }
+        globals.set("KEYS", table(keys));
+        globals.set("ARGV", table(args));
+        this.redis = redis;
+        try
+        {
+            return fromLua(function.call());
+        }
+        catch (LuaError e)
+        {
+            // redis.call 的错误回复原样返回, 与 Redis 7 相同
+            for (Throwable cause = e; null != cause; cause = cause.getCause())
+            {
+                if (cause instanceof RespError)
+                {
+                    throw (RespError) cause;
+                }
+            }
+            throw new RespError("ERR Error running script (call to f_" + sha + "): " + e.getMessage());
+        }
+        finally
+        {
+            this.redis = null;
+        }
+    }
+
+    private static LuaTable table(List<String> values)
+    {
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < values.size(); i++)
+        {
+            table.set(i + 1, string(values.get(i)));
+        }
+        return table;
+    }
+
+    private static LuaTable reply(LuaString type, String message)
+    {
+        LuaTable table = new LuaTable();
+        table.set(type, string(message));
+        return table;
+    }
+
+    /**
+     * redis.call 的参数只能是字符串或数字, 数字按 Lua 的 tostring 转换(整数不带小数点)
+     */
+    private static List<String> command(Varargs args)
+    {
+        if (args.narg() == 0)
+        {
+            throw new LuaError("Please specify at least one argument for redis.call()");
+        }
+        List<String> command = new ArrayList<String>(args.narg());
+        for (int i = 1; i <= args.narg(); i++)
+        {
+            LuaValue arg = args.arg(i);
+            if (arg.type() == LuaValue.TNUMBER)
+            {
+                command.add(number(arg.todouble()));
+            }
+            else if (arg.type() == LuaValue.TSTRING)
+            {
+                command.add(javaString(arg.checkstring()));
+            }
+            else
+            {
+                throw new LuaError("Lua redis() command arguments must be strings or integers");
+            }
+        }
+        return command;
+    }
+
+    /**
+     * 与 Lua 5.1 的 %.14g 一致的数字格式
+     */
+    private static String number(double value)
+    {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            return Long.toString((long) value);
+        }
+        return new BigDecimal(value).round(new MathContext(14)).stripTrailingZeros().toString();
+    }
+
+    /**
+     * Redis 回复 -> Lua
+     */
+    private static LuaValue toLua(Object reply)
+    {
+        if (null == reply || reply == RespServer.NULL_ARRAY)
+        {
+            return LuaValue.FALSE;
+        }
+        if (reply instanceof Status)
+        {
+            return reply(OK, reply.toString());
+        }
+        if (reply instanceof RespError)
+        {
+            return reply(ERR, ((RespError) reply).getMessage());
+        }
+        if (reply instanceof Number)
+        {
+            return LuaValue.valueOf((double) ((Number) reply).longValue());
+        }
+        if (reply instanceof Boolean)
+        {
+            return LuaValue.valueOf(((Boolean) reply) ? 1 : 0);
+        }
+        if (reply instanceof Collection)
+        {
+            LuaTable table = new LuaTable();
+            int i = 1;
+            for (Object item : (Collection<?>) reply)
+            {
+                table.set(i++, toLua(item));
+            }
+            return table;
+        }
+        return string(reply.toString());
+    }
+
+    /**
+     * Lua 返回值 -> Redis 回复
+     */
+    private static Object fromLua(LuaValue value)
+    {
+        switch (value.type())
+        {
+        case LuaValue.TNIL:
+            return null;
+        case LuaValue.TBOOLEAN:
+            return value.toboolean() ? 1L : null;
+        case LuaValue.TNUMBER:
+            return (long) value.todouble();
+        case LuaValue.TSTRING:
+            return javaString(value.checkstring());
+        case LuaValue.TTABLE:
+            LuaValue err = value.get(ERR);
+            if (err.isstring())
+            {
+                throw new RespError(err.tojstring());
+            }
+            LuaValue ok = value.get(OK);
+            if (ok.isstring())
+            {
+                return new Status(ok.tojstring());
+            }
+            List<Object> items = new ArrayList<Object>();
+            for (int i = 1;; i++)
+            {
+                LuaValue item = value.get(i);
+                if (item.isnil())
+                {
+                    return items;
+                }
+                LuaValue itemErr = item.istable() ? item.get(ERR) : LuaValue.NIL;
+                items.add(itemErr.isstring() ? new RespError(itemErr.tojstring()) : fromLua(item));
+            }
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * 与 {@link RespServer#CHARSET} 一致, 按字节转换, 二进制值不会被改变
+     */
+    private static LuaString string(String value)
+    {
+        return LuaString.valueOf(value.getBytes(RespServer.CHARSET));
+    }
+
+    private static String javaString(LuaString value)
+    {
+        return new String(value.m_bytes, value.m_offset, value.m_length, RespServer.CHARSET);
+    }
+}
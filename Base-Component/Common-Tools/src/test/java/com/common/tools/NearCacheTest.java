@@ -0,0 +1,115 @@
+package com.common.tools;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import redis.clients.jedis.Jedis;
+
+/**
+ * 近端缓存: 命中、本节点写入时失效、TTL 过期、读取期间失效时放弃回填以及容量淘汰
+ */
+public class NearCacheTest extends EmbeddedRedisTestCase
+{
+    private static final long TTL_MILLIS = 500;
+
+    public NearCacheTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(NearCacheTest.class);
+    }
+
+    @Override
+    protected void configure(RedisUtil redis)
+    {
+        redis.setNearCacheEnabled(true);
+        redis.setNearCacheTtlMillis(TTL_MILLIS);
+    }
+
+    public void testHitDoesNotReadRedis()
+    {
+        redis.set("k", "v");
+        assertEquals("v", redis.get("k"));
+        // 其他节点的写入在TTL内不可见
+        setDirectly("k", "other");
+        assertEquals("v", redis.get("k"));
+        assertEquals(1, redis.getStringNearCache().getHitCount());
+    }
+
+    public void testLocalWritesInvalidate()
+    {
+        redis.set("k", "v1");
+        assertEquals("v1", redis.get("k"));
+        redis.set("k", "v2");
+        assertEquals("v2", redis.get("k"));
+        redis.incrBy("n", 1);
+        assertEquals("1", redis.get("n"));
+        redis.incrBy("n", 1);
+        assertEquals("2", redis.get("n"));
+        redis.del("k");
+        assertNull(redis.get("k"));
+    }
+
+    public void testEntriesExpireAfterTtl() throws InterruptedException
+    {
+        redis.set("k", "v");
+        assertEquals("v", redis.get("k"));
+        setDirectly("k", "other");
+        Thread.sleep(TTL_MILLIS + 200);
+        assertEquals("other", redis.get("k"));
+    }
+
+    public void testObjectCacheInvalidatedByObjectWrites()
+    {
+        redis.setObject("o", "v1");
+        assertEquals("v1", redis.getObject("o"));
+        redis.setObject("o", "v2");
+        assertEquals("v2", redis.getObject("o"));
+        redis.mSetObject(Collections.singletonMap("o", "v3"), 0);
+        assertEquals("v3", redis.<String> mGetObject(Arrays.asList("o")).get("o"));
+        assertEquals("v3", redis.getObject("o"));
+    }
+
+    public void testPutAfterInvalidationIsDropped()
+    {
+        NearCache cache = new NearCache(16, TTL_MILLIS, NearCache.EvictionPolicy.LRU);
+        long version = cache.version("k");
+        // 读取Redis期间发生写入, 读到的旧值不能回填
+        cache.invalidate("k");
+        cache.put("k", "stale", version);
+        assertNull(cache.get("k"));
+        cache.put("k", "fresh", cache.version("k"));
+        assertEquals("fresh", cache.get("k"));
+    }
+
+    public void testLruEviction()
+    {
+        // 16 个分段, 每段 1 条
+        NearCache cache = new NearCache(16, 60000, NearCache.EvictionPolicy.LRU);
+        for (int i = 0; i < 100; i++)
+        {
+            String key = "k" + i;
+            cache.put(key, key, cache.version(key));
+        }
+        assertTrue(cache.size() <= 16);
+        assertTrue(cache.getEvictionCount() >= 84);
+    }
+
+    private void setDirectly(String key, String value)
+    {
+        Jedis jedis = new Jedis(server.getHostAndPort().getHost(), server.getHostAndPort().getPort());
+        try
+        {
+            jedis.set(key, value);
+        }
+        finally
+        {
+            jedis.close();
+        }
+    }
+}
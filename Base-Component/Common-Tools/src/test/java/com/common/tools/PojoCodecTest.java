@@ -0,0 +1,407 @@
+package com.common.tools;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * PojoCodec 编解码及构造器检查: 各种字段类型、null、跳过未知编号、int 与 long 兼容以及 setTyped/getTyped
+ */
+public class PojoCodecTest extends TestCase
+{
+    public PojoCodecTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(PojoCodecTest.class);
+    }
+
+    public void testRoundTrip()
+    {
+        Item item = new Item();
+        item.id = 7;
+        item.name = "item";
+        item.tags = Arrays.asList("a", "b");
+
+        PojoCodec<Item> codec = PojoCodec.of(Item.class);
+        Item copy = SerializeUtil.decode(SerializeUtil.encode(item, codec), codec, null);
+        assertEquals(7, copy.id);
+        assertEquals("item", copy.name);
+        assertEquals(Arrays.asList("a", "b"), copy.tags);
+    }
+
+    public void testPrivateConstructorIsUsed()
+    {
+        PojoCodec<PrivateConstructor> codec = PojoCodec.of(PrivateConstructor.class);
+        PrivateConstructor copy = SerializeUtil.decode(SerializeUtil.encode(PrivateConstructor.create(3), codec), codec,
+                null);
+        assertEquals(3, copy.value);
+        assertEquals("default", copy.initialized);
+    }
+
+    public void testNoArgConstructorRequired()
+    {
+        try
+        {
+            PojoCodec.of(NoDefault.class);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains(NoDefault.class.getName()));
+        }
+    }
+
+    public void testEveryKind()
+    {
+        AllKinds all = new AllKinds();
+        all.i = Integer.MIN_VALUE;
+        all.l = Long.MAX_VALUE;
+        all.s = Short.MIN_VALUE;
+        all.b = -1;
+        all.c = '\u4e2d';
+        all.z = true;
+        all.f = -1.5f;
+        all.d = Math.PI;
+        all.boxedInt = -7;
+        all.boxedLong = Long.MIN_VALUE;
+        all.boxedShort = 300;
+        all.boxedByte = Byte.MAX_VALUE;
+        all.boxedChar = 'x';
+        all.boxedBoolean = Boolean.FALSE;
+        all.boxedFloat = Float.NaN;
+        all.boxedDouble = Double.NEGATIVE_INFINITY;
+        all.string = "中文 text";
+        all.bytes = new byte[] { 0, 1, -1 };
+        all.color = Color.GREEN;
+        all.date = new Date(-1000L);
+        all.nested = new Item();
+        all.nested.id = 5;
+        all.nested.name = "nested";
+        all.list = Arrays.asList(1, 2, 3);
+
+        AllKinds copy = roundTrip(all, AllKinds.class);
+        assertEquals(Integer.MIN_VALUE, copy.i);
+        assertEquals(Long.MAX_VALUE, copy.l);
+        assertEquals(Short.MIN_VALUE, copy.s);
+        assertEquals(-1, copy.b);
+        assertEquals('\u4e2d', copy.c);
+        assertTrue(copy.z);
+        assertEquals(-1.5f, copy.f);
+        assertEquals(Math.PI, copy.d);
+        assertEquals(Integer.valueOf(-7), copy.boxedInt);
+        assertEquals(Long.valueOf(Long.MIN_VALUE), copy.boxedLong);
+        assertEquals(Short.valueOf((short) 300), copy.boxedShort);
+        assertEquals(Byte.valueOf(Byte.MAX_VALUE), copy.boxedByte);
+        assertEquals(Character.valueOf('x'), copy.boxedChar);
+        assertEquals(Boolean.FALSE, copy.boxedBoolean);
+        assertTrue(copy.boxedFloat.isNaN());
+        assertEquals(Double.NEGATIVE_INFINITY, copy.boxedDouble);
+        assertEquals("中文 text", copy.string);
+        assertTrue(Arrays.equals(new byte[] { 0, 1, -1 }, copy.bytes));
+        assertSame(Color.GREEN, copy.color);
+        assertEquals(new Date(-1000L), copy.date);
+        assertEquals(5, copy.nested.id);
+        assertEquals("nested", copy.nested.name);
+        assertNull(copy.nested.tags);
+        assertEquals(Arrays.asList(1, 2, 3), copy.list);
+    }
+
+    public void testNullFields()
+    {
+        AllKinds all = new AllKinds();
+        AllKinds copy = roundTrip(all, AllKinds.class);
+        assertNull(copy.boxedInt);
+        assertNull(copy.boxedLong);
+        assertNull(copy.boxedChar);
+        assertNull(copy.string);
+        assertNull(copy.bytes);
+        assertNull(copy.color);
+        assertNull(copy.date);
+        assertNull(copy.nested);
+        assertNull(copy.list);
+
+        // 写入的null覆盖构造器中的默认值
+        WithDefault withNull = new WithDefault();
+        withNull.name = null;
+        assertNull(roundTrip(withNull, WithDefault.class).name);
+    }
+
+    /**
+     * 新版本增加的字段(各种编码方式)在旧版本中被跳过, 旧数据在新版本中缺少的字段保持默认值
+     */
+    public void testSkipsUnknownTags()
+    {
+        Extended extended = new Extended();
+        extended.id = 9;
+        extended.count = 123456789012L;
+        extended.ratio = 0.25f;
+        extended.score = 2.5;
+        extended.label = "skip me";
+        extended.missing = null;
+        extended.inner = new Item();
+        extended.inner.id = 1;
+        extended.name = "kept";
+        extended.color = Color.RED;
+
+        PojoCodec<Extended> writer = PojoCodec.of(Extended.class);
+        PojoCodec<Item> reader = PojoCodec.of(Item.class);
+        Item item = SerializeUtil.decode(SerializeUtil.encode(extended, writer), reader, null);
+        assertEquals(9, item.id);
+        assertEquals("kept", item.name);
+        assertNull(item.tags);
+
+        Item old = new Item();
+        old.id = 3;
+        old.name = "old";
+        Extended upgraded = SerializeUtil.decode(SerializeUtil.encode(old, reader), writer, null);
+        assertEquals(3, upgraded.id);
+        assertEquals("old", upgraded.name);
+        assertEquals(0L, upgraded.count);
+        assertEquals("initial", upgraded.missing);
+        assertNull(upgraded.color);
+    }
+
+    public void testIntLongCompatibility()
+    {
+        IntVersion small = new IntVersion();
+        small.value = -42;
+        small.boxed = Integer.MAX_VALUE;
+        LongVersion widened = SerializeUtil.decode(SerializeUtil.encode(small, PojoCodec.of(IntVersion.class)),
+                PojoCodec.of(LongVersion.class), null);
+        assertEquals(-42L, widened.value);
+        assertEquals(Long.valueOf(Integer.MAX_VALUE), widened.boxed);
+
+        LongVersion large = new LongVersion();
+        large.value = Integer.MIN_VALUE;
+        large.boxed = 7L;
+        IntVersion narrowed = SerializeUtil.decode(SerializeUtil.encode(large, PojoCodec.of(LongVersion.class)),
+                PojoCodec.of(IntVersion.class), null);
+        assertEquals(Integer.MIN_VALUE, narrowed.value);
+        assertEquals(Integer.valueOf(7), narrowed.boxed);
+    }
+
+    public void testSetTypedRoundTrip() throws Exception
+    {
+        EmbeddedRedisServer server = new EmbeddedRedisServer(0);
+        server.start();
+        EmbeddedSentinel sentinel = new EmbeddedSentinel("master", server.getHostAndPort(), 0);
+        sentinel.start();
+        RedisUtil redis = new RedisUtil();
+        try
+        {
+            redis.setSentinels(Collections.singleton(sentinel.getHostAndPort().toString()));
+            redis.setMasterName("master");
+            redis.setCompressThreshold(64);
+            redis.init();
+
+            PojoCodec<Item> codec = PojoCodec.of(Item.class);
+            Item item = new Item();
+            item.id = 11;
+            item.name = "typed";
+            item.tags = Collections.nCopies(50, "tag");
+            assertEquals("OK", redis.setTyped("item", item, codec));
+            Item copy = redis.getTyped("item", codec);
+            assertEquals(11, copy.id);
+            assertEquals("typed", copy.name);
+            assertEquals(item.tags, copy.tags);
+            assertEquals("OK", redis.setTyped("expiring", 60, item, codec));
+            assertEquals(11, redis.getTyped("expiring", codec).id);
+            assertNull(redis.getTyped("missing", codec));
+        }
+        finally
+        {
+            redis.destroy();
+            sentinel.stop();
+            server.stop();
+        }
+    }
+
+    private static <T> T roundTrip(T obj, Class<T> type)
+    {
+        PojoCodec<T> codec = PojoCodec.of(type);
+        return SerializeUtil.decode(SerializeUtil.encode(obj, codec), codec, null);
+    }
+
+    static class Item
+    {
+        @Tag(1)
+        int id;
+
+        @Tag(2)
+        String name;
+
+        @Tag(3)
+        List<String> tags;
+    }
+
+    static class PrivateConstructor
+    {
+        @Tag(1)
+        int value;
+
+        String initialized;
+
+        private PrivateConstructor()
+        {
+            initialized = "default";
+        }
+
+        static PrivateConstructor create(int value)
+        {
+            PrivateConstructor obj = new PrivateConstructor();
+            obj.value = value;
+            return obj;
+        }
+    }
+
+    static class NoDefault
+    {
+        @Tag(1)
+        int value;
+
+        NoDefault(int value)
+        {
+            this.value = value;
+        }
+    }
+
+    enum Color
+    {
+        RED, GREEN
+    }
+
+    static class AllKinds
+    {
+        @Tag(1)
+        int i;
+
+        @Tag(2)
+        long l;
+
+        @Tag(3)
+        short s;
+
+        @Tag(4)
+        byte b;
+
+        @Tag(5)
+        char c;
+
+        @Tag(6)
+        boolean z;
+
+        @Tag(7)
+        float f;
+
+        @Tag(8)
+        double d;
+
+        @Tag(9)
+        Integer boxedInt;
+
+        @Tag(10)
+        Long boxedLong;
+
+        @Tag(11)
+        Short boxedShort;
+
+        @Tag(12)
+        Byte boxedByte;
+
+        @Tag(13)
+        Character boxedChar;
+
+        @Tag(14)
+        Boolean boxedBoolean;
+
+        @Tag(15)
+        Float boxedFloat;
+
+        @Tag(16)
+        Double boxedDouble;
+
+        @Tag(17)
+        String string;
+
+        @Tag(18)
+        byte[] bytes;
+
+        @Tag(19)
+        Color color;
+
+        @Tag(20)
+        Date date;
+
+        @Tag(21)
+        Item nested;
+
+        @Tag(22)
+        List<Integer> list;
+    }
+
+    static class WithDefault
+    {
+        @Tag(1)
+        String name = "default";
+    }
+
+    /**
+     * 在 {@link Item} 的基础上增加字段的新版本, 新字段的编号与旧字段交错
+     */
+    static class Extended
+    {
+        @Tag(1)
+        int id;
+
+        @Tag(2)
+        String name;
+
+        @Tag(4)
+        long count;
+
+        @Tag(5)
+        float ratio;
+
+        @Tag(6)
+        double score;
+
+        @Tag(7)
+        String label;
+
+        @Tag(8)
+        String missing = "initial";
+
+        @Tag(9)
+        Item inner;
+
+        @Tag(300)
+        Color color;
+    }
+
+    static class IntVersion
+    {
+        @Tag(1)
+        int value;
+
+        @Tag(2)
+        Integer boxed;
+    }
+
+    static class LongVersion
+    {
+        @Tag(1)
+        long value;
+
+        @Tag(2)
+        Long boxed;
+    }
+}
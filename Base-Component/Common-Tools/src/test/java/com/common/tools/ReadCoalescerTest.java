@@ -0,0 +1,211 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import redis.clients.jedis.Jedis;
+
+import com.common.tools.RedisUtil.ReadGroup;
+import com.common.tools.RedisUtil.ReadPreference;
+
+/**
+ * 读请求合并: 凑批与刷新、停止、错误分发以及按读取偏好路由
+ */
+public class ReadCoalescerTest extends EmbeddedRedisTestCase
+{
+    /**
+     * 合并窗口足够长, 只有凑满一批才会提前发送
+     */
+    private static final long WINDOW_MICROS = TimeUnit.SECONDS.toMicros(10);
+
+    private static final int BATCH_SIZE = 4;
+
+    private EmbeddedRedisServer replica;
+
+    private ExecutorService executor;
+
+    public ReadCoalescerTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ReadCoalescerTest.class);
+    }
+
+    @Override
+    protected void configure(RedisUtil redis)
+    {
+        redis.setMetricsEnabled(true);
+        redis.setCoalescingEnabled(true);
+        redis.setCoalescingWindowMicros(WINDOW_MICROS);
+        redis.setCoalescingMaxBatchSize(BATCH_SIZE);
+        redis.setCoalescingThreads(1);
+        if ("testReplicaPreference".equals(getName()))
+        {
+            try
+            {
+                replica = new EmbeddedRedisServer(0);
+                replica.start();
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+            sentinel.addReplica(replica.getHostAndPort());
+            redis.setReplicaReadEnabled(true);
+            redis.setReplicaReadGroups(EnumSet.of(ReadGroup.STRING));
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        executor = Executors.newCachedThreadPool();
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        executor.shutdownNow();
+        super.tearDown();
+        if (null != replica)
+        {
+            replica.stop();
+        }
+    }
+
+    public void testFullBatchIsFlushedBeforeWindow() throws Exception
+    {
+        redis.set("a", "1");
+        redis.set("b", "2");
+        redis.hset("h", "f", "3");
+
+        long start = System.nanoTime();
+        List<Future<String>> results = submit(() -> redis.get("a"), () -> redis.get("b"), () -> redis.get("a"),
+                () -> redis.hget("h", "f"));
+        assertEquals("1", results.get(0).get(5, TimeUnit.SECONDS));
+        assertEquals("2", results.get(1).get(5, TimeUnit.SECONDS));
+        assertEquals("1", results.get(2).get(5, TimeUnit.SECONDS));
+        assertEquals("3", results.get(3).get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MICROSECONDS.toNanos(WINDOW_MICROS));
+        assertEquals(1, completed("readPipelineExecute"));
+    }
+
+    public void testWrongTypeFailsOnlyThatRequest() throws Exception
+    {
+        redis.set("a", "1");
+        redis.hset("h", "f", "3");
+
+        List<Future<String>> results = submit(() -> redis.get("a"), () -> redis.get("h"), () -> redis.get("missing"),
+                () -> redis.hget("a", "f"));
+        assertEquals("1", results.get(0).get(5, TimeUnit.SECONDS));
+        assertWrongType(results.get(1));
+        assertNull(results.get(2).get(5, TimeUnit.SECONDS));
+        assertWrongType(results.get(3));
+        assertEquals(1, completed("readPipelineExecute"));
+    }
+
+    public void testShutdownFailsPendingAndNewRequests() throws Exception
+    {
+        ReadCoalescer coalescer = new ReadCoalescer(redis, WINDOW_MICROS, BATCH_SIZE, 1, 5000);
+        Future<String> pending = submit(() -> coalescer.get("a")).get(0);
+        // 等待请求被合并线程取走, 停在合并窗口内
+        Thread.sleep(200);
+        coalescer.shutdown();
+        try
+        {
+            pending.get(5, TimeUnit.SECONDS);
+            fail("pending request should fail on shutdown");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        try
+        {
+            coalescer.get("a");
+            fail("shut down coalescer should reject requests");
+        }
+        catch (IllegalStateException expected)
+        {
+        }
+    }
+
+    public void testReplicaPreference() throws Exception
+    {
+        set(server, "k", "master");
+        set(replica, "k", "replica");
+
+        List<Future<String>> replicaReads = submit(() -> redis.get("k"), () -> redis.get("k"), () -> redis.get("k"),
+                () -> redis.get("k"));
+        for (Future<String> result : replicaReads)
+        {
+            assertEquals("replica", result.get(5, TimeUnit.SECONDS));
+        }
+
+        List<Future<String>> masterReads = submit(
+                () -> redis.withReadPreference(ReadPreference.MASTER, () -> redis.get("k")),
+                () -> redis.withReadPreference(ReadPreference.MASTER, () -> redis.get("k")),
+                () -> redis.withReadPreference(ReadPreference.MASTER, () -> redis.get("k")),
+                () -> redis.withReadPreference(ReadPreference.MASTER, () -> redis.get("k")));
+        for (Future<String> result : masterReads)
+        {
+            assertEquals("master", result.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @SafeVarargs
+    private final List<Future<String>> submit(Callable<String>... reads)
+    {
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (Callable<String> read : reads)
+        {
+            results.add(executor.submit(read));
+        }
+        return results;
+    }
+
+    private static void assertWrongType(Future<String> result) throws Exception
+    {
+        try
+        {
+            result.get(5, TimeUnit.SECONDS);
+            fail("read against the wrong type should fail");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("WRONGTYPE"));
+        }
+    }
+
+    private long completed(String command)
+    {
+        LatencyHistogram.Snapshot snapshot = redis.getMetrics().getCommandLatencies().get(command);
+        return null == snapshot ? 0 : snapshot.getCount();
+    }
+
+    private static void set(EmbeddedRedisServer target, String key, String value)
+    {
+        Jedis jedis = new Jedis(target.getHostAndPort().getHost(), target.getHostAndPort().getPort());
+        try
+        {
+            jedis.set(key, value);
+        }
+        finally
+        {
+            jedis.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * RedisBloomFilter: 批量添加和判断、逐层扩展、层数上限
+ */
+public class RedisBloomFilterTest extends EmbeddedRedisTestCase
+{
+    public RedisBloomFilterTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisBloomFilterTest.class);
+    }
+
+    public void testScalableFilter()
+    {
+        RedisBloomFilter filter = new RedisBloomFilter(redis, "ids", 1000, 0.01);
+        List<String> ids = elements("id", 5000);
+        Map<String, Boolean> added = filter.addAll(ids);
+        assertEquals(ids, new ArrayList<String>(added.keySet()));
+        // 容量 1000、2000、4000, 5000个元素需要三层
+        assertEquals(3, filter.getLayerCount());
+
+        // 其他实例的层数从 Redis 读取, 不漏判
+        RedisBloomFilter other = new RedisBloomFilter(redis, "ids", 1000, 0.01);
+        assertFalse(other.mightContainAll(ids).containsValue(false));
+        assertFalse(other.add("id1"));
+        assertTrue(other.add("brand-new"));
+        assertTrue(filter.mightContain("brand-new"));
+
+        int positives = 0;
+        for (boolean found : other.mightContainAll(elements("x", 20000)).values())
+        {
+            positives += found ? 1 : 0;
+        }
+        assertTrue("false positives " + positives, positives < 20000 * 0.02);
+
+        filter.delete();
+        assertFalse(filter.mightContain("id1"));
+        assertEquals(1, filter.getLayerCount());
+    }
+
+    public void testFixedFilterDoesNotGrow()
+    {
+        RedisBloomFilter filter = new RedisBloomFilter(redis, "fixed", 1000, 0.01, false);
+        assertEquals(1, filter.getMaxLayers());
+        filter.addAll(elements("id", 5000));
+        assertEquals(1, filter.getLayerCount());
+    }
+
+    /**
+     * 层数上限按每层不超过 2^32 位计算
+     */
+    public void testMaxLayers()
+    {
+        RedisBloomFilter filter = new RedisBloomFilter(redis, "max", 1000, 0.01);
+        int max = filter.getMaxLayers();
+        assertTrue("max layers " + max, max > 1);
+        // 第 i 层容量 1000 * 2^i、误判率 0.01 / 2^(i+1)
+        double ln2 = Math.log(2);
+        assertTrue(1000 * Math.pow(2, max - 1) * -Math.log(0.01 / Math.pow(2, max)) / (ln2 * ln2) <= 1L << 32);
+        assertTrue(1000 * Math.pow(2, max) * -Math.log(0.01 / Math.pow(2, max + 1)) / (ln2 * ln2) > 1L << 32);
+
+        // 第二层已超过 2^32 位, 不再扩展
+        assertEquals(1, new RedisBloomFilter(redis, "huge", 200000000L, 0.01).getMaxLayers());
+
+        try
+        {
+            new RedisBloomFilter(redis, "too-large", 1000000000L, 0.01);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("2^32"));
+        }
+    }
+
+    /**
+     * 服务端的层数超过本实例的上限(参数不同)时明确报错
+     */
+    public void testServerLayersBeyondMax()
+    {
+        RedisBloomFilter filter = new RedisBloomFilter(redis, "mismatch", 200000000L, 0.01);
+        redis.hset("bloom:{mismatch}:meta", "layers", "2");
+        try
+        {
+            filter.mightContain("a");
+            fail("expected IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("more than 1"));
+        }
+        try
+        {
+            filter.add("a");
+            fail("expected IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("more than 1"));
+        }
+    }
+
+    private static List<String> elements(String prefix, int count)
+    {
+        List<String> elements = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++)
+        {
+            elements.add(prefix + i);
+        }
+        return elements;
+    }
+}
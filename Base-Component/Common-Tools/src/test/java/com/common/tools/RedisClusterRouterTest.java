@@ -0,0 +1,410 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Redis Cluster 模式: 两个内嵌节点各持有一半槽位, 覆盖按槽位路由、跨节点的 mget/mset/del/管道以及 MOVED/ASK 重定向
+ */
+public class RedisClusterRouterTest extends TestCase
+{
+    private static final RedisScript<String> GET = RedisScript.of("return redis.call('GET', KEYS[1])",
+            BuilderFactory.STRING);
+
+    private EmbeddedRedisServer first;
+
+    private EmbeddedRedisServer second;
+
+    /**
+     * 两个节点共享的槽位映射, 修改元素即模拟槽位迁移
+     */
+    private final HostAndPort[] owners = new HostAndPort[16384];
+
+    private RedisUtil redis;
+
+    public RedisClusterRouterTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisClusterRouterTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        first = new EmbeddedRedisServer(0);
+        first.start();
+        second = new EmbeddedRedisServer(0);
+        second.start();
+        Arrays.fill(owners, 0, 8192, first.getHostAndPort());
+        Arrays.fill(owners, 8192, 16384, second.getHostAndPort());
+        for (EmbeddedRedisServer server : Arrays.asList(first, second))
+        {
+            server.setSlotOwners(owners);
+        }
+        redis = new RedisUtil();
+        redis.setClusterNodes(Collections.singleton(first.getHostAndPort().toString()));
+        redis.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        redis.destroy();
+        first.stop();
+        second.stop();
+    }
+
+    public void testSlotRouting()
+    {
+        assertEquals(RedisClusterRouter.getSlot("{user:1}:name"), RedisClusterRouter.getSlot("{user:1}:age"));
+        for (int i = 0; i < 100; i++)
+        {
+            redis.set("key" + i, "v" + i);
+        }
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals("v" + i, rawGet(ownerOf("key" + i), "key" + i));
+        }
+        assertTrue(first.size() > 0);
+        assertTrue(second.size() > 0);
+        assertEquals(100, first.size() + second.size());
+        assertEquals(0, first.getRedirections() + second.getRedirections());
+    }
+
+    /**
+     * 内嵌节点对跨槽位的命令回复 CROSSSLOT, 结果正确说明节点管道内是按槽位拆分发送的
+     */
+    public void testMultiKeyAcrossNodes()
+    {
+        List<String> keys = new ArrayList<String>();
+        List<String> keysvalues = new ArrayList<String>();
+        for (int i = 0; i < 200; i++)
+        {
+            keys.add("key" + i);
+            keysvalues.add("key" + i);
+            keysvalues.add("v" + i);
+        }
+        assertEquals("OK", redis.mset(keysvalues.toArray(new String[keysvalues.size()])));
+        assertEquals(200, first.size() + second.size());
+
+        List<String> query = new ArrayList<String>(keys);
+        query.add(1, "missing");
+        List<String> values = redis.mget(query.toArray(new String[query.size()]));
+        assertEquals(201, values.size());
+        assertNull(values.get(1));
+        for (int i = 0; i < 200; i++)
+        {
+            assertEquals("v" + i, values.get(i < 1 ? i : i + 1));
+        }
+
+        List<Object> lengths = redis.pipelineExecute(keys, new KeyedPipelineExecute()
+        {
+            @Override
+            public Response<?> execute(Pipeline pipeline, String key)
+            {
+                return pipeline.append(key, "!");
+            }
+        });
+        for (int i = 0; i < 200; i++)
+        {
+            assertEquals((long) ("v" + i).length() + 1, lengths.get(i));
+        }
+
+        query.add("missing-too");
+        assertEquals(200, redis.del(query.toArray(new String[query.size()])));
+        assertEquals(0, first.size() + second.size());
+        assertEquals(0, first.getRedirections() + second.getRedirections());
+    }
+
+    /**
+     * 多key操作收到 MOVED 后更新槽位映射, 只把迁走的key重发到新节点
+     */
+    public void testMultiKeyFollowsMoved()
+    {
+        String moved = keyOn(first, "moved");
+        String stayed = keyOn(first, "stayed");
+        String other = keyOn(second, "other");
+        redis.mset(moved, "1", stayed, "2", other, "3");
+        moveSlot(moved, second);
+
+        assertEquals(Arrays.asList("1", "2", "3"), redis.mget(moved, stayed, other));
+        assertEquals(1, first.getRedirections());
+        // 映射已更新, 不再重定向
+        assertEquals("1", redis.get(moved));
+        List<Object> results = redis.pipelineExecute(Arrays.asList(other, moved, stayed), new KeyedPipelineExecute()
+        {
+            @Override
+            public Response<?> execute(Pipeline pipeline, String key)
+            {
+                return pipeline.get(key);
+            }
+        });
+        assertEquals(Arrays.<Object> asList("3", "1", "2"), results);
+        assertEquals(1, first.getRedirections() + second.getRedirections());
+
+        // 迁回原节点, 管道中的命令收到 MOVED 后重发
+        moveSlot(moved, first);
+        results = redis.pipelineExecute(Arrays.asList(moved, other), new KeyedPipelineExecute()
+        {
+            @Override
+            public Response<?> execute(Pipeline pipeline, String key)
+            {
+                return pipeline.get(key);
+            }
+        });
+        assertEquals(Arrays.<Object> asList("1", "3"), results);
+        assertEquals(1, second.getRedirections());
+    }
+
+    /**
+     * 单key命令收到 MOVED 后更新槽位映射并在新节点重试, 下一次直接访问新节点
+     */
+    public void testSingleKeyFollowsMoved()
+    {
+        String key = keyOn(first, "single");
+        redis.set(key, "v");
+        moveSlot(key, second);
+        assertEquals("v", redis.get(key));
+        assertEquals(1, first.getRedirections());
+        assertEquals("v", redis.get(key));
+        assertEquals(1, first.getRedirections());
+
+        String other = keyOn(first, "counter");
+        moveSlot(other, second);
+        assertEquals(5L, (long) redis.incrBy(other, 5));
+        assertEquals(2, first.getRedirections());
+        assertEquals("5", rawGet(second, other));
+    }
+
+    /**
+     * 迁移中的槽位上的单key命令: 源节点没有的key回复 ASK, 向目标节点发送 ASKING 后重试, 源节点上的key直接访问
+     */
+    public void testSingleKeyOnMigratingSlot()
+    {
+        String tag = keyOn(first, "s");
+        String kept = "{" + tag + "}:1";
+        String migrated = "{" + tag + "}:2";
+        String hash = "{" + tag + "}:hash";
+        int slot = RedisClusterRouter.getSlot(kept);
+        redis.set(kept, "one");
+        first.setMigrating(slot, second.getHostAndPort());
+        second.setImporting(slot, true);
+        Jedis jedis = connect(second);
+        try
+        {
+            jedis.asking();
+            jedis.set(migrated, "two");
+            jedis.asking();
+            jedis.hset(hash, "field", "value");
+        }
+        finally
+        {
+            jedis.close();
+        }
+
+        assertEquals("two", redis.get(migrated));
+        assertEquals(1, first.getRedirections());
+        assertEquals("value", redis.hget(hash, "field"));
+        assertEquals(1L, redis.hset(hash, "other", "v"));
+        assertEquals(2L, redis.hlen(hash));
+        assertEquals(4, first.getRedirections());
+        assertEquals(0, second.getRedirections());
+        // ASK 不更新映射, 源节点上的key仍直接访问
+        assertEquals("one", redis.get(kept));
+        assertEquals(4, first.getRedirections());
+        assertEquals(1, first.size());
+    }
+
+    /**
+     * 迁移中的槽位: 源节点没有的key回复 ASK, 客户端向目标节点发送 ASKING 后重试, 不更新槽位映射
+     */
+    public void testAskIsFollowed()
+    {
+        String tag = keyOn(first, "m");
+        String kept = "{" + tag + "}:1";
+        String migrated = "{" + tag + "}:2";
+        String migratedToo = "{" + tag + "}:3";
+        int slot = RedisClusterRouter.getSlot(kept);
+        redis.set(kept, "one");
+        first.setMigrating(slot, second.getHostAndPort());
+        second.setImporting(slot, true);
+        Jedis jedis = connect(second);
+        try
+        {
+            jedis.asking();
+            jedis.set(migrated, "two");
+            jedis.asking();
+            jedis.set(migratedToo, "three");
+        }
+        finally
+        {
+            jedis.close();
+        }
+
+        assertEquals(Arrays.asList("two", "three"), redis.mget(migrated, migratedToo));
+        assertEquals(1, first.getRedirections());
+        List<Object> results = redis.pipelineExecute(Arrays.asList(kept, migrated), new KeyedPipelineExecute()
+        {
+            @Override
+            public Response<?> execute(Pipeline pipeline, String key)
+            {
+                return pipeline.get(key);
+            }
+        });
+        assertEquals(Arrays.<Object> asList("one", "two"), results);
+        assertEquals(2, first.getRedirections());
+        assertEquals(0, second.getRedirections());
+        // ASK 不更新映射, 源节点上的key仍直接访问
+        assertEquals("one", redis.get(kept));
+        assertEquals(2, first.getRedirections());
+        assertEquals("two", redis.eval(GET, Collections.singletonList(migrated), Collections.<String> emptyList()));
+    }
+
+    public void testEvalAndBlockingPopFollowMoved()
+    {
+        String key = keyOn(first, "script");
+        redis.set(key, "v");
+        moveSlot(key, second);
+        assertEquals("v", redis.eval(GET, Collections.singletonList(key), Collections.<String> emptyList()));
+        assertEquals(1, first.getRedirections());
+
+        String tag = keyOn(second, "queue");
+        String source = "{" + tag + "}:pending";
+        String destination = "{" + tag + "}:processing";
+        moveSlot(source, first);
+        Jedis jedis = connect(first);
+        try
+        {
+            jedis.lpush(source, "job");
+        }
+        finally
+        {
+            jedis.close();
+        }
+        assertEquals("job", redis.brpoplpush(source, destination, 1));
+        assertEquals(1, second.getRedirections());
+        assertEquals(1, redis.llen(destination));
+    }
+
+    public void testEvalPipelinedAcrossNodes()
+    {
+        List<RedisScript.Call<?>> calls = new ArrayList<RedisScript.Call<?>>();
+        for (int i = 0; i < 20; i++)
+        {
+            redis.set("key" + i, "v" + i);
+            calls.add(GET.call(Collections.singletonList("key" + i), Collections.<String> emptyList()));
+        }
+        moveSlot(keyOn(first, "key"), second);
+        List<Object> results = redis.evalPipelined(calls);
+        for (int i = 0; i < 20; i++)
+        {
+            assertEquals("v" + i, results.get(i));
+        }
+    }
+
+    /**
+     * 以prefix开头、槽位在指定节点上的第一个key
+     */
+    /**
+     * 集群模式下 scanKeys 依次扫描每个主节点
+     */
+    public void testScanKeysVisitsEveryMaster()
+    {
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            redis.set("key" + i, "v");
+            expected.add("key" + i);
+        }
+        List<String> keys = new ArrayList<String>();
+        ScanIterator<String> it = redis.scanKeys("key*", 7);
+        while (it.hasNext())
+        {
+            keys.add(it.next());
+        }
+        assertEquals(100, keys.size());
+        assertEquals(expected, new HashSet<String>(keys));
+    }
+
+    private String keyOn(EmbeddedRedisServer server, String prefix)
+    {
+        for (int i = 0;; i++)
+        {
+            String key = prefix + i;
+            if (ownerOf(key) == server)
+            {
+                return key;
+            }
+        }
+    }
+
+    private EmbeddedRedisServer ownerOf(String key)
+    {
+        return owners[RedisClusterRouter.getSlot(key)].equals(first.getHostAndPort()) ? first : second;
+    }
+
+    /**
+     * 模拟槽位迁移完成: 把字符串key搬到目标节点后修改槽位映射, 客户端缓存的旧映射会收到 MOVED
+     */
+    private void moveSlot(String key, EmbeddedRedisServer target)
+    {
+        String value = rawGet(ownerOf(key), key);
+        Jedis jedis = connect(ownerOf(key));
+        try
+        {
+            jedis.del(key);
+        }
+        finally
+        {
+            jedis.close();
+        }
+        owners[RedisClusterRouter.getSlot(key)] = target.getHostAndPort();
+        if (null != value)
+        {
+            jedis = connect(target);
+            try
+            {
+                jedis.set(key, value);
+            }
+            finally
+            {
+                jedis.close();
+            }
+        }
+    }
+
+    private static String rawGet(EmbeddedRedisServer server, String key)
+    {
+        Jedis jedis = connect(server);
+        try
+        {
+            return jedis.type(key).equals("string") ? jedis.get(key) : null;
+        }
+        finally
+        {
+            jedis.close();
+        }
+    }
+
+    private static Jedis connect(EmbeddedRedisServer server)
+    {
+        return new Jedis(server.getHostAndPort().getHost(), server.getPort());
+    }
+}
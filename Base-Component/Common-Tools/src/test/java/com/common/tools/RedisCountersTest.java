@@ -0,0 +1,164 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * RedisCounters: 本地聚合、按间隔和增量次数提交、关闭时提交剩余增量
+ */
+public class RedisCountersTest extends EmbeddedRedisTestCase
+{
+    public RedisCountersTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisCountersTest.class);
+    }
+
+    public void testConcurrentIncrementsAreFlushedOnClose() throws Exception
+    {
+        final RedisCounters counters = new RedisCounters(redis, 50, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 8; t++)
+        {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10000; i++)
+                {
+                    counters.incrBy("count", 1);
+                    counters.hincrBy("hash", "field", 2);
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+        {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        counters.close();
+
+        assertEquals("80000", redis.get("count"));
+        assertEquals("160000", redis.hget("hash", "field"));
+        assertEquals(0, counters.getPending("count"));
+        assertEquals(0, counters.getPending("hash", "field"));
+    }
+
+    public void testFlushByInterval() throws Exception
+    {
+        RedisCounters counters = new RedisCounters(redis, 50, 0);
+        try
+        {
+            counters.incrBy("interval", 5);
+            assertEquals(5, counters.getPending("interval"));
+            assertNull(redis.get("interval"));
+            Thread.sleep(300);
+            assertEquals("5", redis.get("interval"));
+            assertEquals(0, counters.getPending("interval"));
+        }
+        finally
+        {
+            counters.close();
+        }
+    }
+
+    public void testFlushByPendingIncrements() throws Exception
+    {
+        RedisCounters counters = new RedisCounters(redis, 60000, 1000);
+        try
+        {
+            for (int i = 0; i < 5000; i++)
+            {
+                counters.incrBy("busy", 1);
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (null == redis.get("busy") && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            // 间隔为60秒, 提交是由增量次数触发的
+            assertNotNull(redis.get("busy"));
+        }
+        finally
+        {
+            counters.close();
+        }
+        assertEquals("5000", redis.get("busy"));
+    }
+
+    public void testIdleCountersAreRemovedAndReused()
+    {
+        RedisCounters counters = new RedisCounters(redis, 60000, 0);
+        try
+        {
+            counters.incrBy("idle", 1);
+            assertEquals(1, counters.flush());
+            assertEquals(0, counters.flush());
+            assertEquals(0, counters.flush());
+            // 移除后再次累加, 与移除前的值一起计入
+            counters.incrBy("idle", 2);
+            assertEquals(2, counters.getPending("idle"));
+            assertEquals(1, counters.flush());
+            assertEquals("3", redis.get("idle"));
+        }
+        finally
+        {
+            counters.close();
+        }
+    }
+
+    public void testWrongTypeDropsDelta()
+    {
+        RedisCounters counters = new RedisCounters(redis, 60000, 0);
+        try
+        {
+            redis.lpush("list", "item");
+            counters.incrBy("list", 1);
+            counters.incrBy("number", 1);
+            assertEquals(2, counters.flush());
+            assertEquals(1, redis.llen("list"));
+            assertEquals("1", redis.get("number"));
+            assertEquals(0, counters.getPending("list"));
+        }
+        finally
+        {
+            counters.close();
+        }
+    }
+
+    /**
+     * 类型错误以外的错误保留差值, 下次提交
+     */
+    public void testOtherErrorsKeepDelta()
+    {
+        RedisCounters counters = new RedisCounters(redis, 60000, 0);
+        try
+        {
+            redis.set("text", "not a number");
+            counters.incrBy("text", 2);
+            counters.hincrBy("text:hash", "field", 1);
+            assertEquals(2, counters.flush());
+            assertEquals("not a number", redis.get("text"));
+            assertEquals(2, counters.getPending("text"));
+            assertEquals(0, counters.getPending("text:hash", "field"));
+
+            redis.del("text");
+            assertEquals(1, counters.flush());
+            assertEquals("2", redis.get("text"));
+            assertEquals(0, counters.getPending("text"));
+        }
+        finally
+        {
+            counters.close();
+        }
+    }
+}
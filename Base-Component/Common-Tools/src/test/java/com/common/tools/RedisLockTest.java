@@ -0,0 +1,168 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * RedisLock: 互斥、fencing token、看门狗续期和持有者崩溃后的接管
+ */
+public class RedisLockTest extends EmbeddedRedisTestCase
+{
+    private static final String CHANNEL = "redis-lock:released";
+
+    private RedisLock lock;
+
+    public RedisLockTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisLockTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        lock = new RedisLock(redis, 300, CHANNEL);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        lock.close();
+        super.tearDown();
+    }
+
+    public void testTryLockAndUnlock()
+    {
+        RedisLock.Lease lease = lock.tryLock("a");
+        assertNotNull(lease);
+        assertTrue(lease.getToken() > 0);
+        assertNull(lock.tryLock("a"));
+        assertTrue(lease.unlock());
+        assertFalse(lease.unlock());
+        assertFalse(lease.isHeld());
+
+        RedisLock.Lease next = lock.tryLock("a");
+        assertNotNull(next);
+        assertTrue(next.getToken() > lease.getToken());
+        next.unlock();
+    }
+
+    public void testMutualExclusionAndIncreasingTokens() throws Exception
+    {
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger maxInside = new AtomicInteger();
+        final List<Long> tokens = Collections.synchronizedList(new ArrayList<Long>());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 8; i++)
+        {
+            futures.add(executor.submit(() -> {
+                int acquired = 0;
+                for (int j = 0; j < 25; j++)
+                {
+                    RedisLock.Lease lease = lock.tryLock("contended", 10000);
+                    if (null == lease)
+                    {
+                        continue;
+                    }
+                    int n = inside.incrementAndGet();
+                    maxInside.accumulateAndGet(n, Math::max);
+                    // 持有期间取得的token按获取顺序记录
+                    tokens.add(lease.getToken());
+                    inside.decrementAndGet();
+                    lease.unlock();
+                    acquired++;
+                }
+                return acquired;
+            }));
+        }
+        int acquired = 0;
+        for (Future<Integer> future : futures)
+        {
+            acquired += future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(200, acquired);
+        assertEquals(1, maxInside.get());
+        assertEquals(200, new HashSet<Long>(tokens).size());
+        List<Long> sorted = new ArrayList<Long>(tokens);
+        Collections.sort(sorted);
+        assertEquals(sorted, tokens);
+    }
+
+    public void testWatchdogKeepsLease() throws Exception
+    {
+        RedisLock.Lease lease = lock.tryLock("renewed");
+        assertNotNull(lease);
+        // 租期300毫秒, 持有1秒后仍有效
+        Thread.sleep(1000);
+        assertTrue(lease.isHeld());
+        assertTrue(redis.exists("lock:{renewed}"));
+        assertNull(lock.tryLock("renewed"));
+        assertTrue(lease.unlock());
+    }
+
+    /**
+     * 释放时发布通知, 等待者不必等到租期结束
+     */
+    public void testUnlockWakesWaiter() throws Exception
+    {
+        RedisLock longLease = new RedisLock(redis, 10000, CHANNEL);
+        try
+        {
+            RedisLock.Lease held = longLease.tryLock("notify");
+            assertNotNull(held);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<RedisLock.Lease> waiter = executor.submit(() -> lock.tryLock("notify", 8000));
+            Thread.sleep(300);
+            long start = System.currentTimeMillis();
+            assertTrue(held.unlock());
+            RedisLock.Lease lease = waiter.get(10, TimeUnit.SECONDS);
+            long waited = System.currentTimeMillis() - start;
+            executor.shutdown();
+            assertNotNull(lease);
+            assertTrue("waited " + waited, waited < 2000);
+            assertTrue(lease.unlock());
+        }
+        finally
+        {
+            longLease.close();
+        }
+    }
+
+    public void testTakeoverAfterHolderCrash() throws Exception
+    {
+        RedisLock crashed = new RedisLock(redis, 300, CHANNEL);
+        RedisLock.Lease stale = crashed.tryLock("crash");
+        assertNotNull(stale);
+        // 停止看门狗, 模拟持有者崩溃
+        crashed.close();
+
+        long start = System.currentTimeMillis();
+        RedisLock.Lease lease = lock.tryLock("crash", 5000);
+        long waited = System.currentTimeMillis() - start;
+        assertNotNull(lease);
+        assertTrue("waited " + waited, waited < 2000);
+        assertTrue(lease.getToken() > stale.getToken());
+        // 过期的持有者不能释放接管者的锁
+        assertFalse(stale.unlock());
+        assertTrue(lease.isHeld());
+        assertTrue(lease.unlock());
+    }
+}
@@ -0,0 +1,103 @@
+package com.common.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * RedisMetrics: 按命令和key前缀记录耗时、错误计数、清零以及 JMX 注册
+ */
+public class RedisMetricsTest extends EmbeddedRedisTestCase
+{
+    public RedisMetricsTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisMetricsTest.class);
+    }
+
+    @Override
+    protected void configure(RedisUtil redis)
+    {
+        redis.setMetricsEnabled(true);
+        redis.setMetricsKeyPrefixDelimiter(":");
+    }
+
+    public void testCommandAndKeyPrefixLatencies()
+    {
+        redis.set("user:1", "a");
+        redis.set("user:2", "b");
+        redis.get("user:1");
+        redis.get("plain");
+
+        RedisMetrics metrics = redis.getMetrics();
+        Map<String, LatencyHistogram.Snapshot> commands = metrics.getCommandLatencies();
+        assertEquals(2, commands.get("set").getCount());
+        assertEquals(2, commands.get("get").getCount());
+        Map<String, LatencyHistogram.Snapshot> prefixes = metrics.getKeyPrefixLatencies();
+        assertEquals(3, prefixes.get("user").getCount());
+        assertEquals(1, prefixes.get("(none)").getCount());
+        assertEquals(4, metrics.getBorrowWait().getCount());
+        assertEquals(0, metrics.getErrors());
+        assertEquals(0, metrics.getActiveConnections());
+        assertTrue(metrics.getIdleConnections() > 0);
+    }
+
+    public void testErrorsAreCountedOnce()
+    {
+        redis.hset("h", "f", "v");
+        try
+        {
+            redis.get("h");
+            fail("WRONGTYPE expected");
+        }
+        catch (RuntimeException expected)
+        {
+        }
+        RedisMetrics metrics = redis.getMetrics();
+        assertEquals(1, metrics.getErrors());
+        assertEquals(0, metrics.getBrokenConnections());
+        LatencyHistogram.Snapshot get = metrics.getCommandLatencies().get("get");
+        assertEquals(1, get.getCount());
+        assertEquals(1, get.getErrors());
+    }
+
+    public void testReset()
+    {
+        redis.set("k", "v");
+        RedisMetrics metrics = redis.getMetrics();
+        assertFalse(metrics.getCommandLatencies().isEmpty());
+        metrics.reset();
+        assertTrue(metrics.getCommandLatencies().isEmpty());
+        assertTrue(metrics.getKeyPrefixLatencies().isEmpty());
+        assertEquals(0, metrics.getBorrowWait().getCount());
+        redis.get("k");
+        assertEquals(1, metrics.getCommandLatencies().get("get").getCount());
+    }
+
+    public void testMXBeanRegistration() throws Exception
+    {
+        redis.set("k", "v");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.common.tools:type=RedisUtil,name=" + ObjectName.quote("master"));
+        assertTrue(server.isRegistered(name));
+        assertEquals(0L, server.getAttribute(name, "Errors"));
+        assertNotNull(server.getAttribute(name, "CommandLatencies"));
+        assertNotNull(server.getAttribute(name, "BorrowWait"));
+
+        server.invoke(name, "reset", null, null);
+        assertTrue(redis.getMetrics().getCommandLatencies().isEmpty());
+
+        redis.destroy();
+        redis = null;
+        assertFalse(server.isRegistered(name));
+    }
+}
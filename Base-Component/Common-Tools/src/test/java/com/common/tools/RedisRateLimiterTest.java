@@ -0,0 +1,122 @@
+package com.common.tools;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * RedisRateLimiter: 令牌桶、滑动窗口、批量判断和本地预取
+ */
+public class RedisRateLimiterTest extends EmbeddedRedisTestCase
+{
+    public RedisRateLimiterTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisRateLimiterTest.class);
+    }
+
+    public void testTokenBucketBurstAndRefill() throws Exception
+    {
+        RedisRateLimiter limiter = RedisRateLimiter.tokenBucket(redis, "rl:tb:", 10, 5);
+        assertEquals(10, acquire(limiter, "u", 20));
+        Thread.sleep(1000);
+        int refilled = acquire(limiter, "u", 20);
+        assertTrue("refilled " + refilled, refilled >= 4 && refilled <= 6);
+    }
+
+    public void testSlidingWindow() throws Exception
+    {
+        RedisRateLimiter limiter = RedisRateLimiter.slidingWindow(redis, "rl:sw:", 5, 500);
+        assertEquals(5, acquire(limiter, "u", 10));
+        assertTrue(limiter.tryAcquire("v", 3));
+        // 许可不足时一个也不扣减
+        assertFalse(limiter.tryAcquire("v", 3));
+        assertTrue(limiter.tryAcquire("v", 2));
+        Thread.sleep(600);
+        assertTrue(limiter.tryAcquire("u"));
+    }
+
+    /**
+     * 窗口滑过后只释放早于窗口的许可
+     */
+    public void testSlidingWindowSlides() throws Exception
+    {
+        RedisRateLimiter limiter = RedisRateLimiter.slidingWindow(redis, "rl:slide:", 5, 1000);
+        assertTrue(limiter.tryAcquire("u", 3));
+        Thread.sleep(600);
+        assertTrue(limiter.tryAcquire("u", 2));
+        assertFalse(limiter.tryAcquire("u"));
+        // 前3个许可滑出窗口, 后2个仍在窗口内
+        Thread.sleep(600);
+        assertFalse(limiter.tryAcquire("u", 4));
+        assertTrue(limiter.tryAcquire("u", 3));
+    }
+
+    public void testTryAcquireAll()
+    {
+        RedisRateLimiter limiter = RedisRateLimiter.slidingWindow(redis, "rl:all:", 5, 10000);
+        assertTrue(limiter.tryAcquire("full", 5));
+        Map<String, Boolean> results = limiter.tryAcquireAll(Arrays.asList("a", "full", "a", "b"), 3);
+        assertEquals(Arrays.asList("a", "full", "b"), Arrays.asList(results.keySet().toArray()));
+        assertEquals(Boolean.TRUE, results.get("a"));
+        assertEquals(Boolean.FALSE, results.get("full"));
+        assertEquals(Boolean.TRUE, results.get("b"));
+    }
+
+    public void testLocalPrefetchSavesRoundTrips()
+    {
+        RedisRateLimiter limiter = RedisRateLimiter.tokenBucket(redis, "rl:hot:", 1000, 100000).setLocalPrefetch(50,
+                1000);
+        long scriptRuns = server.getScriptRuns();
+        assertEquals(2000, acquire(limiter, "k", 2000));
+        scriptRuns = server.getScriptRuns() - scriptRuns;
+        assertTrue("script calls " + scriptRuns, scriptRuns <= 2000 / 51 + 2);
+    }
+
+    /**
+     * 用完或作废的本地许可被清理, 访问过的key不会一直留在本地
+     */
+    public void testLocalPermitsAreSwept() throws Exception
+    {
+        RedisRateLimiter limiter = RedisRateLimiter.tokenBucket(redis, "rl:sweep:", 10, 1).setLocalPrefetch(5, 50);
+        for (int i = 0; i < 1000; i++)
+        {
+            assertTrue(limiter.tryAcquire("key" + i));
+        }
+        assertTrue(limiter.getLocalKeyCount() > 0);
+        Thread.sleep(100);
+        assertTrue(limiter.tryAcquire("fresh"));
+        assertEquals(1, limiter.getLocalKeyCount());
+
+        // 许可已用完的key同样被清理
+        RedisRateLimiter exhausted = RedisRateLimiter.tokenBucket(redis, "rl:exhausted:", 1, 0.001)
+                .setLocalPrefetch(5, 50);
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(exhausted.tryAcquire("key" + i));
+            assertFalse(exhausted.tryAcquire("key" + i));
+        }
+        Thread.sleep(60);
+        assertFalse(exhausted.tryAcquire("key0"));
+        assertEquals(0, exhausted.getLocalKeyCount());
+    }
+
+    private static int acquire(RedisRateLimiter limiter, String key, int times)
+    {
+        int allowed = 0;
+        for (int i = 0; i < times; i++)
+        {
+            if (limiter.tryAcquire(key))
+            {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+}
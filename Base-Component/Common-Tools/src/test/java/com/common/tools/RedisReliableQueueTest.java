@@ -0,0 +1,233 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * RedisReliableQueue: 批量取消息、确认和放回、超时重新投递、阻塞等待和多个消费者
+ */
+public class RedisReliableQueueTest extends EmbeddedRedisTestCase
+{
+    private RedisReliableQueue queue;
+
+    public RedisReliableQueueTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisReliableQueueTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        queue = new RedisReliableQueue(redis, "jobs", 300);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        queue.close();
+        super.tearDown();
+    }
+
+    public void testBatchPollAckAndNack()
+    {
+        List<String> ids = queue.sendAll(Arrays.asList("a", "b:c", "d", "e"));
+        List<RedisReliableQueue.Message> batch = queue.poll(3);
+        assertEquals(Arrays.asList("a", "b:c", "d"), bodies(batch));
+        assertEquals(ids.get(1), batch.get(1).getId());
+        assertEquals(1, queue.size());
+        assertEquals(3, queue.inFlight());
+
+        assertTrue(queue.ack(batch.get(0)));
+        assertFalse(queue.ack(batch.get(0)));
+        // 放回待处理列表末尾, 在 e 之后投递
+        assertTrue(queue.nack(batch.get(1)));
+        assertTrue(queue.extend(batch.get(2), 2000));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.inFlight());
+
+        assertEquals(Arrays.asList("e", "b:c"), bodies(queue.poll(10)));
+    }
+
+    public void testExpiredMessagesAreRedelivered() throws Exception
+    {
+        queue.sendAll(Arrays.asList("a", "b"));
+        List<RedisReliableQueue.Message> first = queue.poll(1);
+        List<RedisReliableQueue.Message> extended = queue.poll(1);
+        assertTrue(queue.extend(extended.get(0), 5000));
+        Thread.sleep(350);
+
+        assertEquals(1, queue.reap());
+        // 超时后已重新投递的消息不能被原来的消费者确认
+        assertFalse(queue.ack(first.get(0)));
+        assertEquals(1, queue.size());
+
+        List<RedisReliableQueue.Message> redelivered = queue.poll(10);
+        assertEquals(Arrays.asList("a"), bodies(redelivered));
+        assertEquals(first.get(0).getId(), redelivered.get(0).getId());
+        assertEquals(1, queue.settleAll(redelivered, Collections.<RedisReliableQueue.Message> emptyList()));
+        // 延长过的消息仍由原来的消费者确认
+        assertTrue(queue.ack(extended.get(0)));
+        assertEquals(0, queue.inFlight());
+    }
+
+    /**
+     * 阻塞取到第一条后、登记截止时刻前崩溃, 留在处理中列表的消息由 reap 补记截止时刻后重新投递
+     */
+    public void testOrphanIsRecovered() throws Exception
+    {
+        queue.send("orphan");
+        assertNotNull(redis.brpoplpush("queue:{jobs}", "queue:{jobs}:processing", 1));
+        assertEquals(0, queue.reap());
+        assertEquals(1, queue.inFlight());
+        Thread.sleep(350);
+        assertEquals(1, queue.reap());
+        assertEquals(Arrays.asList("orphan"), bodies(queue.poll(10)));
+    }
+
+    public void testBlockingPoll() throws Exception
+    {
+        long start = System.currentTimeMillis();
+        assertTrue(queue.poll(5, 500).isEmpty());
+        assertTrue(System.currentTimeMillis() - start >= 400);
+
+        new Thread(() -> {
+            try
+            {
+                Thread.sleep(200);
+                queue.sendAll(Arrays.asList("x", "y", "z"));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }).start();
+        start = System.currentTimeMillis();
+        List<RedisReliableQueue.Message> batch = queue.poll(5, 5000);
+        long waited = System.currentTimeMillis() - start;
+        assertTrue("waited " + waited, waited < 2000);
+        // 第一条由 BRPOPLPUSH 取到, 其余的在第二次往返中取到
+        assertEquals(Arrays.asList("x", "y", "z"), bodies(batch));
+        assertEquals(3, queue.inFlight());
+        assertEquals(3, queue.settleAll(batch, Collections.<RedisReliableQueue.Message> emptyList()));
+    }
+
+    public void testConsumers() throws Exception
+    {
+        RedisReliableQueue work = new RedisReliableQueue(redis, "work", 2000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        final Set<String> seen = ConcurrentHashMap.newKeySet();
+        final AtomicInteger failures = new AtomicInteger();
+        try
+        {
+            work.start(executor, 4, 50, 500, message -> {
+                // 第一次处理失败, nack 后重新投递
+                if ("17".equals(message.getBody()) && failures.getAndIncrement() == 0)
+                {
+                    throw new RuntimeException("boom");
+                }
+                seen.add(message.getBody());
+            });
+            List<String> bodies = new ArrayList<String>();
+            for (int i = 0; i < 1000; i++)
+            {
+                bodies.add(String.valueOf(i));
+            }
+            work.sendAll(bodies);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (seen.size() < 1000 && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(1000, seen.size());
+            assertEquals(2, failures.get());
+        }
+        finally
+        {
+            work.close();
+            executor.shutdown();
+        }
+        assertEquals(0, work.size());
+        assertEquals(0, work.inFlight());
+    }
+
+    /**
+     * close 对所有消费者只等待一个截止时刻, 不是每个消费者各等一次
+     */
+    public void testCloseUsesOneDeadline() throws Exception
+    {
+        RedisReliableQueue stuck = new RedisReliableQueue(redis, "stuck", 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch handling = new CountDownLatch(4);
+        try
+        {
+            stuck.start(executor, 4, 1, 500, message -> {
+                handling.countDown();
+                release.await();
+            });
+            stuck.sendAll(Arrays.asList("a", "b", "c", "d"));
+            assertTrue(handling.await(5, TimeUnit.SECONDS));
+
+            long start = System.currentTimeMillis();
+            stuck.close();
+            long elapsed = System.currentTimeMillis() - start;
+            // 阻塞等待向上取整为1秒, 加上1秒的可见性超时
+            assertTrue("elapsed " + elapsed, elapsed >= 1900 && elapsed < 3000);
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    public void testCloseStopsIdleConsumers() throws Exception
+    {
+        RedisReliableQueue idle = new RedisReliableQueue(redis, "idle", 5000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            idle.start(executor, 2, 10, 1000, message -> {
+            });
+            Thread.sleep(200);
+            long start = System.currentTimeMillis();
+            idle.close();
+            // 阻塞中的 BRPOPLPUSH 超时返回后即退出, 不用等到可见性超时
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> bodies(List<RedisReliableQueue.Message> messages)
+    {
+        List<String> bodies = new ArrayList<String>();
+        for (RedisReliableQueue.Message message : messages)
+        {
+            bodies.add(message.getBody());
+        }
+        return bodies;
+    }
+}
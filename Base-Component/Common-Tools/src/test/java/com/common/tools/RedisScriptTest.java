@@ -0,0 +1,114 @@
+package com.common.tools;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * 脚本注册表: 启动时加载、EVALSHA 执行、NOSCRIPT 后重新加载全部脚本, 以及管道执行
+ */
+public class RedisScriptTest extends EmbeddedRedisTestCase
+{
+    private static final RedisScript<Long> INCR_IF_EXISTS = RedisScript.of(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return redis.call('INCRBY', KEYS[1], ARGV[1]) end",
+            BuilderFactory.LONG);
+
+    private static final RedisScript<String> GET_OR_DEFAULT = RedisScript.of(
+            "return redis.call('GET', KEYS[1]) or ARGV[1]", BuilderFactory.STRING);
+
+    private Jedis jedis;
+
+    public RedisScriptTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisScriptTest.class);
+    }
+
+    @Override
+    protected void configure(RedisUtil redis)
+    {
+        redis.setScripts(Arrays.<RedisScript<?>> asList(INCR_IF_EXISTS, GET_OR_DEFAULT));
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        jedis = new Jedis(server.getHostAndPort().getHost(), server.getPort());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if (null != jedis)
+        {
+            jedis.close();
+        }
+        super.tearDown();
+    }
+
+    public void testScriptsLoadedOnInit()
+    {
+        assertTrue(jedis.scriptExists(INCR_IF_EXISTS.getSha1()));
+        assertTrue(jedis.scriptExists(GET_OR_DEFAULT.getSha1()));
+    }
+
+    public void testEvalSha()
+    {
+        assertNull(redis.eval(INCR_IF_EXISTS, Collections.singletonList("n"), Collections.singletonList("5")));
+        redis.set("n", "1");
+        assertEquals(Long.valueOf(6), redis.eval(INCR_IF_EXISTS, Collections.singletonList("n"), Collections.singletonList("5")));
+        assertEquals("6", redis.get("n"));
+        assertEquals("default", redis.eval(GET_OR_DEFAULT, Collections.singletonList("missing"),
+                Collections.singletonList("default")));
+    }
+
+    public void testReloadAllAfterNoScript()
+    {
+        redis.set("n", "1");
+        server.flushScripts();
+        assertFalse(jedis.scriptExists(GET_OR_DEFAULT.getSha1()));
+
+        assertEquals(Long.valueOf(2), redis.eval(INCR_IF_EXISTS, Collections.singletonList("n"), Collections.singletonList("1")));
+        // 第一次 NOSCRIPT 时其他已注册的脚本也一起加载
+        assertTrue(jedis.scriptExists(GET_OR_DEFAULT.getSha1()));
+    }
+
+    public void testRegisterScriptLoadsImmediately()
+    {
+        RedisScript<Long> script = RedisScript.of("return 7", BuilderFactory.LONG);
+        redis.registerScript(script);
+        assertTrue(jedis.scriptExists(script.getSha1()));
+        assertEquals(Long.valueOf(7), redis.eval(script, null, null));
+    }
+
+    public void testEvalPipelined()
+    {
+        redis.set("n", "1");
+        redis.set("s", "v");
+        server.flushScripts();
+
+        List<Object> results = redis.evalPipelined(Arrays.asList(
+                INCR_IF_EXISTS.call(Collections.singletonList("n"), Collections.singletonList("2")),
+                GET_OR_DEFAULT.call(Collections.singletonList("s"), Collections.singletonList("default")),
+                INCR_IF_EXISTS.call(Collections.singletonList("s"), Collections.singletonList("1")),
+                GET_OR_DEFAULT.call(Collections.singletonList("missing"), Collections.singletonList("default"))));
+        assertEquals(4, results.size());
+        assertEquals(Long.valueOf(3), results.get(0));
+        assertEquals("v", results.get(1));
+        // INCRBY 作用在非整数值上, 只有这一次调用失败
+        assertTrue(results.get(2) instanceof JedisDataException);
+        assertEquals("default", results.get(3));
+        assertEquals("3", redis.get("n"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * mGetObject/mSetObject: 结果顺序、不存在的key、过期时间, 以及压缩、分块和并行编解码的值
+ */
+public class RedisUtilMultiObjectTest extends EmbeddedRedisTestCase
+{
+    public RedisUtilMultiObjectTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisUtilMultiObjectTest.class);
+    }
+
+    @Override
+    protected void configure(RedisUtil redis)
+    {
+        redis.setCompressThreshold(1024);
+        redis.setChunkThreshold(10000);
+        redis.setChunkSize(4096);
+        redis.setParallelCodecBatchSize(4);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        // 线程池初始化后对象数较多时才会并行编解码
+        ThreadPoolUtilsTest.initPool();
+        super.setUp();
+    }
+
+    public void testResultFollowsKeyOrder()
+    {
+        Map<String, Object> objects = new LinkedHashMap<String, Object>();
+        objects.put("c", "vc");
+        objects.put("a", 1);
+        objects.put("b", Arrays.asList("x", "y"));
+        assertEquals("OK", redis.mSetObject(objects, 0));
+
+        Map<String, Object> values = redis.mGetObject(Arrays.asList("b", "missing", "a", "c", "a"));
+        assertEquals(Arrays.asList("b", "a", "c"), new ArrayList<String>(values.keySet()));
+        assertEquals(Arrays.asList("x", "y"), values.get("b"));
+        assertEquals(1, values.get("a"));
+        assertEquals("vc", values.get("c"));
+        assertTrue(redis.mGetObject(Arrays.asList("missing")).isEmpty());
+    }
+
+    public void testExpire()
+    {
+        Map<String, Object> objects = new LinkedHashMap<String, Object>();
+        objects.put("a", "va");
+        objects.put("b", "vb");
+        redis.mSetObject(objects, 100);
+        assertTrue(redis.ttl("a") > 0 && redis.ttl("a") <= 100);
+        assertTrue(redis.ttl("b") > 0 && redis.ttl("b") <= 100);
+
+        redis.mSetObject(objects, 0);
+        assertEquals(-1, redis.ttl("a"));
+        assertEquals("va", redis.getObject("a"));
+    }
+
+    public void testCompressedAndChunkedValues()
+    {
+        StringBuilder compressible = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+        {
+            compressible.append("repeated text ");
+        }
+        byte[] random = new byte[50000];
+        new Random(1).nextBytes(random);
+
+        Map<String, Object> objects = new LinkedHashMap<String, Object>();
+        objects.put("small", "v");
+        objects.put("compressed", compressible.toString());
+        objects.put("chunked", random);
+        redis.mSetObject(objects, 0);
+
+        Map<String, Object> values = redis.mGetObject(objects.keySet());
+        assertEquals("v", values.get("small"));
+        assertEquals(compressible.toString(), values.get("compressed"));
+        assertTrue(Arrays.equals(random, (byte[]) values.get("chunked")));
+        // 与单个读取的编码相同
+        assertEquals(compressible.toString(), redis.getObject("compressed"));
+        assertTrue(Arrays.equals(random, (byte[]) redis.getObject("chunked")));
+    }
+
+    public void testManyKeysDecodedInParallel()
+    {
+        assertNotNull(ThreadPoolUtils.getExecutorService());
+        Map<String, Object> objects = new LinkedHashMap<String, Object>();
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            objects.put("k" + i, "v" + i);
+            keys.add("k" + i);
+        }
+        redis.mSetObject(objects, 0);
+
+        Map<String, Object> values = redis.mGetObject(keys);
+        assertEquals(keys, new ArrayList<String>(values.keySet()));
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals("v" + i, values.get("k" + i));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.common.tools;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * getObject/getTyped/mGetObject 的读写和解码失败时的行为
+ */
+public class RedisUtilObjectTest extends EmbeddedRedisTestCase
+{
+    public RedisUtilObjectTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisUtilObjectTest.class);
+    }
+
+    public void testGetObjectRoundTrip()
+    {
+        redis.setObject("obj", Arrays.asList("a", "b"));
+        assertEquals(Arrays.asList("a", "b"), redis.getObject("obj"));
+        assertNull(redis.getObject("missing"));
+    }
+
+    public void testGetObjectReturnsNullOnUndecodableValue()
+    {
+        redis.set("garbage", "not a serialized object");
+        assertNull(redis.getObject("garbage"));
+    }
+
+    public void testGetTypedThrowsOnUndecodableValue()
+    {
+        redis.set("garbage", "not a serialized object");
+        try
+        {
+            redis.getTyped("garbage", new BinaryCodec());
+            fail("undecodable value should throw");
+        }
+        catch (RuntimeException expected)
+        {
+        }
+    }
+
+    public void testMGetObjectSkipsUndecodableValues()
+    {
+        redis.setObject("a", "va");
+        redis.set("garbage", "not a serialized object");
+        Map<String, Object> values = redis.mGetObject(Arrays.asList("a", "garbage", "missing"));
+        assertEquals(1, values.size());
+        assertEquals("va", values.get("a"));
+    }
+}
@@ -0,0 +1,282 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+
+/**
+ * 游标扫描: scanKeys 完整遍历键空间且不重复、空批次但游标未结束时继续扫描、流的短路操作停止后续扫描,
+ * 以及 hscan/sscan/zscan 迭代器和按批次回调
+ */
+public class RedisUtilScanTest extends EmbeddedRedisTestCase
+{
+    public RedisUtilScanTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(RedisUtilScanTest.class);
+    }
+
+    public void testScanKeysWalksWholeKeyspace()
+    {
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            redis.set("key" + i, "v");
+            expected.add("key" + i);
+        }
+        redis.set("other", "v");
+
+        List<String> keys = new ArrayList<String>();
+        ScanIterator<String> it = redis.scanKeys("key*", 7);
+        while (it.hasNext())
+        {
+            keys.add(it.next());
+        }
+        assertEquals(100, keys.size());
+        assertEquals(expected, new HashSet<String>(keys));
+        assertEquals(ScanParams.SCAN_POINTER_START, it.getCursor());
+        assertFalse(it.hasNext());
+
+        // 不带模式时包含全部键
+        assertEquals(101, redis.scanKeyStream(null, 10).count());
+        assertEquals(0, redis.scanKeyStream("missing*", 10).count());
+    }
+
+    /**
+     * MATCH 在扫描后过滤, 前几批全部被过滤掉时返回空批次, 游标不为0, 需要继续扫描
+     */
+    public void testEmptyBatchWithNonZeroCursor()
+    {
+        for (int i = 0; i < 30; i++)
+        {
+            redis.set("a" + i, "v");
+        }
+        redis.set("b", "v");
+        CountingScan keys = new CountingScan("b*", 5);
+        List<String> found = new ArrayList<String>();
+        while (keys.hasNext())
+        {
+            found.add(keys.next());
+        }
+        assertEquals(Arrays.asList("b"), found);
+        assertTrue(keys.emptyBatches >= 5);
+
+        // 直接构造的空批次序列
+        final Iterator<ScanResult<String>> replies = Arrays.asList(
+                new ScanResult<String>("5", new ArrayList<String>()),
+                new ScanResult<String>("9", new ArrayList<String>()),
+                new ScanResult<String>("0", Arrays.asList("x", "y"))).iterator();
+        ScanIterator<String> scripted = new ScanIterator<String>(null, 10)
+        {
+            @Override
+            protected ScanResult<String> scan(String cursor, ScanParams params)
+            {
+                return replies.next();
+            }
+        };
+        assertEquals(Arrays.asList("x", "y"), scripted.stream().collect(Collectors.toList()));
+        assertFalse(replies.hasNext());
+    }
+
+    public void testStreamLimitStopsScanning()
+    {
+        for (int i = 0; i < 100; i++)
+        {
+            redis.set("key" + i, "v");
+        }
+        CountingScan keys = new CountingScan("key*", 10);
+        List<String> first = keys.stream().limit(3).collect(Collectors.toList());
+        assertEquals(3, first.size());
+        assertEquals(1, keys.scans);
+        assertFalse(ScanParams.SCAN_POINTER_START.equals(keys.getCursor()));
+
+        // 从中断处继续迭代, 不会重复前面已返回的元素
+        Set<String> rest = new HashSet<String>();
+        while (keys.hasNext())
+        {
+            rest.add(keys.next());
+        }
+        assertEquals(97, rest.size());
+        assertTrue(keys.scans >= 10);
+        for (String key : first)
+        {
+            assertFalse(rest.contains(key));
+        }
+    }
+
+    public void testHscanIterator()
+    {
+        Map<String, String> hash = new HashMap<String, String>();
+        for (int i = 0; i < 50; i++)
+        {
+            hash.put("f" + i, "v" + i);
+        }
+        redis.hmset("h", hash);
+
+        Map<String, String> scanned = new HashMap<String, String>();
+        ScanIterator<Map.Entry<String, String>> it = redis.hscanIterator("h", 7);
+        while (it.hasNext())
+        {
+            Map.Entry<String, String> entry = it.next();
+            assertNull(scanned.put(entry.getKey(), entry.getValue()));
+        }
+        assertEquals(hash, scanned);
+
+        // 模式过滤: f1, f10..f19
+        Set<String> fields = new HashSet<String>();
+        for (Iterator<Map.Entry<String, String>> matched = redis.hscanIterator("h", "f1*", 4); matched.hasNext();)
+        {
+            fields.add(matched.next().getKey());
+        }
+        assertEquals(11, fields.size());
+
+        List<Integer> sizes = new ArrayList<Integer>();
+        Map<String, String> batched = new HashMap<String, String>();
+        redis.hscan("h", 7, batch -> {
+            sizes.add(batch.size());
+            for (Map.Entry<String, String> entry : batch)
+            {
+                batched.put(entry.getKey(), entry.getValue());
+            }
+        });
+        assertEquals(hash, batched);
+        assertBatches(sizes, 50, 7);
+
+        assertFalse(redis.hscanIterator("missing", 7).hasNext());
+    }
+
+    public void testSscanIterator()
+    {
+        Set<String> members = new HashSet<String>();
+        for (int i = 0; i < 50; i++)
+        {
+            redis.sadd("s", "m" + i);
+            members.add("m" + i);
+        }
+        List<String> scanned = redis.sscanIterator("s", 6).stream().collect(Collectors.toList());
+        assertEquals(50, scanned.size());
+        assertEquals(members, new HashSet<String>(scanned));
+
+        List<Integer> sizes = new ArrayList<Integer>();
+        Set<String> batched = new HashSet<String>();
+        redis.sscan("s", 6, batch -> {
+            sizes.add(batch.size());
+            batched.addAll(batch);
+        });
+        assertEquals(members, batched);
+        assertBatches(sizes, 50, 6);
+    }
+
+    public void testZscanIterator()
+    {
+        Map<String, Double> scores = new HashMap<String, Double>();
+        for (int i = 0; i < 50; i++)
+        {
+            redis.zadd("z", i * 1.5, "m" + i);
+            scores.put("m" + i, i * 1.5);
+        }
+        Map<String, Double> scanned = new HashMap<String, Double>();
+        for (Iterator<Tuple> it = redis.zscanIterator("z", 8); it.hasNext();)
+        {
+            Tuple tuple = it.next();
+            assertNull(scanned.put(tuple.getElement(), tuple.getScore()));
+        }
+        assertEquals(scores, scanned);
+
+        List<Integer> sizes = new ArrayList<Integer>();
+        Map<String, Double> batched = new HashMap<String, Double>();
+        redis.zscan("z", 8, batch -> {
+            sizes.add(batch.size());
+            for (Tuple tuple : batch)
+            {
+                batched.put(tuple.getElement(), tuple.getScore());
+            }
+        });
+        assertEquals(scores, batched);
+        assertBatches(sizes, 50, 8);
+    }
+
+    /**
+     * 迭代到批次中间后 forEachBatch 先回调本批剩余元素, 再继续扫描
+     */
+    public void testForEachBatchAfterPartialIteration()
+    {
+        for (int i = 0; i < 20; i++)
+        {
+            redis.sadd("s", "m" + i);
+        }
+        ScanIterator<String> it = redis.sscanIterator("s", 5);
+        Set<String> seen = new HashSet<String>();
+        seen.add(it.next());
+        seen.add(it.next());
+        List<Integer> sizes = new ArrayList<Integer>();
+        it.forEachBatch(batch -> {
+            sizes.add(batch.size());
+            for (String member : batch)
+            {
+                assertTrue(member, seen.add(member));
+            }
+        });
+        assertEquals(Arrays.asList(3, 5, 5, 5), sizes);
+        assertEquals(20, seen.size());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * COUNT 小于集合大小, 需要多轮游标扫描, 每批不超过 COUNT
+     */
+    private static void assertBatches(List<Integer> sizes, int total, int count)
+    {
+        assertEquals((total + count - 1) / count, sizes.size());
+        int sum = 0;
+        for (int size : sizes)
+        {
+            assertTrue(size > 0 && size <= count);
+            sum += size;
+        }
+        assertEquals(total, sum);
+    }
+
+    /**
+     * 记录扫描次数和空批次数的键扫描
+     */
+    private class CountingScan extends ScanIterator<String>
+    {
+        int scans;
+
+        int emptyBatches;
+
+        CountingScan(String pattern, int count)
+        {
+            super(pattern, count);
+        }
+
+        @Override
+        protected ScanResult<String> scan(String cursor, ScanParams params)
+        {
+            ScanResult<String> result = redis.scan(cursor, params);
+            scans++;
+            if (result.getResult().isEmpty() && !ScanParams.SCAN_POINTER_START.equals(result.getStringCursor()))
+            {
+                emptyBatches++;
+            }
+            return result;
+        }
+    }
+}
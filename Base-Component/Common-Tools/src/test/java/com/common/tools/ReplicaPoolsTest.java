@@ -0,0 +1,269 @@
+package com.common.tools;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import com.common.tools.RedisUtil.ReadGroup;
+import com.common.tools.RedisUtil.ReadPreference;
+
+/**
+ * 从节点读: 通过哨兵发现从节点、过滤不健康的从节点、排除已提升为主节点的地址以及刷新时重建连接池
+ */
+public class ReplicaPoolsTest extends EmbeddedRedisTestCase
+{
+    private EmbeddedRedisServer first;
+
+    private EmbeddedRedisServer second;
+
+    private EmbeddedRedisServer third;
+
+    public ReplicaPoolsTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ReplicaPoolsTest.class);
+    }
+
+    @Override
+    protected void configure(RedisUtil redis)
+    {
+        try
+        {
+            first = new EmbeddedRedisServer(0);
+            first.start();
+            second = new EmbeddedRedisServer(0);
+            second.start();
+            third = new EmbeddedRedisServer(0);
+            third.start();
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+        sentinel.addReplica(first.getHostAndPort());
+        sentinel.addReplica(second.getHostAndPort());
+        redis.setReplicaReadEnabled(true);
+        redis.setReplicaReadGroups(EnumSet.of(ReadGroup.STRING));
+        // 只有后台刷新的用例使用短间隔, 其余用例显式调用 refresh
+        redis.setReplicaRefreshMillis("testBackgroundRefreshRebuildsPools".equals(getName()) ? 100 : 60000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+        for (EmbeddedRedisServer replica : Arrays.asList(first, second, third))
+        {
+            if (null != replica)
+            {
+                replica.stop();
+            }
+        }
+    }
+
+    public void testDiscoversReplicasAndRoundRobinsReads()
+    {
+        ReplicaPools replicas = redis.getReplicaPools();
+        assertEquals(addresses(first, second), replicas.getReplicas());
+        assertEquals(2, replicas.getPools().size());
+
+        redis.set("k", "master");
+        rawSet(first, "k", "first");
+        rawSet(second, "k", "second");
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < 4; i++)
+        {
+            seen.add(redis.get("k"));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("first", "second")), seen);
+        // 未列入 replicaReadGroups 的读取和指定 MASTER 偏好的读取仍发往主节点
+        assertEquals("master", redis.withReadPreference(ReadPreference.MASTER, () -> redis.get("k")));
+        redis.hset("h", "f", "master");
+        rawHset(first, "h", "f", "first");
+        rawHset(second, "h", "f", "second");
+        assertEquals("master", redis.hget("h", "f"));
+    }
+
+    public void testUnhealthyReplicaIsFiltered()
+    {
+        ReplicaPools replicas = redis.getReplicaPools();
+        sentinel.setReplicaDown(second.getHostAndPort(), true);
+        replicas.refresh();
+        assertEquals(addresses(first), replicas.getReplicas());
+
+        rawSet(first, "k", "first");
+        rawSet(second, "k", "second");
+        for (int i = 0; i < 4; i++)
+        {
+            assertEquals("first", redis.get("k"));
+        }
+
+        sentinel.setReplicaDown(second.getHostAndPort(), false);
+        replicas.refresh();
+        assertEquals(addresses(first, second), replicas.getReplicas());
+    }
+
+    /**
+     * 切换后哨兵的从节点列表可能仍包含刚被提升的节点, 该节点按主节点处理, 不作为从节点
+     */
+    public void testPromotedMasterIsExcluded() throws Exception
+    {
+        ReplicaPools replicas = redis.getReplicaPools();
+        HostAndPort oldMaster = server.getHostAndPort();
+        assertTrue(sentinel.failover(first.getHostAndPort()) > 0);
+        sentinel.addReplica(first.getHostAndPort());
+        sentinel.addReplica(oldMaster);
+
+        // 等待主节点连接池收到 +switch-master
+        long deadline = System.currentTimeMillis() + 5000;
+        do
+        {
+            Thread.sleep(20);
+            replicas.refresh();
+        }
+        while (replicas.getReplicas().contains(first.getHostAndPort()) && System.currentTimeMillis() < deadline);
+        assertEquals(addresses(second, server), replicas.getReplicas());
+
+        redis.set("k", "master");
+        assertEquals("master", rawGet(first, "k"));
+        rawSet(second, "k", "second");
+        rawSet(server, "k", "old");
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < 4; i++)
+        {
+            seen.add(redis.get("k"));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("second", "old")), seen);
+    }
+
+    /**
+     * 刷新时保留仍存在的从节点的连接池, 关闭已移除从节点的连接池; 哨兵全部不可达时保留现有连接池
+     */
+    public void testRefreshRebuildsPools()
+    {
+        ReplicaPools replicas = redis.getReplicaPools();
+        Map<JedisPool, Boolean> before = identities(replicas.getPools());
+
+        sentinel.removeReplica(second.getHostAndPort());
+        sentinel.addReplica(third.getHostAndPort());
+        replicas.refresh();
+        assertEquals(addresses(first, third), replicas.getReplicas());
+
+        List<JedisPool> after = replicas.getPools();
+        int kept = 0;
+        for (JedisPool p : after)
+        {
+            if (before.containsKey(p))
+            {
+                kept++;
+            }
+        }
+        assertEquals(1, kept);
+        int closed = 0;
+        for (JedisPool p : before.keySet())
+        {
+            if (p.isClosed())
+            {
+                closed++;
+            }
+        }
+        assertEquals(1, closed);
+
+        // 哨兵不可达时不按空列表处理
+        sentinel.removeReplica(first.getHostAndPort());
+        sentinel.stop();
+        replicas.refresh();
+        assertEquals(addresses(first, third), replicas.getReplicas());
+        assertEquals(identities(after).keySet(), identities(replicas.getPools()).keySet());
+    }
+
+    public void testBackgroundRefreshRebuildsPools() throws Exception
+    {
+        ReplicaPools replicas = redis.getReplicaPools();
+        sentinel.removeReplica(first.getHostAndPort());
+        sentinel.addReplica(third.getHostAndPort());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!addresses(second, third).equals(replicas.getReplicas()) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(20);
+        }
+        assertEquals(addresses(second, third), replicas.getReplicas());
+
+        redis.destroy();
+        assertTrue(replicas.getPools().isEmpty());
+        redis = null;
+    }
+
+    private static Set<HostAndPort> addresses(EmbeddedRedisServer... servers)
+    {
+        Set<HostAndPort> addresses = new HashSet<HostAndPort>();
+        for (EmbeddedRedisServer s : servers)
+        {
+            addresses.add(s.getHostAndPort());
+        }
+        return addresses;
+    }
+
+    private static Map<JedisPool, Boolean> identities(List<JedisPool> pools)
+    {
+        Map<JedisPool, Boolean> identities = new IdentityHashMap<JedisPool, Boolean>();
+        for (JedisPool p : pools)
+        {
+            identities.put(p, Boolean.TRUE);
+        }
+        return identities;
+    }
+
+    private static void rawSet(EmbeddedRedisServer server, String key, String value)
+    {
+        Jedis jedis = new Jedis(server.getHostAndPort().getHost(), server.getPort());
+        try
+        {
+            jedis.set(key, value);
+        }
+        finally
+        {
+            jedis.close();
+        }
+    }
+
+    private static void rawHset(EmbeddedRedisServer server, String key, String field, String value)
+    {
+        Jedis jedis = new Jedis(server.getHostAndPort().getHost(), server.getPort());
+        try
+        {
+            jedis.hset(key, field, value);
+        }
+        finally
+        {
+            jedis.close();
+        }
+    }
+
+    private static String rawGet(EmbeddedRedisServer server, String key)
+    {
+        Jedis jedis = new Jedis(server.getHostAndPort().getHost(), server.getPort());
+        try
+        {
+            return jedis.get(key);
+        }
+        finally
+        {
+            jedis.close();
+        }
+    }
+}
@@ -0,0 +1,620 @@
+package com.common.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.HostAndPort;
+
+/**
+ * 进程内 RESP 协议服务端基类
+ * <p>
+ * 监听本机端口, 每个连接一个守护线程, 解析 RESP 数组形式的命令后交给子类执行, 支持管道(缓冲区读空时才刷新输出)。<br/>
+ * 命令参数和回复中的字符串按 ISO-8859-1 与字节一一对应, 二进制的key和值可以原样往返。<br/>
+ * 基类实现了 SUBSCRIBE/UNSUBSCRIBE/PUBLISH, 供 sentinel 的主从切换通知和业务的发布订阅使用。
+ *
+ */
+public abstract class RespServer
+{
+    private static final Logger logger = LoggerFactory.getLogger(RespServer.class);
+
+    /**
+     * 参数与回复使用的字符集, 字节与字符一一对应
+     */
+    public static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    /**
+     * 空数组回复(*-1), 例如 WATCH 的key被修改后 EXEC 的返回
+     */
+    protected static final Object NULL_ARRAY = new Object();
+
+    private static final byte[] CRLF = new byte[]
+    {
+            '\r', '\n'
+    };
+
+    private final String name;
+
+    private final int requestedPort;
+
+    private final Set<Session> sessions = new CopyOnWriteArraySet<Session>();
+
+    private final Map<String, Set<Session>> channels = new ConcurrentHashMap<String, Set<Session>>();
+
+    private final AtomicInteger connectionSeq = new AtomicInteger();
+
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * @param name
+     *            线程名前缀
+     * @param port
+     *            监听端口, 0 表示由系统分配
+     */
+    protected RespServer(String name, int port)
+    {
+        this.name = name;
+        this.requestedPort = port;
+    }
+
+    /**
+     * 执行一条命令
+     *
+     * @param session
+     * @param args
+     *            命令名与参数, 命令名已转为大写
+     * @return 回复: null、String、Number、List、{@link Status}、{@link RespError} 或 {@link #NULL_ARRAY}
+     */
+    protected abstract Object execute(Session session, List<String> args);
+
+    /**
+     * 开始监听
+     *
+     * @return
+     * @throws IOException
+     */
+    public synchronized RespServer start() throws IOException
+    {
+        if (null != serverSocket)
+        {
+            return this;
+        }
+        final ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(new InetSocketAddress("127.0.0.1", requestedPort));
+        serverSocket = ss;
+        Thread acceptor = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                accept(ss);
+            }
+        }, name + "-acceptor-" + ss.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info(name + " 已启动, 端口: " + ss.getLocalPort());
+        return this;
+    }
+
+    /**
+     * 停止监听并断开所有连接
+     */
+    public synchronized void stop()
+    {
+        if (null == serverSocket)
+        {
+            return;
+        }
+        closeQuietly(serverSocket);
+        serverSocket = null;
+        for (Session session : sessions)
+        {
+            session.close();
+        }
+        sessions.clear();
+        channels.clear();
+    }
+
+    public boolean isRunning()
+    {
+        return null != serverSocket;
+    }
+
+    /**
+     * 实际监听的端口, 未启动时返回构造时指定的端口
+     *
+     * @return
+     */
+    public int getPort()
+    {
+        ServerSocket ss = serverSocket;
+        return null == ss ? requestedPort : ss.getLocalPort();
+    }
+
+    public HostAndPort getHostAndPort()
+    {
+        return new HostAndPort("127.0.0.1", getPort());
+    }
+
+    /**
+     * 当前的客户端连接数
+     *
+     * @return
+     */
+    public int getConnectionCount()
+    {
+        return sessions.size();
+    }
+
+    /**
+     * 向频道发布消息
+     *
+     * @param channel
+     * @param message
+     * @return 收到消息的订阅者数
+     */
+    public long publish(String channel, String message)
+    {
+        Set<Session> subscribers = channels.get(channel);
+        if (null == subscribers)
+        {
+            return 0;
+        }
+        long count = 0;
+        for (Session session : subscribers)
+        {
+            List<Object> push = new ArrayList<Object>(3);
+            push.add("message");
+            push.add(channel);
+            push.add(message);
+            if (session.reply(push, true))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void accept(ServerSocket ss)
+    {
+        while (!ss.isClosed())
+        {
+            try
+            {
+                final Socket socket = ss.accept();
+                if (ss.isClosed())
+                {
+                    // stop 时阻塞中的 accept 可能还会返回一个连接, 不再处理
+                    closeQuietly(socket);
+                    break;
+                }
+                socket.setTcpNoDelay(true);
+                final Session session = new Session(socket);
+                sessions.add(session);
+                Thread t = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        serve(session);
+                    }
+                }, name + "-conn-" + connectionSeq.incrementAndGet());
+                t.setDaemon(true);
+                t.start();
+            }
+            catch (IOException e)
+            {
+                if (!ss.isClosed())
+                {
+                    logger.warn(name + " 接受连接异常," + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Session session)
+    {
+        try
+        {
+            InputStream in = session.in;
+            List<String> args;
+            while (null != (args = readCommand(in)))
+            {
+                if (args.isEmpty())
+                {
+                    continue;
+                }
+                args.set(0, args.get(0).toUpperCase(Locale.ROOT));
+                String command = args.get(0);
+                if ("QUIT".equals(command))
+                {
+                    session.reply(Status.OK, true);
+                    break;
+                }
+                Object reply;
+                try
+                {
+                    reply = dispatch(session, args);
+                }
+                catch (RespError e)
+                {
+                    reply = e;
+                }
+                catch (RuntimeException e)
+                {
+                    logger.warn(name + " 执行命令 " + command + " 异常," + e.getMessage(), e);
+                    reply = new RespError("ERR " + e.getMessage());
+                }
+                if (reply != Session.NO_REPLY)
+                {
+                    session.reply(reply, in.available() == 0);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // 客户端断开
+        }
+        finally
+        {
+            unsubscribeAll(session, false);
+            sessions.remove(session);
+            session.close();
+        }
+    }
+
+    private Object dispatch(Session session, List<String> args)
+    {
+        String command = args.get(0);
+        if ("SUBSCRIBE".equals(command))
+        {
+            checkArity(args, 2);
+            for (int i = 1; i < args.size(); i++)
+            {
+                String channel = args.get(i);
+                Set<Session> subscribers = channels.get(channel);
+                if (null == subscribers)
+                {
+                    channels.putIfAbsent(channel, new CopyOnWriteArraySet<Session>());
+                    subscribers = channels.get(channel);
+                }
+                subscribers.add(session);
+                session.channels.add(channel);
+                session.reply(subscription("subscribe", channel, session.channels.size()), i == args.size() - 1);
+            }
+            return Session.NO_REPLY;
+        }
+        if ("UNSUBSCRIBE".equals(command))
+        {
+            if (args.size() == 1)
+            {
+                unsubscribeAll(session, true);
+            }
+            else
+            {
+                for (int i = 1; i < args.size(); i++)
+                {
+                    unsubscribe(session, args.get(i));
+                }
+            }
+            return Session.NO_REPLY;
+        }
+        if ("PUBLISH".equals(command))
+        {
+            checkArity(args, 3);
+            return publish(args.get(1), args.get(2));
+        }
+        if (!session.channels.isEmpty() && !"PING".equals(command))
+        {
+            throw new RespError("ERR only (P)SUBSCRIBE / (P)UNSUBSCRIBE / PING / QUIT allowed in this context");
+        }
+        return execute(session, args);
+    }
+
+    private void unsubscribeAll(Session session, boolean reply)
+    {
+        if (session.channels.isEmpty())
+        {
+            if (reply)
+            {
+                session.reply(subscription("unsubscribe", null, 0), true);
+            }
+            return;
+        }
+        for (String channel : new ArrayList<String>(session.channels))
+        {
+            if (reply)
+            {
+                unsubscribe(session, channel);
+            }
+            else
+            {
+                removeSubscriber(session, channel);
+            }
+        }
+    }
+
+    private void unsubscribe(Session session, String channel)
+    {
+        removeSubscriber(session, channel);
+        session.reply(subscription("unsubscribe", channel, session.channels.size()), true);
+    }
+
+    private void removeSubscriber(Session session, String channel)
+    {
+        session.channels.remove(channel);
+        Set<Session> subscribers = channels.get(channel);
+        if (null != subscribers)
+        {
+            subscribers.remove(session);
+        }
+    }
+
+    private static List<Object> subscription(String kind, String channel, long count)
+    {
+        List<Object> reply = new ArrayList<Object>(3);
+        reply.add(kind);
+        reply.add(channel);
+        reply.add(count);
+        return reply;
+    }
+
+    /**
+     * 参数个数(含命令名)不少于min, 否则抛出参数个数错误
+     *
+     * @param args
+     * @param min
+     */
+    protected static void checkArity(List<String> args, int min)
+    {
+        if (args.size() < min)
+        {
+            throw new RespError("ERR wrong number of arguments for '" + args.get(0).toLowerCase(Locale.ROOT)
+                    + "' command");
+        }
+    }
+
+    /**
+     * 读取一条 RESP 数组形式的命令, 连接关闭时返回null
+     */
+    private static List<String> readCommand(InputStream in) throws IOException
+    {
+        int b = in.read();
+        if (b == -1)
+        {
+            return null;
+        }
+        if (b != '*')
+        {
+            throw new IOException("Protocol error: expected '*', got '" + (char) b + "'");
+        }
+        int count = Integer.parseInt(readLine(in));
+        List<String> args = new ArrayList<String>(Math.max(count, 0));
+        for (int i = 0; i < count; i++)
+        {
+            if (in.read() != '$')
+            {
+                throw new IOException("Protocol error: expected '$'");
+            }
+            int len = Integer.parseInt(readLine(in));
+            byte[] buf = new byte[len];
+            int off = 0;
+            while (off < len)
+            {
+                int n = in.read(buf, off, len - off);
+                if (n == -1)
+                {
+                    throw new EOFException();
+                }
+                off += n;
+            }
+            in.read();
+            in.read();
+            args.add(new String(buf, CHARSET));
+        }
+        return args;
+    }
+
+    private static String readLine(InputStream in) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\r')
+        {
+            if (b == -1)
+            {
+                throw new EOFException();
+            }
+            sb.append((char) b);
+        }
+        in.read();
+        return sb.toString();
+    }
+
+    private static void writeReply(OutputStream out, Object reply) throws IOException
+    {
+        if (null == reply)
+        {
+            out.write("$-1\r\n".getBytes(CHARSET));
+        }
+        else if (reply == NULL_ARRAY)
+        {
+            out.write("*-1\r\n".getBytes(CHARSET));
+        }
+        else if (reply instanceof Status)
+        {
+            out.write(('+' + ((Status) reply).text + "\r\n").getBytes(CHARSET));
+        }
+        else if (reply instanceof RespError)
+        {
+            out.write(('-' + ((RespError) reply).getMessage() + "\r\n").getBytes(CHARSET));
+        }
+        else if (reply instanceof Number)
+        {
+            out.write((":" + ((Number) reply).longValue() + "\r\n").getBytes(CHARSET));
+        }
+        else if (reply instanceof Boolean)
+        {
+            out.write((((Boolean) reply) ? ":1\r\n" : ":0\r\n").getBytes(CHARSET));
+        }
+        else if (reply instanceof Collection)
+        {
+            Collection<?> items = (Collection<?>) reply;
+            out.write(("*" + items.size() + "\r\n").getBytes(CHARSET));
+            for (Object item : items)
+            {
+                writeReply(out, item);
+            }
+        }
+        else
+        {
+            byte[] bytes = reply.toString().getBytes(CHARSET);
+            out.write(("$" + bytes.length + "\r\n").getBytes(CHARSET));
+            out.write(bytes);
+            out.write(CRLF);
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable)
+    {
+        try
+        {
+            closeable.close();
+        }
+        catch (IOException e)
+        {
+            // ignore
+        }
+    }
+
+    /**
+     * 状态回复(+OK 之类)
+     */
+    public static final class Status
+    {
+        public static final Status OK = new Status("OK");
+
+        public static final Status QUEUED = new Status("QUEUED");
+
+        public static final Status PONG = new Status("PONG");
+
+        private final String text;
+
+        public Status(String text)
+        {
+            this.text = text;
+        }
+
+        @Override
+        public String toString()
+        {
+            return text;
+        }
+    }
+
+    /**
+     * 错误回复, 消息以错误类型开头, 例如 "ERR ..."、"WRONGTYPE ..."
+     */
+    public static class RespError extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public RespError(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * 一个客户端连接及其状态(事务、WATCH、订阅)
+     */
+    protected static final class Session
+    {
+        /**
+         * 已由命令自行写出回复
+         */
+        static final Object NO_REPLY = new Object();
+
+        private final Socket socket;
+
+        private final InputStream in;
+
+        private final OutputStream out;
+
+        private final Set<String> channels = new LinkedHashSet<String>();
+
+        /**
+         * MULTI 之后排队的命令, 不在事务中时为null
+         */
+        List<List<String>> queued;
+
+        /**
+         * 排队时出现错误, EXEC 时整体放弃
+         */
+        boolean queueFailed;
+
+        /**
+         * WATCH 的key及其当时的版本号
+         */
+        Map<String, Long> watched;
+
+        /**
+         * 收到 ASKING, 只对下一条命令有效
+         */
+        boolean asking;
+
+        private Session(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * 写出回复, 发布消息时会被其他线程调用, 因此加锁
+         *
+         * @return 是否写出成功
+         */
+        private synchronized boolean reply(Object reply, boolean flush)
+        {
+            try
+            {
+                writeReply(out, reply);
+                if (flush)
+                {
+                    out.flush();
+                }
+                return true;
+            }
+            catch (IOException e)
+            {
+                close();
+                return false;
+            }
+        }
+
+        private void close()
+        {
+            closeQuietly(socket);
+        }
+    }
+}
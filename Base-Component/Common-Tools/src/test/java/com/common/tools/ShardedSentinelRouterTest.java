@@ -0,0 +1,314 @@
+package com.common.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * 一致性哈希分片: 两个 master 各由一个哨兵监控, 覆盖key的分片位置、{hashtag}、增加分片时的迁移范围和跨分片的批量操作
+ */
+public class ShardedSentinelRouterTest extends TestCase
+{
+    private static final RedisScript<String> GET = RedisScript.of("return redis.call('GET', KEYS[1])",
+            BuilderFactory.STRING);
+
+    private final List<EmbeddedRedisServer> servers = new ArrayList<EmbeddedRedisServer>();
+
+    private final List<EmbeddedSentinel> sentinels = new ArrayList<EmbeddedSentinel>();
+
+    private RedisUtil redis;
+
+    public ShardedSentinelRouterTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ShardedSentinelRouterTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        addShard("shard1");
+        addShard("shard2");
+        redis = new RedisUtil();
+        redis.setSentinels(sentinelAddresses());
+        redis.setMasterNames(new LinkedHashSet<String>(Arrays.asList("shard1", "shard2")));
+        redis.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        redis.destroy();
+        for (EmbeddedSentinel sentinel : sentinels)
+        {
+            sentinel.stop();
+        }
+        for (EmbeddedRedisServer server : servers)
+        {
+            server.stop();
+        }
+    }
+
+    public void testPlacement()
+    {
+        ShardedSentinelRouter router = redis.getShardRouter();
+        assertEquals(router.partitionOf("{user:1}:name"), router.partitionOf("{user:1}:age"));
+        assertEquals(router.partitionOf("user:1"), router.partitionOf("{user:1}:age"));
+        // 空的 {} 不是 hashtag
+        assertEquals(router.partitionOf("{}user"), router.partitionOf("{}user".getBytes()));
+
+        for (int i = 0; i < 200; i++)
+        {
+            redis.set("key" + i, "v" + i);
+        }
+        for (int i = 0; i < 200; i++)
+        {
+            assertEquals("v" + i, rawGet(serverOf(router.partitionOf("key" + i)), "key" + i));
+        }
+        assertTrue(servers.get(0).size() > 50);
+        assertTrue(servers.get(1).size() > 50);
+        assertEquals(200, servers.get(0).size() + servers.get(1).size());
+    }
+
+    /**
+     * 增加一个分片时, 位置变化的key都迁到新分片, 其余key不动
+     */
+    public void testAddingShardMovesOnlyItsKeys() throws Exception
+    {
+        ShardedSentinelRouter two = redis.getShardRouter();
+        addShard("shard3");
+        ShardedSentinelRouter three = new ShardedSentinelRouter(
+                new LinkedHashSet<String>(Arrays.asList("shard1", "shard2", "shard3")), sentinelAddresses(),
+                new GenericObjectPoolConfig(), 2000, 160, 2);
+        try
+        {
+            int moved = 0;
+            for (int i = 0; i < 3000; i++)
+            {
+                String key = "key" + i;
+                if (!two.partitionOf(key).equals(three.partitionOf(key)))
+                {
+                    assertEquals("shard3", three.partitionOf(key));
+                    moved++;
+                }
+            }
+            // 约三分之一的key迁到新分片
+            assertTrue("moved " + moved, moved > 600 && moved < 1400);
+        }
+        finally
+        {
+            three.close();
+        }
+    }
+
+    public void testMultiKeyAcrossShards()
+    {
+        List<String> keys = new ArrayList<String>();
+        List<String> keysvalues = new ArrayList<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            keys.add("key" + i);
+            keysvalues.add("key" + i);
+            keysvalues.add("v" + i);
+        }
+        assertEquals("OK", redis.mset(keysvalues.toArray(new String[keysvalues.size()])));
+        assertEquals(100, servers.get(0).size() + servers.get(1).size());
+
+        List<String> query = new ArrayList<String>(keys);
+        query.add(0, "missing");
+        List<String> values = redis.mget(query.toArray(new String[query.size()]));
+        assertNull(values.get(0));
+        assertEquals(keys.size() + 1, values.size());
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals("v" + i, values.get(i + 1));
+        }
+
+        List<Object> lengths = redis.pipelineExecute(keys, new KeyedPipelineExecute()
+        {
+            @Override
+            public Response<?> execute(Pipeline pipeline, String key)
+            {
+                return pipeline.strlen(key);
+            }
+        });
+        List<RedisScript.Call<?>> calls = new ArrayList<RedisScript.Call<?>>();
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals((long) ("v" + i).length(), lengths.get(i));
+            calls.add(GET.call(Collections.singletonList("key" + i), Collections.<String> emptyList()));
+        }
+        List<Object> results = redis.evalPipelined(calls);
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals("v" + i, results.get(i));
+        }
+
+        assertEquals(100, redis.del(query.toArray(new String[query.size()])));
+        assertEquals(0, servers.get(0).size() + servers.get(1).size());
+    }
+
+    public void testSetOperationsAcrossShards()
+    {
+        ShardedSentinelRouter router = redis.getShardRouter();
+        String left = "left";
+        String right = "right0";
+        for (int i = 1; router.partitionOf(right).equals(router.partitionOf(left)); i++)
+        {
+            right = "right" + i;
+        }
+        for (String member : Arrays.asList("a", "b", "c"))
+        {
+            redis.sadd(left, member);
+        }
+        for (String member : Arrays.asList("b", "c", "d"))
+        {
+            redis.sadd(right, member);
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("b", "c")), redis.sinter(left, right));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c", "d")), redis.sunion(left, right));
+        assertEquals(Collections.singleton("a"), redis.sdiff(left, right));
+    }
+
+    /**
+     * 分片模式下 scanKeys 依次扫描每个分片的主节点
+     */
+    public void testScanKeysVisitsEveryShard()
+    {
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 200; i++)
+        {
+            redis.set("key" + i, "v");
+            expected.add("key" + i);
+        }
+        redis.set("other", "v");
+        assertTrue(servers.get(0).size() > 0 && servers.get(1).size() > 0);
+
+        List<String> keys = new ArrayList<String>();
+        ScanIterator<String> it = redis.scanKeys("key*", 7);
+        while (it.hasNext())
+        {
+            keys.add(it.next());
+        }
+        assertEquals(200, keys.size());
+        assertEquals(expected, new HashSet<String>(keys));
+        assertEquals(3, redis.scanKeyStream(null, 10).limit(3).count());
+
+        // 第一个分片为空时继续扫描第二个分片
+        String only = "only0";
+        for (int i = 1; !redis.getShardRouter().partitionOf(only).equals("shard2"); i++)
+        {
+            only = "only" + i;
+        }
+        redis.del(keys.toArray(new String[keys.size()]));
+        redis.del("other");
+        redis.set(only, "v");
+        assertEquals(Collections.singletonList(only), redis.scanKeyStream(null, 10).collect(Collectors.toList()));
+    }
+
+    /**
+     * 锁的key与通知频道不在同一分片时, 释放通知仍能唤醒等待者, 不必等到租期结束
+     */
+    public void testLockReleaseWakesWaiterOnOtherShard() throws Exception
+    {
+        String channel = "redis-lock:released";
+        ShardedSentinelRouter router = redis.getShardRouter();
+        String name = "order0";
+        for (int i = 1; router.partitionOf("lock:{" + name + "}").equals(router.partitionOf(channel)); i++)
+        {
+            name = "order" + i;
+        }
+        final String lockName = name;
+        final RedisLock holder = new RedisLock(redis, 10000, channel);
+        final RedisLock waiter = new RedisLock(redis, 10000, channel);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            RedisLock.Lease held = holder.tryLock(lockName);
+            assertNotNull(held);
+            Future<RedisLock.Lease> waiting = executor.submit(() -> waiter.tryLock(lockName, 8000));
+            Thread.sleep(300);
+            long start = System.currentTimeMillis();
+            assertTrue(held.unlock());
+            RedisLock.Lease lease = waiting.get(10, TimeUnit.SECONDS);
+            long waited = System.currentTimeMillis() - start;
+            assertNotNull(lease);
+            assertTrue("waited " + waited, waited < 2000);
+            assertTrue(lease.unlock());
+        }
+        finally
+        {
+            executor.shutdown();
+            holder.close();
+            waiter.close();
+        }
+    }
+
+    private void addShard(String masterName) throws Exception
+    {
+        EmbeddedRedisServer server = new EmbeddedRedisServer(0);
+        server.start();
+        EmbeddedSentinel sentinel = new EmbeddedSentinel(masterName, server.getHostAndPort(), 0);
+        sentinel.start();
+        servers.add(server);
+        sentinels.add(sentinel);
+    }
+
+    private Set<String> sentinelAddresses()
+    {
+        Set<String> addresses = new LinkedHashSet<String>();
+        for (EmbeddedSentinel sentinel : sentinels)
+        {
+            addresses.add(sentinel.getHostAndPort().toString());
+        }
+        return addresses;
+    }
+
+    private EmbeddedRedisServer serverOf(String masterName)
+    {
+        for (int i = 0; i < sentinels.size(); i++)
+        {
+            if (sentinels.get(i).getMasterName().equals(masterName))
+            {
+                return servers.get(i);
+            }
+        }
+        throw new IllegalArgumentException(masterName);
+    }
+
+    private static String rawGet(EmbeddedRedisServer server, String key)
+    {
+        Jedis jedis = new Jedis(server.getHostAndPort().getHost(), server.getPort());
+        try
+        {
+            return jedis.get(key);
+        }
+        finally
+        {
+            jedis.close();
+        }
+    }
+}
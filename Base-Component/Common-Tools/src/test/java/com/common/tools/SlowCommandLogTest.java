@@ -0,0 +1,172 @@
+package com.common.tools;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import redis.clients.util.Hashing;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * SlowCommandLog: 阈值过滤、环形缓冲区覆盖与顺序、key截断与哈希, 以及 RedisUtil 记录的请求/响应大小和等待连接耗时
+ */
+public class SlowCommandLogTest extends EmbeddedRedisTestCase
+{
+    public SlowCommandLogTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(SlowCommandLogTest.class);
+    }
+
+    @Override
+    protected void configure(RedisUtil redis)
+    {
+        // 阈值为0, 每个命令都记录
+        redis.setSlowLogThresholdMicros(0);
+        redis.setSlowLogSize(16);
+        redis.setMaxTotal(1);
+    }
+
+    public void testThreshold()
+    {
+        SlowCommandLog log = new SlowCommandLog(8, 1000, 64, false);
+        assertFalse(log.isSlow(999999));
+        assertTrue(log.isSlow(1000000));
+        assertTrue(log.isSlow(5000000));
+
+        SlowCommandLog off = new SlowCommandLog(8, Long.MAX_VALUE / 1000, 64, false);
+        assertFalse(off.isSlow(TimeUnit.SECONDS.toNanos(100)));
+    }
+
+    public void testRingBufferWrapsNewestFirst()
+    {
+        SlowCommandLog log = new SlowCommandLog(4, 0, 64, false);
+        assertTrue(log.getEntries().isEmpty());
+        for (int i = 0; i < 10; i++)
+        {
+            log.add("cmd" + i, "k" + i, -1, -1, 0, 0, false);
+        }
+        assertEquals(10, log.getTotal());
+        List<SlowCommandLog.Entry> entries = log.getEntries();
+        assertEquals(4, entries.size());
+        for (int i = 0; i < 4; i++)
+        {
+            assertEquals("cmd" + (9 - i), entries.get(i).getCommand());
+            assertEquals(9 - i, entries.get(i).getId());
+        }
+        List<SlowCommandLog.Entry> latest = log.getEntries(2);
+        assertEquals(2, latest.size());
+        assertEquals("cmd9", latest.get(0).getCommand());
+        assertEquals("cmd8", latest.get(1).getCommand());
+
+        log.clear();
+        assertTrue(log.getEntries().isEmpty());
+        // 累计数不随清空归零, 新记录继续编号
+        log.add("next", null, -1, -1, 0, 0, false);
+        assertEquals(11, log.getTotal());
+        assertEquals("next", log.getEntries().get(0).getCommand());
+        assertNull(log.getEntries().get(0).getKey());
+    }
+
+    public void testKeyTruncation()
+    {
+        SlowCommandLog log = new SlowCommandLog(4, 0, 8, false);
+        log.add("get", "short", -1, -1, 0, 0, false);
+        log.add("get", "a-very-long-key", -1, -1, 0, 0, false);
+        log.add("get", SafeEncoder.encode("binary-long-key"), -1, -1, 0, 0, false);
+        List<SlowCommandLog.Entry> entries = log.getEntries();
+        assertEquals("binary-l...", entries.get(0).getKey());
+        assertEquals("a-very-l...", entries.get(1).getKey());
+        assertEquals("short", entries.get(2).getKey());
+    }
+
+    public void testKeyHashing()
+    {
+        SlowCommandLog log = new SlowCommandLog(4, 0, 8, true);
+        log.add("get", "secret:token", -1, -1, 0, 0, false);
+        log.add("get", SafeEncoder.encode("secret:token"), -1, -1, 0, 0, false);
+        List<SlowCommandLog.Entry> entries = log.getEntries();
+        String expected = "#" + Long.toHexString(Hashing.MURMUR_HASH.hash(SafeEncoder.encode("secret:token")));
+        assertEquals(expected, entries.get(0).getKey());
+        // String 与 byte[] 形式的同一个key哈希相同, 且不被截断
+        assertEquals(expected, entries.get(1).getKey());
+        assertFalse(entries.get(0).getKey().contains("secret"));
+    }
+
+    public void testRecordedSizes()
+    {
+        redis.set("k", "value");
+        redis.get("k");
+        redis.get("missing");
+
+        List<SlowCommandLog.Entry> entries = redis.getSlowCommandLog().getEntries();
+        assertEquals(3, entries.size());
+        SlowCommandLog.Entry miss = entries.get(0);
+        SlowCommandLog.Entry get = entries.get(1);
+        SlowCommandLog.Entry set = entries.get(2);
+        assertEquals("set", set.getCommand());
+        assertEquals("k", set.getKey());
+        // 请求为key与值, 响应为状态码 OK
+        assertEquals(1 + 5, set.getRequestBytes());
+        assertEquals(2, set.getResponseBytes());
+        assertEquals("get", get.getCommand());
+        assertEquals(1, get.getRequestBytes());
+        assertEquals(5, get.getResponseBytes());
+        assertEquals(0, miss.getResponseBytes());
+        assertEquals(Thread.currentThread().getName(), get.getThread());
+        assertFalse(get.isFailed());
+        assertEquals(redis.getMetrics().getSlowCommands().size(), entries.size());
+    }
+
+    public void testRecordedPoolWait() throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            // 连接池只有一个连接, 阻塞读取占用约1秒
+            Future<String> blocking = executor.submit(() -> redis.brpoplpush("empty", "dest", 1));
+            Thread.sleep(200);
+            redis.set("k", "v");
+            assertNull(blocking.get(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        SlowCommandLog.Entry set = null;
+        for (SlowCommandLog.Entry entry : redis.getSlowCommandLog().getEntries())
+        {
+            if ("set".equals(entry.getCommand()))
+            {
+                set = entry;
+            }
+        }
+        assertNotNull(set);
+        assertTrue("wait " + set.getWaitMicros(), set.getWaitMicros() >= 500000);
+        assertTrue("elapsed " + set.getElapsedMicros(), set.getElapsedMicros() < set.getWaitMicros());
+    }
+
+    public void testFailedCommand()
+    {
+        redis.hset("h", "f", "v");
+        try
+        {
+            redis.get("h");
+            fail("WRONGTYPE expected");
+        }
+        catch (RuntimeException expected)
+        {
+        }
+        SlowCommandLog.Entry entry = redis.getSlowCommandLog().getEntries(1).get(0);
+        assertEquals("get", entry.getCommand());
+        assertTrue(entry.isFailed());
+    }
+}
@@ -0,0 +1,186 @@
+package com.common.tools;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * ThreadPoolUtils.parallelFor: 分段覆盖每个下标一次、异常在全部分段结束后抛出、线程池繁忙时由调用线程执行
+ */
+public class ThreadPoolUtilsTest extends TestCase
+{
+    /**
+     * 与 ThreadPoolUtils 的线程池大小相同
+     */
+    private static final int POOL_SIZE = 30;
+
+    public ThreadPoolUtilsTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ThreadPoolUtilsTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        initPool();
+    }
+
+    /**
+     * 初始化共享的线程池, 已初始化时不再创建
+     */
+    static synchronized void initPool() throws Exception
+    {
+        if (null == ThreadPoolUtils.getExecutorService())
+        {
+            new ThreadPoolUtils().afterPropertiesSet();
+        }
+    }
+
+    public void testUsesPoolThreads()
+    {
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        final AtomicIntegerArray runs = new AtomicIntegerArray(200);
+        ThreadPoolUtils.parallelFor(200, 10, i -> {
+            threads.add(Thread.currentThread());
+            runs.incrementAndGet(i);
+            sleep(1);
+        });
+        assertEachOnce(runs);
+        assertTrue("threads " + threads.size(), threads.size() > 1);
+    }
+
+    public void testBatchSizeEdgeCases()
+    {
+        Thread caller = Thread.currentThread();
+        for (int batchSize : new int[] { 0, -1, 25, 100 })
+        {
+            final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+            AtomicIntegerArray runs = new AtomicIntegerArray(25);
+            ThreadPoolUtils.parallelFor(25, batchSize, i -> {
+                threads.add(Thread.currentThread());
+                runs.incrementAndGet(i);
+            });
+            assertEachOnce(runs);
+            // 不分段时只在调用线程执行
+            assertEquals(Collections.singleton(caller), threads);
+        }
+
+        // 不是整数倍时最后一段较短
+        for (int size : new int[] { 21, 29, 30, 31 })
+        {
+            AtomicIntegerArray runs = new AtomicIntegerArray(size);
+            ThreadPoolUtils.parallelFor(size, 10, i -> runs.incrementAndGet(i));
+            assertEachOnce(runs);
+        }
+
+        ThreadPoolUtils.parallelFor(0, 10, i -> fail("empty range"));
+    }
+
+    public void testExceptionRethrownAfterAllSegments()
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        final IllegalStateException failure = new IllegalStateException("segment 0");
+        try
+        {
+            ThreadPoolUtils.parallelFor(100, 10, i -> {
+                if (i == 5)
+                {
+                    throw failure;
+                }
+                if (i >= 90)
+                {
+                    // 最后一段较慢, 异常不能在它结束之前抛出
+                    sleep(20);
+                }
+                runs.incrementAndGet();
+            });
+            fail("exception should be rethrown");
+        }
+        catch (IllegalStateException e)
+        {
+            assertSame(failure, e);
+        }
+        // 出错的分段停在下标5, 其余分段全部执行完
+        assertEquals(100 - 5, runs.get());
+    }
+
+    public void testCallerRunsWhenPoolSaturated() throws Exception
+    {
+        ExecutorService pool = ThreadPoolUtils.getExecutorService();
+        final CountDownLatch started = new CountDownLatch(POOL_SIZE);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < POOL_SIZE; i++)
+        {
+            pool.execute(() -> {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try
+        {
+            final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+            final AtomicIntegerArray runs = new AtomicIntegerArray(100);
+            Future<Thread> future = caller.submit(() -> {
+                ThreadPoolUtils.parallelFor(100, 10, i -> {
+                    threads.add(Thread.currentThread());
+                    runs.incrementAndGet(i);
+                });
+                return Thread.currentThread();
+            });
+            // 排队的分段不会让调用线程一直等待
+            Thread callerThread = future.get(5, TimeUnit.SECONDS);
+            assertEachOnce(runs);
+            assertEquals(Collections.singleton(callerThread), threads);
+        }
+        finally
+        {
+            release.countDown();
+            caller.shutdown();
+        }
+    }
+
+    private static void assertEachOnce(AtomicIntegerArray runs)
+    {
+        for (int i = 0; i < runs.length(); i++)
+        {
+            assertEquals("index " + i, 1, runs.get(i));
+        }
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.common.tools;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * ValueCompressor: 达到阈值时压缩并可还原、压缩后不变小时保留原始数据、拒绝损坏的长度字段, 以及压缩统计
+ */
+public class ValueCompressorTest extends TestCase
+{
+    private final BinaryCodec codec = new BinaryCodec();
+
+    public ValueCompressorTest(String testName)
+    {
+        super(testName);
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite(ValueCompressorTest.class);
+    }
+
+    public void testRoundTripAboveThreshold() throws IOException
+    {
+        ValueCompressor compressor = new ValueCompressor(100, 1);
+        String value = repeated(5000);
+        byte[] encoded = SerializeUtil.encode((Object) value, codec, compressor);
+        assertTrue(SerializeUtil.hasHeader(encoded));
+        assertTrue((encoded[1] & SerializeUtil.FLAG_COMPRESSED) != 0);
+        assertTrue(encoded.length < value.length() / 4);
+        assertEquals(value, SerializeUtil.decode(encoded, compressor));
+
+        // 直接压缩和解压
+        byte[] raw = value.getBytes("UTF-8");
+        ByteArrayOutput out = new ByteArrayOutput(16);
+        out.write(7);
+        assertTrue(compressor.compress(raw, 0, raw.length, out));
+        byte[] restored = ValueCompressor.decompress(out.getBuffer(), 1, out.size() - 1, raw.length, compressor);
+        assertTrue(Arrays.equals(raw, restored));
+        // 已有的内容不受影响
+        assertEquals(7, out.getBuffer()[0]);
+    }
+
+    public void testBelowThresholdIsNotCompressed()
+    {
+        ValueCompressor compressor = new ValueCompressor(10000, 1);
+        String value = repeated(500);
+        assertFalse(compressor.shouldCompress(500));
+        byte[] encoded = SerializeUtil.encode((Object) value, codec, compressor);
+        assertEquals(0, encoded[1] & SerializeUtil.FLAG_COMPRESSED);
+        assertEquals(value, SerializeUtil.decode(encoded, compressor));
+        assertEquals(0, compressor.getStats().getCompressedCount() + compressor.getStats().getIncompressibleCount());
+    }
+
+    public void testIncompressibleFallsBackToRaw() throws IOException
+    {
+        ValueCompressor compressor = new ValueCompressor(100, 6);
+        byte[] random = new byte[5000];
+        new Random(1).nextBytes(random);
+
+        byte[] encoded = SerializeUtil.encode((Object) random, codec, compressor);
+        assertEquals(0, encoded[1] & SerializeUtil.FLAG_COMPRESSED);
+        assertTrue(Arrays.equals(random, (byte[]) SerializeUtil.decode(encoded, compressor)));
+        // 与不压缩时的编码完全相同
+        assertTrue(Arrays.equals(SerializeUtil.encode((Object) random, codec, null), encoded));
+
+        ByteArrayOutput out = new ByteArrayOutput(16);
+        out.write(1);
+        assertFalse(compressor.compress(random, 0, random.length, out));
+        // 回退到压缩前的长度
+        assertEquals(1, out.size());
+
+        ValueCompressor.Stats stats = compressor.getStats();
+        assertEquals(0, stats.getCompressedCount());
+        assertEquals(2, stats.getIncompressibleCount());
+        assertEquals(0, stats.getRawBytes());
+    }
+
+    public void testRejectsCorruptLength() throws IOException
+    {
+        ValueCompressor compressor = new ValueCompressor(100, 1);
+        byte[] raw = repeated(5000).getBytes("UTF-8");
+        ByteArrayOutput out = new ByteArrayOutput(16);
+        assertTrue(compressor.compress(raw, 0, raw.length, out));
+        byte[] data = Arrays.copyOf(out.getBuffer(), out.size());
+
+        assertDecompressFails(data, -1);
+        // 超过 Deflate 的最大压缩比, 不按该长度分配内存
+        assertDecompressFails(data, data.length * 1032 + 65);
+        assertDecompressFails(data, Integer.MAX_VALUE);
+        // 长度与实际数据不符
+        assertDecompressFails(data, raw.length + 1);
+        // 截断的数据
+        assertDecompressFails(Arrays.copyOf(data, data.length / 2), raw.length);
+
+        // 数据头中的长度字段损坏时整体解码失败
+        byte[] encoded = SerializeUtil.encode((Object) repeated(5000), codec, compressor);
+        for (int i = 2; i < 7; i++)
+        {
+            encoded[i] = (byte) 0xFF;
+        }
+        try
+        {
+            SerializeUtil.decode(encoded, compressor);
+            fail("corrupt length should fail");
+        }
+        catch (RuntimeException expected)
+        {
+        }
+    }
+
+    public void testStats() throws IOException
+    {
+        ValueCompressor compressor = new ValueCompressor(100, 1);
+        byte[] raw = repeated(5000).getBytes("UTF-8");
+        int compressedSize = 0;
+        for (int i = 0; i < 3; i++)
+        {
+            ByteArrayOutput out = new ByteArrayOutput(16);
+            assertTrue(compressor.compress(raw, 0, raw.length, out));
+            compressedSize += out.size();
+            ValueCompressor.decompress(out.getBuffer(), 0, out.size(), raw.length, compressor);
+        }
+        ValueCompressor.decompress(new byte[0], 0, 0, 0, null);
+
+        ValueCompressor.Stats stats = compressor.getStats();
+        assertEquals(3, stats.getCompressedCount());
+        assertEquals(0, stats.getIncompressibleCount());
+        assertEquals(3L * raw.length, stats.getRawBytes());
+        assertEquals(compressedSize, stats.getCompressedBytes());
+        assertEquals((double) stats.getRawBytes() / compressedSize, stats.getCompressRatio(), 0.0001);
+        assertEquals(3, stats.getDecompressedCount());
+        assertTrue(stats.getMeanCompressMicros() > 0);
+
+        compressor.reset();
+        ValueCompressor.Stats cleared = compressor.getStats();
+        assertEquals(0, cleared.getCompressedCount());
+        assertEquals(0, cleared.getDecompressedCount());
+        assertEquals(0.0, cleared.getCompressRatio());
+    }
+
+    public void testInvalidLevel()
+    {
+        try
+        {
+            new ValueCompressor(100, 10);
+            fail("level 10 should be rejected");
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+    }
+
+    private static void assertDecompressFails(byte[] data, int originalLength)
+    {
+        try
+        {
+            ValueCompressor.decompress(data, 0, data.length, originalLength, null);
+            fail("length " + originalLength + " should be rejected");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    private static String repeated(int length)
+    {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length)
+        {
+            sb.append("redis value ");
+        }
+        return sb.substring(0, length);
+    }
+}